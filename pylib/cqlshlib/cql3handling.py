@@ -62,6 +62,7 @@ class Cql3ParsingRuleSet(CqlParsingRuleSet):
 
     columnfamily_layout_options = (
         ('bloom_filter_fp_chance', None),
+        ('bloom_filter_type', None),
         ('caching', None),
         ('comment', None),
         ('dclocal_read_repair_chance', 'local_read_repair_chance'),
@@ -438,6 +439,8 @@ def cf_prop_val_completer(ctxt, cass):
         return [Hint('<float_between_0_and_1>')]
     if this_opt in ('replicate_on_write', 'populate_io_cache_on_flush'):
         return ["'yes'", "'no'"]
+    if this_opt == 'bloom_filter_type':
+        return ["'standard'", "'blocked'"]
     if this_opt in ('min_compaction_threshold', 'max_compaction_threshold',
                     'gc_grace_seconds', 'index_interval'):
         return [Hint('<integer>')]
@@ -466,6 +469,11 @@ def cf_prop_val_mapkey_completer(ctxt, cass):
             opts.add('min_sstable_size')
         elif csc == 'LeveledCompactionStrategy':
             opts.add('sstable_size_in_mb')
+        elif csc == 'TimeWindowCompactionStrategy':
+            opts.add('compaction_window_unit')
+            opts.add('compaction_window_size')
+            opts.add('timestamp_resolution')
+            opts.add('expired_sstable_check_frequency_seconds')
         return map(escape_value, opts)
     return ()
 
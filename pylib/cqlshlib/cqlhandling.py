@@ -35,7 +35,8 @@ class CqlParsingRuleSet(pylexotron.ParsingRuleSet):
 
     available_compaction_classes = (
         'LeveledCompactionStrategy',
-        'SizeTieredCompactionStrategy'
+        'SizeTieredCompactionStrategy',
+        'TimeWindowCompactionStrategy'
     )
 
     replication_strategies = (
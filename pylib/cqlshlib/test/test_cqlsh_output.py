@@ -655,6 +655,7 @@ class TestCqlshOutput(BaseTestCase):
               PRIMARY KEY (num)
             ) WITH
               bloom_filter_fp_chance=0.010000 AND
+              bloom_filter_type='STANDARD' AND
               caching='KEYS_ONLY' AND
               comment='' AND
               dclocal_read_repair_chance=0.000000 AND
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.metrics.FileCacheMetrics;
+import org.apache.cassandra.service.FileCacheService;
+
+/**
+ * Node-wide cache of the decompressed chunks of compressed sstables, keyed by data file and chunk offset.
+ * The chunks are kept off-heap and the least recently used ones are evicted first, weighted by their size.
+ * The offsets cached are also indexed by file, so that the chunks of a deleted file are dropped without
+ * going through the whole cache.
+ */
+public class ChunkCache
+{
+    private static final Logger logger = LoggerFactory.getLogger(ChunkCache.class);
+
+    private static final int DEFAULT_CONCURENCY_LEVEL = 64;
+
+    /** null if the cache is disabled */
+    public static final ChunkCache instance = DatabaseDescriptor.getChunkCacheSizeInMB() > 0
+                                            ? new ChunkCache(DatabaseDescriptor.getChunkCacheSizeInMB() * 1024L * 1024L)
+                                            : null;
+
+    private final ConcurrentLinkedHashMap<Key, RefCountedMemory> map;
+    private final ConcurrentMap<String, Set<Long>> positionsByFile = new ConcurrentHashMap<String, Set<Long>>();
+
+    public ChunkCache(long capacity)
+    {
+        EvictionListener<Key, RefCountedMemory> listener = new EvictionListener<Key, RefCountedMemory>()
+        {
+            public void onEviction(Key key, RefCountedMemory mem)
+            {
+                Set<Long> positions = positionsByFile.get(key.path);
+                if (positions != null)
+                    positions.remove(key.position);
+                mem.unreference();
+            }
+        };
+
+        map = new ConcurrentLinkedHashMap.Builder<Key, RefCountedMemory>()
+              .weigher(new Weigher<RefCountedMemory>()
+              {
+                  public int weightOf(RefCountedMemory value)
+                  {
+                      return (int) value.size();
+                  }
+              })
+              .maximumWeightedCapacity(capacity)
+              .concurrencyLevel(DEFAULT_CONCURENCY_LEVEL)
+              .listener(listener)
+              .build();
+    }
+
+    /**
+     * Copies the cached chunk starting at position in path to buffer.
+     *
+     * @return the length of the chunk, or -1 if it isn't cached
+     */
+    public int get(String path, long position, byte[] buffer)
+    {
+        FileCacheMetrics metrics = FileCacheService.instance.metrics;
+        metrics.chunkRequests.mark();
+
+        RefCountedMemory mem = map.get(new Key(path, position));
+        if (mem == null || !mem.reference())
+            return -1;
+        try
+        {
+            int length = (int) mem.size();
+            mem.getBytes(0, buffer, 0, length);
+            metrics.chunkHits.mark();
+            return length;
+        }
+        finally
+        {
+            mem.unreference();
+        }
+    }
+
+    public void put(String path, long position, byte[] buffer, int length)
+    {
+        if (length == 0)
+            return;
+
+        RefCountedMemory mem;
+        try
+        {
+            mem = new RefCountedMemory(length);
+        }
+        catch (OutOfMemoryError e)
+        {
+            return; // never mind, the chunk will be decompressed again next time
+        }
+        mem.setBytes(0, buffer, 0, length);
+
+        // indexed first, for invalidateFile to find the chunk as soon as it is cached
+        positionsFor(path).add(position);
+        if (map.putIfAbsent(new Key(path, position), mem) != null)
+            // another reader cached it first
+            mem.unreference();
+    }
+
+    private Set<Long> positionsFor(String path)
+    {
+        Set<Long> positions = positionsByFile.get(path);
+        if (positions == null)
+        {
+            Set<Long> created = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+            positions = positionsByFile.putIfAbsent(path, created);
+            if (positions == null)
+                positions = created;
+        }
+        return positions;
+    }
+
+    /**
+     * Drops the chunks of a data file, given by its absolute path like the readers, once it is deleted.
+     */
+    public void invalidateFile(String path)
+    {
+        logger.debug("Invalidating chunk cache for {}", path);
+        Set<Long> positions = positionsByFile.remove(path);
+        if (positions == null)
+            return;
+        for (Long position : positions)
+        {
+            RefCountedMemory mem = map.remove(new Key(path, position));
+            if (mem != null)
+                mem.unreference();
+        }
+    }
+
+    public long capacity()
+    {
+        return map.capacity();
+    }
+
+    public int size()
+    {
+        return map.size();
+    }
+
+    public long weightedSize()
+    {
+        return map.weightedSize();
+    }
+
+    private static class Key
+    {
+        private final String path;
+        private final long position;
+
+        private Key(String path, long position)
+        {
+            this.path = path;
+            this.position = position;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key that = (Key) o;
+            return position == that.position && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * path.hashCode() + (int) (position ^ (position >>> 32));
+        }
+    }
+}
@@ -60,6 +60,7 @@ import org.apache.cassandra.thrift.CqlRow;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.FilterFactory;
 
 import static org.apache.cassandra.utils.FBUtilities.*;
 
@@ -85,6 +86,7 @@ public final class CFMetaData
     public final static SpeculativeRetry DEFAULT_SPECULATIVE_RETRY = new SpeculativeRetry(SpeculativeRetry.RetryType.PERCENTILE, 0.99);
     public final static int DEFAULT_INDEX_INTERVAL = 128;
     public final static boolean DEFAULT_POPULATE_IO_CACHE_ON_FLUSH = false;
+    public final static FilterFactory.Type DEFAULT_BLOOM_FILTER_TYPE = FilterFactory.Type.STANDARD;
 
     // Note that this is the default only for user created tables
     public final static String DEFAULT_COMPRESSOR = LZ4Compressor.class.getCanonicalName();
@@ -126,6 +128,7 @@ public final class CFMetaData
                                                                     + "memtable_flush_period_in_ms int,"
                                                                     + "key_aliases text,"
                                                                     + "bloom_filter_fp_chance double,"
+                                                                    + "bloom_filter_type text,"
                                                                     + "caching text,"
                                                                     + "default_time_to_live int,"
                                                                     + "compaction_strategy_class text,"
@@ -383,6 +386,7 @@ public final class CFMetaData
     private volatile int minCompactionThreshold = DEFAULT_MIN_COMPACTION_THRESHOLD;
     private volatile int maxCompactionThreshold = DEFAULT_MAX_COMPACTION_THRESHOLD;
     private volatile Double bloomFilterFpChance = null;
+    private volatile FilterFactory.Type bloomFilterType = DEFAULT_BLOOM_FILTER_TYPE;
     private volatile Caching caching = DEFAULT_CACHING_STRATEGY;
     private volatile int indexInterval = DEFAULT_INDEX_INTERVAL;
     private int memtableFlushPeriod = 0;
@@ -433,6 +437,7 @@ public final class CFMetaData
     public CFMetaData compactionStrategyOptions(Map<String, String> prop) {compactionStrategyOptions = prop; return this;}
     public CFMetaData compressionParameters(CompressionParameters prop) {compressionParameters = prop; return this;}
     public CFMetaData bloomFilterFpChance(Double prop) {bloomFilterFpChance = prop; return this;}
+    public CFMetaData bloomFilterType(FilterFactory.Type prop) {bloomFilterType = prop; return this;}
     public CFMetaData caching(Caching prop) {caching = prop; return this;}
     public CFMetaData indexInterval(int prop) {indexInterval = prop; return this;}
     public CFMetaData memtableFlushPeriod(int prop) {memtableFlushPeriod = prop; return this;}
@@ -583,6 +588,7 @@ public final class CFMetaData
                       .compactionStrategyOptions(new HashMap<>(oldCFMD.compactionStrategyOptions))
                       .compressionParameters(oldCFMD.compressionParameters.copy())
                       .bloomFilterFpChance(oldCFMD.bloomFilterFpChance)
+                      .bloomFilterType(oldCFMD.bloomFilterType)
                       .caching(oldCFMD.caching)
                       .defaultTimeToLive(oldCFMD.defaultTimeToLive)
                       .indexInterval(oldCFMD.indexInterval)
@@ -731,6 +737,11 @@ public final class CFMetaData
                : bloomFilterFpChance;
     }
 
+    public FilterFactory.Type getBloomFilterType()
+    {
+        return bloomFilterType;
+    }
+
     public Caching getCaching()
     {
         return caching;
@@ -793,6 +804,7 @@ public final class CFMetaData
             .append(compactionStrategyOptions, rhs.compactionStrategyOptions)
             .append(compressionParameters, rhs.compressionParameters)
             .append(bloomFilterFpChance, rhs.bloomFilterFpChance)
+            .append(bloomFilterType, rhs.bloomFilterType)
             .append(memtableFlushPeriod, rhs.memtableFlushPeriod)
             .append(caching, rhs.caching)
             .append(defaultTimeToLive, rhs.defaultTimeToLive)
@@ -826,6 +838,7 @@ public final class CFMetaData
             .append(compactionStrategyOptions)
             .append(compressionParameters)
             .append(bloomFilterFpChance)
+            .append(bloomFilterType)
             .append(memtableFlushPeriod)
             .append(caching)
             .append(defaultTimeToLive)
@@ -1015,6 +1028,7 @@ public final class CFMetaData
         maxCompactionThreshold = cfm.maxCompactionThreshold;
 
         bloomFilterFpChance = cfm.bloomFilterFpChance;
+        bloomFilterType = cfm.bloomFilterType;
         memtableFlushPeriod = cfm.memtableFlushPeriod;
         caching = cfm.caching;
         defaultTimeToLive = cfm.defaultTimeToLive;
@@ -1450,6 +1464,13 @@ public final class CFMetaData
 
         newState.toSchemaNoColumnsNoTriggers(rm, modificationTimestamp);
 
+        // the default bloom_filter_type isn't written, so going back to it has to delete the previous one
+        if (bloomFilterType != DEFAULT_BLOOM_FILTER_TYPE && newState.bloomFilterType == DEFAULT_BLOOM_FILTER_TYPE)
+        {
+            int ldt = (int) (System.currentTimeMillis() / 1000);
+            rm.addOrGet(SchemaColumnFamiliesCf).addColumn(DeletedColumn.create(ldt, modificationTimestamp, cfName, "bloom_filter_type"));
+        }
+
         MapDifference<ByteBuffer, ColumnDefinition> columnDiff = Maps.difference(column_metadata, newState.column_metadata);
 
         // columns that are no longer needed
@@ -1558,6 +1579,9 @@ public final class CFMetaData
         cf.addColumn(Column.create(maxCompactionThreshold, timestamp, cfName, "max_compaction_threshold"));
         cf.addColumn(bloomFilterFpChance == null ? DeletedColumn.create(ldt, timestamp, cfName, "bloomFilterFpChance")
                                                  : Column.create(bloomFilterFpChance, timestamp, cfName, "bloom_filter_fp_chance"));
+        // only written when it isn't the default, so that the schema digest of the tables not using it doesn't change
+        if (bloomFilterType != DEFAULT_BLOOM_FILTER_TYPE)
+            cf.addColumn(Column.create(bloomFilterType.toString(), timestamp, cfName, "bloom_filter_type"));
         cf.addColumn(Column.create(memtableFlushPeriod, timestamp, cfName, "memtable_flush_period_in_ms"));
         cf.addColumn(Column.create(caching.toString(), timestamp, cfName, "caching"));
         cf.addColumn(Column.create(defaultTimeToLive, timestamp, cfName, "default_time_to_live"));
@@ -1600,6 +1624,8 @@ public final class CFMetaData
                 cfm.comment(result.getString("comment"));
             if (result.has("bloom_filter_fp_chance"))
                 cfm.bloomFilterFpChance(result.getDouble("bloom_filter_fp_chance"));
+            if (result.has("bloom_filter_type"))
+                cfm.bloomFilterType(FilterFactory.Type.fromString(result.getString("bloom_filter_type")));
             if (result.has("memtable_flush_period_in_ms"))
                 cfm.memtableFlushPeriod(result.getInt("memtable_flush_period_in_ms"));
             cfm.caching(Caching.valueOf(result.getString("caching")));
@@ -2098,6 +2124,7 @@ public final class CFMetaData
             .append("compactionStrategyOptions", compactionStrategyOptions)
             .append("compressionOptions", compressionParameters.asThriftOptions())
             .append("bloomFilterFpChance", bloomFilterFpChance)
+            .append("bloomFilterType", bloomFilterType)
             .append("memtable_flush_period_in_ms", memtableFlushPeriod)
             .append("caching", caching)
             .append("defaultTimeToLive", defaultTimeToLive)
@@ -74,6 +74,7 @@ public class Config
 
     public Integer memtable_flush_writers = null; // will get set to the length of data dirs in DatabaseDescriptor
     public Integer memtable_total_space_in_mb;
+    public Integer memtable_total_offheap_space_in_mb;
 
     public Integer storage_port = 7000;
     public Integer ssl_storage_port = 7001;
@@ -109,7 +110,9 @@ public class Config
     public Integer in_memory_compaction_limit_in_mb = 64;
     public Integer concurrent_compactors = FBUtilities.getAvailableProcessors();
     public volatile Integer compaction_throughput_mb_per_sec = 16;
+    public volatile Integer compaction_throughput_max_mb_per_sec = 0;
     public Boolean multithreaded_compaction = false;
+    public Integer subrange_compaction_threshold_in_mb = 0;
 
     public Integer max_streaming_retries = 3;
 
@@ -123,9 +126,14 @@ public class Config
     public String commitlog_directory;
     public Integer commitlog_total_space_in_mb;
     public CommitLogSync commitlog_sync;
+    @Deprecated
     public Double commitlog_sync_batch_window_in_ms;
     public Integer commitlog_sync_period_in_ms;
+    public Double commitlog_sync_group_window_in_ms;
+    public int commitlog_sync_group_max_pending_in_kb = 1024;
     public int commitlog_segment_size_in_mb = 32;
+    public String commitlog_compression;
+    @Deprecated
     public int commitlog_periodic_queue_size = 1024 * FBUtilities.getAvailableProcessors();
 
     public String endpoint_snitch;
@@ -171,8 +179,22 @@ public class Config
 
     public boolean preheat_kernel_page_cache = false;
 
+    public boolean sstable_partition_index = false;
+
+    public int read_prefetch_size_in_kb = 0;
+
+    public int sstable_scan_read_ahead_in_kb = 0;
+
     public Integer file_cache_size_in_mb;
 
+    public int chunk_cache_size_in_mb = 0;
+
+    public int bloom_filter_space_in_mb = 0;
+    public int bloom_filter_resize_interval_in_minutes = 60;
+
+    public int index_summary_space_in_mb = 0;
+    public int index_summary_resize_interval_in_minutes = 60;
+
     public boolean inter_dc_tcp_nodelay = true;
 
     public String memtable_allocator = "SlabAllocator";
@@ -205,7 +227,8 @@ public class Config
     public static enum CommitLogSync
     {
         periodic,
-        batch
+        batch,
+        group
     }
 
     public static enum InternodeCompression
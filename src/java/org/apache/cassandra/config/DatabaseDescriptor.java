@@ -39,6 +39,8 @@ import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.dht.IPartitioner;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.io.util.IAllocator;
 import org.apache.cassandra.locator.DynamicEndpointSnitch;
@@ -86,6 +88,8 @@ public class DatabaseDescriptor
 
     private static Class<? extends Allocator> memtableAllocator;
 
+    private static ICompressor commitLogCompressor;
+
     static
     {
         // In client mode, we use a default configuration. Note that the fields of this class will be
@@ -142,15 +146,29 @@ public class DatabaseDescriptor
 
         if (conf.commitlog_sync == Config.CommitLogSync.batch)
         {
-            if (conf.commitlog_sync_batch_window_in_ms == null)
+            if (conf.commitlog_sync_period_in_ms != null)
+            {
+                throw new ConfigurationException("Batch sync specified, but commitlog_sync_period_in_ms found. Only specify commitlog_sync_batch_window_in_ms when using batch sync");
+            }
+            if (getCommitLogSyncBatchWindow() != null)
+                logger.warn("commitlog_sync_batch_window_in_ms is ignored: batch mode syncs the log as soon as a write asks for it.  Use group mode to have writes wait for a window before syncing");
+            logger.debug("Syncing log in batch mode");
+        }
+        else if (conf.commitlog_sync == Config.CommitLogSync.group)
+        {
+            if (conf.commitlog_sync_group_window_in_ms == null)
             {
-                throw new ConfigurationException("Missing value for commitlog_sync_batch_window_in_ms: Double expected.");
+                throw new ConfigurationException("Missing value for commitlog_sync_group_window_in_ms: Double expected.");
             }
-            else if (conf.commitlog_sync_period_in_ms != null)
+            else if (conf.commitlog_sync_period_in_ms != null || getCommitLogSyncBatchWindow() != null)
             {
-                throw new ConfigurationException("Batch sync specified, but commitlog_sync_period_in_ms found. Only specify commitlog_sync_batch_window_in_ms when using batch sync");
+                throw new ConfigurationException("Group sync specified, but commitlog_sync_period_in_ms or commitlog_sync_batch_window_in_ms found. Only specify commitlog_sync_group_window_in_ms when using group sync");
             }
-            logger.debug("Syncing log with a batch window of {}", conf.commitlog_sync_batch_window_in_ms);
+            else if (conf.commitlog_sync_group_max_pending_in_kb <= 0)
+            {
+                throw new ConfigurationException("commitlog_sync_group_max_pending_in_kb must be positive");
+            }
+            logger.debug("Syncing log with a group window of {}", conf.commitlog_sync_group_window_in_ms);
         }
         else
         {
@@ -158,7 +176,7 @@ public class DatabaseDescriptor
             {
                 throw new ConfigurationException("Missing value for commitlog_sync_period_in_ms: Integer expected");
             }
-            else if (conf.commitlog_sync_batch_window_in_ms != null)
+            else if (getCommitLogSyncBatchWindow() != null)
             {
                 throw new ConfigurationException("commitlog_sync_period_in_ms specified, but commitlog_sync_batch_window_in_ms found.  Only specify commitlog_sync_period_in_ms when using periodic sync.");
             }
@@ -168,6 +186,10 @@ public class DatabaseDescriptor
         if (conf.commitlog_total_space_in_mb == null)
             conf.commitlog_total_space_in_mb = System.getProperty("os.arch").contains("64") ? 1024 : 32;
 
+        commitLogCompressor = CompressionParameters.createCompressor(conf.commitlog_compression);
+        if (commitLogCompressor != null)
+            logger.info("Compressing commit log segments with {}", commitLogCompressor.getClass().getSimpleName());
+
         /* evaluate the DiskAccessMode Config directive, which also affects indexAccessMode selection */
         if (conf.disk_access_mode == Config.DiskAccessMode.auto)
         {
@@ -252,7 +274,12 @@ public class DatabaseDescriptor
             conf.memtable_total_space_in_mb = (int) (Runtime.getRuntime().maxMemory() / (4 * 1048576));
         if (conf.memtable_total_space_in_mb <= 0)
             throw new ConfigurationException("memtable_total_space_in_mb must be positive");
-        logger.info("Global memtable threshold is enabled at {}MB", conf.memtable_total_space_in_mb);
+        if (conf.memtable_total_offheap_space_in_mb == null)
+            conf.memtable_total_offheap_space_in_mb = conf.memtable_total_space_in_mb;
+        if (conf.memtable_total_offheap_space_in_mb <= 0)
+            throw new ConfigurationException("memtable_total_offheap_space_in_mb must be positive");
+        logger.info("Global memtable threshold is enabled at {}MB on heap and {}MB off heap",
+                    conf.memtable_total_space_in_mb, conf.memtable_total_offheap_space_in_mb);
 
         /* Memtable flush writer threads */
         if (conf.memtable_flush_writers != null && conf.memtable_flush_writers < 1)
@@ -861,6 +888,11 @@ public class DatabaseDescriptor
         return conf.multithreaded_compaction;
     }
 
+    public static long getSubrangeCompactionThreshold()
+    {
+        return conf.subrange_compaction_threshold_in_mb * 1024L * 1024L;
+    }
+
     public static int getCompactionThroughputMbPerSec()
     {
         return conf.compaction_throughput_mb_per_sec;
@@ -871,6 +903,11 @@ public class DatabaseDescriptor
         conf.compaction_throughput_mb_per_sec = value;
     }
 
+    public static int getCompactionThroughputMaxMbPerSec()
+    {
+        return conf.compaction_throughput_max_mb_per_sec;
+    }
+
     public static int getStreamThroughputOutboundMegabitsPerSec()
     {
         return conf.stream_throughput_outbound_megabits_per_sec;
@@ -1019,19 +1056,19 @@ public class DatabaseDescriptor
         return conf.native_transport_max_threads;
     }
 
-    public static double getCommitLogSyncBatchWindow()
+    public static int getCommitLogSyncPeriod()
     {
-        return conf.commitlog_sync_batch_window_in_ms;
+        return conf.commitlog_sync_period_in_ms;
     }
 
-    public static int getCommitLogSyncPeriod()
+    public static double getCommitLogSyncGroupWindow()
     {
-        return conf.commitlog_sync_period_in_ms;
+        return conf.commitlog_sync_group_window_in_ms;
     }
 
-    public static int getCommitLogPeriodicQueueSize()
+    public static long getCommitLogSyncGroupMaxPendingBytes()
     {
-        return conf.commitlog_periodic_queue_size;
+        return conf.commitlog_sync_group_max_pending_in_kb * 1024L;
     }
 
     public static Config.CommitLogSync getCommitLogSync()
@@ -1039,6 +1076,23 @@ public class DatabaseDescriptor
         return conf.commitlog_sync;
     }
 
+    /**
+     * @return the batch window of the configuration, which is only read to reject or warn about it
+     */
+    @SuppressWarnings("deprecation")
+    private static Double getCommitLogSyncBatchWindow()
+    {
+        return conf.commitlog_sync_batch_window_in_ms;
+    }
+
+    /**
+     * @return the compressor of new commit log segments, or null if they are not compressed
+     */
+    public static ICompressor getCommitLogCompressor()
+    {
+        return commitLogCompressor;
+    }
+
     public static Config.DiskAccessMode getDiskAccessMode()
     {
         return conf.disk_access_mode;
@@ -1177,6 +1231,31 @@ public class DatabaseDescriptor
         return conf.file_cache_size_in_mb;
     }
 
+    public static int getChunkCacheSizeInMB()
+    {
+        return conf.chunk_cache_size_in_mb;
+    }
+
+    public static int getBloomFilterSpaceInMB()
+    {
+        return conf.bloom_filter_space_in_mb;
+    }
+
+    public static int getBloomFilterResizeIntervalInMinutes()
+    {
+        return conf.bloom_filter_resize_interval_in_minutes;
+    }
+
+    public static int getIndexSummarySpaceInMB()
+    {
+        return conf.index_summary_space_in_mb;
+    }
+
+    public static int getIndexSummaryResizeIntervalInMinutes()
+    {
+        return conf.index_summary_resize_interval_in_minutes;
+    }
+
     public static int getTotalMemtableSpaceInMB()
     {
         // should only be called if estimatesRealMemtableSize() is true
@@ -1184,6 +1263,11 @@ public class DatabaseDescriptor
         return conf.memtable_total_space_in_mb;
     }
 
+    public static int getTotalMemtableOffHeapSpaceInMB()
+    {
+        return conf.memtable_total_offheap_space_in_mb;
+    }
+
     public static long getTotalCommitlogSpaceInMB()
     {
         return conf.commitlog_total_space_in_mb;
@@ -1284,6 +1368,21 @@ public class DatabaseDescriptor
         return conf.preheat_kernel_page_cache;
     }
 
+    public static boolean isSSTablePartitionIndexEnabled()
+    {
+        return conf.sstable_partition_index;
+    }
+
+    public static int getReadPrefetchSize()
+    {
+        return conf.read_prefetch_size_in_kb * 1024;
+    }
+
+    public static int getScanReadAheadSize()
+    {
+        return conf.sstable_scan_read_ahead_in_kb * 1024;
+    }
+
     public static Allocator getMemtableAllocator()
     {
         try
@@ -25,6 +25,7 @@ import org.apache.cassandra.db.compaction.AbstractCompactionStrategy;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.SyntaxException;
 import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.utils.FilterFactory;
 
 public class CFPropDefs extends PropertyDefinitions
 {
@@ -41,6 +42,7 @@ public class CFPropDefs extends PropertyDefinitions
     public static final String KW_SPECULATIVE_RETRY = "speculative_retry";
     public static final String KW_POPULATE_IO_CACHE_ON_FLUSH = "populate_io_cache_on_flush";
     public static final String KW_BF_FP_CHANCE = "bloom_filter_fp_chance";
+    public static final String KW_BF_TYPE = "bloom_filter_type";
     public static final String KW_MEMTABLE_FLUSH_PERIOD = "memtable_flush_period_in_ms";
 
     public static final String KW_COMPACTION = "compaction";
@@ -64,6 +66,7 @@ public class CFPropDefs extends PropertyDefinitions
         keywords.add(KW_SPECULATIVE_RETRY);
         keywords.add(KW_POPULATE_IO_CACHE_ON_FLUSH);
         keywords.add(KW_BF_FP_CHANCE);
+        keywords.add(KW_BF_TYPE);
         keywords.add(KW_COMPACTION);
         keywords.add(KW_COMPRESSION);
         keywords.add(KW_MEMTABLE_FLUSH_PERIOD);
@@ -162,6 +165,7 @@ public class CFPropDefs extends PropertyDefinitions
         }
 
         cfm.bloomFilterFpChance(getDouble(KW_BF_FP_CHANCE, cfm.getBloomFilterFpChance()));
+        cfm.bloomFilterType(FilterFactory.Type.fromString(getString(KW_BF_TYPE, cfm.getBloomFilterType().toString())));
 
         if (!getCompressionOptions().isEmpty())
             cfm.compressionParameters(CompressionParameters.create(getCompressionOptions()));
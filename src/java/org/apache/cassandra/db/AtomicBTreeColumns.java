@@ -0,0 +1,478 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.filter.ColumnSlice;
+import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.utils.Allocator;
+import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.btree.BTree;
+import org.apache.cassandra.utils.btree.UpdateFunction;
+
+/**
+ * A thread-safe and atomic ColumnFamily implementation.
+ * Operations (in particular addAll) on this implementation are atomic and
+ * isolated (in the sense of ACID). Typically a addAll is guaranteed that no
+ * other thread can see the state where only parts but not all columns have
+ * been added.
+ *
+ * The columns are kept in a persistent {@link BTree}: an update builds a new
+ * tree sharing all untouched nodes with the current one, and atomically swaps
+ * it in. Contrarily to {@link AtomicSortedColumns}, nothing is copied up front,
+ * and the columns of an addAll are merged in a single pass over the tree.
+ *
+ * The columns returned by the iterators are a snapshot of when the iterator
+ * was created, and cannot be removed through them.
+ */
+public class AtomicBTreeColumns extends ColumnFamily
+{
+    /**
+     * The heap retained by an instance holding no column: the instance itself, its reference to the current
+     * holder, and the holder.
+     */
+    public static final long EMPTY_SIZE = ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize())
+                                        + ObjectSizes.getFieldSize(ObjectSizes.getReferenceSize())
+                                        + ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize());
+
+    private final AtomicReference<Holder> ref;
+
+    public static final ColumnFamily.Factory<AtomicBTreeColumns> factory = new Factory<AtomicBTreeColumns>()
+    {
+        public AtomicBTreeColumns create(CFMetaData metadata, boolean insertReversed)
+        {
+            if (insertReversed)
+                throw new IllegalArgumentException();
+            return new AtomicBTreeColumns(metadata);
+        }
+    };
+
+    private static final Function<Column, ByteBuffer> NAME = new Function<Column, ByteBuffer>()
+    {
+        public ByteBuffer apply(Column column)
+        {
+            return column.name();
+        }
+    };
+
+    private AtomicBTreeColumns(CFMetaData metadata)
+    {
+        this(metadata, Holder.EMPTY);
+    }
+
+    private AtomicBTreeColumns(CFMetaData metadata, Holder holder)
+    {
+        super(metadata);
+        this.ref = new AtomicReference<>(holder);
+    }
+
+    public ColumnFamily.Factory getFactory()
+    {
+        return factory;
+    }
+
+    public ColumnFamily cloneMe()
+    {
+        // holders are immutable, so sharing the current one is enough to get a snapshot
+        return new AtomicBTreeColumns(metadata, ref.get());
+    }
+
+    public DeletionInfo deletionInfo()
+    {
+        return ref.get().deletionInfo;
+    }
+
+    public void delete(DeletionTime delTime)
+    {
+        delete(new DeletionInfo(delTime));
+    }
+
+    protected void delete(RangeTombstone tombstone)
+    {
+        delete(new DeletionInfo(tombstone, getComparator()));
+    }
+
+    public void delete(DeletionInfo info)
+    {
+        if (info.isLive())
+            return;
+
+        // Keeping deletion info for max markedForDeleteAt value
+        while (true)
+        {
+            Holder current = ref.get();
+            DeletionInfo newDelInfo = current.deletionInfo.copy().add(info);
+            if (ref.compareAndSet(current, current.with(newDelInfo)))
+                break;
+        }
+    }
+
+    public void setDeletionInfo(DeletionInfo newInfo)
+    {
+        ref.set(ref.get().with(newInfo));
+    }
+
+    public void maybeResetDeletionTimes(int gcBefore)
+    {
+        while (true)
+        {
+            Holder current = ref.get();
+            if (!current.deletionInfo.hasIrrelevantData(gcBefore))
+                break;
+
+            DeletionInfo purgedInfo = current.deletionInfo.copy();
+            purgedInfo.purge(gcBefore);
+            if (ref.compareAndSet(current, current.with(purgedInfo)))
+                break;
+        }
+    }
+
+    public void addColumn(Column column, Allocator allocator)
+    {
+        ColumnUpdater updater = new ColumnUpdater(allocator, Functions.<Column>identity(), SecondaryIndexManager.nullUpdater);
+        while (true)
+        {
+            Holder current = ref.get();
+            updater.reset(current);
+            Object[] tree = BTree.update(current.tree, getComparator().columnComparator, Collections.singleton(column), updater);
+            if (tree != null && ref.compareAndSet(current, current.with(tree)))
+                return;
+        }
+    }
+
+    public void addAll(ColumnFamily cm, Allocator allocator, Function<Column, Column> transformation)
+    {
+        addAllWithSizeDelta(cm, allocator, transformation, SecondaryIndexManager.nullUpdater);
+    }
+
+    /**
+     *  This is only called by Memtable.resolve, so only AtomicBTreeColumns needs to implement it.
+     *  The difference in heap retained by the columns is reported to the allocator as overhead.
+     *
+     *  @return the difference in size seen after merging the given columns, and the number of times the merge
+     *  had to be retried because of concurrent updates to the partition
+     */
+    public Pair<Long, Integer> addAllWithSizeDelta(ColumnFamily cm, Allocator allocator, Function<Column, Column> transformation, SecondaryIndexManager.Updater indexer)
+    {
+        /*
+         * The new columns are merged into the current tree in a single pass, yielding a new
+         * tree that we atomically compare and swap in along with the new deletion info.
+         * If another thread beats us to it, the updater notices at the next leaf it merges and
+         * the update is aborted, so we retry against the new tree without finishing useless work.
+         */
+        ColumnUpdater updater = new ColumnUpdater(allocator, transformation, indexer);
+        Collection<Column> columns = sortedColumns(cm);
+
+        for (int retries = 0; ; retries++)
+        {
+            Holder current = ref.get();
+            updater.reset(current);
+
+            DeletionInfo newDelInfo = current.deletionInfo;
+            if (!cm.deletionInfo().isLive())
+                newDelInfo = newDelInfo.copy().add(cm.deletionInfo());
+
+            if (cm.deletionInfo().hasRanges())
+            {
+                for (Column currentColumn : Iterables.concat(new ColumnCollection(current.tree, true), cm))
+                {
+                    if (cm.deletionInfo().isDeleted(currentColumn))
+                        indexer.remove(currentColumn);
+                }
+            }
+
+            Object[] tree = BTree.update(current.tree, getComparator().columnComparator, columns, updater);
+            if (tree != null && ref.compareAndSet(current, new Holder(tree, newDelInfo)))
+            {
+                indexer.updateRowLevelIndexes();
+                allocator.addOverhead(updater.heapSizeDelta);
+                return Pair.create(updater.sizeDelta, retries);
+            }
+        }
+    }
+
+    /**
+     * @return the columns of cm in comparator order and without duplicates, as BTree.update requires
+     */
+    private static Collection<Column> sortedColumns(ColumnFamily cm)
+    {
+        if (!(cm instanceof UnsortedColumns))
+            return cm.getSortedColumns();
+
+        // mutations built by the CQL layer don't bother sorting their columns, and may even hold the same one twice
+        ColumnFamily sorted = TreeMapBackedSortedColumns.factory.create(cm.metadata());
+        sorted.addAll(cm, HeapAllocator.instance);
+        return sorted.getSortedColumns();
+    }
+
+    public boolean replace(Column oldColumn, Column newColumn)
+    {
+        if (!oldColumn.name().equals(newColumn.name()))
+            throw new IllegalArgumentException();
+
+        UpdateFunction<Column> replacer = new ReplaceFunction(newColumn);
+        while (true)
+        {
+            Holder current = ref.get();
+            Column existing = BTree.find(current.tree, getComparator().columnComparator, oldColumn);
+            if (existing == null || !existing.equals(oldColumn))
+                return false;
+
+            Object[] tree = BTree.update(current.tree, getComparator().columnComparator, Collections.singleton(newColumn), replacer);
+            if (ref.compareAndSet(current, current.with(tree)))
+                return true;
+        }
+    }
+
+    public void clear()
+    {
+        ref.set(Holder.EMPTY);
+    }
+
+    public Column getColumn(ByteBuffer name)
+    {
+        return BTree.find(ref.get().tree, getComparator().columnComparator, new Column(name));
+    }
+
+    public Iterable<ByteBuffer> getColumnNames()
+    {
+        return Iterables.transform(getSortedColumns(), NAME);
+    }
+
+    public Collection<Column> getSortedColumns()
+    {
+        return new ColumnCollection(ref.get().tree, true);
+    }
+
+    public Collection<Column> getReverseSortedColumns()
+    {
+        return new ColumnCollection(ref.get().tree, false);
+    }
+
+    public int getColumnCount()
+    {
+        return BTree.size(ref.get().tree);
+    }
+
+    public Iterator<Column> iterator(ColumnSlice[] slices)
+    {
+        return new SliceIterator(ref.get().tree, getComparator(), slices, true);
+    }
+
+    public Iterator<Column> reverseIterator(ColumnSlice[] slices)
+    {
+        return new SliceIterator(ref.get().tree, getComparator(), slices, false);
+    }
+
+    public boolean isInsertReversed()
+    {
+        return false;
+    }
+
+    private static class Holder
+    {
+        // DeletionInfo is mutable, but we always copy it before modifying it in that class,
+        // so every empty instance can safely share the same one.
+        static final Holder EMPTY = new Holder(BTree.empty(), DeletionInfo.live());
+
+        final Object[] tree;
+        final DeletionInfo deletionInfo;
+
+        Holder(Object[] tree, DeletionInfo deletionInfo)
+        {
+            this.tree = tree;
+            this.deletionInfo = deletionInfo;
+        }
+
+        Holder with(DeletionInfo info)
+        {
+            return new Holder(tree, info);
+        }
+
+        Holder with(Object[] newTree)
+        {
+            return new Holder(newTree, deletionInfo);
+        }
+    }
+
+    /**
+     * Reconciles the columns merged into the tree, keeping the secondary indexes and the size delta up to date,
+     * and aborts the update as soon as the holder it started from has been replaced.
+     */
+    private final class ColumnUpdater implements UpdateFunction<Column>
+    {
+        final Allocator allocator;
+        final Function<Column, Column> transformation;
+        final SecondaryIndexManager.Updater indexer;
+        Holder current;
+        long sizeDelta;
+        long heapSizeDelta;
+
+        ColumnUpdater(Allocator allocator, Function<Column, Column> transformation, SecondaryIndexManager.Updater indexer)
+        {
+            this.allocator = allocator;
+            this.transformation = transformation;
+            this.indexer = indexer;
+        }
+
+        void reset(Holder current)
+        {
+            this.current = current;
+            this.sizeDelta = 0;
+            this.heapSizeDelta = 0;
+        }
+
+        public Column apply(Column insert)
+        {
+            Column column = transformation.apply(insert);
+            indexer.insert(column);
+            sizeDelta += column.dataSize();
+            // a new column also takes a slot in a node of the tree, and its share of the nodes themselves
+            heapSizeDelta += column.unsharedHeapSizeExcludingData() + BTree.HEAP_SIZE_PER_VALUE;
+            return column;
+        }
+
+        public Column apply(Column existing, Column update)
+        {
+            Column column = transformation.apply(update);
+            Column reconciled = column.reconcile(existing, allocator);
+            // for memtable updates we only care about oldcolumn, reconciledcolumn, but when compacting
+            // we need to make sure we update indexes no matter the order we merge
+            if (reconciled == column)
+                indexer.update(existing, reconciled);
+            else
+                indexer.update(column, reconciled);
+            sizeDelta += reconciled.dataSize() - existing.dataSize();
+            heapSizeDelta += reconciled.unsharedHeapSizeExcludingData() - existing.unsharedHeapSizeExcludingData();
+            return reconciled;
+        }
+
+        public boolean abortEarly()
+        {
+            return ref.get() != current;
+        }
+    }
+
+    private static final class ReplaceFunction implements UpdateFunction<Column>
+    {
+        final Column replacement;
+
+        ReplaceFunction(Column replacement)
+        {
+            this.replacement = replacement;
+        }
+
+        public Column apply(Column insert)
+        {
+            throw new IllegalStateException();
+        }
+
+        public Column apply(Column existing, Column update)
+        {
+            return replacement;
+        }
+
+        public boolean abortEarly()
+        {
+            return false;
+        }
+    }
+
+    /**
+     * A read-only view of the columns of one version of the tree
+     */
+    private static final class ColumnCollection extends AbstractCollection<Column>
+    {
+        final Object[] tree;
+        final boolean forwards;
+
+        ColumnCollection(Object[] tree, boolean forwards)
+        {
+            this.tree = tree;
+            this.forwards = forwards;
+        }
+
+        public Iterator<Column> iterator()
+        {
+            return BTree.slice(tree, forwards);
+        }
+
+        public int size()
+        {
+            return BTree.size(tree);
+        }
+
+        public boolean isEmpty()
+        {
+            return BTree.isEmpty(tree);
+        }
+    }
+
+    private static final class SliceIterator extends AbstractIterator<Column>
+    {
+        private final Object[] tree;
+        private final AbstractType<?> comparator;
+        private final ColumnSlice[] slices;
+        private final boolean forwards;
+
+        private int idx = 0;
+        private Iterator<Column> currentSlice;
+
+        SliceIterator(Object[] tree, AbstractType<?> comparator, ColumnSlice[] slices, boolean forwards)
+        {
+            this.tree = tree;
+            this.comparator = comparator;
+            this.slices = slices;
+            this.forwards = forwards;
+        }
+
+        protected Column computeNext()
+        {
+            while (currentSlice == null || !currentSlice.hasNext())
+            {
+                if (idx >= slices.length)
+                    return endOfData();
+
+                // an empty start or finish extends the slice to the beginning/end of the row; for reversed
+                // slices, start is the upper bound
+                ColumnSlice slice = slices[idx++];
+                Column start = slice.start.remaining() == 0 ? null : new Column(slice.start);
+                Column finish = slice.finish.remaining() == 0 ? null : new Column(slice.finish);
+                currentSlice = forwards
+                             ? BTree.slice(tree, comparator.columnComparator, start, finish, true)
+                             : BTree.slice(tree, comparator.columnComparator, finish, start, false);
+            }
+            return currentSlice.next();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import java.util.*;
 
 import com.google.common.collect.Iterables;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy;
 import org.apache.cassandra.db.filter.NamesQueryFilter;
@@ -162,7 +163,7 @@ public class CollationController
         {
             for (OnDiskAtomIterator iter : iterators)
                 FileUtils.closeQuietly(iter);
-            SSTableReader.releaseReferences(view.sstables);
+            view.release();
         }
     }
 
@@ -220,6 +221,19 @@ public class CollationController
              * in one pass, and minimize the number of sstables for which we read a rowTombstone.
              */
             Collections.sort(view.sstables, SSTable.maxTimestampComparator);
+
+            // the sstables are read one after the other below, but hinting all of them first lets their reads proceed
+            // in parallel
+            int prefetchSize = DatabaseDescriptor.getReadPrefetchSize();
+            if (prefetchSize > 0 && view.sstables.size() > 1)
+            {
+                for (SSTableReader sstable : view.sstables)
+                {
+                    if (filter.shouldInclude(sstable))
+                        sstable.prefetch(filter.key, prefetchSize);
+                }
+            }
+
             List<SSTableReader> skippedSSTables = null;
             long mostRecentRowTombstone = Long.MIN_VALUE;
             long minTimestamp = Long.MAX_VALUE;
@@ -302,7 +316,7 @@ public class CollationController
         {
             for (OnDiskAtomIterator iter : iterators)
                 FileUtils.closeQuietly(iter);
-            SSTableReader.releaseReferences(view.sstables);
+            view.release();
         }
     }
 
@@ -39,6 +39,7 @@ import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.ObjectSizes;
 
 /**
  * Column is immutable, which prevents all kinds of confusion in a multithreaded environment.
@@ -49,6 +50,9 @@ public class Column implements OnDiskAtom
 
     public static final ColumnSerializer serializer = new ColumnSerializer();
 
+    private static final long EMPTY_SIZE = ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize() + 8)
+                                         + 2 * ObjectSizes.getEmptyBufferSize();
+
     public static OnDiskAtom.Serializer onDiskSerializer()
     {
         return OnDiskAtom.Serializer.instance;
@@ -166,6 +170,15 @@ public class Column implements OnDiskAtom
         return name().remaining() + value.remaining() + TypeSizes.NATIVE.sizeof(timestamp);
     }
 
+    /**
+     * @return the heap retained by this column, not counting the bytes of its name and value (which are accounted
+     * for by the allocator they were cloned with)
+     */
+    public long unsharedHeapSizeExcludingData()
+    {
+        return EMPTY_SIZE;
+    }
+
     public int serializedSize(TypeSizes typeSizes)
     {
         /*
@@ -165,7 +165,7 @@ public abstract class ColumnFamily implements Iterable<Column>, IRowCacheEntry
      * Returns a {@link DeletionInfo.InOrderTester} for the deletionInfo() of
      * this column family. Please note that for ThreadSafe implementation of ColumnFamily,
      * this tester will remain valid even if new tombstones are added to this ColumnFamily
-     * *as long as said addition is done in comparator order*. For AtomicSortedColumns,
+     * *as long as said addition is done in comparator order*. For AtomicBTreeColumns,
      * the tester will correspond to the state of when this method is called.
      */
     public DeletionInfo.InOrderTester inOrderDeletionTester()
@@ -419,6 +419,19 @@ public abstract class ColumnFamily implements Iterable<Column>, IRowCacheEntry
             minColumnNamesSeen = ColumnNameHelper.minComponents(minColumnNamesSeen, column.name, metadata.comparator);
             maxColumnNamesSeen = ColumnNameHelper.maxComponents(maxColumnNamesSeen, column.name, metadata.comparator);
         }
+        // reads skip sstables by column names, so those must cover the range tombstones too
+        for (Iterator<RangeTombstone> iter = deletionInfo().rangeIterator(); iter.hasNext(); )
+        {
+            RangeTombstone rangeTombstone = iter.next();
+            maxLocalDeletionTime = Math.max(maxLocalDeletionTime, rangeTombstone.data.localDeletionTime);
+            tombstones.update(rangeTombstone.data.localDeletionTime);
+            // both bounds go to both lists, so they keep the same number of components
+            for (ByteBuffer bound : new ByteBuffer[]{ rangeTombstone.min, rangeTombstone.max })
+            {
+                minColumnNamesSeen = ColumnNameHelper.minComponents(minColumnNamesSeen, bound, metadata.comparator);
+                maxColumnNamesSeen = ColumnNameHelper.maxComponents(maxColumnNamesSeen, bound, metadata.comparator);
+            }
+        }
         return new ColumnStats(getColumnCount(), minTimestampSeen, maxTimestampSeen, maxLocalDeletionTime, tombstones, minColumnNamesSeen, maxColumnNamesSeen);
     }
 
@@ -24,14 +24,14 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 import javax.management.*;
+import javax.management.openmbean.*;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.*;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.Uninterruptibles;
 import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.slf4j.Logger;
@@ -68,6 +68,7 @@ import org.apache.cassandra.service.CacheService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.*;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 import static org.apache.cassandra.config.CFMetaData.Caching;
 
@@ -77,6 +78,40 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     public static final ExecutorService postFlushExecutor = new JMXEnabledThreadPoolExecutor("MemtablePostFlusher");
 
+    // serializes memtable switches (but not writes); see switchMemtable
+    private static final Object switchLock = new Object();
+
+    private static final String[] SAMPLED_PARTITION_ITEMS = { "partition", "count", "error" };
+    private static final String[] SAMPLER_RESULT_ITEMS = { "total", "partitions" };
+    private static final javax.management.openmbean.CompositeType SAMPLED_PARTITION_TYPE;
+    private static final TabularType SAMPLED_PARTITIONS_TYPE;
+    private static final javax.management.openmbean.CompositeType SAMPLER_RESULT_TYPE;
+
+    static
+    {
+        try
+        {
+            SAMPLED_PARTITION_TYPE = new javax.management.openmbean.CompositeType("SampledPartition",
+                                                                                  "Partition sampled during a sampling session",
+                                                                                  SAMPLED_PARTITION_ITEMS,
+                                                                                  new String[]{ "Partition key", "Estimated number of samples", "Maximum overestimation of the count" },
+                                                                                  new OpenType<?>[]{ SimpleType.STRING, SimpleType.LONG, SimpleType.LONG });
+            SAMPLED_PARTITIONS_TYPE = new TabularType("SampledPartitions",
+                                                      "Most frequently sampled partitions",
+                                                      SAMPLED_PARTITION_TYPE,
+                                                      new String[]{ "partition" });
+            SAMPLER_RESULT_TYPE = new javax.management.openmbean.CompositeType("SamplerResult",
+                                                                               "Result of a sampling session",
+                                                                               SAMPLER_RESULT_ITEMS,
+                                                                               new String[]{ "Total of the samples", "Most frequently sampled partitions" },
+                                                                               new OpenType<?>[]{ SimpleType.LONG, SAMPLED_PARTITIONS_TYPE });
+        }
+        catch (OpenDataException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
     public final Keyspace keyspace;
     public final String name;
     public final CFMetaData metadata;
@@ -102,11 +137,6 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     public final Directories directories;
 
-    /** ratio of in-memory memtable size, to serialized size */
-    volatile double liveRatio = 10.0; // reasonable default until we compute what it is based on actual data
-    /** ops count last time we computed liveRatio */
-    private final AtomicLong liveRatioComputedAt = new AtomicLong(32);
-
     public final ColumnFamilyMetrics metric;
     public volatile long sampleLatencyNanos;
 
@@ -693,20 +723,21 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     public Future<?> switchMemtable(final boolean writeCommitLog, boolean forceSwitch)
     {
         /*
-         * If we can get the writelock, that means no new updates can come in and
-         * all ongoing updates to memtables have completed. We can get the tail
-         * of the log and use it as the starting position for log replay on recovery.
+         * Writes never wait for a switch: each of them is part of an operation of Keyspace.writeOrder, and we
+         * issue a barrier on that order right after capturing the tail of the log.  Writes started before the
+         * barrier keep going to the memtables we switch out, writes started after it go to the new ones, and
+         * the flush only starts once every write before the barrier has completed.  A write that started just
+         * before the barrier may still append its log entry after the tail we capture though: the memtables we
+         * switch out don't accept those (see Memtable.accepts), so that they hold exactly the writes logged
+         * before that tail, which is then a valid starting position for log replay on recovery.  Replaying a
+         * flushed write wouldn't be harmless, since counter updates would be applied twice.
          *
-         * This is why we Keyspace.switchLock needs to be global instead of per-Keyspace:
-         * we need to schedule discardCompletedSegments calls in the same order as their
-         * contexts (commitlog position) were read, even though the flush executor
-         * is multithreaded.
+         * Switches themselves are still serialized, and globally instead of per-Keyspace: we need to schedule
+         * discardCompletedSegments calls in the same order as their contexts (commitlog position) were read,
+         * even though the flush executor is multithreaded.
          */
-        Keyspace.switchLock.writeLock().lock();
-        try
+        synchronized (switchLock)
         {
-            final Future<ReplayPosition> ctx = writeCommitLog ? CommitLog.instance.getContext() : Futures.immediateFuture(ReplayPosition.NONE);
-
             // submit the memtable for any indexed sub-cfses, and our own.
             final List<ColumnFamilyStore> icc = new ArrayList<ColumnFamilyStore>();
             // don't assume that this.memtable is dirty; forceFlush can bring us here during index build even if it is not
@@ -716,23 +747,25 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     icc.add(cfs);
             }
 
-            final CountDownLatch latch = new CountDownLatch(icc.size());
+            OpOrder.Barrier writeBarrier = Keyspace.writeOrder.newBarrier();
+            AtomicReference<ReplayPosition> lastReplayPosition = new AtomicReference<ReplayPosition>();
+            List<Memtable> memtables = new ArrayList<Memtable>(icc.size());
             for (ColumnFamilyStore cfs : icc)
+                memtables.add(cfs.data.switchMemtable(writeBarrier, lastReplayPosition));
+
+            final ReplayPosition ctx = writeCommitLog
+                                     ? Memtable.setLastReplayPosition(lastReplayPosition, CommitLog.instance.getContext())
+                                     : ReplayPosition.NONE;
+            writeBarrier.issue();
+
+            // With forceSwitch it's possible to get a clean memtable here.
+            // In that case the flush task just removes it from the memtables
+            // pending flush once the writes started before the switch are done.
+            final CountDownLatch latch = new CountDownLatch(memtables.size());
+            for (Memtable memtable : memtables)
             {
-                Memtable memtable = cfs.data.switchMemtable();
-                // With forceSwitch it's possible to get a clean memtable here.
-                // In that case, since we've switched it already, just remove
-                // it from the memtable pending flush right away.
-                if (memtable.isClean())
-                {
-                    cfs.replaceFlushed(memtable, null);
-                    latch.countDown();
-                }
-                else
-                {
-                    logger.info("Enqueuing flush of {}", memtable);
-                    memtable.flushAndSignal(latch, ctx);
-                }
+                logger.info("Enqueuing flush of {}", memtable);
+                memtable.flushAndSignal(latch, ctx);
             }
 
             if (metric.memtableSwitchCount.count() == Long.MAX_VALUE)
@@ -764,15 +797,11 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
                     {
                         // if we're not writing to the commit log, we are replaying the log, so marking
                         // the log header with "you can discard anything written before the context" is not valid
-                        CommitLog.instance.discardCompletedSegments(metadata.cfId, ctx.get());
+                        CommitLog.instance.discardCompletedSegments(metadata.cfId, ctx);
                     }
                 }
             });
         }
-        finally
-        {
-            Keyspace.switchLock.writeLock().unlock();
-        }
     }
 
     private boolean isClean()
@@ -826,33 +855,21 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
     /**
      * Insert/Update the column family for this key.
-     * Caller is responsible for acquiring Keyspace.switchLock
-     * param @ lock - lock that needs to be used.
+     * Caller is responsible for starting an operation of Keyspace.writeOrder
      * param @ key - key for update/insert
      * param @ columnFamily - columnFamily changes
+     * param @ opGroup - the write operation this update is part of
+     * param @ replayPosition - the commitlog position after the update, or null if it isn't logged
      */
-    public void apply(DecoratedKey key, ColumnFamily columnFamily, SecondaryIndexManager.Updater indexer)
+    public void apply(DecoratedKey key, ColumnFamily columnFamily, SecondaryIndexManager.Updater indexer, OpOrder.Group opGroup, ReplayPosition replayPosition)
     {
         long start = System.nanoTime();
 
-        Memtable mt = getMemtableThreadSafe();
+        Memtable mt = data.getMemtableFor(opGroup, replayPosition);
         mt.put(key, columnFamily, indexer);
         maybeUpdateRowCache(key);
+        metric.samplers.get(ColumnFamilyMetrics.Sampler.WRITES).addSample(key.key);
         metric.writeLatency.addNano(System.nanoTime() - start);
-
-        // recompute liveRatio, if we have doubled the number of ops since last calculated
-        while (true)
-        {
-            long last = liveRatioComputedAt.get();
-            long operations = metric.writeLatency.latency.count();
-            if (operations < 2 * last)
-                break;
-            if (liveRatioComputedAt.compareAndSet(last, operations))
-            {
-                logger.debug("computing liveRatio of {} at {} ops", this, operations);
-                mt.updateLiveRatio();
-            }
-        }
     }
 
     public static ColumnFamily removeDeletedCF(ColumnFamily cf, int gcBefore)
@@ -1068,9 +1085,9 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         data.replaceCompactedSSTables(sstables, replacements, compactionType);
     }
 
-    void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        compactionStrategy.replaceFlushed(memtable, sstable);
+        compactionStrategy.replaceFlushed(memtable, sstables);
     }
 
     public boolean isValid()
@@ -1093,6 +1110,31 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getMemtableDataSize() + indexManager.getTotalLiveSize();
     }
 
+    /**
+     * @return the heap retained by the live memtables of this table and of its indexes; the memory used by the
+     * indexes that are not backed by a table is assumed to be on the heap
+     */
+    public long getTotalMemtableHeapSize()
+    {
+        long size = 0;
+        for (ColumnFamilyStore cfs : concatWithIndexes())
+            size += cfs.getMemtableThreadSafe().getHeapSize();
+        for (SecondaryIndex index : indexManager.getIndexesNotBackedByCfs())
+            size += index.getLiveSize();
+        return size;
+    }
+
+    /**
+     * @return the native memory retained by the live memtables of this table and of its indexes
+     */
+    public long getTotalMemtableOffHeapSize()
+    {
+        long size = 0;
+        for (ColumnFamilyStore cfs : concatWithIndexes())
+            size += cfs.getMemtableThreadSafe().getOffHeapSize();
+        return size;
+    }
+
     public int getMemtableSwitchCount()
     {
         return (int) metric.memtableSwitchCount.count();
@@ -1367,30 +1409,32 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     private ViewFragment markReferenced(AbstractViewSSTableFinder finder)
     {
         List<SSTableReader> sstables;
-        DataTracker.View view;
+        Iterable<Memtable> memtables;
 
         while (true)
         {
-            view = data.getView();
+            DataTracker.View view = data.getView();
 
-            if (view.intervalTree.isEmpty())
+            sstables = view.intervalTree.isEmpty()
+                     ? Collections.<SSTableReader>emptyList()
+                     : finder.findSSTables(view);
+            if (SSTableReader.acquireReferences(sstables))
             {
-                sstables = Collections.emptyList();
-                break;
+                memtables = Iterables.concat(Collections.singleton(view.memtable), view.memtablesPendingFlush);
+                if (Memtable.acquireReferences(memtables))
+                    break;
+                SSTableReader.releaseReferences(sstables);
             }
-
-            sstables = finder.findSSTables(view);
-            if (SSTableReader.acquireReferences(sstables))
-                break;
             // retry w/ new view
         }
 
-        return new ViewFragment(sstables, Iterables.concat(Collections.singleton(view.memtable), view.memtablesPendingFlush));
+        return new ViewFragment(sstables, memtables);
     }
 
     /**
      * @return a ViewFragment containing the sstables and memtables that may need to be merged
-     * for the given @param key, according to the interval tree
+     * for the given @param key, according to the interval tree.  References are acquired on all of them
+     * and must be released with ViewFragment.release()
      */
     public ViewFragment markReferenced(final DecoratedKey key)
     {
@@ -1455,7 +1499,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
         finally
         {
-            SSTableReader.releaseReferences(view.sstables);
+            view.release();
         }
     }
 
@@ -1531,7 +1575,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
 
                 public void close() throws IOException
                 {
-                    SSTableReader.releaseReferences(view.sstables);
+                    view.release();
                     iterator.close();
                 }
             };
@@ -1539,7 +1583,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         catch (RuntimeException e)
         {
             // In case getIterator() throws, otherwise the iteror close method releases the references.
-            SSTableReader.releaseReferences(view.sstables);
+            view.release();
             throw e;
         }
     }
@@ -1912,20 +1956,21 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
 
         // nuke the memtable data w/o writing to disk first
-        Keyspace.switchLock.writeLock().lock();
-        try
+        List<Memtable> discarded = new ArrayList<Memtable>();
+        OpOrder.Barrier writeBarrier = Keyspace.writeOrder.newBarrier();
+        synchronized (switchLock)
         {
             for (ColumnFamilyStore cfs : concatWithIndexes())
             {
                 Memtable mt = cfs.getMemtableThreadSafe();
                 if (!mt.isClean())
-                    mt.cfs.data.renewMemtable();
+                    discarded.add(mt.cfs.data.renewMemtable(writeBarrier));
             }
+            writeBarrier.issue();
         }
-        finally
-        {
-            Keyspace.switchLock.writeLock().unlock();
-        }
+        // writes may still be in progress in the memtables we discarded
+        writeBarrier.await();
+        Memtable.releaseReferences(discarded);
 
         Runnable truncateRunnable = new Runnable()
         {
@@ -2269,6 +2314,15 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
             this.sstables = sstables;
             this.memtables = memtables;
         }
+
+        /**
+         * Release the references acquired on both the sstables and the memtables of this fragment.
+         */
+        public void release()
+        {
+            SSTableReader.releaseReferences(sstables);
+            Memtable.releaseReferences(memtables);
+        }
     }
 
     /**
@@ -2330,6 +2384,28 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getDataTracker().getDroppableTombstoneRatio();
     }
 
+    public void beginLocalSampling(String sampler, int capacity)
+    {
+        metric.samplers.get(ColumnFamilyMetrics.Sampler.valueOf(sampler)).beginSampling(capacity);
+    }
+
+    public CompositeData finishLocalSampling(String sampler, int count) throws OpenDataException
+    {
+        TopKSampler.SamplerResult<ByteBuffer> samplerResult = metric.samplers.get(ColumnFamilyMetrics.Sampler.valueOf(sampler)).finishSampling(count);
+
+        TabularDataSupport partitions = new TabularDataSupport(SAMPLED_PARTITIONS_TYPE);
+        for (StreamSummary.Counter<ByteBuffer> counter : samplerResult.topK)
+        {
+            String key = metadata.getKeyValidator().getString(counter.item);
+            partitions.put(new CompositeDataSupport(SAMPLED_PARTITION_TYPE,
+                                                    SAMPLED_PARTITION_ITEMS,
+                                                    new Object[]{ key, counter.getCount(), counter.getError() }));
+        }
+        return new CompositeDataSupport(SAMPLER_RESULT_TYPE,
+                                        SAMPLER_RESULT_ITEMS,
+                                        new Object[]{ samplerResult.total, partitions });
+    }
+
     public long getTruncationTime()
     {
         Pair<ReplayPosition, Long> truncationRecord = SystemKeyspace.getTruncationRecords().get(metadata.cfId);
@@ -20,6 +20,8 @@ package org.apache.cassandra.db;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
 
 /**
  * The MBean interface for ColumnFamilyStore
@@ -344,4 +346,22 @@ public interface ColumnFamilyStoreMBean
      * @return ratio
      */
     public double getDroppableTombstoneRatio();
+
+    /**
+     * Starts sampling the partitions of this table, discarding the current session of the sampler if any.
+     *
+     * @param sampler the name of the sampler: WRITES counts the writes to each partition, CONTENTION the
+     *                memtable updates that had to be retried because of concurrent writes to the same partition
+     * @param capacity the number of partitions tracked; the larger, the more accurate the counts
+     */
+    public void beginLocalSampling(String sampler, int capacity);
+
+    /**
+     * Ends a sampling session started by beginLocalSampling.
+     *
+     * @param count the number of partitions to return
+     * @return the total of the samples ("total"), and the most sampled partitions with their estimated count and
+     *         maximum overestimation of it ("partitions")
+     */
+    public CompositeData finishLocalSampling(String sampler, int count) throws OpenDataException;
 }
@@ -51,6 +51,9 @@ public class CounterColumn extends Column
 
     protected static final CounterContext contextManager = CounterContext.instance();
 
+    private static final long EMPTY_SIZE = ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize() + 8 + 8)
+                                         + 2 * ObjectSizes.getEmptyBufferSize();
+
     private final long timestampOfLastDelete;
 
     public CounterColumn(ByteBuffer name, long value, long timestamp)
@@ -109,6 +112,12 @@ public class CounterColumn extends Column
         return super.dataSize() + TypeSizes.NATIVE.sizeof(timestampOfLastDelete);
     }
 
+    @Override
+    public long unsharedHeapSizeExcludingData()
+    {
+        return EMPTY_SIZE;
+    }
+
     @Override
     public int serializedSize(TypeSizes typeSizes)
     {
@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.SSTableReader;
@@ -36,6 +37,7 @@ import org.apache.cassandra.metrics.StorageMetrics;
 import org.apache.cassandra.notifications.*;
 import org.apache.cassandra.utils.Interval;
 import org.apache.cassandra.utils.IntervalTree;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 public class DataTracker
 {
@@ -62,6 +64,26 @@ public class DataTracker
         return view.get().memtablesPendingFlush;
     }
 
+    /**
+     * @return the memtable a write started in the given op group must go to: the current memtable, unless the
+     * write started before a switch that has not been flushed yet, and was logged before the position the switch
+     * captured, in which case it goes to the memtable switched out
+     *
+     * @param replayPosition the commitlog position after the write, or null if it isn't logged
+     */
+    public Memtable getMemtableFor(OpOrder.Group opGroup, ReplayPosition replayPosition)
+    {
+        View view = this.view.get();
+        Memtable found = null;
+        for (Memtable memtable : view.memtablesPendingFlush)
+        {
+            // if several switches happened since the write started, it belongs to the oldest memtable
+            if (memtable.accepts(opGroup, replayPosition) && (found == null || memtable.creationNano() < found.creationNano()))
+                found = memtable;
+        }
+        return found == null ? view.memtable : found;
+    }
+
     public Set<SSTableReader> getSSTables()
     {
         return view.get().sstables;
@@ -94,10 +116,13 @@ public class DataTracker
      * This atomically adds the current memtable to the memtables pending
      * flush and replace it with a fresh memtable.
      *
+     * The writes started before writeBarrier is issued, and logged before
+     * lastReplayPosition is closed, keep going to the previous memtable.
+     *
      * @return the previous current memtable (the one added to the pending
      * flush)
      */
-    public Memtable switchMemtable()
+    public Memtable switchMemtable(OpOrder.Barrier writeBarrier, AtomicReference<ReplayPosition> lastReplayPosition)
     {
         // atomically change the current memtable
         Memtable newMemtable = new Memtable(cfstore);
@@ -107,6 +132,7 @@ public class DataTracker
         {
             currentView = view.get();
             toFlushMemtable = currentView.memtable;
+            toFlushMemtable.setDiscarding(writeBarrier, lastReplayPosition);
             newView = currentView.switchMemtable(newMemtable);
         }
         while (!view.compareAndSet(currentView, newView));
@@ -116,25 +142,32 @@ public class DataTracker
 
     /**
      * Renew the current memtable without putting the old one for a flush.
-     * Used when we flush but a memtable is clean (in which case we must
-     * change it because it was frozen).
+     * Used when truncating, in which case the data of the current memtable
+     * is discarded.
+     *
+     * The previous memtable is released once all the writes started before
+     * writeBarrier was issued have completed, which is up to the caller.
+     *
+     * @return the previous current memtable
      */
-    public void renewMemtable()
+    public Memtable renewMemtable(OpOrder.Barrier writeBarrier)
     {
         Memtable newMemtable = new Memtable(cfstore);
         View currentView, newView;
         do
         {
             currentView = view.get();
+            currentView.memtable.setDiscarding(writeBarrier, new AtomicReference<ReplayPosition>());
             newView = currentView.renewMemtable(newMemtable);
         }
         while (!view.compareAndSet(currentView, newView));
         notifyRenewed(currentView.memtable);
+        return currentView.memtable;
     }
 
-    public void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    public void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        // sstable may be null if we flushed batchlog and nothing needed to be retained
+        // sstables may be empty if we flushed batchlog and nothing needed to be retained
 
         if (!cfstore.isValid())
         {
@@ -142,30 +175,34 @@ public class DataTracker
             do
             {
                 currentView = view.get();
-                newView = currentView.replaceFlushed(memtable, sstable);
-                if (sstable != null)
-                    newView = newView.replace(Arrays.asList(sstable), Collections.<SSTableReader>emptyList());
+                newView = currentView.replaceFlushed(memtable, sstables);
+                if (!sstables.isEmpty())
+                    newView = newView.replace(sstables, Collections.<SSTableReader>emptyList());
             }
             while (!view.compareAndSet(currentView, newView));
+            memtable.releaseReference();
             return;
         }
 
         // back up before creating a new View (which makes the new one eligible for compaction)
-        if (sstable != null)
+        for (SSTableReader sstable : sstables)
             maybeIncrementallyBackup(sstable);
 
         View currentView, newView;
         do
         {
             currentView = view.get();
-            newView = currentView.replaceFlushed(memtable, sstable);
+            newView = currentView.replaceFlushed(memtable, sstables);
         }
         while (!view.compareAndSet(currentView, newView));
+        // the data is now readable from the sstables: readers still using the memtable hold their own reference
+        memtable.releaseReference();
 
-        if (sstable != null)
+        if (!sstables.isEmpty())
         {
-            addNewSSTablesSize(Arrays.asList(sstable));
-            notifyAdded(sstable);
+            addNewSSTablesSize(sstables);
+            for (SSTableReader sstable : sstables)
+                notifyAdded(sstable);
         }
     }
 
@@ -528,12 +565,12 @@ public class DataTracker
             return new View(newMemtable, memtablesPendingFlush, sstables, compacting, intervalTree);
         }
 
-        public View replaceFlushed(Memtable flushedMemtable, SSTableReader newSSTable)
+        public View replaceFlushed(Memtable flushedMemtable, Collection<SSTableReader> flushedSSTables)
         {
             Set<Memtable> newPending = ImmutableSet.copyOf(Sets.difference(memtablesPendingFlush, Collections.singleton(flushedMemtable)));
-            Set<SSTableReader> newSSTables = newSSTable == null
+            Set<SSTableReader> newSSTables = flushedSSTables.isEmpty()
                                            ? sstables
-                                           : newSSTables(newSSTable);
+                                           : newSSTables(Collections.<SSTableReader>emptyList(), flushedSSTables);
             SSTableIntervalTree intervalTree = buildIntervalTree(newSSTables);
             return new View(memtable, newPending, newSSTables, compacting, intervalTree);
         }
@@ -557,13 +594,6 @@ public class DataTracker
             return new View(memtable, memtablesPendingFlush, sstables, compactingNew, intervalTree);
         }
 
-        private Set<SSTableReader> newSSTables(SSTableReader newSSTable)
-        {
-            assert newSSTable != null;
-            // not performance-sensitive, don't obsess over doing a selection merge here
-            return newSSTables(Collections.<SSTableReader>emptyList(), Collections.singletonList(newSSTable));
-        }
-
         private Set<SSTableReader> newSSTables(Collection<SSTableReader> oldSSTables, Iterable<SSTableReader> replacements)
         {
             ImmutableSet<SSTableReader> oldSet = ImmutableSet.copyOf(oldSSTables);
@@ -168,6 +168,17 @@ public class Directories
      * @throws IOError if all directories are blacklisted.
      */
     public DataDirectory getWriteableLocation()
+    {
+        return getWriteableLocations().get(0);
+    }
+
+    /**
+     * @return the non-blacklisted directories, least loaded first (and with the most free space first among the
+     * equally loaded ones).
+     *
+     * @throws IOError if all directories are blacklisted.
+     */
+    public List<DataDirectory> getWriteableLocations()
     {
         List<DataDirectory> candidates = new ArrayList<DataDirectory>();
 
@@ -194,7 +205,7 @@ public class Directories
             }
         });
 
-        return candidates.get(0);
+        return candidates;
     }
 
 
@@ -28,6 +28,7 @@ import org.apache.cassandra.serializers.MarshalException;
 import org.apache.cassandra.utils.Allocator;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.ObjectSizes;
 
 /**
  * Alternative to Column that have an expiring time.
@@ -43,6 +44,9 @@ public class ExpiringColumn extends Column
 {
     public static final int MAX_TTL = 20 * 365 * 24 * 60 * 60; // 20 years in seconds
 
+    private static final long EMPTY_SIZE = ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize() + 8 + 4 + 4)
+                                         + 2 * ObjectSizes.getEmptyBufferSize();
+
     private final int localExpirationTime;
     private final int timeToLive;
 
@@ -95,6 +99,12 @@ public class ExpiringColumn extends Column
         return super.dataSize() + TypeSizes.NATIVE.sizeof(localExpirationTime) + TypeSizes.NATIVE.sizeof(timeToLive);
     }
 
+    @Override
+    public long unsharedHeapSizeExcludingData()
+    {
+        return EMPTY_SIZE;
+    }
+
     @Override
     public int serializedSize(TypeSizes typeSizes)
     {
@@ -18,13 +18,17 @@
 package org.apache.cassandra.db;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
-import org.cliffc.high_scale_lib.NonBlockingHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,6 +36,7 @@ import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
 import org.apache.cassandra.db.commitlog.ReplayPosition;
 import org.apache.cassandra.db.index.SecondaryIndexManager;
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -39,8 +44,14 @@ import org.apache.cassandra.io.sstable.SSTableMetadata;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.io.sstable.SSTableWriter;
 import org.apache.cassandra.io.util.DiskAwareRunnable;
+import org.apache.cassandra.metrics.ColumnFamilyMetrics;
 import org.apache.cassandra.utils.Allocator;
-import org.github.jamm.MemoryMeter;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.ObjectSizes;
+import org.apache.cassandra.utils.Pair;
+import org.apache.cassandra.utils.WrappedRunnable;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 public class Memtable
 {
@@ -66,26 +77,27 @@ public class Memtable
                                                new NamedThreadFactory("FlushWriter"),
                                                "internal");
 
-    // size in memory can never be less than serialized size
-    private static final double MIN_SANE_LIVE_RATIO = 1.0;
-    // max liveratio seen w/ 1-byte columns on a 64-bit jvm was 19. If it gets higher than 64 something is probably broken.
-    private static final double MAX_SANE_LIVE_RATIO = 64.0;
-
-    // We need to take steps to avoid retaining inactive membtables in memory, because counting is slow (can be
-    // minutes, for a large memtable and a busy server).  A strictly FIFO Memtable queue could keep memtables
-    // alive waiting for metering after they're flushed and would otherwise be GC'd.  Instead, the approach we take
-    // is to enqueue the CFS instead of the memtable, and to meter whatever the active memtable is when the executor
-    // starts to work on it.  We use a Set to make sure we don't enqueue redundant tasks for the same CFS.
-    private static final Set<ColumnFamilyStore> meteringInProgress = new NonBlockingHashSet<ColumnFamilyStore>();
-    private static final ExecutorService meterExecutor = new JMXEnabledThreadPoolExecutor(1,
-                                                                                          Integer.MAX_VALUE,
-                                                                                          TimeUnit.MILLISECONDS,
-                                                                                          new LinkedBlockingQueue<Runnable>(),
-                                                                                          new NamedThreadFactory("MemoryMeter"),
-                                                                                          "internal");
-    private final MemoryMeter meter;
-
-    volatile static ColumnFamilyStore activelyMeasuring;
+    // writes the ranges of the memtables split across data directories, except for the first one of each memtable
+    // (written by its FlushWriter thread)
+    private static final ExecutorService flushRangeWriter
+            = new JMXEnabledThreadPoolExecutor(Math.max(1, DatabaseDescriptor.getFlushWriters() * (DatabaseDescriptor.getAllDataFileLocations().length - 1)),
+                                               StageManager.KEEPALIVE,
+                                               TimeUnit.SECONDS,
+                                               new LinkedBlockingQueue<Runnable>(),
+                                               new NamedThreadFactory("FlushRangeWriter"),
+                                               "internal");
+
+    // a memtable is only split across data directories if each range has at least that much to write
+    private static final long MIN_FLUSH_RANGE_SIZE = Long.getLong("cassandra.memtable_flush_min_range_size_in_mb", 64) * 1024 * 1024;
+
+    // The heap retained by a partition besides its columns: its skip list node (plus, on average, half an index
+    // node), its key but for the token and the key bytes (accounted for by the allocator the key is cloned with),
+    // and its empty columns container.
+    private static final long ROW_OVERHEAD_HEAP_SIZE = ObjectSizes.getFieldSize(3 * ObjectSizes.getReferenceSize())
+                                                     + ObjectSizes.getFieldSize(3 * ObjectSizes.getReferenceSize()) / 2
+                                                     + ObjectSizes.getFieldSize(2 * ObjectSizes.getReferenceSize())
+                                                     + ObjectSizes.getEmptyBufferSize()
+                                                     + AtomicBTreeColumns.EMPTY_SIZE;
 
     private final AtomicLong currentSize = new AtomicLong(0);
     private final AtomicLong currentOperations = new AtomicLong(0);
@@ -93,12 +105,20 @@ public class Memtable
     // We index the memtable by RowPosition only for the purpose of being able
     // to select key range using Token.KeyBound. However put() ensures that we
     // actually only store DecoratedKey.
-    private final ConcurrentNavigableMap<RowPosition, AtomicSortedColumns> rows = new ConcurrentSkipListMap<RowPosition, AtomicSortedColumns>();
+    private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> rows = new ConcurrentSkipListMap<RowPosition, AtomicBTreeColumns>();
     public final ColumnFamilyStore cfs;
     private final long creationTime = System.currentTimeMillis();
     private final long creationNano = System.nanoTime();
 
     private final Allocator allocator = DatabaseDescriptor.getMemtableAllocator();
+    // One reference is owned by the memtable itself until it is flushed or discarded, and one more is held by each
+    // read in progress.  The allocator (and thus any off-heap memory it holds) is freed when the last one goes away.
+    private final AtomicInteger references = new AtomicInteger(1);
+    // set when the memtable is switched out: the writes started before that barrier still belong to this memtable
+    private volatile OpOrder.Barrier writeBarrier;
+    // set along with writeBarrier: the highest commitlog position of the writes accepted, shared by the memtables
+    // switched out together, until a LastReplayPosition closes it
+    private volatile AtomicReference<ReplayPosition> lastReplayPosition;
     // We really only need one column by allocator but one by memtable is not a big waste and avoids needing allocators to know about CFS
     private final Function<Column, Column> localCopyFunction = new Function<Column, Column>()
     {
@@ -118,29 +138,31 @@ public class Memtable
         this.cfs = cfs;
         this.initialComparator = cfs.metadata.comparator;
         this.cfs.scheduleFlush();
-
-        Callable<Set<Object>> provider = new Callable<Set<Object>>()
-        {
-            public Set<Object> call() throws Exception
-            {
-                // avoid counting this once for each row
-                Set<Object> set = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
-                set.add(Memtable.this.cfs.metadata);
-                return set;
-            }
-        };
-        meter = new MemoryMeter().omitSharedBufferOverhead().withTrackerProvider(provider);
     }
 
+    /**
+     * @return the bytes of memory retained by this memtable, as accounted for by its allocator: the data it cloned,
+     * plus the partitions and columns holding it.
+     */
     public long getLiveSize()
     {
-        long estimatedSize = (long) (currentSize.get() * cfs.liveRatio);
+        return allocator.getOwnedSize();
+    }
 
-        // liveRatio is just an estimate; we can get a lower bound directly from the allocator
-        if (estimatedSize < allocator.getMinimumSize())
-            return allocator.getMinimumSize();
+    /**
+     * @return the part of {@link #getLiveSize()} retained on the java heap
+     */
+    public long getHeapSize()
+    {
+        return allocator.getOnHeapSize();
+    }
 
-        return estimatedSize;
+    /**
+     * @return the part of {@link #getLiveSize()} retained in native memory, by an off-heap allocator
+     */
+    public long getOffHeapSize()
+    {
+        return allocator.getOffHeapSize();
     }
 
     public long getOperations()
@@ -148,62 +170,188 @@ public class Memtable
         return currentOperations.get();
     }
 
+    public boolean acquireReference()
+    {
+        while (true)
+        {
+            int n = references.get();
+            if (n <= 0)
+                return false;
+            if (references.compareAndSet(n, n + 1))
+                return true;
+        }
+    }
+
     /**
-     * Should only be called by ColumnFamilyStore.apply.  NOT a public API.
-     * (CFS handles locking to avoid submitting an op
-     *  to a flushing memtable.  Any other way is unsafe.)
-    */
-    void put(DecoratedKey key, ColumnFamily columnFamily, SecondaryIndexManager.Updater indexer)
+     * Release a reference to this memtable.  Once the memtable has been removed from the DataTracker (which releases
+     * the memtable's own reference) and the last reader is done with it, the memory of its allocator is freed.
+     */
+    public void releaseReference()
     {
-        resolve(key, columnFamily, indexer);
+        int n = references.decrementAndGet();
+        assert n >= 0 : "Reference counter " + n + " for " + this;
+        if (n == 0)
+            allocator.free();
+    }
+
+    public static boolean acquireReferences(Iterable<Memtable> memtables)
+    {
+        Memtable failed = null;
+        for (Memtable memtable : memtables)
+        {
+            if (!memtable.acquireReference())
+            {
+                failed = memtable;
+                break;
+            }
+        }
+
+        if (failed == null)
+            return true;
+
+        for (Memtable memtable : memtables)
+        {
+            if (memtable == failed)
+                break;
+            memtable.releaseReference();
+        }
+        return false;
+    }
+
+    public static void releaseReferences(Iterable<Memtable> memtables)
+    {
+        for (Memtable memtable : memtables)
+            memtable.releaseReference();
     }
 
-    public void updateLiveRatio() throws RuntimeException
+    /**
+     * Marks this memtable as being switched out: from now on it only accepts the writes started before the given
+     * barrier is issued, and that are logged no later than the position setLastReplayPosition eventually closes
+     * lastReplayPosition with.  It won't be flushed before the writes started before the barrier have completed.
+     */
+    void setDiscarding(OpOrder.Barrier writeBarrier, AtomicReference<ReplayPosition> lastReplayPosition)
     {
-        if (!MemoryMeter.isInitialized())
+        assert this.writeBarrier == null || this.writeBarrier == writeBarrier;
+        this.lastReplayPosition = lastReplayPosition;
+        this.writeBarrier = writeBarrier;
+    }
+
+    /**
+     * Closes the commitlog positions accepted by the memtables switched out with lastReplayPosition: the writes
+     * logged after the returned position go to the next memtable, so that the flushed memtables hold exactly the
+     * writes logged before it, and replay may start from there.
+     *
+     * @return the position after the last write accepted by those memtables
+     */
+    static ReplayPosition setLastReplayPosition(AtomicReference<ReplayPosition> lastReplayPosition, ReplayPosition context)
+    {
+        while (true)
         {
-            // hack for openjdk.  we log a warning about this in the startup script too.
-            logger.warn("MemoryMeter uninitialized (jamm not specified as java agent); assuming liveRatio of {}.  "
-                        + " Usually this means cassandra-env.sh disabled jamm because you are using a buggy JRE; "
-                        + " upgrade to the Sun JRE instead", cfs.liveRatio);
-            return;
+            ReplayPosition current = lastReplayPosition.get();
+            // a write accepted meanwhile may be past the context we were given; take the latest one then
+            ReplayPosition last = current == null || current.compareTo(context) <= 0 ? context : current;
+            if (lastReplayPosition.compareAndSet(current, new LastReplayPosition(last)))
+                return last;
         }
+    }
 
-        if (!meteringInProgress.add(cfs))
+    /**
+     * @param opGroup the write operation
+     * @param replayPosition the commitlog position after the write, or null if it isn't logged
+     * @return true if the write belongs to this memtable
+     */
+    public boolean accepts(OpOrder.Group opGroup, ReplayPosition replayPosition)
+    {
+        OpOrder.Barrier barrier = writeBarrier;
+        if (barrier == null)
+            return true;
+        if (!barrier.isAfter(opGroup))
+            return false;
+        if (replayPosition == null)
+            return true;
+
+        // raise the highest position accepted to this write's, unless it has been closed already
+        while (true)
         {
-            logger.debug("Metering already pending or active for {}; skipping liveRatio update", cfs);
-            return;
+            ReplayPosition current = lastReplayPosition.get();
+            if (current instanceof LastReplayPosition)
+                return current.compareTo(replayPosition) >= 0;
+            if (current != null && current.compareTo(replayPosition) >= 0)
+                return true;
+            if (lastReplayPosition.compareAndSet(current, replayPosition))
+                return true;
         }
+    }
 
-        meterExecutor.submit(new MeteringRunnable(cfs));
+    /**
+     * @return the barrier ordering the writes to this memtable, or null if it is still the live memtable
+     */
+    public OpOrder.Barrier getWriteBarrier()
+    {
+        return writeBarrier;
+    }
+
+    /**
+     * Should only be called by ColumnFamilyStore.apply.  NOT a public API.
+     * (CFS picks the memtable accepting the write's op group, so that
+     *  no op is ever submitted to a flushing memtable.  Any other way is unsafe.)
+    */
+    void put(DecoratedKey key, ColumnFamily columnFamily, SecondaryIndexManager.Updater indexer)
+    {
+        resolve(key, columnFamily, indexer);
     }
 
     private void resolve(DecoratedKey key, ColumnFamily cf, SecondaryIndexManager.Updater indexer)
     {
-        AtomicSortedColumns previous = rows.get(key);
+        AtomicBTreeColumns previous = rows.get(key);
 
         if (previous == null)
         {
-            AtomicSortedColumns empty = cf.cloneMeShallow(AtomicSortedColumns.factory, false);
+            AtomicBTreeColumns empty = cf.cloneMeShallow(AtomicBTreeColumns.factory, false);
             // We'll add the columns later. This avoids wasting works if we get beaten in the putIfAbsent
-            previous = rows.putIfAbsent(new DecoratedKey(key.token, allocator.clone(key.key)), empty);
+            DecoratedKey cloned = cloneKey(key);
+            previous = rows.putIfAbsent(cloned, empty);
             if (previous == null)
+            {
                 previous = empty;
+                // keys of off-heap memtables are cloned on the heap, behind the allocator's back
+                allocator.addOverhead(allocator.isOffHeap()
+                                      ? ROW_OVERHEAD_HEAP_SIZE + ObjectSizes.getArraySize(cloned.key.remaining(), 1)
+                                      : ROW_OVERHEAD_HEAP_SIZE);
+            }
         }
 
-        long sizeDelta = previous.addAllWithSizeDelta(cf, allocator, localCopyFunction, indexer);
-        currentSize.addAndGet(sizeDelta);
+        Pair<Long, Integer> updated = previous.addAllWithSizeDelta(cf, allocator, localCopyFunction, indexer);
+        currentSize.addAndGet(updated.left);
+        if (updated.right > 0)
+        {
+            // other writers to the same partition made us redo the update
+            cfs.metric.memtableUpdateRetries.inc(updated.right);
+            cfs.metric.samplers.get(ColumnFamilyMetrics.Sampler.CONTENTION).addSample(key.key, updated.right);
+        }
         currentOperations.addAndGet((cf.getColumnCount() == 0)
                                     ? cf.isMarkedForDelete() ? 1 : 0
                                     : cf.getColumnCount());
     }
 
+    private DecoratedKey cloneKey(DecoratedKey key)
+    {
+        if (!allocator.isOffHeap())
+            return new DecoratedKey(key.token, allocator.clone(key.key));
+
+        // Keys escape the memtable (through range scans for instance), so they are never put off-heap.
+        // Secondary index keys are built from values of the parent's (off-heap) memtable though, and their
+        // LocalToken references those bytes, so we also need a token decorating the heap copy.
+        ByteBuffer onHeap = HeapAllocator.instance.clone(key.key);
+        return cfs.isIndex() ? cfs.partitioner.decorateKey(onHeap) : new DecoratedKey(key.token, onHeap);
+    }
+
     // for debugging
     public String contents()
     {
         StringBuilder builder = new StringBuilder();
         builder.append("{");
-        for (Map.Entry<RowPosition, AtomicSortedColumns> entry : rows.entrySet())
+        for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : rows.entrySet())
         {
             builder.append(entry.getKey()).append(": ").append(entry.getValue()).append(", ");
         }
@@ -211,7 +359,7 @@ public class Memtable
         return builder.toString();
     }
 
-    public void flushAndSignal(final CountDownLatch latch, final Future<ReplayPosition> context)
+    public void flushAndSignal(final CountDownLatch latch, final ReplayPosition context)
     {
         flushWriter.execute(new FlushRunnable(latch, context));
     }
@@ -226,11 +374,11 @@ public class Memtable
      * @param startWith Include data in the result from and including this key and to the end of the memtable
      * @return An iterator of entries with the data from the start key
      */
-    public Iterator<Map.Entry<DecoratedKey, AtomicSortedColumns>> getEntryIterator(final RowPosition startWith, final RowPosition stopAt)
+    public Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> getEntryIterator(final RowPosition startWith, final RowPosition stopAt)
     {
-        return new Iterator<Map.Entry<DecoratedKey, AtomicSortedColumns>>()
+        return new Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>>()
         {
-            private Iterator<Map.Entry<RowPosition, AtomicSortedColumns>> iter = stopAt.isMinimum(cfs.partitioner)
+            private Iterator<Map.Entry<RowPosition, AtomicBTreeColumns>> iter = stopAt.isMinimum(cfs.partitioner)
                                                                                ? rows.tailMap(startWith).entrySet().iterator()
                                                                                : rows.subMap(startWith, true, stopAt, true).entrySet().iterator();
 
@@ -239,13 +387,13 @@ public class Memtable
                 return iter.hasNext();
             }
 
-            public Map.Entry<DecoratedKey, AtomicSortedColumns> next()
+            public Map.Entry<DecoratedKey, AtomicBTreeColumns> next()
             {
-                Map.Entry<RowPosition, AtomicSortedColumns> entry = iter.next();
+                Map.Entry<RowPosition, AtomicBTreeColumns> entry = iter.next();
                 // Actual stored key should be true DecoratedKey
                 assert entry.getKey() instanceof DecoratedKey;
                 // Object cast is required since otherwise we can't turn RowPosition into DecoratedKey
-                return (Map.Entry<DecoratedKey, AtomicSortedColumns>) (Object)entry;
+                return (Map.Entry<DecoratedKey, AtomicBTreeColumns>) (Object)entry;
             }
 
             public void remove()
@@ -274,47 +422,255 @@ public class Memtable
         return rows.get(key);
     }
 
+    /**
+     * Columns of an off-heap memtable are only valid as long as a reference on the memtable is held, so results
+     * built from them must be copied on-heap before they can outlive the read.
+     *
+     * @return an iterator returning heap copies of the columns of @param iter if this memtable lives off-heap,
+     * or @param iter itself otherwise.
+     */
+    public OnDiskAtomIterator maybeCopyToHeap(final OnDiskAtomIterator iter)
+    {
+        if (!allocator.isOffHeap())
+            return iter;
+
+        return new OnDiskAtomIterator()
+        {
+            public ColumnFamily getColumnFamily()
+            {
+                return iter.getColumnFamily();
+            }
+
+            public DecoratedKey getKey()
+            {
+                return iter.getKey();
+            }
+
+            public void close() throws IOException
+            {
+                iter.close();
+            }
+
+            public boolean hasNext()
+            {
+                return iter.hasNext();
+            }
+
+            public OnDiskAtom next()
+            {
+                OnDiskAtom atom = iter.next();
+                return atom instanceof Column ? ((Column) atom).localCopy(cfs, HeapAllocator.instance) : atom;
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     public long creationTime()
     {
         return creationTime;
     }
 
-    class FlushRunnable extends DiskAwareRunnable
+    long creationNano()
+    {
+        return creationNano;
+    }
+
+    class FlushRunnable extends WrappedRunnable
     {
         private final CountDownLatch latch;
-        private final Future<ReplayPosition> context;
-        private final long estimatedSize;
+        private final ReplayPosition context;
 
-        FlushRunnable(CountDownLatch latch, Future<ReplayPosition> context)
+        FlushRunnable(CountDownLatch latch, ReplayPosition context)
         {
             this.latch = latch;
             this.context = context;
+        }
+
+        protected void runMayThrow() throws Exception
+        {
+            // writes started before the switch may still be in progress
+            if (writeBarrier != null)
+                writeBarrier.await();
+
+            // with forceSwitch it's possible to get a clean memtable here, in which case there is nothing to write
+            if (isClean())
+            {
+                cfs.replaceFlushed(Memtable.this, Collections.<SSTableReader>emptyList());
+                latch.countDown();
+                return;
+            }
+
+            List<RangeFlushRunnable> ranges = splitRanges(cfs.directories.getWriteableLocations(), MIN_FLUSH_RANGE_SIZE);
+            if (ranges.size() > 1)
+                logger.info("Writing {} in {} ranges", Memtable.this.toString(), ranges.size());
+            else
+                logger.info("Writing {}", Memtable.this.toString());
+
+            // this thread writes the first range itself
+            List<Future<?>> futures = new ArrayList<Future<?>>(ranges.size() - 1);
+            for (RangeFlushRunnable range : ranges.subList(1, ranges.size()))
+                futures.add(flushRangeWriter.submit(range));
+            List<SSTableReader> sstables = new ArrayList<SSTableReader>(ranges.size());
+            try
+            {
+                ranges.get(0).run();
+                FBUtilities.waitOnFutures(futures);
+            }
+            catch (Throwable t)
+            {
+                // the ranges written are useless without the others
+                for (Future<?> future : futures)
+                {
+                    try
+                    {
+                        future.get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        // already failed the flush
+                    }
+                }
+                for (RangeFlushRunnable range : ranges)
+                {
+                    if (range.sstable != null)
+                    {
+                        range.sstable.markObsolete();
+                        range.sstable.releaseReference();
+                    }
+                }
+                throw Throwables.propagate(t);
+            }
+
+            for (RangeFlushRunnable range : ranges)
+            {
+                if (range.sstable != null)
+                    sstables.add(range.sstable);
+            }
+            cfs.replaceFlushed(Memtable.this, sstables);
+            latch.countDown();
+        }
 
-            long keySize = 0;
+        /**
+         * Splits the memtable in ranges of about the same number of partitions, each to be written to a different
+         * data directory with room for it, as long as each range has at least minRangeSize bytes to write.
+         */
+        @VisibleForTesting
+        List<RangeFlushRunnable> splitRanges(List<Directories.DataDirectory> locations, long minRangeSize)
+        {
+            // the partitions of the skip list are counted by walking it, so we only do it once
+            int rowCount = rows.size();
+            long expectedWriteSize = expectedWriteSize(rows, rowCount, rowCount);
+            List<Directories.DataDirectory> candidates = new ArrayList<Directories.DataDirectory>(locations.size());
+            for (Directories.DataDirectory location : locations)
+            {
+                if (location.getEstimatedAvailableSpace() > expectedWriteSize / locations.size())
+                    candidates.add(location);
+            }
+            int count = (int) Math.max(1, Math.min(Math.min(candidates.size(), rowCount), expectedWriteSize / Math.max(1, minRangeSize)));
+            if (count == 1)
+                return Collections.singletonList(new RangeFlushRunnable(rows, rowCount, expectedWriteSize, context, null));
+
+            List<RangeFlushRunnable> ranges = new ArrayList<RangeFlushRunnable>(count);
+            int rowsPerRange = rowCount / count;
+            RowPosition start = null;
+            int i = 0;
             for (RowPosition key : rows.keySet())
             {
-                //  make sure we don't write non-sensical keys
-                assert key instanceof DecoratedKey;
-                keySize += ((DecoratedKey)key).key.remaining();
+                if (++i % rowsPerRange != 0)
+                    continue;
+
+                ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> range = start == null
+                                                                             ? rows.headMap(key, true)
+                                                                             : rows.subMap(start, false, key, true);
+                ranges.add(new RangeFlushRunnable(range,
+                                                  rowsPerRange,
+                                                  expectedWriteSize(range, rowsPerRange, rowCount),
+                                                  context,
+                                                  candidates.get(ranges.size())));
+                start = key;
+                if (ranges.size() == count - 1)
+                    break;
             }
-            estimatedSize = (long) ((keySize // index entries
-                                    + keySize // keys in data file
-                                    + currentSize.get()) // data
-                                    * 1.2); // bloom filter and row index overhead
+            ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> last = rows.tailMap(start, false);
+            int lastRowCount = rowCount - (count - 1) * rowsPerRange;
+            ranges.add(new RangeFlushRunnable(last,
+                                              lastRowCount,
+                                              expectedWriteSize(last, lastRowCount, rowCount),
+                                              context,
+                                              candidates.get(ranges.size())));
+            return ranges;
+        }
+    }
+
+    private long expectedWriteSize(Map<RowPosition, AtomicBTreeColumns> range, int rangeRowCount, int rowCount)
+    {
+        long keySize = 0;
+        for (RowPosition key : range.keySet())
+        {
+            //  make sure we don't write non-sensical keys
+            assert key instanceof DecoratedKey;
+            keySize += ((DecoratedKey)key).key.remaining();
+        }
+        // the size of the data is only known for the whole memtable, so ranges get their share by partition count
+        long dataSize = range == rows ? currentSize.get() : currentSize.get() * rangeRowCount / Math.max(1, rowCount);
+        return (long) ((keySize // index entries
+                        + keySize // keys in data file
+                        + dataSize) // data
+                       * 1.2); // bloom filter and row index overhead
+    }
+
+    /**
+     * Writes a range of the partitions of the memtable to a new sstable.
+     */
+    class RangeFlushRunnable extends DiskAwareRunnable
+    {
+        private final ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> range;
+        private final int rowCount;
+        private final long expectedWriteSize;
+        private final ReplayPosition context;
+        // null to write to the least loaded directory
+        private final Directories.DataDirectory location;
+        // null until the range is written, and if there was nothing to retain
+        volatile SSTableReader sstable;
+
+        RangeFlushRunnable(ConcurrentNavigableMap<RowPosition, AtomicBTreeColumns> range,
+                           int rowCount,
+                           long expectedWriteSize,
+                           ReplayPosition context,
+                           Directories.DataDirectory location)
+        {
+            this.range = range;
+            this.rowCount = rowCount;
+            this.expectedWriteSize = expectedWriteSize;
+            this.context = context;
+            this.location = location;
         }
 
         public long getExpectedWriteSize()
         {
-            return estimatedSize;
+            return expectedWriteSize;
+        }
+
+        @Override
+        protected Directories.DataDirectory getWriteableLocation()
+        {
+            // the directory picked when the memtable was split may have been blacklisted or filled up since
+            if (location == null
+                || BlacklistedDirectories.isUnwritable(cfs.directories.getLocationForDisk(location))
+                || location.getEstimatedAvailableSpace() < expectedWriteSize)
+                return super.getWriteableLocation();
+            return location;
         }
 
         protected void runWith(File sstableDirectory) throws Exception
         {
             assert sstableDirectory != null : "Flush task is not bound to any disk";
 
-            SSTableReader sstable = writeSortedContents(context, sstableDirectory);
-            cfs.replaceFlushed(Memtable.this, sstable);
-            latch.countDown();
+            sstable = writeSortedContents(context, sstableDirectory);
         }
 
         protected Directories getDirectories()
@@ -322,11 +678,8 @@ public class Memtable
             return cfs.directories;
         }
 
-        private SSTableReader writeSortedContents(Future<ReplayPosition> context, File sstableDirectory)
-        throws ExecutionException, InterruptedException
+        private SSTableReader writeSortedContents(ReplayPosition context, File sstableDirectory)
         {
-            logger.info("Writing {}", Memtable.this.toString());
-
             SSTableReader ssTable;
             // errors when creating the writer that may leave empty temp files.
             SSTableWriter writer = createFlushWriter(cfs.getTempSSTablePath(sstableDirectory));
@@ -334,7 +687,7 @@ public class Memtable
             {
                 // (we can't clear out the map as-we-go to free up memory,
                 //  since the memtable is being used for queries in the "pending flush" category)
-                for (Map.Entry<RowPosition, AtomicSortedColumns> entry : rows.entrySet())
+                for (Map.Entry<RowPosition, AtomicBTreeColumns> entry : range.entrySet())
                 {
                     ColumnFamily cf = entry.getValue();
                     if (cf.isMarkedForDelete())
@@ -354,8 +707,14 @@ public class Memtable
                         // We also shouldn't be dropping any columns obsoleted by partition and/or range tombstones in case
                         // the table has secondary indexes, or else the stale entries wouldn't be cleaned up during compaction,
                         // and will only be dropped during 2i query read-repair, if at all.
+                        // The memtable's rows can't be modified in place, so we purge a copy.
                         if (!cfs.indexManager.hasIndexes())
-                            ColumnFamilyStore.removeDeletedColumnsOnly(cf, Integer.MIN_VALUE);
+                        {
+                            ColumnFamily purged = cf.cloneMeShallow(ArrayBackedSortedColumns.factory, false);
+                            purged.addAll(cf, HeapAllocator.instance);
+                            ColumnFamilyStore.removeDeletedColumnsOnly(purged, Integer.MIN_VALUE);
+                            cf = purged;
+                        }
                     }
                     writer.append((DecoratedKey)entry.getKey(), cf);
                 }
@@ -364,14 +723,14 @@ public class Memtable
                 {
                     ssTable = writer.closeAndOpenReader();
                     logger.info(String.format("Completed flushing %s (%d bytes) for commitlog position %s",
-                                              ssTable.getFilename(), new File(ssTable.getFilename()).length(), context.get()));
+                                              ssTable.getFilename(), new File(ssTable.getFilename()).length(), context));
                 }
                 else
                 {
                     writer.abort();
                     ssTable = null;
                     logger.info("Completed flushing; nothing needed to be retained.  Commitlog position was {}",
-                                context.get());
+                                context);
                 }
                 return ssTable;
             }
@@ -382,73 +741,25 @@ public class Memtable
             }
         }
 
-        public SSTableWriter createFlushWriter(String filename) throws ExecutionException, InterruptedException
+        public SSTableWriter createFlushWriter(String filename)
         {
-            SSTableMetadata.Collector sstableMetadataCollector = SSTableMetadata.createCollector(cfs.metadata.comparator).replayPosition(context.get());
+            SSTableMetadata.Collector sstableMetadataCollector = SSTableMetadata.createCollector(cfs.metadata.comparator).replayPosition(context);
             return new SSTableWriter(filename,
-                                     rows.size(),
+                                     rowCount,
                                      cfs.metadata,
                                      cfs.partitioner,
                                      sstableMetadataCollector);
         }
     }
 
-    private static class MeteringRunnable implements Runnable
+    /**
+     * The highest commitlog position of the writes accepted by memtables that can't accept any later one.
+     */
+    private static class LastReplayPosition extends ReplayPosition
     {
-        // we might need to wait in the meter queue for a while.  measure whichever memtable is active at that point,
-        // rather than keeping the original memtable referenced (and thus un-freeable) until this runs.
-        private final ColumnFamilyStore cfs;
-
-        public MeteringRunnable(ColumnFamilyStore cfs)
+        LastReplayPosition(ReplayPosition position)
         {
-            this.cfs = cfs;
-        }
-
-        public void run()
-        {
-            try
-            {
-                activelyMeasuring = cfs;
-                Memtable memtable = cfs.getMemtableThreadSafe();
-
-                long start = System.nanoTime();
-                // ConcurrentSkipListMap has cycles, so measureDeep will have to track a reference to EACH object it visits.
-                // So to reduce the memory overhead of doing a measurement, we break it up to row-at-a-time.
-                long deepSize = memtable.meter.measure(memtable.rows);
-                int objects = 0;
-                for (Map.Entry<RowPosition, AtomicSortedColumns> entry : memtable.rows.entrySet())
-                {
-                    deepSize += memtable.meter.measureDeep(entry.getKey()) + memtable.meter.measureDeep(entry.getValue());
-                    objects += entry.getValue().getColumnCount();
-                }
-                double newRatio = (double) deepSize / memtable.currentSize.get();
-
-                if (newRatio < MIN_SANE_LIVE_RATIO)
-                {
-                    logger.warn("setting live ratio to minimum of {} instead of {}", MIN_SANE_LIVE_RATIO, newRatio);
-                    newRatio = MIN_SANE_LIVE_RATIO;
-                }
-                if (newRatio > MAX_SANE_LIVE_RATIO)
-                {
-                    logger.warn("setting live ratio to maximum of {} instead of {}", MAX_SANE_LIVE_RATIO, newRatio);
-                    newRatio = MAX_SANE_LIVE_RATIO;
-                }
-
-                // we want to be very conservative about our estimate, since the penalty for guessing low is OOM
-                // death.  thus, higher estimates are believed immediately; lower ones are averaged w/ the old
-                if (newRatio > cfs.liveRatio)
-                    cfs.liveRatio = newRatio;
-                else
-                    cfs.liveRatio = (cfs.liveRatio + newRatio) / 2.0;
-
-                logger.info("{} liveRatio is {} (just-counted was {}).  calculation took {}ms for {} columns",
-                            cfs, cfs.liveRatio, newRatio, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), objects);
-            }
-            finally
-            {
-                activelyMeasuring = null;
-                meteringInProgress.remove(cfs);
-            }
+            super(position.segment, position.position);
         }
     }
 }
@@ -19,113 +19,198 @@ package org.apache.cassandra.db;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
-import com.google.common.collect.Iterables;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.commitlog.CommitLog;
 
+/**
+ * Flushes memtables to keep the heap they use under memtable_total_space_in_mb, and the native memory they use
+ * under memtable_total_offheap_space_in_mb.
+ *
+ * The memory used by a memtable is accounted for exactly by its allocator, on and off the heap.  Every run, we
+ * project the memory the live memtables will use by the next run from the rate at which each of them has grown so
+ * far, and if that (plus what is still flushing) is over either limit, we flush memtables until it isn't.  Memtables
+ * are picked by the share of a limit flushing them frees, weighted by the share of the commit log they pin: of two
+ * memtables of the same size, the one keeping the older segments from being recycled goes first.
+ */
 public class MeteredFlusher implements Runnable
 {
     private static final Logger logger = LoggerFactory.getLogger(MeteredFlusher.class);
 
+    /** delay between two runs */
+    public static final long INTERVAL_IN_MS = 1000;
+
     public void run()
     {
-        long totalMemtableBytesAllowed = DatabaseDescriptor.getTotalMemtableSpaceInMB() * 1048576L;
+        run(DatabaseDescriptor.getTotalMemtableSpaceInMB() * 1048576L,
+            DatabaseDescriptor.getTotalMemtableOffHeapSpaceInMB() * 1048576L);
+    }
 
+    @VisibleForTesting
+    void run(long heapBytesAllowed, long offHeapBytesAllowed)
+    {
         // first, find how much memory non-active memtables are using
-        long flushingBytes = Memtable.activelyMeasuring == null
-                           ? 0
-                           : Memtable.activelyMeasuring.getMemtableThreadSafe().getLiveSize();
-        flushingBytes += countFlushingBytes();
-        if (flushingBytes > 0)
-            logger.debug("Currently flushing {} bytes of {} max", flushingBytes, totalMemtableBytesAllowed);
+        MemoryUsage flushing = countFlushingBytes();
+        if (!flushing.isEmpty())
+            logger.debug("Currently flushing {} bytes of heap of {} max and {} bytes off heap of {} max",
+                         flushing.heap, heapBytesAllowed, flushing.offHeap, offHeapBytesAllowed);
+
+        Map<UUID, Integer> pinnedSegments = CommitLog.instance.getPinnedSegmentCounts();
+        int activeSegments = Math.max(1, CommitLog.instance.activeSegments());
 
         // next, flush CFs using more than 1 / (maximum number of memtables it could have in the pipeline)
-        // of the total size allotted.  Then, flush other CFs in order of size if necessary.
-        long liveBytes = 0;
+        // of either of the totals allotted.  Then, flush other CFs in order of score if necessary.
+        MemoryUsage live = new MemoryUsage();
+        MemoryUsage projected = new MemoryUsage();
         try
         {
-            long totalMemtableBytesUnused = totalMemtableBytesAllowed - flushingBytes;
+            long heapBytesUnused = heapBytesAllowed - flushing.heap;
+            long offHeapBytesUnused = offHeapBytesAllowed - flushing.offHeap;
+            List<Candidate> candidates = new ArrayList<Candidate>();
             for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
             {
-                long size = cfs.getTotalMemtableLiveSize();
+                long heap = cfs.getTotalMemtableHeapSize();
+                long offHeap = cfs.getTotalMemtableOffHeapSize();
                 int maxInFlight = (int) Math.ceil((double) (1 // live memtable
-                                                            + 1 // potentially a flushed memtable being counted by jamm
                                                             + DatabaseDescriptor.getFlushWriters()
                                                             + DatabaseDescriptor.getFlushQueueSize())
                                                   / (1 + cfs.indexManager.getIndexesBackedByCfs().size()));
-                if (cfs.getCompactionStrategy().isAffectedByMeteredFlusher() && totalMemtableBytesUnused > 0 && size > totalMemtableBytesUnused / maxInFlight)
+                if (cfs.getCompactionStrategy().isAffectedByMeteredFlusher()
+                    && ((heapBytesUnused > 0 && heap > heapBytesUnused / maxInFlight)
+                        || (offHeapBytesUnused > 0 && offHeap > offHeapBytesUnused / maxInFlight)))
                 {
-                    logger.info("flushing high-traffic column family {} (estimated {} bytes)", cfs, size);
+                    logger.info("flushing high-traffic column family {} ({} bytes of heap and {} bytes off heap)", cfs, heap, offHeap);
                     cfs.forceFlush();
+                    continue;
                 }
-                else
+
+                // assume the memtable keeps growing at the rate it did since it was created; young memtables
+                // are assumed to be at least a run old, so that a burst doesn't make their rate look unbounded
+                long age = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cfs.getMemtableThreadSafe().creationNano());
+                long interval = Math.max(age, INTERVAL_IN_MS);
+                MemoryUsage cfsProjected = new MemoryUsage(heap + heap * INTERVAL_IN_MS / interval,
+                                                           offHeap + offHeap * INTERVAL_IN_MS / interval);
+                live.add(heap, offHeap);
+                projected.add(cfsProjected.heap, cfsProjected.offHeap);
+
+                if (cfs.getCompactionStrategy().isAffectedByMeteredFlusher() && (heap > 0 || offHeap > 0))
                 {
-                    liveBytes += size;
+                    Integer pinned = pinnedSegments.get(cfs.metadata.cfId);
+                    double pinnedShare = pinned == null ? 0 : (double) pinned / activeSegments;
+                    double share = Math.max((double) heap / heapBytesAllowed, (double) offHeap / offHeapBytesAllowed);
+                    candidates.add(new Candidate(cfs, cfsProjected, share * (1 + pinnedShare), pinned == null ? 0 : pinned));
                 }
             }
 
-            if (flushingBytes + liveBytes <= totalMemtableBytesAllowed)
+            if (projected.fits(flushing, heapBytesAllowed, offHeapBytesAllowed))
                 return;
 
-            logger.info("estimated {} live and {} flushing bytes used by all memtables", liveBytes, flushingBytes);
-
-            // sort memtables by size
-            List<ColumnFamilyStore> sorted = new ArrayList<ColumnFamilyStore>();
-            Iterables.addAll(sorted, ColumnFamilyStore.all());
-            Collections.sort(sorted, new Comparator<ColumnFamilyStore>()
-            {
-                public int compare(ColumnFamilyStore o1, ColumnFamilyStore o2)
-                {
-                    long size1 = o1.getTotalMemtableLiveSize();
-                    long size2 = o2.getTotalMemtableLiveSize();
-                    if (size1 < size2)
-                        return -1;
-                    if (size1 > size2)
-                        return 1;
-                    return 0;
-                }
-            });
+            logger.info("{} live bytes of heap and {} off heap ({} and {} projected by next check), {} and {} flushing, used by all memtables",
+                        live.heap, live.offHeap, projected.heap, projected.offHeap, flushing.heap, flushing.offHeap);
 
-            // flush largest first until we get below our threshold.
-            // although it looks like liveBytes + flushingBytes will stay a constant, it will not if flushes finish
+            // flush best scores first until we get below our thresholds.
+            // although it looks like projected + flushing will stay a constant, it will not if flushes finish
             // while we loop, which is especially likely to happen if the flush queue fills up (so further forceFlush calls block)
-            while (!sorted.isEmpty())
+            Collections.sort(candidates);
+            for (Candidate candidate : candidates)
             {
-                flushingBytes = countFlushingBytes();
-                if (liveBytes + flushingBytes <= totalMemtableBytesAllowed)
+                flushing = countFlushingBytes();
+                if (projected.fits(flushing, heapBytesAllowed, offHeapBytesAllowed))
                     break;
 
-                ColumnFamilyStore cfs = sorted.remove(sorted.size() - 1);
-                if (cfs.getCompactionStrategy().isAffectedByMeteredFlusher())
-                {
-                    long size = cfs.getTotalMemtableLiveSize();
-                    if (size == 0)
-                        break;
-                    logger.info("flushing {} to free up {} bytes", cfs, size);
-                    liveBytes -= size;
-                    cfs.forceFlush();
-                }
+                logger.info("flushing {} to free up {} bytes of heap, {} bytes off heap and {} pinned commit log segments",
+                            candidate.cfs, candidate.projected.heap, candidate.projected.offHeap, candidate.pinnedSegments);
+                projected.add(-candidate.projected.heap, -candidate.projected.offHeap);
+                candidate.cfs.forceFlush();
             }
         }
         finally
         {
-            logger.trace("memtable memory usage is {} bytes with {} live", liveBytes + flushingBytes, liveBytes);
+            logger.trace("memtable memory usage is {} bytes of heap with {} live, and {} bytes off heap with {} live",
+                         live.heap + flushing.heap, live.heap, live.offHeap + flushing.offHeap, live.offHeap);
         }
     }
 
-    private long countFlushingBytes()
+    private MemoryUsage countFlushingBytes()
     {
-        long flushingBytes = 0;
+        MemoryUsage flushing = new MemoryUsage();
         for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
         {
-            for (Memtable memtable : cfs.getMemtablesPendingFlush())
-                flushingBytes += memtable.getLiveSize();
+            for (ColumnFamilyStore store : cfs.concatWithIndexes())
+            {
+                for (Memtable memtable : store.getMemtablesPendingFlush())
+                    flushing.add(memtable.getHeapSize(), memtable.getOffHeapSize());
+            }
+        }
+        return flushing;
+    }
+
+    /**
+     * Bytes of memory used on the heap, and in native memory.
+     */
+    private static class MemoryUsage
+    {
+        long heap;
+        long offHeap;
+
+        MemoryUsage()
+        {
+        }
+
+        MemoryUsage(long heap, long offHeap)
+        {
+            this.heap = heap;
+            this.offHeap = offHeap;
+        }
+
+        void add(long heap, long offHeap)
+        {
+            this.heap += heap;
+            this.offHeap += offHeap;
+        }
+
+        boolean isEmpty()
+        {
+            return heap == 0 && offHeap == 0;
+        }
+
+        /**
+         * @return true if this usage, plus the given one, is within both limits
+         */
+        boolean fits(MemoryUsage other, long heapAllowed, long offHeapAllowed)
+        {
+            return heap + other.heap <= heapAllowed && offHeap + other.offHeap <= offHeapAllowed;
+        }
+    }
+
+    private static class Candidate implements Comparable<Candidate>
+    {
+        final ColumnFamilyStore cfs;
+        final MemoryUsage projected;
+        final double score;
+        final int pinnedSegments;
+
+        Candidate(ColumnFamilyStore cfs, MemoryUsage projected, double score, int pinnedSegments)
+        {
+            this.cfs = cfs;
+            this.projected = projected;
+            this.score = score;
+            this.pinnedSegments = pinnedSegments;
+        }
+
+        // best scores first
+        public int compareTo(Candidate that)
+        {
+            return Doubles.compare(that.score, this.score);
         }
-        return flushingBytes;
     }
 }
@@ -20,7 +20,7 @@ package org.apache.cassandra.db;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
 
@@ -30,6 +30,7 @@ import org.apache.cassandra.cache.IMeasurableMemory;
 import org.apache.cassandra.io.sstable.Descriptor;
 import org.apache.cassandra.io.sstable.IndexHelper;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.ObjectSizes;
 
 public class RowIndexEntry implements IMeasurableMemory
@@ -102,8 +103,15 @@ public class RowIndexEntry implements IMeasurableMemory
             {
                 DeletionTime.serializer.serialize(rie.deletionTime(), out);
                 out.writeInt(rie.columnsIndex().size());
-                for (IndexHelper.IndexInfo info : rie.columnsIndex())
-                    info.serialize(out);
+                if (rie.columnsIndex() instanceof IndexHelper.SerializedIndex)
+                {
+                    ((IndexHelper.SerializedIndex) rie.columnsIndex()).serialize(out);
+                }
+                else
+                {
+                    for (IndexHelper.IndexInfo info : rie.columnsIndex())
+                        info.serialize(out);
+                }
             }
         }
 
@@ -117,9 +125,13 @@ public class RowIndexEntry implements IMeasurableMemory
                 DeletionTime deletionTime = DeletionTime.serializer.deserialize(in);
 
                 int entries = in.readInt();
-                List<IndexHelper.IndexInfo> columnsIndex = new ArrayList<IndexHelper.IndexInfo>(entries);
-                for (int i = 0; i < entries; i++)
-                    columnsIndex.add(IndexHelper.IndexInfo.deserialize(in));
+                // the column index of a wide row can have thousands of entries: rather than deserializing them
+                // all, on every key cache miss, keep them in a single buffer and deserialize the few searched
+                int columnsIndexSize = size - Ints.checkedCast(DeletionTime.serializer.serializedSize(deletionTime, TypeSizes.NATIVE))
+                                       - TypeSizes.NATIVE.sizeof(entries);
+                ByteBuffer bytes = ByteBufferUtil.read(in, columnsIndexSize);
+                IndexHelper.SerializedIndex columnsIndex = new IndexHelper.SerializedIndex(bytes);
+                assert columnsIndex.size() == entries;
 
                 return new IndexedEntry(position, deletionTime, columnsIndex);
             }
@@ -180,8 +192,15 @@ public class RowIndexEntry implements IMeasurableMemory
             TypeSizes typeSizes = TypeSizes.NATIVE;
             long size = DeletionTime.serializer.serializedSize(deletionTime, typeSizes);
             size += typeSizes.sizeof(columnsIndex.size()); // number of entries
-            for (IndexHelper.IndexInfo info : columnsIndex)
-                size += info.serializedSize(typeSizes);
+            if (columnsIndex instanceof IndexHelper.SerializedIndex)
+            {
+                size += ((IndexHelper.SerializedIndex) columnsIndex).serializedSize();
+            }
+            else
+            {
+                for (IndexHelper.IndexInfo info : columnsIndex)
+                    size += info.serializedSize(typeSizes);
+            }
 
             return Ints.checkedCast(size);
         }
@@ -189,9 +208,18 @@ public class RowIndexEntry implements IMeasurableMemory
         @Override
         public long memorySize()
         {
-            long entrySize = 0;
-            for (IndexHelper.IndexInfo idx : columnsIndex)
-                entrySize += idx.memorySize();
+            long indexSize;
+            if (columnsIndex instanceof IndexHelper.SerializedIndex)
+            {
+                indexSize = ((IndexHelper.SerializedIndex) columnsIndex).memorySize();
+            }
+            else
+            {
+                long entrySize = 0;
+                for (IndexHelper.IndexInfo idx : columnsIndex)
+                    entrySize += idx.memorySize();
+                indexSize = ObjectSizes.getArraySize(columnsIndex.size(), ObjectSizes.getReferenceSize()) + entrySize + 4;
+            }
 
             return ObjectSizes.getSuperClassFieldSize(TypeSizes.NATIVE.sizeof(position))
                    + ObjectSizes.getFieldSize(// deletionTime
@@ -199,7 +227,7 @@ public class RowIndexEntry implements IMeasurableMemory
                                               // columnsIndex
                                               ObjectSizes.getReferenceSize())
                    + deletionTime.memorySize()
-                   + ObjectSizes.getArraySize(columnsIndex.size(), ObjectSizes.getReferenceSize()) + entrySize + 4;
+                   + indexSize;
         }
     }
 }
@@ -61,7 +61,7 @@ public class RowIteratorFactory
         // memtables
         for (Memtable memtable : memtables)
         {
-            iterators.add(new ConvertToColumnIterator<AtomicSortedColumns>(range, memtable.getEntryIterator(range.startKey(), range.stopKey())));
+            iterators.add(new ConvertToColumnIterator(range, memtable));
         }
 
         for (SSTableReader sstable : sstables)
@@ -117,15 +117,17 @@ public class RowIteratorFactory
     /**
      * Get a ColumnIterator for a specific key in the memtable.
      */
-    private static class ConvertToColumnIterator<T extends ColumnFamily> implements CloseableIterator<OnDiskAtomIterator>
+    private static class ConvertToColumnIterator implements CloseableIterator<OnDiskAtomIterator>
     {
         private final DataRange range;
-        private final Iterator<Map.Entry<DecoratedKey, T>> iter;
+        private final Memtable memtable;
+        private final Iterator<Map.Entry<DecoratedKey, AtomicBTreeColumns>> iter;
 
-        public ConvertToColumnIterator(DataRange range, Iterator<Map.Entry<DecoratedKey, T>> iter)
+        public ConvertToColumnIterator(DataRange range, Memtable memtable)
         {
             this.range = range;
-            this.iter = iter;
+            this.memtable = memtable;
+            this.iter = memtable.getEntryIterator(range.startKey(), range.stopKey());
         }
 
         public boolean hasNext()
@@ -142,12 +144,12 @@ public class RowIteratorFactory
          */
         public OnDiskAtomIterator next()
         {
-            final Map.Entry<DecoratedKey, T> entry = iter.next();
+            final Map.Entry<DecoratedKey, AtomicBTreeColumns> entry = iter.next();
             return new LazyColumnIterator(entry.getKey(), new IColumnIteratorFactory()
             {
                 public OnDiskAtomIterator create()
                 {
-                    return range.columnFilter(entry.getKey().key).getColumnFamilyIterator(entry.getKey(), entry.getValue());
+                    return memtable.maybeCopyToHeap(range.columnFilter(entry.getKey().key).getColumnFamilyIterator(entry.getKey(), entry.getValue()));
                 }
             });
         }
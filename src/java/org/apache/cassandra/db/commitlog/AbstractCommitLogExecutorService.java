@@ -17,39 +17,193 @@
  */
 package org.apache.cassandra.db.commitlog;
 
-import java.util.List;
-import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public abstract class AbstractCommitLogExecutorService extends AbstractExecutorService implements ICommitLogExecutorService
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.utils.WrappedRunnable;
+
+/**
+ * A thread syncing the log whenever the sync mode says it is due (see {@link #awaitSyncDue()}), and the means for
+ * writers to wait for it.  A writer that needs its append to be synced requests a sync, and waits for the first
+ * sync that started after its append completed: syncs wait for the appends in progress to complete, so any sync
+ * starting later covers it.
+ */
+public abstract class AbstractCommitLogExecutorService implements ICommitLogExecutorService
 {
-    protected volatile long completedTaskCount = 0;
+    private static final Logger logger = LoggerFactory.getLogger(AbstractCommitLogExecutorService.class);
+
+    private final AtomicLong completedTaskCount = new AtomicLong();
+    private volatile long pendingTaskCount;
+
+    private final CommitLog commitLog;
+    private final Thread syncingThread;
+    protected volatile boolean run = true;
+
+    // guards all the fields below, and is what the syncing thread and the writers wait on
+    protected final Object lock = new Object();
+    // syncs are numbered from 1 on; the number of the last one started, and of the last one to have succeeded
+    private long lastSyncStarted;
+    private long lastSynced;
+    // when the last sync started
+    protected long lastSyncStartedAt = System.nanoTime();
+    // when the last successful sync started, read without the lock
+    protected volatile long lastSyncedAt = System.nanoTime();
+
+    // whether a writer is waiting for the next sync, since when, and how many bytes they appended
+    protected boolean syncRequested;
+    protected long firstRequestAt;
+    protected long requestedBytes;
+
+    protected AbstractCommitLogExecutorService(CommitLog commitLog, String name)
+    {
+        this.commitLog = commitLog;
+        syncingThread = new Thread(new WrappedRunnable()
+        {
+            public void runMayThrow() throws Exception
+            {
+                while (syncOnce())
+                    ;
+            }
+        }, name);
+    }
 
     /**
-     * Get the number of completed tasks
+     * Starts the syncing thread; called by the subclasses once they are fully constructed.
      */
-    public long getCompletedTasks()
+    protected void start()
     {
-        return completedTaskCount;
+        syncingThread.start();
     }
 
-    public boolean isTerminated()
+    /**
+     * Waits, holding the lock, until the next sync is due, or until we are shut down.
+     */
+    protected abstract void awaitSyncDue() throws InterruptedException;
+
+    /**
+     * @return false once we have done the last sync, following a shutdown request
+     */
+    private boolean syncOnce() throws InterruptedException
     {
-        throw new UnsupportedOperationException();
+        long sync;
+        boolean last;
+        synchronized (lock)
+        {
+            awaitSyncDue();
+            last = !run;
+            sync = ++lastSyncStarted;
+            lastSyncStartedAt = System.nanoTime();
+            syncRequested = false;
+            requestedBytes = 0;
+        }
+
+        try
+        {
+            commitLog.sync();
+        }
+        catch (Throwable t)
+        {
+            // the writers waiting for this sync will wait for the next one, which may well succeed; don't spin
+            // on a failing disk meanwhile though
+            logger.error("Failed to sync commit log", t);
+            Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+            synchronized (lock)
+            {
+                if (pendingTaskCount > 0)
+                    requestSync(0);
+            }
+            return !last;
+        }
+
+        synchronized (lock)
+        {
+            lastSynced = sync;
+            lastSyncedAt = lastSyncStartedAt;
+            lock.notifyAll();
+        }
+        return !last;
     }
 
-    public boolean isShutdown()
+    // must hold the lock
+    private void requestSync(long bytes)
     {
-        throw new UnsupportedOperationException();
+        if (!syncRequested)
+        {
+            syncRequested = true;
+            firstRequestAt = System.nanoTime();
+            lock.notifyAll();
+        }
+        requestedBytes += bytes;
     }
 
-    public List<Runnable> shutdownNow()
+    /**
+     * Blocks until the log has been synced past the given append.
+     */
+    protected void waitForSync(CommitLogSegment.Allocation alloc)
     {
-        throw new UnsupportedOperationException();
+        synchronized (lock)
+        {
+            long sync = lastSyncStarted + 1;
+            requestSync(alloc.getSize());
+            onSyncRequested();
+            pendingTaskCount++;
+            try
+            {
+                while (lastSynced < sync)
+                    lock.wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+            finally
+            {
+                pendingTaskCount--;
+            }
+        }
     }
 
-    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    /**
+     * Called with the lock held each time a writer has requested a sync, so that the subclass can wake up the
+     * syncing thread if the sync is due.
+     */
+    protected void onSyncRequested()
+    {
+    }
+
+    public void finishWriteFor(CommitLogSegment.Allocation alloc)
+    {
+        maybeWaitForSync(alloc);
+        completedTaskCount.incrementAndGet();
+    }
+
+    protected abstract void maybeWaitForSync(CommitLogSegment.Allocation alloc);
+
+    public void shutdown()
+    {
+        synchronized (lock)
+        {
+            run = false;
+            lock.notifyAll();
+        }
+    }
+
+    public void awaitTermination() throws InterruptedException
+    {
+        syncingThread.join();
+    }
+
+    public long getPendingTasks()
+    {
+        return pendingTaskCount;
+    }
+
+    public long getCompletedTasks()
     {
-        throw new UnsupportedOperationException();
+        return completedTaskCount.get();
     }
 }
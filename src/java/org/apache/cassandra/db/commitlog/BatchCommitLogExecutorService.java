@@ -17,160 +17,26 @@
  */
 package org.apache.cassandra.db.commitlog;
 
-import java.util.ArrayList;
-import java.util.concurrent.*;
-
-import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.utils.FBUtilities;
-import org.apache.cassandra.utils.WrappedRunnable;
-
+/**
+ * Batch mode: a write is only acknowledged once the log has been synced past it.  The log is synced as soon as a
+ * writer asks for it, so all the writes appended while a sync is in progress share the next one.
+ */
 class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService
 {
-    private final BlockingQueue<CheaterFutureTask> queue;
-    private final Thread appendingThread;
-    private volatile boolean run = true;
-
-    public BatchCommitLogExecutorService()
+    public BatchCommitLogExecutorService(CommitLog commitLog)
     {
-        this(DatabaseDescriptor.getConcurrentWriters());
+        super(commitLog, "COMMIT-LOG-WRITER");
+        start();
     }
 
-    public BatchCommitLogExecutorService(int queueSize)
+    protected void awaitSyncDue() throws InterruptedException
     {
-        queue = new LinkedBlockingQueue<CheaterFutureTask>(queueSize);
-        Runnable runnable = new WrappedRunnable()
-        {
-            public void runMayThrow() throws Exception
-            {
-                while (run)
-                {
-                    if (processWithSyncBatch())
-                        completedTaskCount++;
-                }
-            }
-        };
-        appendingThread = new Thread(runnable, "COMMIT-LOG-WRITER");
-        appendingThread.start();
-
+        while (run && !syncRequested)
+            lock.wait();
     }
 
-    public long getPendingTasks()
+    protected void maybeWaitForSync(CommitLogSegment.Allocation alloc)
     {
-        return queue.size();
+        waitForSync(alloc);
     }
-
-    private final ArrayList<CheaterFutureTask> incompleteTasks = new ArrayList<CheaterFutureTask>();
-    private final ArrayList taskValues = new ArrayList(); // TODO not sure how to generify this
-    private boolean processWithSyncBatch() throws Exception
-    {
-        CheaterFutureTask firstTask = queue.poll(100, TimeUnit.MILLISECONDS);
-        if (firstTask == null)
-            return false;
-        if (!(firstTask.getRawCallable() instanceof CommitLog.LogRecordAdder))
-        {
-            firstTask.run();
-            return true;
-        }
-
-        // attempt to do a bunch of LogRecordAdder ops before syncing
-        // (this is a little clunky since there is no blocking peek method,
-        //  so we have to break it into firstTask / extra tasks)
-        incompleteTasks.clear();
-        taskValues.clear();
-        long start = System.nanoTime();
-        long window = (long)(1000000 * DatabaseDescriptor.getCommitLogSyncBatchWindow());
-
-        // it doesn't seem worth bothering future-izing the exception
-        // since if a commitlog op throws, we're probably screwed anyway
-        incompleteTasks.add(firstTask);
-        taskValues.add(firstTask.getRawCallable().call());
-        while (!queue.isEmpty()
-               && queue.peek().getRawCallable() instanceof CommitLog.LogRecordAdder
-               && System.nanoTime() - start < window)
-        {
-            CheaterFutureTask task = queue.remove();
-            incompleteTasks.add(task);
-            taskValues.add(task.getRawCallable().call());
-        }
-
-        // now sync and set the tasks' values (which allows thread calling get() to proceed)
-        CommitLog.instance.sync();
-        for (int i = 0; i < incompleteTasks.size(); i++)
-        {
-            incompleteTasks.get(i).set(taskValues.get(i));
-        }
-        return true;
-    }
-
-
-    @Override
-    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
-    {
-        return newTaskFor(Executors.callable(runnable, value));
-    }
-
-    @Override
-    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
-    {
-        return new CheaterFutureTask(callable);
-    }
-
-    public void execute(Runnable command)
-    {
-        try
-        {
-            queue.put((CheaterFutureTask)command);
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public void add(CommitLog.LogRecordAdder adder)
-    {
-        FBUtilities.waitOnFuture(submit((Callable)adder));
-    }
-
-    public void shutdown()
-    {
-        new Thread(new WrappedRunnable()
-        {
-            public void runMayThrow() throws InterruptedException
-            {
-                while (!queue.isEmpty())
-                    Thread.sleep(100);
-                run = false;
-                appendingThread.join();
-            }
-        }, "Commitlog Shutdown").start();
-    }
-
-    public void awaitTermination() throws InterruptedException
-    {
-        appendingThread.join();
-    }
-
-    private static class CheaterFutureTask<V> extends FutureTask<V>
-    {
-        private final Callable rawCallable;
-
-        public CheaterFutureTask(Callable<V> callable)
-        {
-            super(callable);
-            rawCallable = callable;
-        }
-
-        public Callable getRawCallable()
-        {
-            return rawCallable;
-        }
-
-        @Override
-        public void set(V v)
-        {
-            super.set(v);
-        }
-    }
-
 }
@@ -20,8 +20,6 @@ package org.apache.cassandra.db.commitlog;
 import java.io.*;
 import java.lang.management.ManagementFactory;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
@@ -29,13 +27,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.io.FSWriteError;
 import org.apache.cassandra.metrics.CommitLogMetrics;
 import org.apache.cassandra.net.MessagingService;
-import org.apache.cassandra.utils.FBUtilities;
 
 /*
  * Commit Log tracks every write operation into the system. The aim of the commit log is to be able to
@@ -56,9 +52,14 @@ public class CommitLog implements CommitLogMBean
     public static final int END_OF_SEGMENT_MARKER = 0;          // this is written out at the end of a segment
     public static final int END_OF_SEGMENT_MARKER_SIZE = 4;     // number of bytes of ^^^
 
-    public CommitLogSegment activeSegment;
+    // the segment appends allocate from
+    public volatile CommitLogSegment activeSegment;
+    // serializes the switches of activeSegment
+    private final Object allocationLock = new Object();
+    // entries have to fit in a segment after its header
+    private final int maxEntrySize;
 
-    private final CommitLogMetrics metrics;
+    final CommitLogMetrics metrics;
 
     private CommitLog()
     {
@@ -66,10 +67,19 @@ public class CommitLog implements CommitLogMBean
 
         allocator = new CommitLogAllocator();
         activateNextSegment();
+        maxEntrySize = DatabaseDescriptor.getCommitLogSegmentSize() - activeSegment.descriptor.headerSize();
 
-        executor = DatabaseDescriptor.getCommitLogSync() == Config.CommitLogSync.batch
-                 ? new BatchCommitLogExecutorService()
-                 : new PeriodicCommitLogExecutorService(this);
+        switch (DatabaseDescriptor.getCommitLogSync())
+        {
+            case batch:
+                executor = new BatchCommitLogExecutorService(this);
+                break;
+            case group:
+                executor = new GroupCommitLogExecutorService(this);
+                break;
+            default:
+                executor = new PeriodicCommitLogExecutorService(this);
+        }
 
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
         try
@@ -90,8 +100,19 @@ public class CommitLog implements CommitLogMBean
      */
     public void resetUnsafe()
     {
-        allocator.resetUnsafe();
-        activateNextSegment();
+        synchronized (allocationLock)
+        {
+            // don't unmap segments that writers are still appending to, and sync them so that tests can replay
+            // everything that was appended (a compressed segment only writes its file when synced)
+            for (CommitLogSegment segment : allocator.getActiveSegments())
+            {
+                segment.discardUnusedTail();
+                segment.waitForModifications();
+                segment.sync();
+            }
+            allocator.resetUnsafe();
+            activateNextSegment();
+        }
     }
 
     /**
@@ -156,19 +177,12 @@ public class CommitLog implements CommitLogMBean
     }
 
     /**
-     * @return a Future representing a ReplayPosition such that when it is ready,
-     * all commitlog tasks enqueued prior to the getContext call will be complete (i.e., appended to the log)
+     * @return a ReplayPosition which all the appends that have completed before the call are before.  (Appends
+     * still in progress may be on either side of it.)
      */
-    public Future<ReplayPosition> getContext()
+    public ReplayPosition getContext()
     {
-        Callable<ReplayPosition> task = new Callable<ReplayPosition>()
-        {
-            public ReplayPosition call()
-            {
-                return activeSegment.getContext();
-            }
-        };
-        return executor.submit(task);
+        return activeSegment.getContext();
     }
 
     /**
@@ -185,10 +199,65 @@ public class CommitLog implements CommitLogMBean
      * Add a RowMutation to the commit log.
      *
      * @param rm the RowMutation to add to the log
+     * @return the position after the mutation in the log, or null if it was too large to be logged
+     */
+    public ReplayPosition add(RowMutation rm)
+    {
+        long totalSize = RowMutation.serializer.serializedSize(rm, MessagingService.current_version) + CommitLogSegment.ENTRY_OVERHEAD_SIZE;
+        if (totalSize > maxEntrySize)
+        {
+            logger.warn("Skipping commitlog append of extremely large mutation ({} bytes)", totalSize);
+            return null;
+        }
+
+        CommitLogSegment.Allocation alloc = allocate(rm, (int) totalSize);
+        try
+        {
+            alloc.write(rm);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, alloc.getSegment().getPath());
+        }
+        finally
+        {
+            alloc.markWritten();
+        }
+        executor.finishWriteFor(alloc);
+        return alloc.getReplayPosition();
+    }
+
+    /**
+     * Reserves space for the mutation in the active segment, switching to a new segment if it is full.
+     */
+    private CommitLogSegment.Allocation allocate(RowMutation rm, int size)
+    {
+        CommitLogSegment segment = activeSegment;
+        CommitLogSegment.Allocation alloc;
+        while ((alloc = segment.allocate(rm, size)) == null)
+        {
+            advanceAllocatingFrom(segment);
+            segment = activeSegment;
+        }
+        return alloc;
+    }
+
+    /**
+     * Replaces the given segment by a new one as the active segment, unless another writer already did.
      */
-    public void add(RowMutation rm)
+    private void advanceAllocatingFrom(CommitLogSegment oldSegment)
     {
-        executor.add(new LogRecordAdder(rm));
+        synchronized (allocationLock)
+        {
+            if (activeSegment != oldSegment)
+                return;
+            oldSegment.discardUnusedTail();
+            activateNextSegment();
+        }
+
+        // Now we can run the user defined command just before switching to the new commit log.
+        // (Do this here instead of in the recycle call so we can get a head start on the archive.)
+        archiver.maybeArchive(oldSegment);
     }
 
     /**
@@ -198,55 +267,49 @@ public class CommitLog implements CommitLogMBean
      * @param cfId    the column family ID that was flushed
      * @param context the replay position of the flush
      */
-    public void discardCompletedSegments(final UUID cfId, final ReplayPosition context)
+    public synchronized void discardCompletedSegments(UUID cfId, ReplayPosition context)
     {
-        Callable task = new Callable()
+        logger.debug("discard completed log segments for {}, column family {}", context, cfId);
+
+        // Go thru the active segment files, which are ordered oldest to newest, marking the
+        // flushed CF as clean, until we reach the segment file containing the ReplayPosition passed
+        // in the arguments. Any segments that become unused after they are marked clean will be
+        // recycled or discarded.
+        for (Iterator<CommitLogSegment> iter = allocator.getActiveSegments().iterator(); iter.hasNext();)
         {
-            public Object call()
+            CommitLogSegment segment = iter.next();
+            // the segment containing the position of the flush may have been recycled already, in which case
+            // we must still not touch the newer ones
+            if (segment.id > context.segment)
+                break;
+            segment.markClean(cfId, context);
+
+            // If the segment is no longer needed, and we have another spare segment in the hopper
+            // (to keep the last segment from getting discarded), pursue either recycling or deleting
+            // this segment file.
+            if (iter.hasNext())
             {
-                logger.debug("discard completed log segments for {}, column family {}", context, cfId);
-
-                // Go thru the active segment files, which are ordered oldest to newest, marking the
-                // flushed CF as clean, until we reach the segment file containing the ReplayPosition passed
-                // in the arguments. Any segments that become unused after they are marked clean will be
-                // recycled or discarded.
-                for (Iterator<CommitLogSegment> iter = allocator.getActiveSegments().iterator(); iter.hasNext();)
+                if (segment.isUnused())
                 {
-                    CommitLogSegment segment = iter.next();
-                    segment.markClean(cfId, context);
-
-                    // If the segment is no longer needed, and we have another spare segment in the hopper
-                    // (to keep the last segment from getting discarded), pursue either recycling or deleting
-                    // this segment file.
-                    if (iter.hasNext())
-                    {
-                        if (segment.isUnused())
-                        {
-                            logger.debug("Commit log segment {} is unused", segment);
-                            allocator.recycleSegment(segment);
-                        }
-                        else
-                        {
-                            logger.debug("Not safe to delete commit log segment {}; dirty is {}",
-                                         segment, segment.dirtyString());
-                        }
-                    }
-                    else
-                    {
-                        logger.debug("Not deleting active commitlog segment {}", segment);
-                    }
-
-                    // Don't mark or try to delete any newer segments once we've reached the one containing the
-                    // position of the flush.
-                    if (segment.contains(context))
-                        break;
+                    logger.debug("Commit log segment {} is unused", segment);
+                    allocator.recycleSegment(segment);
+                }
+                else
+                {
+                    logger.debug("Not safe to delete commit log segment {}; dirty is {}",
+                                 segment, segment.dirtyString());
                 }
-
-                return null;
             }
-        };
+            else
+            {
+                logger.debug("Not deleting active commitlog segment {}", segment);
+            }
 
-        FBUtilities.waitOnFuture(executor.submit(task));
+            // Don't mark or try to delete any newer segments once we've reached the one containing the
+            // position of the flush.
+            if (segment.contains(context))
+                break;
+        }
     }
 
     /**
@@ -284,6 +347,12 @@ public class CommitLog implements CommitLogMBean
         return metrics.totalCommitLogSize.value();
     }
 
+    public double getReplayProgress()
+    {
+        long toReplay = metrics.bytesToReplay.count();
+        return toReplay == 0 ? 1 : (double) metrics.replayedBytes.count() / toReplay;
+    }
+
     /**
      * Fetches a new segment file from the allocator and activates it.
      *
@@ -295,6 +364,25 @@ public class CommitLog implements CommitLogMBean
         logger.debug("Active segment is now {}", activeSegment);
     }
 
+    /**
+     * @return for each column family dirty in an active segment, the number of active segments that can't be
+     * recycled before it is flushed: the ones from the oldest segment it is dirty in to the newest one.
+     */
+    public Map<UUID, Integer> getPinnedSegmentCounts()
+    {
+        List<CommitLogSegment> segments = new ArrayList<CommitLogSegment>(allocator.getActiveSegments());
+        Map<UUID, Integer> pinned = new HashMap<UUID, Integer>();
+        for (int i = 0; i < segments.size(); i++)
+        {
+            for (UUID cfId : segments.get(i).getDirtyCFIDs())
+            {
+                if (!pinned.containsKey(cfId))
+                    pinned.put(cfId, segments.size() - i);
+            }
+        }
+        return pinned;
+    }
+
     public List<String> getActiveSegmentNames()
     {
         List<String> segmentNames = new ArrayList<String>();
@@ -318,49 +406,4 @@ public class CommitLog implements CommitLogMBean
         allocator.shutdown();
         allocator.awaitTermination();
     }
-
-    // TODO this should be a Runnable since it doesn't actually return anything, but it's difficult to do that
-    // without breaking the fragile CheaterFutureTask in BatchCLES.
-    class LogRecordAdder implements Callable, Runnable
-    {
-        final RowMutation rowMutation;
-
-        LogRecordAdder(RowMutation rm)
-        {
-            this.rowMutation = rm;
-        }
-
-        public void run()
-        {
-            long totalSize = RowMutation.serializer.serializedSize(rowMutation, MessagingService.current_version) + CommitLogSegment.ENTRY_OVERHEAD_SIZE;
-            if (totalSize > DatabaseDescriptor.getCommitLogSegmentSize())
-            {
-                logger.warn("Skipping commitlog append of extremely large mutation ({} bytes)", totalSize);
-                return;
-            }
-
-            if (!activeSegment.hasCapacityFor(totalSize))
-            {
-                CommitLogSegment oldSegment = activeSegment;
-                activateNextSegment();
-                // Now we can run the user defined command just before switching to the new commit log.
-                // (Do this here instead of in the recycle call so we can get a head start on the archive.)
-                archiver.maybeArchive(oldSegment.getPath(), oldSegment.getName());
-            }
-            try
-            {
-                activeSegment.write(rowMutation);
-            }
-            catch (IOException e)
-            {
-                throw new FSWriteError(e, activeSegment.getPath());
-            }
-        }
-
-        public Object call()
-        {
-            run();
-            return null;
-        }
-    }
 }
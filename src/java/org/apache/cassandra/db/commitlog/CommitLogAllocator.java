@@ -132,6 +132,24 @@ public class CommitLogAllocator
 
         assert !activeSegments.contains(next);
         activeSegments.add(next);
+
+        // writers can't append while they wait for a segment, so start readying the next one right away
+        // instead of waiting for the allocation thread to be idle
+        if (availableSegments.isEmpty() && createReserveSegments)
+        {
+            queue.add(new Runnable()
+            {
+                public void run()
+                {
+                    if (availableSegments.isEmpty())
+                    {
+                        logger.debug("Last segment in reserve was taken; creating a fresh one");
+                        createFreshSegment();
+                    }
+                }
+            });
+        }
+
         if (isCapExceeded())
             flushOldestKeyspaces();
 
@@ -194,7 +212,7 @@ public class CommitLogAllocator
         {
             public void run()
             {
-                CommitLogSegment segment = new CommitLogSegment(file.getPath());
+                CommitLogSegment segment = CommitLogSegment.createSegment(file.getPath());
                 internalAddReadySegment(segment);
             }
         });
@@ -309,9 +327,8 @@ public class CommitLogAllocator
                 {
                     String keypace = pair.left;
                     final ColumnFamilyStore cfs = Keyspace.open(keypace).getColumnFamilyStore(dirtyCFId);
-                    // flush shouldn't run on the commitlog executor, since it acquires Table.switchLock,
-                    // which may already be held by a thread waiting for the CL executor (via getContext),
-                    // causing deadlock
+                    // we're called by a writer switching segments, which other writers may be waiting for,
+                    // so don't make it wait for the flush
                     Runnable runnable = new Runnable()
                     {
                         public void run()
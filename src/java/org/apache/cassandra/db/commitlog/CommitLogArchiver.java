@@ -20,7 +20,9 @@
  */
 package org.apache.cassandra.db.commitlog;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
@@ -32,6 +34,7 @@ import java.util.concurrent.*;
 
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.io.FSReadError;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.WrappedRunnable;
@@ -103,17 +106,22 @@ public class CommitLogArchiver
         }
     }
 
-    public void maybeArchive(final String path, final String name)
+    public void maybeArchive(final CommitLogSegment segment)
     {
         if (Strings.isNullOrEmpty(archiveCommand))
             return;
 
-        archivePending.put(name, executor.submit(new WrappedRunnable()
+        archivePending.put(segment.getName(), executor.submit(new WrappedRunnable()
         {
             protected void runMayThrow() throws IOException
             {
-                String command = archiveCommand.replace("%name", name);
-                command = command.replace("%path", path);
+                // the appends to the segment may still be in progress, and a compressed segment only
+                // has them in its file once it's been synced
+                segment.waitForModifications();
+                segment.sync();
+
+                String command = archiveCommand.replace("%name", segment.getName());
+                command = command.replace("%path", segment.getPath());
                 exec(command);
             }
         }));
@@ -160,7 +168,14 @@ public class CommitLogArchiver
             }
             for (File fromFile : files)
             {
-                File toFile = new File(DatabaseDescriptor.getCommitLogLocation(), new CommitLogDescriptor(CommitLogSegment.getNextId()).fileName());
+                // since 2.1 the entries of a segment are checksummed along with its id, so the segment must keep it
+                CommitLogDescriptor descriptor = readDescriptor(fromFile);
+                File toFile = new File(DatabaseDescriptor.getCommitLogLocation(), descriptor.fileName());
+                if (toFile.exists())
+                {
+                    logger.debug("Skipping restore of archive {} as segment {} already exists", fromFile.getPath(), toFile.getPath());
+                    continue;
+                }
                 String command = restoreCommand.replace("%from", fromFile.getPath());
                 command = command.replace("%to", toFile.getPath());
                 try
@@ -175,6 +190,45 @@ public class CommitLogArchiver
         }
     }
 
+    /**
+     * @return the descriptor of an archived segment, from its header or, for the versions without one, its name
+     */
+    private static CommitLogDescriptor readDescriptor(File file)
+    {
+        CommitLogDescriptor fromName = CommitLogDescriptor.isValid(file.getName())
+                                     ? CommitLogDescriptor.fromFileName(file.getName())
+                                     : null;
+        if (fromName != null && fromName.getVersion() < CommitLogDescriptor.VERSION_21)
+            return fromName;
+
+        CommitLogDescriptor fromHeader;
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new FileInputStream(file));
+            fromHeader = CommitLogDescriptor.readHeader(in);
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, file);
+        }
+        finally
+        {
+            FileUtils.closeQuietly(in);
+        }
+
+        if (fromHeader == null)
+        {
+            if (fromName == null)
+                throw new IllegalStateException("Cannot restore archived segment " + file.getPath() + ": its name is not a segment name and it has no valid header");
+            // an archived segment whose header was never synced has nothing to replay, so its name will do
+            return fromName;
+        }
+        if (fromName != null && fromName.id != fromHeader.id)
+            throw new IllegalStateException(String.format("Cannot restore archived segment %s: its header is for segment %d", file.getPath(), fromHeader.id));
+        return fromHeader;
+    }
+
     private void exec(String command) throws IOException
     {
         ProcessBuilder pb = new ProcessBuilder(command.split(" "));
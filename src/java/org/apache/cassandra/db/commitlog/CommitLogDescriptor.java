@@ -20,10 +20,19 @@
  */
 package org.apache.cassandra.db.commitlog;
 
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Checksum;
+
+import com.google.common.base.Charsets;
 
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.PureJavaCrc32;
 
 public class CommitLogDescriptor
 {
@@ -44,16 +53,29 @@ public class CommitLogDescriptor
 
     private final int version;
     public final long id;
+    // the class of the compressor of the segment, or null if it isn't compressed
+    public final String compression;
 
-    public CommitLogDescriptor(int version, long id)
+    public CommitLogDescriptor(int version, long id, String compression)
     {
         this.version = version;
         this.id = id;
+        this.compression = compression;
+    }
+
+    public CommitLogDescriptor(int version, long id)
+    {
+        this(version, id, null);
+    }
+
+    public CommitLogDescriptor(long id, String compression)
+    {
+        this(current_version, id, compression);
     }
 
     public CommitLogDescriptor(long id)
     {
-        this(current_version, id);
+        this(id, null);
     }
 
     public static CommitLogDescriptor fromFileName(String name)
@@ -69,6 +91,11 @@ public class CommitLogDescriptor
         return new CommitLogDescriptor(Integer.parseInt(matcher.group(2)), id);
     }
 
+    public int getVersion()
+    {
+        return version;
+    }
+
     public int getMessagingVersion()
     {
         assert MessagingService.current_version == MessagingService.VERSION_21;
@@ -85,6 +112,70 @@ public class CommitLogDescriptor
         }
     }
 
+    /**
+     * Since 2.1, a segment starts with a header repeating its version and id, and naming its compressor: the file
+     * name alone doesn't tell us whether a segment is compressed, and a segment file renamed for recycling still
+     * holds the header of its previous use until its own is written.
+     *
+     * @return the size of the header of this segment
+     */
+    public int headerSize()
+    {
+        return 4 + 8 + 2 + compressionBytes().length + 4;
+    }
+
+    private byte[] compressionBytes()
+    {
+        return compression == null ? new byte[0] : compression.getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Writes the header of this segment at the current position of the buffer.
+     */
+    public void writeHeader(ByteBuffer out)
+    {
+        Checksum checksum = new PureJavaCrc32();
+        byte[] compressionBytes = compressionBytes();
+        out.putInt(version);
+        out.putLong(id);
+        out.putShort((short) compressionBytes.length);
+        out.put(compressionBytes);
+        updateHeaderChecksum(checksum, version, id, compressionBytes);
+        out.putInt((int) checksum.getValue());
+    }
+
+    /**
+     * @return the descriptor written in the header of a segment, or null if the header is incomplete or corrupt
+     */
+    public static CommitLogDescriptor readHeader(DataInput in) throws IOException
+    {
+        try
+        {
+            int version = in.readInt();
+            long id = in.readLong();
+            byte[] compressionBytes = new byte[in.readShort() & 0xFFFF];
+            in.readFully(compressionBytes);
+            Checksum checksum = new PureJavaCrc32();
+            updateHeaderChecksum(checksum, version, id, compressionBytes);
+            if (in.readInt() != (int) checksum.getValue())
+                return null;
+            return new CommitLogDescriptor(version, id, compressionBytes.length == 0 ? null : new String(compressionBytes, Charsets.UTF_8));
+        }
+        catch (EOFException e)
+        {
+            return null;
+        }
+    }
+
+    private static void updateHeaderChecksum(Checksum checksum, int version, long id, byte[] compressionBytes)
+    {
+        FBUtilities.updateChecksumInt(checksum, version);
+        FBUtilities.updateChecksumInt(checksum, (int) id);
+        FBUtilities.updateChecksumInt(checksum, (int) (id >>> 32));
+        FBUtilities.updateChecksumInt(checksum, compressionBytes.length);
+        checksum.update(compressionBytes, 0, compressionBytes.length);
+    }
+
     public String fileName()
     {
         return FILENAME_PREFIX + version + SEPARATOR + id + FILENAME_EXTENSION;
@@ -49,6 +49,12 @@ public interface CommitLogMBean
      */
     public void recover(String path) throws IOException;
 
+    /**
+     * @return the fraction of the bytes of the segments to replay that have been replayed, 1 if there is nothing to replay.
+     * @see org.apache.cassandra.metrics.CommitLogMetrics#replayedBytes
+     */
+    public double getReplayProgress();
+
     /**
      * @return file names (not full paths) of active commit log segments (segments containing unflushed data)
      */
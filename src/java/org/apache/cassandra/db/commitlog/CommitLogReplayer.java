@@ -19,50 +19,74 @@
 package org.apache.cassandra.db.commitlog;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.Future;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Checksum;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.cassandra.concurrent.Stage;
-import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.compress.CompressionParameters;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.io.util.FileDataInput;
 import org.apache.cassandra.io.util.FileUtils;
+import org.apache.cassandra.io.util.MappedFileDataInput;
 import org.apache.cassandra.io.util.RandomAccessReader;
 import org.apache.cassandra.utils.*;
 
 import org.cliffc.high_scale_lib.NonBlockingHashSet;
 
+/**
+ * Replays commit log segments.  The segments are read and deserialized concurrently, but their mutations are handed
+ * over to the appliers in the order of the segments, and all the mutations of a partition go to the same applier:
+ * the mutations of a partition are thus applied in the order they were logged.
+ */
 public class CommitLogReplayer
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogReplayer.class);
     private static final int MAX_OUTSTANDING_REPLAY_COUNT = 1024;
+    // mutations are handed over from the readers to the appliers by batches of this size
+    private static final int REPLAY_BATCH_SIZE = 64;
 
     private final Set<Keyspace> keyspacesRecovered;
-    private final List<Future<?>> futures;
-    private final Map<UUID, AtomicInteger> invalidMutations;
+    private final ConcurrentMap<UUID, AtomicInteger> invalidMutations;
     private final AtomicInteger replayedCount;
     private final Map<UUID, ReplayPosition> cfPositions;
     private final ReplayPosition globalPosition;
-    private final Checksum checksum;
-    private byte[] buffer;
+
+    // each partition is applied by a single thread
+    private final ExecutorService[] appliers;
+    private volatile Throwable applyFailure;
 
     public CommitLogReplayer()
     {
         this.keyspacesRecovered = new NonBlockingHashSet<Keyspace>();
-        this.futures = new ArrayList<Future<?>>();
-        this.buffer = new byte[4096];
-        this.invalidMutations = new HashMap<UUID, AtomicInteger>();
+        this.invalidMutations = new ConcurrentHashMap<UUID, AtomicInteger>();
         // count the number of replayed mutation. We don't really care about atomicity, but we need it to be a reference.
         this.replayedCount = new AtomicInteger();
-        this.checksum = new PureJavaCrc32();
+
+        appliers = new ExecutorService[DatabaseDescriptor.getConcurrentWriters()];
+        for (int i = 0; i < appliers.length; i++)
+        {
+            // idle threads time out, so the appliers go away even if the replay fails before blockForWrites
+            appliers[i] = new DebuggableThreadPoolExecutor(1,
+                                                           60,
+                                                           TimeUnit.SECONDS,
+                                                           new LinkedBlockingQueue<Runnable>(MAX_OUTSTANDING_REPLAY_COUNT / appliers.length + 1),
+                                                           new NamedThreadFactory("CommitLogReplayApplier:" + i));
+        }
 
         // compute per-CF and global replay positions
         cfPositions = new HashMap<UUID, ReplayPosition>();
@@ -89,8 +113,35 @@ public class CommitLogReplayer
 
     public void recover(File[] clogs) throws IOException
     {
-        for (final File file : clogs)
-            recover(file);
+        for (File file : clogs)
+            CommitLog.instance.metrics.bytesToReplay.inc(file.length());
+
+        // the readers start on the oldest segments, which are dispatched first, so a reader blocked on a dispatch
+        // queue can never hold up the dispatch of the segment it waits for
+        ExecutorService readExecutor = DebuggableThreadPoolExecutor.createWithFixedPoolSize("CommitLogReplayReader",
+                                                                                            Math.max(1, Math.min(clogs.length, FBUtilities.getAvailableProcessors())));
+        try
+        {
+            List<SegmentReader> readers = new ArrayList<SegmentReader>(clogs.length);
+            for (File file : clogs)
+            {
+                SegmentReader reader = new SegmentReader(file);
+                readers.add(reader);
+                readExecutor.execute(reader);
+            }
+            for (SegmentReader reader : readers)
+                reader.dispatch();
+        }
+        finally
+        {
+            // only interrupts the readers if a segment failed to replay
+            readExecutor.shutdownNow();
+        }
+    }
+
+    public void recover(File file) throws IOException
+    {
+        recover(new File[]{ file });
     }
 
     public int blockForWrites()
@@ -98,24 +149,35 @@ public class CommitLogReplayer
         for (Map.Entry<UUID, AtomicInteger> entry : invalidMutations.entrySet())
             logger.info(String.format("Skipped %d mutations from unknown (probably removed) CF with id %s", entry.getValue().intValue(), entry.getKey()));
 
-        // wait for all the writes to finish on the mutation stage
-        FBUtilities.waitOnFutures(futures);
+        // wait for all the writes to finish on the appliers
+        for (ExecutorService applier : appliers)
+            applier.shutdown();
+        try
+        {
+            for (ExecutorService applier : appliers)
+                applier.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+        if (applyFailure != null)
+            throw Throwables.propagate(applyFailure);
         logger.debug("Finished waiting on mutations from recovery");
 
         // flush replayed keyspaces
-        futures.clear();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
         for (Keyspace keyspace : keyspacesRecovered)
             futures.addAll(keyspace.flush());
         FBUtilities.waitOnFutures(futures);
         return replayedCount.get();
     }
 
-    public void recover(File file) throws IOException
+    private void recover(File file, SegmentReader segmentReader) throws IOException
     {
         logger.info("Replaying {}", file.getPath());
         CommitLogDescriptor desc = CommitLogDescriptor.fromFileName(file.getName());
         final long segment = desc.id;
-        int version = desc.getMessagingVersion();
         RandomAccessReader reader = RandomAccessReader.open(new File(file.getAbsolutePath()));
         try
         {
@@ -135,168 +197,379 @@ public class CommitLogReplayer
                 return;
             }
 
+            if (desc.getVersion() >= CommitLogDescriptor.VERSION_21)
+            {
+                CommitLogDescriptor fromHeader = CommitLogDescriptor.readHeader(reader);
+                if (fromHeader == null || fromHeader.id != segment)
+                {
+                    // the header is written before anything else, and replaces the one of the previous use of the file
+                    logger.debug("No valid header in {}; it was never written to", file);
+                    return;
+                }
+                desc = fromHeader;
+            }
+
             if (logger.isDebugEnabled())
                 logger.debug("Replaying {} starting at {}", file, replayPosition);
-            reader.seek(replayPosition);
+            if (desc.compression == null)
+            {
+                reader.seek(Math.max(replayPosition, reader.getFilePointer()));
+                replayEntries(reader, desc, segmentReader);
+            }
+            else
+            {
+                replayCompressedBlocks(reader, desc, replayPosition, segmentReader);
+            }
+        }
+        finally
+        {
+            FileUtils.closeQuietly(reader);
+            logger.info("Finished reading {}", file);
+        }
+    }
+
+    /**
+     * Replays the entries of the blocks of a compressed segment that end after the replay position.
+     */
+    private void replayCompressedBlocks(RandomAccessReader reader, CommitLogDescriptor desc, int replayPosition, SegmentReader segmentReader) throws IOException
+    {
+        ICompressor compressor;
+        try
+        {
+            compressor = CompressionParameters.createCompressor(desc.compression);
+        }
+        catch (ConfigurationException e)
+        {
+            throw new IOException("Cannot create compressor " + desc.compression + " to replay " + reader.getPath(), e);
+        }
 
-            /* read the logs populate RowMutation and apply */
-            while (!reader.isEOF())
+        byte[] compressed = new byte[0];
+        byte[] uncompressed = new byte[0];
+        int startMarker = (int) reader.getFilePointer();
+        while (!reader.isEOF())
+        {
+            int nextMarker;
+            int compressedLength;
+            try
             {
-                if (logger.isDebugEnabled())
-                    logger.debug("Reading mutation at {}", reader.getFilePointer());
+                nextMarker = reader.readInt();
+                compressedLength = reader.readInt();
+                int claimedChecksum = reader.readInt();
+                if (claimedChecksum != CompressedSegment.blockChecksum(segmentReader.checksum, desc.id, startMarker, nextMarker, compressedLength)
+                    || nextMarker <= startMarker || compressedLength < 0)
+                    break; // block wasn't synced fully. that's ok.
+
+                if (compressedLength > compressed.length)
+                    compressed = new byte[compressedLength];
+                reader.readFully(compressed, 0, compressedLength);
+            }
+            catch (EOFException eof)
+            {
+                break; // last block didn't get completely written. that's ok.
+            }
 
-                long claimedCRC32;
-                int serializedSize;
+            if (nextMarker > replayPosition)
+            {
+                int length = nextMarker - startMarker;
+                if (length > uncompressed.length)
+                    uncompressed = new byte[length];
                 try
                 {
-                    // any of the reads may hit EOF
-                    serializedSize = reader.readInt();
-                    if (serializedSize == CommitLog.END_OF_SEGMENT_MARKER)
-                    {
-                        logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
-                        break;
-                    }
-
-                    // RowMutation must be at LEAST 10 bytes:
-                    // 3 each for a non-empty Keyspace and Key (including the
-                    // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
-                    // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
-                    if (serializedSize < 10)
-                        break;
-
-                    long claimedSizeChecksum = reader.readLong();
-                    checksum.reset();
-                    if (version < CommitLogDescriptor.VERSION_20)
-                        checksum.update(serializedSize);
-                    else
-                        FBUtilities.updateChecksumInt(checksum, serializedSize);
-
-                    if (checksum.getValue() != claimedSizeChecksum)
-                        break; // entry wasn't synced correctly/fully. that's
-                               // ok.
-
-                    if (serializedSize > buffer.length)
-                        buffer = new byte[(int) (1.2 * serializedSize)];
-                    reader.readFully(buffer, 0, serializedSize);
-                    claimedCRC32 = reader.readLong();
+                    if (compressor.uncompress(compressed, 0, compressedLength, uncompressed, 0) != length)
+                        throw new IOException("Unexpected uncompressed length");
                 }
-                catch (EOFException eof)
+                catch (IOException e)
                 {
-                    break; // last CL entry didn't get completely written. that's ok.
+                    logger.warn("Corrupt block ending at {} in {}; ignoring the rest of the segment", nextMarker, reader.getPath(), e);
+                    break;
                 }
 
-                checksum.update(buffer, 0, serializedSize);
-                if (claimedCRC32 != checksum.getValue())
+                // positions of replay are positions in the uncompressed segment
+                FileDataInput blockReader = new MappedFileDataInput(ByteBuffer.wrap(uncompressed, 0, length).slice(), reader.getPath(), startMarker, 0);
+                if (replayPosition > startMarker)
+                    blockReader.seek(replayPosition);
+                replayEntries(blockReader, desc, segmentReader);
+            }
+            startMarker = nextMarker;
+        }
+    }
+
+    /**
+     * Reads the entries from the current position of the reader, and queues the mutations to replay.
+     */
+    private void replayEntries(FileDataInput reader, CommitLogDescriptor desc, SegmentReader segmentReader) throws IOException
+    {
+        final long segment = desc.id;
+        int version = desc.getMessagingVersion();
+        Checksum checksum = segmentReader.checksum;
+
+        /* read the logs populate RowMutation and apply */
+        while (!reader.isEOF())
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Reading mutation at {}", reader.getFilePointer());
+
+            long claimedCRC32;
+            int serializedSize;
+            byte[] entry;
+            try
+            {
+                // any of the reads may hit EOF
+                serializedSize = reader.readInt();
+                if (serializedSize == CommitLog.END_OF_SEGMENT_MARKER)
                 {
-                    // this entry must not have been fsynced. probably the rest is bad too,
-                    // but just in case there is no harm in trying them (since we still read on an entry boundary)
-                    continue;
+                    logger.debug("Encountered end of segment marker at {}", reader.getFilePointer());
+                    break;
                 }
 
-                /* deserialize the commit log entry */
-                FastByteArrayInputStream bufIn = new FastByteArrayInputStream(buffer, 0, serializedSize);
-                RowMutation rm;
+                // RowMutation must be at LEAST 10 bytes:
+                // 3 each for a non-empty Keyspace and Key (including the
+                // 2-byte length from writeUTF/writeWithShortLength) and 4 bytes for column count.
+                // This prevents CRC by being fooled by special-case garbage in the file; see CASSANDRA-2128
+                if (serializedSize < 10)
+                    break;
+
+                long claimedSizeChecksum = reader.readLong();
+                // since 2.1, entries are checksummed along with the id of their segment
+                if (desc.getVersion() < CommitLogDescriptor.VERSION_21)
+                    checksum.reset();
+                else
+                    CommitLogSegment.initChecksum(checksum, segment);
+                if (version < CommitLogDescriptor.VERSION_20)
+                    checksum.update(serializedSize);
+                else
+                    FBUtilities.updateChecksumInt(checksum, serializedSize);
+
+                if (checksum.getValue() != claimedSizeChecksum)
+                    break; // entry wasn't synced correctly/fully. that's
+                           // ok.
+
+                // (the reader of a compressed block only supports reading bytes this way)
+                entry = ByteBufferUtil.getArray(reader.readBytes(serializedSize));
+                claimedCRC32 = reader.readLong();
+            }
+            catch (EOFException eof)
+            {
+                break; // last CL entry didn't get completely written. that's ok.
+            }
+
+            checksum.update(entry, 0, serializedSize);
+            if (claimedCRC32 != checksum.getValue())
+            {
+                // this entry must not have been fsynced. probably the rest is bad too,
+                // but just in case there is no harm in trying them (since we still read on an entry boundary)
+                continue;
+            }
+
+            /* deserialize the commit log entry */
+            FastByteArrayInputStream bufIn = new FastByteArrayInputStream(entry, 0, serializedSize);
+            RowMutation rm;
+            try
+            {
+                // assuming version here. We've gone to lengths to make sure what gets written to the CL is in
+                // the current version. so do make sure the CL is drained prior to upgrading a node.
+                rm = RowMutation.serializer.deserialize(new DataInputStream(bufIn), version, ColumnSerializer.Flag.LOCAL);
+                // doublecheck that what we read is [still] valid for the current schema
+                for (ColumnFamily cf : rm.getColumnFamilies())
+                    for (Column cell : cf)
+                        cf.getComparator().validate(cell.name());
+            }
+            catch (UnknownColumnFamilyException ex)
+            {
+                if (ex.cfId == null)
+                    continue;
+                AtomicInteger i = invalidMutations.get(ex.cfId);
+                if (i == null)
+                {
+                    i = invalidMutations.putIfAbsent(ex.cfId, new AtomicInteger(1));
+                    if (i != null)
+                        i.incrementAndGet();
+                }
+                else
+                    i.incrementAndGet();
+                continue;
+            }
+            catch (Throwable t)
+            {
+                File f = File.createTempFile("mutation", "dat");
+                DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
                 try
                 {
-                    // assuming version here. We've gone to lengths to make sure what gets written to the CL is in
-                    // the current version. so do make sure the CL is drained prior to upgrading a node.
-                    rm = RowMutation.serializer.deserialize(new DataInputStream(bufIn), version, ColumnSerializer.Flag.LOCAL);
-                    // doublecheck that what we read is [still] valid for the current schema
-                    for (ColumnFamily cf : rm.getColumnFamilies())
-                        for (Column cell : cf)
-                            cf.getComparator().validate(cell.name());
+                    out.write(entry, 0, serializedSize);
                 }
-                catch (UnknownColumnFamilyException ex)
+                finally
                 {
-                    if (ex.cfId == null)
-                        continue;
-                    AtomicInteger i = invalidMutations.get(ex.cfId);
-                    if (i == null)
-                    {
-                        i = new AtomicInteger(1);
-                        invalidMutations.put(ex.cfId, i);
-                    }
-                    else
-                        i.incrementAndGet();
+                    out.close();
+                }
+                String st = String.format("Unexpected error deserializing mutation; saved to %s and ignored.  This may be caused by replaying a mutation against a table with the same name but incompatible schema.  Exception follows: ",
+                                          f.getAbsolutePath());
+                logger.error(st, t);
+                continue;
+            }
+
+            if (logger.isDebugEnabled())
+                logger.debug(String.format("replaying mutation for %s.%s: %s", rm.getKeyspaceName(), ByteBufferUtil.bytesToHex(rm.key()), "{" + StringUtils.join(rm.getColumnFamilies().iterator(), ", ")
+                        + "}"));
+
+            if (Schema.instance.getKSMetaData(rm.getKeyspaceName()) == null)
+                continue;
+            if (pointInTimeExceeded(rm))
+                continue;
+
+            // Rebuild the row mutation, omitting column families that
+            // a) have already been flushed,
+            // b) are part of a cf that was dropped. Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
+            long entryLocation = reader.getFilePointer();
+            RowMutation newRm = null;
+            for (ColumnFamily columnFamily : rm.getColumnFamilies())
+            {
+                if (Schema.instance.getCF(columnFamily.id()) == null)
+                    // null means the cf has been dropped
                     continue;
+
+                ReplayPosition rp = cfPositions.get(columnFamily.id());
+
+                // replay if current segment is newer than last flushed one or,
+                // if it is the last known segment, if we are after the replay position
+                if (segment > rp.segment || (segment == rp.segment && entryLocation > rp.position))
+                {
+                    if (newRm == null)
+                        newRm = new RowMutation(rm.getKeyspaceName(), rm.key());
+                    newRm.add(columnFamily);
+                    replayedCount.incrementAndGet();
+                }
+            }
+            if (newRm != null)
+            {
+                assert !newRm.isEmpty();
+                segmentReader.add(newRm);
+            }
+        }
+    }
+
+    /**
+     * Applies the mutation on the applier of its partition.
+     */
+    private void apply(final RowMutation mutation)
+    {
+        int hash = 31 * mutation.getKeyspaceName().hashCode() + mutation.key().hashCode();
+        appliers[(hash & Integer.MAX_VALUE) % appliers.length].execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Keyspace keyspace = Keyspace.open(mutation.getKeyspaceName());
+                    keyspace.apply(mutation, false);
+                    keyspacesRecovered.add(keyspace);
+                    CommitLog.instance.metrics.replayedMutations.mark();
                 }
                 catch (Throwable t)
                 {
-                    File f = File.createTempFile("mutation", "dat");
-                    DataOutputStream out = new DataOutputStream(new FileOutputStream(f));
-                    try
-                    {
-                        out.write(buffer, 0, serializedSize);
-                    }
-                    finally
-                    {
-                        out.close();
-                    }
-                    String st = String.format("Unexpected error deserializing mutation; saved to %s and ignored.  This may be caused by replaying a mutation against a table with the same name but incompatible schema.  Exception follows: ",
-                                              f.getAbsolutePath());
-                    logger.error(st, t);
-                    continue;
+                    logger.error("Error applying replayed mutation", t);
+                    applyFailure = t;
                 }
+            }
+        });
+    }
+
+    /**
+     * Reads a segment on a reader thread, and queues its mutations for {@link #dispatch()} to apply them.
+     */
+    private class SegmentReader implements Runnable
+    {
+        // marks the end of the segment in the queue
+        private final List<RowMutation> END_OF_SEGMENT = Collections.emptyList();
 
-                if (logger.isDebugEnabled())
-                    logger.debug(String.format("replaying mutation for %s.%s: %s", rm.getKeyspaceName(), ByteBufferUtil.bytesToHex(rm.key()), "{" + StringUtils.join(rm.getColumnFamilies().iterator(), ", ")
-                            + "}"));
+        private final File file;
+        private final Checksum checksum = new PureJavaCrc32();
+        private final BlockingQueue<List<RowMutation>> queue = new LinkedBlockingQueue<List<RowMutation>>(MAX_OUTSTANDING_REPLAY_COUNT / REPLAY_BATCH_SIZE);
+        private List<RowMutation> batch = new ArrayList<RowMutation>(REPLAY_BATCH_SIZE);
+        private volatile Throwable failure;
 
-                final long entryLocation = reader.getFilePointer();
-                final RowMutation frm = rm;
-                Runnable runnable = new WrappedRunnable()
+        SegmentReader(File file)
+        {
+            this.file = file;
+        }
+
+        public void run()
+        {
+            try
+            {
+                recover(file, this);
+                if (!batch.isEmpty())
+                    enqueue(batch);
+            }
+            catch (CancellationException e)
+            {
+                return;
+            }
+            catch (Throwable t)
+            {
+                failure = t;
+            }
+
+            try
+            {
+                enqueue(END_OF_SEGMENT);
+            }
+            catch (CancellationException e)
+            {
+                // nobody's waiting for the end of the segment anymore
+            }
+        }
+
+        void add(RowMutation mutation)
+        {
+            batch.add(mutation);
+            if (batch.size() == REPLAY_BATCH_SIZE)
+            {
+                enqueue(batch);
+                batch = new ArrayList<RowMutation>(REPLAY_BATCH_SIZE);
+            }
+        }
+
+        private void enqueue(List<RowMutation> mutations)
+        {
+            try
+            {
+                queue.put(mutations);
+            }
+            catch (InterruptedException e)
+            {
+                // the replay of a previous segment failed, so we won't be dispatched
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Applies the mutations of the segment as they are read, until the end of the segment.
+         */
+        void dispatch() throws IOException
+        {
+            while (true)
+            {
+                List<RowMutation> mutations;
+                try
                 {
-                    public void runMayThrow() throws IOException
-                    {
-                        if (Schema.instance.getKSMetaData(frm.getKeyspaceName()) == null)
-                            return;
-                        if (pointInTimeExceeded(frm))
-                            return;
-
-                        final Keyspace keyspace = Keyspace.open(frm.getKeyspaceName());
-
-                        // Rebuild the row mutation, omitting column families that 
-                        // a) have already been flushed,
-                        // b) are part of a cf that was dropped. Keep in mind that the cf.name() is suspect. do every thing based on the cfid instead.
-                        RowMutation newRm = null;
-                        for (ColumnFamily columnFamily : frm.getColumnFamilies())
-                        {
-                            if (Schema.instance.getCF(columnFamily.id()) == null)
-                                // null means the cf has been dropped
-                                continue;
-
-                            ReplayPosition rp = cfPositions.get(columnFamily.id());
-
-                            // replay if current segment is newer than last flushed one or, 
-                            // if it is the last known segment, if we are after the replay position
-                            if (segment > rp.segment || (segment == rp.segment && entryLocation > rp.position))
-                            {
-                                if (newRm == null)
-                                    newRm = new RowMutation(frm.getKeyspaceName(), frm.key());
-                                newRm.add(columnFamily);
-                                replayedCount.incrementAndGet();
-                            }
-                        }
-                        if (newRm != null)
-                        {
-                            assert !newRm.isEmpty();
-                            Keyspace.open(newRm.getKeyspaceName()).apply(newRm, false);
-                            keyspacesRecovered.add(keyspace);
-                        }
-                    }
-                };
-                futures.add(StageManager.getStage(Stage.MUTATION).submit(runnable));
-                if (futures.size() > MAX_OUTSTANDING_REPLAY_COUNT)
+                    mutations = queue.take();
+                }
+                catch (InterruptedException e)
                 {
-                    FBUtilities.waitOnFutures(futures);
-                    futures.clear();
+                    throw new AssertionError(e);
                 }
+                if (mutations == END_OF_SEGMENT)
+                    break;
+                for (RowMutation mutation : mutations)
+                    apply(mutation);
             }
-        }
-        finally
-        {
-            FileUtils.closeQuietly(reader);
-            logger.info("Finished reading {}", file);
+
+            if (failure != null)
+            {
+                Throwables.propagateIfInstanceOf(failure, IOException.class);
+                throw Throwables.propagate(failure);
+            }
+            CommitLog.instance.metrics.replayedBytes.mark(file.length());
         }
     }
 
@@ -21,15 +21,18 @@ import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.Checksum;
 
+import org.cliffc.high_scale_lib.NonBlockingHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,18 +42,24 @@ import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.RowMutation;
 import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.ICompressor;
 import org.apache.cassandra.io.util.ByteBufferOutputStream;
 import org.apache.cassandra.io.util.ChecksummedOutputStream;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.PureJavaCrc32;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 /*
  * A single commit log file on disk. Manages creation of the file and writing row mutations to disk,
- * as well as tracking the last mutation position of any "dirty" CFs covered by the segment file. Segment
- * files are initially allocated to a fixed size and can grow to accomidate a larger value if necessary.
+ * as well as tracking the last mutation position of any "dirty" CFs covered by the segment file.
+ *
+ * Any number of threads can append to a segment concurrently: each of them reserves the space for its entry by
+ * bumping the allocation position atomically in a segment-sized buffer, and then serializes its mutation in that
+ * space on its own.  How the buffer makes it to disk when the segment is synced is up to the subclasses.
  */
-public class CommitLogSegment
+public abstract class CommitLogSegment
 {
     private static final Logger logger = LoggerFactory.getLogger(CommitLogSegment.class);
 
@@ -60,21 +69,35 @@ public class CommitLogSegment
     // The commit log entry overhead in bytes (int: length + long: head checksum + long: tail checksum)
     static final int ENTRY_OVERHEAD_SIZE = 4 + 8 + 8;
 
-    // cache which cf is dirty in this segment to avoid having to lookup all ReplayPositions to decide if we can delete this segment
-    private final HashMap<UUID, Integer> cfLastWrite = new HashMap<UUID, Integer>();
+    // the position of the last write of each cf to this segment, and the position up to which each cf has been
+    // flushed; a segment can be discarded once all of its cfs have been flushed past their last write
+    private final NonBlockingHashMap<UUID, AtomicInteger> cfDirty = new NonBlockingHashMap<UUID, AtomicInteger>();
+    private final NonBlockingHashMap<UUID, AtomicInteger> cfClean = new NonBlockingHashMap<UUID, AtomicInteger>();
 
     public final long id;
 
     private final File logFile;
-    private final RandomAccessFile logFileAccessor;
+    protected final RandomAccessFile logFileAccessor;
+    protected final FileChannel channel;
 
-    private boolean needsSync = false;
+    private volatile boolean needsSync = false;
 
-    private final MappedByteBuffer buffer;
-    private final Checksum checksum;
-    private final DataOutputStream bufferStream;
+    // the buffer entries are appended to, of the size of a segment; positions in it are the positions of replay
+    protected ByteBuffer buffer;
+    protected final int capacity = DatabaseDescriptor.getCommitLogSegmentSize();
     private boolean closed;
 
+    // the position the next entry will be allocated at, or -1 minus that position once we have stopped
+    // allocating from this segment
+    private final AtomicInteger allocatePosition = new AtomicInteger();
+
+    // the position up to which the buffer has been synced
+    private int lastSyncedOffset;
+
+    // every append is an operation of this order, from allocation to the end of its write, so we can wait
+    // for the appends in progress to complete
+    private final OpOrder appendOrder = new OpOrder();
+
     public final CommitLogDescriptor descriptor;
 
     /**
@@ -82,7 +105,17 @@ public class CommitLogSegment
      */
     public static CommitLogSegment freshSegment()
     {
-        return new CommitLogSegment(null);
+        return createSegment(null);
+    }
+
+    /**
+     * @param filePath if not null, the segment file to reuse
+     * @return a new segment, compressed if the commit log is configured to be
+     */
+    static CommitLogSegment createSegment(String filePath)
+    {
+        ICompressor compressor = DatabaseDescriptor.getCommitLogCompressor();
+        return compressor == null ? new MemoryMappedSegment(filePath) : new CompressedSegment(filePath, compressor);
     }
 
     public static long getNextId()
@@ -90,14 +123,15 @@ public class CommitLogSegment
         return idBase + nextId.getAndIncrement();
     }
     /**
-     * Constructs a new segment file.
+     * Opens the file of a new segment.  Subclasses must then write its header and set up the buffer.
      *
-     * @param filePath  if not null, recycles the existing file by renaming it and truncating it to CommitLog.SEGMENT_SIZE.
+     * @param filePath  if not null, recycles the existing file by renaming it.
+     * @param compressor the compressor of the segment, if any, to record in its header
      */
-    CommitLogSegment(String filePath)
+    CommitLogSegment(String filePath, ICompressor compressor)
     {
         id = getNextId();
-        descriptor = new CommitLogDescriptor(id);
+        descriptor = new CommitLogDescriptor(id, compressor == null ? null : compressor.getClass().getName());
         logFile = new File(DatabaseDescriptor.getCommitLogLocation(), descriptor.fileName());
         boolean isCreating = true;
 
@@ -118,20 +152,10 @@ public class CommitLogSegment
 
             // Open the initial the segment file
             logFileAccessor = new RandomAccessFile(logFile, "rw");
+            channel = logFileAccessor.getChannel();
 
             if (isCreating)
                 logger.debug("Creating new commit log segment {}", logFile.getPath());
-
-            // Map the segment, extending or truncating it to the standard segment size
-            logFileAccessor.setLength(DatabaseDescriptor.getCommitLogSegmentSize());
-
-            buffer = logFileAccessor.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DatabaseDescriptor.getCommitLogSegmentSize());
-            checksum = new PureJavaCrc32();
-            bufferStream = new DataOutputStream(new ChecksummedOutputStream(new ByteBufferOutputStream(buffer), checksum));
-            buffer.putInt(CommitLog.END_OF_SEGMENT_MARKER);
-            buffer.position(0);
-
-            needsSync = true;
         }
         catch (IOException e)
         {
@@ -139,6 +163,16 @@ public class CommitLogSegment
         }
     }
 
+    /**
+     * Starts allocating entries right after the header of the segment, once the subclass has written it.
+     */
+    protected void startAllocatingAt(int position)
+    {
+        allocatePosition.set(position);
+        lastSyncedOffset = position;
+        needsSync = true;
+    }
+
     /**
      * Completely discards a segment file by deleting it. (Potentially blocking operation)
      */
@@ -157,11 +191,6 @@ public class CommitLogSegment
      */
     public CommitLogSegment recycle()
     {
-        // writes an end-of-segment marker at the very beginning of the file and closes it
-        buffer.position(0);
-        buffer.putInt(CommitLog.END_OF_SEGMENT_MARKER);
-        buffer.position(0);
-
         try
         {
             sync();
@@ -174,21 +203,87 @@ public class CommitLogSegment
 
         close();
 
-        return new CommitLogSegment(getPath());
+        // the new segment writes its own header over the one of this segment, whose id no longer matches the name
+        // of the file in the meantime: replay ignores the file until then
+        return createSegment(getPath());
     }
 
     /**
-     * @return true if there is room to write() @param size to this segment
+     * Reserves the space to append the given mutation to this segment, and marks the column families it
+     * modifies as dirty.  The mutation must then be written with {@link Allocation#write(RowMutation)}, and the
+     * allocation completed with {@link Allocation#markWritten()}, whether the write succeeded or not.
+     *
+     * @param mutation the mutation to append
+     * @param size     the size of its entry, including ENTRY_OVERHEAD_SIZE
+     * @return the allocation, or null if there isn't room left in this segment for the entry
      */
-    public boolean hasCapacityFor(long size)
+    Allocation allocate(RowMutation mutation, int size)
     {
-        return size <= buffer.remaining();
+        OpOrder.Group appendOp = appendOrder.start();
+        try
+        {
+            int position = allocate(size);
+            if (position < 0)
+            {
+                appendOp.close();
+                return null;
+            }
+            markDirty(mutation, position);
+            return new Allocation(this, appendOp, position, size);
+        }
+        catch (Throwable t)
+        {
+            appendOp.close();
+            throw t;
+        }
+    }
+
+    // bumps the allocation position by size, and returns its previous value, or -1 if the segment is full
+    private int allocate(int size)
+    {
+        while (true)
+        {
+            int prev = allocatePosition.get();
+            int next = prev + size;
+            if (prev < 0 || next > capacity)
+                return -1;
+            if (allocatePosition.compareAndSet(prev, next))
+                return prev;
+        }
+    }
+
+    /**
+     * Stops allocating from this segment: any later allocation will fail, even if there would be room for it.
+     */
+    void discardUnusedTail()
+    {
+        while (true)
+        {
+            int prev = allocatePosition.get();
+            if (prev < 0 || allocatePosition.compareAndSet(prev, -1 - prev))
+                return;
+        }
+    }
+
+    protected boolean isStillAllocating()
+    {
+        return allocatePosition.get() >= 0;
+    }
+
+    /**
+     * Waits for every append that has started so far to complete.
+     */
+    void waitForModifications()
+    {
+        OpOrder.Barrier barrier = appendOrder.newBarrier();
+        barrier.issue();
+        barrier.await();
     }
 
     /**
      * mark all of the column families we're modifying as dirty at this position
      */
-    private void markDirty(RowMutation rowMutation, ReplayPosition repPos)
+    private void markDirty(RowMutation rowMutation, int position)
     {
         for (ColumnFamily columnFamily : rowMutation.getColumnFamilies())
         {
@@ -201,70 +296,66 @@ public class CommitLogSegment
             }
             else
             {
-                markCFDirty(cfm.cfId, repPos.position);
+                markCFDirty(cfm.cfId, position);
             }
         }
     }
 
-   /**
-     * Appends a row mutation onto the commit log.  Requres that hasCapacityFor has already been checked.
-     *
-     * @param   mutation   the mutation to append to the commit log.
-     * @return  the position of the appended mutation
+    /**
+     * Starts the checksum of an entry with the id of the segment it is written to, so that the entries left
+     * in a recycled segment file by its previous use never pass as entries of the new segment.
      */
-    public ReplayPosition write(RowMutation mutation) throws IOException
+    static void initChecksum(Checksum checksum, long segmentId)
     {
-        assert !closed;
-        ReplayPosition repPos = getContext();
-        markDirty(mutation, repPos);
-
         checksum.reset();
-
-        // checksummed length
-        int length = (int) RowMutation.serializer.serializedSize(mutation, MessagingService.current_version);
-        bufferStream.writeInt(length);
-        buffer.putLong(checksum.getValue());
-
-        // checksummed mutation
-        RowMutation.serializer.serialize(mutation, bufferStream, MessagingService.current_version);
-        buffer.putLong(checksum.getValue());
-
-        if (buffer.remaining() >= 4)
-        {
-            // writes end of segment marker and rewinds back to position where it starts
-            buffer.putInt(CommitLog.END_OF_SEGMENT_MARKER);
-            buffer.position(buffer.position() - CommitLog.END_OF_SEGMENT_MARKER_SIZE);
-        }
-
-        needsSync = true;
-        return repPos;
+        FBUtilities.updateChecksumInt(checksum, (int) segmentId);
+        FBUtilities.updateChecksumInt(checksum, (int) (segmentId >>> 32));
     }
 
     /**
      * Forces a disk flush for this segment file.
+     *
+     * The appends still in progress are waited for first: since they can complete out of order, this ensures
+     * that an entry we have synced is never preceded by one that is only partially written, which would stop
+     * log replay before reaching it.
+     *
+     * This may be called concurrently with appends, so needsSync is cleared before the flush: an append that
+     * completes during it will set it again, and be flushed by the next sync.  It is synchronized with close()
+     * so that we never try to flush a buffer that has been released.
      */
-    public void sync()
+    public synchronized void sync()
     {
-        if (needsSync)
+        if (needsSync && !closed)
         {
+            needsSync = false;
+            // all the appends below this position have started, so they are complete once we've waited for modifications
+            int nextMarker = getContext().position;
+            waitForModifications();
             try
             {
-                buffer.force();
+                write(lastSyncedOffset, nextMarker);
+                lastSyncedOffset = nextMarker;
             }
             catch (Exception e) // MappedByteBuffer.force() does not declare IOException but can actually throw it
             {
+                needsSync = true;
                 throw new FSWriteError(e, getPath());
             }
-            needsSync = false;
         }
     }
 
+    /**
+     * Writes the appends between the two positions of the buffer to disk, and forces them there.
+     */
+    protected abstract void write(int startMarker, int nextMarker) throws IOException;
+
     /**
      * @return the current ReplayPosition for this log segment
      */
     public ReplayPosition getContext()
     {
-        return new ReplayPosition(id, buffer.position());
+        int position = allocatePosition.get();
+        return new ReplayPosition(id, position < 0 ? -1 - position : position);
     }
 
     /**
@@ -286,14 +377,14 @@ public class CommitLogSegment
     /**
      * Close the segment file.
      */
-    public void close()
+    public synchronized void close()
     {
         if (closed)
             return;
 
         try
         {
-            FileUtils.clean(buffer);
+            internalClose();
             logFileAccessor.close();
             closed = true;
         }
@@ -303,32 +394,51 @@ public class CommitLogSegment
         }
     }
 
+    /**
+     * Releases the buffer of the segment.
+     */
+    protected abstract void internalClose();
+
     /**
      * Records the CF as dirty at a certain position.
      *
      * @param cfId      the column family ID that is now dirty
      * @param position  the position the last write for this CF was written at
      */
-    private void markCFDirty(UUID cfId, Integer position)
+    private void markCFDirty(UUID cfId, int position)
     {
-        cfLastWrite.put(cfId, position);
+        ensureAtLeast(cfDirty, cfId, position);
     }
 
     /**
      * Marks the ColumnFamily specified by cfId as clean for this log segment. If the
      * given context argument is contained in this file, it will only mark the CF as
-     * clean if no newer writes have taken place.
+     * clean if no newer writes have taken place.  Segments newer than the context are left untouched.
      *
      * @param cfId    the column family ID that is now clean
      * @param context the optional clean offset
      */
     public void markClean(UUID cfId, ReplayPosition context)
     {
-        Integer lastWritten = cfLastWrite.get(cfId);
+        if (!cfDirty.containsKey(cfId) || context.segment < id)
+            return;
+        ensureAtLeast(cfClean, cfId, contains(context) ? context.position : Integer.MAX_VALUE);
+    }
 
-        if (lastWritten != null && (!contains(context) || lastWritten < context.position))
+    private static void ensureAtLeast(NonBlockingHashMap<UUID, AtomicInteger> map, UUID cfId, int position)
+    {
+        AtomicInteger current = map.get(cfId);
+        if (current == null)
         {
-            cfLastWrite.remove(cfId);
+            AtomicInteger existing = map.putIfAbsent(cfId, current = new AtomicInteger());
+            if (existing != null)
+                current = existing;
+        }
+        while (true)
+        {
+            int prev = current.get();
+            if (prev >= position || current.compareAndSet(prev, position))
+                return;
         }
     }
 
@@ -337,7 +447,15 @@ public class CommitLogSegment
      */
     public Collection<UUID> getDirtyCFIDs()
     {
-        return cfLastWrite.keySet();
+        List<UUID> dirty = new ArrayList<UUID>();
+        for (Map.Entry<UUID, AtomicInteger> entry : cfDirty.entrySet())
+        {
+            AtomicInteger cleanPosition = cfClean.get(entry.getKey());
+            // a write at the clean position itself is after the flush it is from
+            if (cleanPosition == null || entry.getValue().get() >= cleanPosition.get())
+                dirty.add(entry.getKey());
+        }
+        return dirty;
     }
 
     /**
@@ -345,7 +463,13 @@ public class CommitLogSegment
      */
     public boolean isUnused()
     {
-        return cfLastWrite.isEmpty();
+        // a segment we still allocate from can always get new writes
+        if (isStillAllocating())
+            return false;
+
+        // the appends that allocated from us before we stopped may not have marked their cfs dirty yet
+        waitForModifications();
+        return getDirtyCFIDs().isEmpty();
     }
 
     /**
@@ -363,7 +487,7 @@ public class CommitLogSegment
     public String dirtyString()
     {
         StringBuilder sb = new StringBuilder();
-        for (UUID cfId : cfLastWrite.keySet())
+        for (UUID cfId : getDirtyCFIDs())
         {
             CFMetaData m = Schema.instance.getCFMetaData(cfId);
             sb.append(m == null ? "<deleted>" : m.cfName).append(" (").append(cfId).append("), ");
@@ -377,12 +501,6 @@ public class CommitLogSegment
         return "CommitLogSegment(" + getPath() + ')';
     }
 
-    public int position()
-    {
-        return buffer.position();
-    }
-
-
     public static class CommitLogSegmentFileComparator implements Comparator<File>
     {
         public int compare(File f, File f2)
@@ -392,4 +510,70 @@ public class CommitLogSegment
             return (int) (desc.id - desc2.id);
         }
     }
+
+    /**
+     * The space reserved in a segment for a single entry, that a writer fills in on its own.
+     */
+    public static final class Allocation
+    {
+        private final CommitLogSegment segment;
+        private final OpOrder.Group appendOp;
+        private final int position;
+        private final ByteBuffer buffer;
+
+        Allocation(CommitLogSegment segment, OpOrder.Group appendOp, int position, int size)
+        {
+            this.segment = segment;
+            this.appendOp = appendOp;
+            this.position = position;
+            this.buffer = segment.buffer.duplicate();
+            buffer.position(position).limit(position + size);
+        }
+
+        CommitLogSegment getSegment()
+        {
+            return segment;
+        }
+
+        int getSize()
+        {
+            return buffer.limit() - position;
+        }
+
+        /**
+         * @return the position right after the entry, which replay compares to the positions flushed
+         */
+        ReplayPosition getReplayPosition()
+        {
+            return new ReplayPosition(segment.id, buffer.limit());
+        }
+
+        /**
+         * Serializes the mutation in the allocated space: its checksummed length, then its checksummed content.
+         */
+        void write(RowMutation mutation) throws IOException
+        {
+            Checksum checksum = new PureJavaCrc32();
+            DataOutputStream out = new DataOutputStream(new ChecksummedOutputStream(new ByteBufferOutputStream(buffer), checksum));
+            initChecksum(checksum, segment.id);
+
+            // checksummed length
+            out.writeInt(getSize() - ENTRY_OVERHEAD_SIZE);
+            buffer.putLong(checksum.getValue());
+
+            // checksummed mutation
+            RowMutation.serializer.serialize(mutation, out, MessagingService.current_version);
+            buffer.putLong(checksum.getValue());
+            assert !buffer.hasRemaining();
+        }
+
+        /**
+         * Ends the append; must be called exactly once, after the write.
+         */
+        void markWritten()
+        {
+            segment.needsSync = true;
+            appendOp.close();
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.compress.ICompressor;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.PureJavaCrc32;
+
+/**
+ * A compressed segment: appends go to a buffer on heap, and each sync compresses what was appended since the
+ * previous one into a block that is appended to the file.  The file thus only grows as the segment is synced.
+ *
+ * A block is made of the position of the buffer it ends at (it starts where the previous one ended, or right after
+ * the header of the segment), its compressed length, the checksum of both, and the compressed appends.  Positions
+ * of replay are positions in the buffer, and a block always starts and ends on an entry boundary.
+ */
+class CompressedSegment extends CommitLogSegment
+{
+    static final int BLOCK_HEADER_SIZE = 4 + 4 + 4;
+
+    private final ICompressor compressor;
+    // reused across syncs, which are serialized
+    private final ICompressor.WrappedArray compressed = new ICompressor.WrappedArray(new byte[0]);
+    private final Checksum checksum = new PureJavaCrc32();
+
+    /**
+     * @param filePath  if not null, recycles the existing file by renaming it and truncating it.
+     */
+    CompressedSegment(String filePath, ICompressor compressor)
+    {
+        super(filePath, compressor);
+        this.compressor = compressor;
+
+        ByteBuffer header = ByteBuffer.allocate(descriptor.headerSize());
+        descriptor.writeHeader(header);
+        header.flip();
+        try
+        {
+            logFileAccessor.setLength(0);
+            while (header.hasRemaining())
+                channel.write(header);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, getPath());
+        }
+
+        buffer = ByteBuffer.allocate(capacity);
+        startAllocatingAt(descriptor.headerSize());
+    }
+
+    protected void write(int startMarker, int nextMarker) throws IOException
+    {
+        int length = nextMarker - startMarker;
+        if (length > 0)
+        {
+            int maxLength = BLOCK_HEADER_SIZE + compressor.initialCompressedBufferLength(length);
+            if (compressed.buffer.length < maxLength)
+                compressed.buffer = new byte[maxLength];
+            int compressedLength = compressor.compress(buffer.array(), startMarker, length, compressed, BLOCK_HEADER_SIZE);
+
+            ByteBuffer block = ByteBuffer.wrap(compressed.buffer, 0, BLOCK_HEADER_SIZE + compressedLength);
+            block.putInt(nextMarker);
+            block.putInt(compressedLength);
+            block.putInt(blockChecksum(checksum, id, startMarker, nextMarker, compressedLength));
+            block.rewind();
+            while (block.hasRemaining())
+                channel.write(block);
+            // the file grows with every block, so its metadata must be forced as well
+            channel.force(true);
+        }
+
+        // nothing will be appended to the buffer anymore once it is all synced
+        if (!isStillAllocating() && nextMarker == getContext().position)
+            buffer = null;
+    }
+
+    /**
+     * @return the checksum of the header of a block, seeded with the id of its segment like the entries are
+     */
+    static int blockChecksum(Checksum checksum, long segmentId, int startMarker, int nextMarker, int compressedLength)
+    {
+        initChecksum(checksum, segmentId);
+        FBUtilities.updateChecksumInt(checksum, startMarker);
+        FBUtilities.updateChecksumInt(checksum, nextMarker);
+        FBUtilities.updateChecksumInt(checksum, compressedLength);
+        return (int) checksum.getValue();
+    }
+
+    protected void internalClose()
+    {
+        buffer = null;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * Group commit: like batch mode, a write is only acknowledged once the log has been synced past it, but the log
+ * is synced at most once every commitlog_sync_group_window_in_ms (or as soon as commitlog_sync_group_max_pending_in_kb
+ * have been appended).  All the writes appended during the window wait for the same sync, so the fsync cost is
+ * shared by as many writes as the window allows, while a write is never delayed by much more than the window plus
+ * one fsync.
+ */
+class GroupCommitLogExecutorService extends AbstractCommitLogExecutorService
+{
+    private final long windowNanos;
+    private final long maxPendingBytes;
+
+    public GroupCommitLogExecutorService(CommitLog commitLog)
+    {
+        super(commitLog, "GROUP-COMMIT-LOG-SYNCER");
+        windowNanos = (long) (DatabaseDescriptor.getCommitLogSyncGroupWindow() * 1000000);
+        maxPendingBytes = DatabaseDescriptor.getCommitLogSyncGroupMaxPendingBytes();
+        start();
+    }
+
+    protected void awaitSyncDue() throws InterruptedException
+    {
+        while (run)
+        {
+            if (!syncRequested)
+            {
+                lock.wait();
+                continue;
+            }
+
+            long remaining = firstRequestAt + windowNanos - System.nanoTime();
+            if (requestedBytes >= maxPendingBytes || remaining <= 0)
+                return;
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+        }
+    }
+
+    @Override
+    protected void onSyncRequested()
+    {
+        // don't wait for the end of the window
+        if (requestedBytes >= maxPendingBytes)
+            lock.notifyAll();
+    }
+
+    protected void maybeWaitForSync(CommitLogSegment.Allocation alloc)
+    {
+        waitForSync(alloc);
+    }
+}
@@ -17,31 +17,27 @@
  */
 package org.apache.cassandra.db.commitlog;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-
 /**
- * Like ExecutorService, but customized for batch and periodic commitlog execution.
+ * Syncs the commit log according to the configured commitlog_sync mode, and makes the writers wait for it if
+ * that mode requires them to.  Writers append to the log themselves, concurrently.
  */
 public interface ICommitLogExecutorService
 {
     /**
-     * Get the number of completed tasks
+     * Get the number of completed writes
      */
     public long getCompletedTasks();
 
     /**
-     * Get the number of tasks waiting to be executed
+     * Get the number of writes waiting for the log to be synced
      */
     public long getPendingTasks();
 
-
-    public <T> Future<T> submit(Callable<T> task);
-
     /**
-     * submits the adder for execution and blocks for it to be synced, if necessary
+     * Called by a writer once its mutation has been appended to the log: blocks until it is as durable as the
+     * sync mode promises.
      */
-    public void add(CommitLog.LogRecordAdder adder);
+    public void finishWriteFor(CommitLogSegment.Allocation alloc);
 
     /** shuts down the CommitLogExecutor in an orderly fashion */
     public void shutdown();
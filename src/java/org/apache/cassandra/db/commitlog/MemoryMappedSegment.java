@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.commitlog;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.util.FileUtils;
+
+/**
+ * An uncompressed segment: the file is preallocated to the segment size and mapped, so appends go straight to
+ * the page cache, and syncing only has to force the mapped buffer to disk.
+ */
+class MemoryMappedSegment extends CommitLogSegment
+{
+    /**
+     * @param filePath  if not null, recycles the existing file by renaming it and truncating it to the segment size.
+     */
+    MemoryMappedSegment(String filePath)
+    {
+        super(filePath, null);
+        try
+        {
+            // Map the segment, extending or truncating it to the standard segment size
+            logFileAccessor.setLength(capacity);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        catch (IOException e)
+        {
+            throw new FSWriteError(e, getPath());
+        }
+
+        descriptor.writeHeader(buffer);
+        buffer.putInt(buffer.position(), CommitLog.END_OF_SEGMENT_MARKER);
+        startAllocatingAt(buffer.position());
+    }
+
+    protected void write(int startMarker, int nextMarker)
+    {
+        ((MappedByteBuffer) buffer).force();
+    }
+
+    protected void internalClose()
+    {
+        FileUtils.clean((MappedByteBuffer) buffer);
+    }
+}
@@ -17,119 +17,39 @@
  */
 package org.apache.cassandra.db.commitlog;
 
-import java.io.IOException;
-import java.util.concurrent.*;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
-import org.apache.cassandra.utils.FBUtilities;
-import org.apache.cassandra.utils.WrappedRunnable;
 
-import com.google.common.util.concurrent.Uninterruptibles;
-
-class PeriodicCommitLogExecutorService implements ICommitLogExecutorService
+/**
+ * Periodic mode: the log is synced every commitlog_sync_period_in_ms, and writes are acknowledged right away.
+ */
+class PeriodicCommitLogExecutorService extends AbstractCommitLogExecutorService
 {
-    private final BlockingQueue<Runnable> queue;
-    protected volatile long completedTaskCount = 0;
-    private final Thread appendingThread;
-    private volatile boolean run = true;
-
-    public PeriodicCommitLogExecutorService(final CommitLog commitLog)
-    {
-        queue = new LinkedBlockingQueue<Runnable>(DatabaseDescriptor.getCommitLogPeriodicQueueSize());
-        Runnable runnable = new WrappedRunnable()
-        {
-            public void runMayThrow() throws Exception
-            {
-                while (run)
-                {
-                    Runnable r = queue.poll(100, TimeUnit.MILLISECONDS);
-                    if (r == null)
-                        continue;
-                    r.run();
-                    completedTaskCount++;
-                }
-                commitLog.sync();
-            }
-        };
-        appendingThread = new Thread(runnable, "COMMIT-LOG-WRITER");
-        appendingThread.start();
-
-        final Callable syncer = new Callable()
-        {
-            public Object call() throws Exception
-            {
-                commitLog.sync();
-                return null;
-            }
-        };
-
-        new Thread(new Runnable()
-        {
-            public void run()
-            {
-                while (run)
-                {
-                    FBUtilities.waitOnFuture(submit(syncer));
-                    Uninterruptibles.sleepUninterruptibly(DatabaseDescriptor.getCommitLogSyncPeriod(), TimeUnit.MILLISECONDS);
-                }
-            }
-        }, "PERIODIC-COMMIT-LOG-SYNCER").start();
-
-    }
-
-    public void add(CommitLog.LogRecordAdder adder)
-    {
-        try
-        {
-            queue.put(adder);
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
-    public <T> Future<T> submit(Callable<T> task)
-    {
-        FutureTask<T> ft = new FutureTask<T>(task);
-        try
-        {
-            queue.put(ft);
-        }
-        catch (InterruptedException e)
-        {
-            throw new RuntimeException(e);
-        }
-        return ft;
-    }
+    private final long periodNanos;
+    // how late the last sync may be before writes start waiting for the next one
+    private final long blockWhenSyncLagsNanos;
 
-    public void shutdown()
+    public PeriodicCommitLogExecutorService(CommitLog commitLog)
     {
-        new Thread(new WrappedRunnable()
-        {
-            public void runMayThrow() throws InterruptedException, IOException
-            {
-                while (!queue.isEmpty())
-                    Thread.sleep(100);
-                run = false;
-                appendingThread.join();
-            }
-        }, "Commitlog Shutdown").start();
+        super(commitLog, "PERIODIC-COMMIT-LOG-SYNCER");
+        periodNanos = TimeUnit.MILLISECONDS.toNanos(DatabaseDescriptor.getCommitLogSyncPeriod());
+        blockWhenSyncLagsNanos = periodNanos * 3 / 2;
+        start();
     }
 
-    public void awaitTermination() throws InterruptedException
+    protected void awaitSyncDue() throws InterruptedException
     {
-        appendingThread.join();
+        long remaining;
+        while (run && !syncRequested && (remaining = lastSyncStartedAt + periodNanos - System.nanoTime()) > 0)
+            TimeUnit.NANOSECONDS.timedWait(lock, remaining);
     }
 
-    public long getPendingTasks()
+    protected void maybeWaitForSync(CommitLogSegment.Allocation alloc)
     {
-        return queue.size();
+        // if the syncs can't keep up with the period, the disk can't keep up with the writes: make them wait for
+        // the next sync, so that the amount of data we can lose stays bounded
+        if (System.nanoTime() - lastSyncedAt > blockWhenSyncLagsNanos)
+            waitForSync(alloc);
     }
-
-    public long getCompletedTasks()
-    {
-        return completedTaskCount;
-    }
-
-}
\ No newline at end of file
+}
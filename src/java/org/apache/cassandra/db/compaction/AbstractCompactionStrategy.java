@@ -196,12 +196,12 @@ public abstract class AbstractCompactionStrategy
      * Handle a flushed memtable.
      *
      * @param memtable the flushed memtable
-     * @param sstable the written sstable. can be null if the memtable was clean.
+     * @param sstables the written sstables, one per range the flush was split in. can be empty if the memtable was clean.
      */
-    public void replaceFlushed(Memtable memtable, SSTableReader sstable)
+    public void replaceFlushed(Memtable memtable, Collection<SSTableReader> sstables)
     {
-        cfs.getDataTracker().replaceFlushed(memtable, sstable);
-        if (sstable != null)
+        cfs.getDataTracker().replaceFlushed(memtable, sstables);
+        if (!sstables.isEmpty())
             CompactionManager.instance.submitBackground(cfs);
     }
 
@@ -270,10 +270,10 @@ public abstract class AbstractCompactionStrategy
         if (droppableRatio <= tombstoneThreshold)
             return false;
 
-        Set<SSTableReader> overlaps = cfs.getOverlappingSSTables(Collections.singleton(sstable));
+        Set<SSTableReader> overlaps = getShadowedOverlaps(sstable, cfs.getOverlappingSSTables(Collections.singleton(sstable)));
         if (overlaps.isEmpty())
         {
-            // there is no overlap, tombstones are safely droppable
+            // there is no overlap with data older than the tombstones, tombstones are safely droppable
             return true;
         }
         else if (CompactionController.getFullyExpiredSSTables(cfs, Collections.singleton(sstable), overlaps, gcBefore).size() > 0)
@@ -303,6 +303,24 @@ public abstract class AbstractCompactionStrategy
         }
     }
 
+    /**
+     * A tombstone can only be purged if no other sstable holds data for its key older than it (see
+     * CompactionController.shouldPurge), so the overlapping sstables whose data is all newer than the tombstones
+     * of the given sstable do not keep them from being purged.
+     *
+     * @return the overlapping sstables holding data older than the newest data of the given sstable
+     */
+    protected static Set<SSTableReader> getShadowedOverlaps(SSTableReader sstable, Set<SSTableReader> overlaps)
+    {
+        Set<SSTableReader> shadowed = new HashSet<SSTableReader>(overlaps.size());
+        for (SSTableReader overlap : overlaps)
+        {
+            if (overlap.getMinTimestamp() <= sstable.getMaxTimestamp())
+                shadowed.add(overlap);
+        }
+        return shadowed;
+    }
+
     public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
     {
         String threshold = options.get(TOMBSTONE_THRESHOLD_OPTION);
@@ -106,7 +106,7 @@ public class CompactionController
 
         List<SSTableReader> candidates = new ArrayList<SSTableReader>();
 
-        long minTimestamp = Integer.MAX_VALUE;
+        long minTimestamp = Long.MAX_VALUE;
 
         for (SSTableReader sstable : overlapping)
             minTimestamp = Math.min(minTimestamp, sstable.getMinTimestamp());
@@ -167,7 +167,7 @@ public class CompactionController
                 // we check index file instead.
                 if (sstable.getBloomFilter() instanceof AlwaysPresentFilter && sstable.getPosition(key, SSTableReader.Operator.EQ, false) != null)
                     return false;
-                else if (sstable.getBloomFilter().isPresent(key.key))
+                else if (sstable.mayContainKey(key.key))
                     return false;
             }
         }
@@ -51,6 +51,7 @@ import org.apache.cassandra.metrics.CompactionMetrics;
 import org.apache.cassandra.repair.Validator;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.*;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 /**
  * A singleton which manages a private executor of ongoing compactions.
@@ -101,17 +102,19 @@ public class CompactionManager implements CompactionManagerMBean
     private final Multiset<ColumnFamilyStore> compactingCF = ConcurrentHashMultiset.create();
 
     private final RateLimiter compactionRateLimiter = RateLimiter.create(Double.MAX_VALUE);
+    private final CompactionThroughputController throughputController = new CompactionThroughputController(metrics);
 
     /**
      * Gets compaction rate limiter. When compaction_throughput_mb_per_sec is 0 or node is bootstrapping,
      * this returns rate limiter with the rate of Double.MAX_VALUE bytes per second.
+     * When compaction_throughput_max_mb_per_sec is set, the rate is that of the throughput controller.
      * Rate unit is bytes per sec.
      *
      * @return RateLimiter with rate limit set
      */
     public RateLimiter getRateLimiter()
     {
-        double currentThroughput = DatabaseDescriptor.getCompactionThroughputMbPerSec() * 1024 * 1024;
+        double currentThroughput = throughputController.getRate() * 1024 * 1024;
         // if throughput is set to 0, throttling is disabled
         if (currentThroughput == 0 || StorageService.instance.isBootstrapMode())
             currentThroughput = Double.MAX_VALUE;
@@ -120,6 +123,11 @@ public class CompactionManager implements CompactionManagerMBean
         return compactionRateLimiter;
     }
 
+    public CompactionThroughputController getThroughputController()
+    {
+        return throughputController;
+    }
+
     /**
      * Call this whenever a compaction might be needed on the given columnfamily.
      * It's okay to over-call (within reason) if a call is unnecessary, it will
@@ -713,15 +721,15 @@ public class CompactionManager implements CompactionManagerMBean
 
                 if (indexedColumnsInRow != null && !indexedColumnsInRow.isEmpty())
                 {
-                    // acquire memtable lock here because secondary index deletion may cause a race. See CASSANDRA-3712
-                    Keyspace.switchLock.readLock().lock();
+                    // start a write operation here because secondary index deletion may cause a race. See CASSANDRA-3712
+                    OpOrder.Group opGroup = Keyspace.writeOrder.start();
                     try
                     {
-                        cfs.indexManager.deleteFromIndexes(row.getKey(), indexedColumnsInRow);
+                        cfs.indexManager.deleteFromIndexes(row.getKey(), indexedColumnsInRow, opGroup);
                     }
                     finally
                     {
-                        Keyspace.switchLock.readLock().unlock();
+                        opGroup.close();
                     }
                 }
                 return null;
@@ -998,6 +1006,12 @@ public class CompactionManager implements CompactionManagerMBean
         void beginCompaction(CompactionInfo.Holder ci);
 
         void finishCompaction(CompactionInfo.Holder ci);
+
+        /**
+         * @param droppable the estimated number of tombstones droppable by a tombstone compaction
+         * @param purged the estimated number of those it actually purged
+         */
+        void finishTombstoneCompaction(long droppable, long purged);
     }
 
     public List<Map<String, String>> getCompactions()
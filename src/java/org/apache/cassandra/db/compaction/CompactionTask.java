@@ -20,17 +20,26 @@ package org.apache.cassandra.db.compaction;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.compaction.CompactionManager.CompactionExecutorStatsCollector;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.sstable.*;
 import org.apache.cassandra.utils.CloseableIterator;
 
@@ -39,6 +48,13 @@ public class CompactionTask extends AbstractCompactionTask
     protected static final Logger logger = LoggerFactory.getLogger(CompactionTask.class);
     protected final int gcBefore;
     protected static long totalBytesCompacted = 0;
+    // runs the subranges of the compactions split by getSubranges, but the first one of each
+    private static final DebuggableThreadPoolExecutor subrangeExecutor = DebuggableThreadPoolExecutor.createWithMaximumPoolSize("CompactionSubrangeExecutor",
+                                                                                                                                Math.max(1, DatabaseDescriptor.getConcurrentCompactors()),
+                                                                                                                                60,
+                                                                                                                                TimeUnit.SECONDS);
+    // the index summary entries sampled per subrange by getSubranges
+    private static final int SAMPLES_PER_SUBRANGE = 128;
     private Set<SSTableReader> toCompact;
     private CompactionExecutorStatsCollector collector;
 
@@ -108,6 +124,8 @@ public class CompactionTask extends AbstractCompactionTask
 
         CompactionController controller = getCompactionController(toCompact);
         Set<SSTableReader> actuallyCompact = Sets.difference(toCompact, controller.getFullyExpiredSSTables());
+        // estimated beforehand, to tell how many of them a tombstone compaction purges
+        long droppableTombstones = compactionType == OperationType.TOMBSTONE_COMPACTION ? getDroppableTombstones(toCompact) : 0;
 
         // new sstables from flush can be added during a compaction, but only the compaction can remove them,
         // so in our single-threaded compaction world this is a valid way of determining if we're compacting
@@ -115,103 +133,62 @@ public class CompactionTask extends AbstractCompactionTask
         logger.info("Compacting {}", toCompact);
 
         long start = System.nanoTime();
-        long totalkeysWritten = 0;
+
+        List<Range<Token>> ranges = getSubranges(actuallyCompact);
+        if (ranges.size() > 1)
+            logger.debug("Compacting {} in subranges {}", actuallyCompact, ranges);
 
         long estimatedTotalKeys = Math.max(cfs.metadata.getIndexInterval(), SSTableReader.getApproximateKeyCount(actuallyCompact, cfs.metadata));
-        long estimatedSSTables = Math.max(1, SSTable.getTotalBytes(actuallyCompact) / strategy.getMaxSSTableSize());
+        long estimatedSSTables = Math.max(ranges.size(), SSTable.getTotalBytes(actuallyCompact) / strategy.getMaxSSTableSize());
         long keysPerSSTable = (long) Math.ceil((double) estimatedTotalKeys / estimatedSSTables);
         if (logger.isDebugEnabled())
             logger.debug("Expected bloom filter size : {}", keysPerSSTable);
 
-        AbstractCompactionIterable ci = DatabaseDescriptor.isMultithreadedCompaction()
-                                      ? new ParallelCompactionIterable(compactionType, strategy.getScanners(actuallyCompact), controller)
-                                      : new CompactionIterable(compactionType, strategy.getScanners(actuallyCompact), controller);
-        CloseableIterator<AbstractCompactedRow> iter = ci.iterator();
-        Map<DecoratedKey, RowIndexEntry> cachedKeys = new HashMap<DecoratedKey, RowIndexEntry>();
+        List<RangeCompaction> compactions = new ArrayList<RangeCompaction>(ranges.size());
+        for (Range<Token> range : ranges)
+            compactions.add(new RangeCompaction(strategy, controller, actuallyCompact, range, sstableDirectory, keysPerSSTable));
 
+        Collection<SSTableReader> sstables = new ArrayList<SSTableReader>();
         // we can't preheat until the tracker has been set. This doesn't happen until we tell the cfs to
         // replace the old entries.  Track entries to preheat here until then.
         Map<Descriptor, Map<DecoratedKey, RowIndexEntry>> cachedKeyMap =  new HashMap<Descriptor, Map<DecoratedKey, RowIndexEntry>>();
-
-        Collection<SSTableReader> sstables = new ArrayList<SSTableReader>();
-        Collection<SSTableWriter> writers = new ArrayList<SSTableWriter>();
+        boolean empty = true;
 
         if (collector != null)
-            collector.beginCompaction(ci);
+        {
+            for (RangeCompaction compaction : compactions)
+                collector.beginCompaction(compaction.ci);
+        }
         try
         {
-            if (!iter.hasNext())
+            runAll(compactions);
+
+            for (RangeCompaction compaction : compactions)
+            {
+                empty &= compaction.empty;
+                sstables.addAll(compaction.sstables);
+                cachedKeyMap.putAll(compaction.cachedKeyMap);
+            }
+            if (empty)
             {
                 // don't mark compacted in the finally block, since if there _is_ nondeleted data,
                 // we need to sync it (via closeAndOpen) first, so there is no period during which
                 // a crash could cause data loss.
                 cfs.markObsolete(toCompact, compactionType);
-                return;
             }
-
-            SSTableWriter writer = createCompactionWriter(sstableDirectory, keysPerSSTable);
-            writers.add(writer);
-            while (iter.hasNext())
-            {
-                if (ci.isStopRequested())
-                    throw new CompactionInterruptedException(ci.getCompactionInfo());
-
-                AbstractCompactedRow row = iter.next();
-                RowIndexEntry indexEntry = writer.append(row);
-                if (indexEntry == null)
-                {
-                    controller.invalidateCachedRow(row.key);
-                    row.close();
-                    continue;
-                }
-
-                totalkeysWritten++;
-
-                if (DatabaseDescriptor.getPreheatKeyCache())
-                {
-                    for (SSTableReader sstable : actuallyCompact)
-                    {
-                        if (sstable.getCachedPosition(row.key, false) != null)
-                        {
-                            cachedKeys.put(row.key, indexEntry);
-                            break;
-                        }
-                    }
-                }
-
-                if (newSSTableSegmentThresholdReached(writer))
-                {
-                    // tmp = false because later we want to query it with descriptor from SSTableReader
-                    cachedKeyMap.put(writer.descriptor.asTemporary(false), cachedKeys);
-                    writer = createCompactionWriter(sstableDirectory, keysPerSSTable);
-                    writers.add(writer);
-                    cachedKeys = new HashMap<DecoratedKey, RowIndexEntry>();
-                }
-            }
-
-            if (writer.getFilePointer() > 0)
-            {
-                cachedKeyMap.put(writer.descriptor.asTemporary(false), cachedKeys);
-            }
-            else
-            {
-                writer.abort();
-                writers.remove(writer);
-            }
-
-            long maxAge = getMaxDataAge(toCompact);
-            for (SSTableWriter completedWriter : writers)
-                sstables.add(completedWriter.closeAndOpenReader(maxAge));
         }
         catch (Throwable t)
         {
-            for (SSTableWriter writer : writers)
-                writer.abort();
-            // also remove already completed SSTables
-            for (SSTableReader sstable : sstables)
+            for (RangeCompaction compaction : compactions)
             {
-                sstable.markObsolete();
-                sstable.releaseReference();
+                for (SSTableWriter writer : compaction.writers)
+                    writer.abort();
+                // also remove already completed SSTables
+                for (SSTableReader sstable : compaction.sstables)
+                {
+                    sstable.markObsolete();
+                    sstable.releaseReference();
+                }
             }
             throw Throwables.propagate(t);
         }
@@ -225,21 +202,31 @@ public class CompactionTask extends AbstractCompactionTask
                 SystemKeyspace.finishCompaction(taskId);
 
             if (collector != null)
-                collector.finishCompaction(ci);
+            {
+                for (RangeCompaction compaction : compactions)
+                    collector.finishCompaction(compaction.ci);
+            }
 
             try
             {
                 // We don't expect this to throw, but just in case, we do it after the cleanup above, to make sure
                 // we don't end up with compaction information hanging around indefinitely in limbo.
-                iter.close();
+                for (RangeCompaction compaction : compactions)
+                    compaction.iter.close();
             }
             catch (IOException e)
             {
                 throw new RuntimeException(e);
             }
         }
+        if (empty)
+        {
+            finishTombstoneCompaction(droppableTombstones, Collections.<SSTableReader>emptyList());
+            return;
+        }
 
         replaceCompactedSSTables(toCompact, sstables);
+        finishTombstoneCompaction(droppableTombstones, sstables);
         // TODO: this doesn't belong here, it should be part of the reader to load when the tracker is wired up
         for (SSTableReader sstable : sstables)
             sstable.preheat(cachedKeyMap.get(sstable.descriptor));
@@ -256,7 +243,17 @@ public class CompactionTask extends AbstractCompactionTask
 
         double mbps = dTime > 0 ? (double) endsize / (1024 * 1024) / ((double) dTime / 1000) : 0;
         long totalSourceRows = 0;
-        long[] counts = ci.getMergedRowCounts();
+        long totalkeysWritten = 0;
+        long[] counts = new long[0];
+        for (RangeCompaction compaction : compactions)
+        {
+            totalkeysWritten += compaction.keysWritten;
+            long[] rangeCounts = compaction.ci.getMergedRowCounts();
+            if (rangeCounts.length > counts.length)
+                counts = Arrays.copyOf(counts, rangeCounts.length);
+            for (int i = 0; i < rangeCounts.length; i++)
+                counts[i] += rangeCounts[i];
+        }
         StringBuilder mergeSummary = new StringBuilder(counts.length * 10);
         Map<Integer, Long> mergedRows = new HashMap<Integer, Long>();
         for (int i = 0; i < counts.length; i++)
@@ -274,6 +271,228 @@ public class CompactionTask extends AbstractCompactionTask
         logger.debug(String.format("CF Total Bytes Compacted: %,d", CompactionTask.addToTotalBytesCompacted(endsize)));
     }
 
+    /**
+     * Splits the compaction in concurrent_compactors subranges compacted concurrently, if the compacted sstables
+     * are larger than subrange_compaction_threshold_in_mb.
+     *
+     * @return the disjoint token ranges to compact, or a single null range to compact everything at once
+     */
+    protected List<Range<Token>> getSubranges(Set<SSTableReader> sstables)
+    {
+        long threshold = DatabaseDescriptor.getSubrangeCompactionThreshold();
+        if (threshold <= 0 || sstables.isEmpty() || SSTable.getTotalBytes(sstables) < threshold)
+            return Collections.singletonList(null);
+        return getSubranges(sstables, DatabaseDescriptor.getConcurrentCompactors());
+    }
+
+    /**
+     * @return up to count disjoint token ranges covering the ring, holding about the same number of keys of the
+     * given sstables according to their index summaries, or a single null range if they cannot be split
+     */
+    public static List<Range<Token>> getSubranges(Collection<SSTableReader> sstables, int count)
+    {
+        IPartitioner partitioner = sstables.iterator().next().partitioner;
+        Token minimum = partitioner.getMinimumToken();
+
+        // the same stride over every summary, so that each sstable weighs as much as its keys
+        long summaryEntries = 0;
+        for (SSTableReader sstable : sstables)
+            summaryEntries += sstable.getKeySampleSize();
+        int stride = (int) Math.max(1, summaryEntries / ((long) count * SAMPLES_PER_SUBRANGE));
+        List<DecoratedKey> samples = new ArrayList<DecoratedKey>();
+        for (SSTableReader sstable : sstables)
+            samples.addAll(sstable.getKeySamples(stride));
+        Collections.sort(samples);
+
+        List<Range<Token>> ranges = new ArrayList<Range<Token>>(count);
+        Token left = minimum;
+        for (int i = 1; i < count && !samples.isEmpty(); i++)
+        {
+            DecoratedKey right = samples.get((int) ((long) i * samples.size() / count));
+            // too few distinct samples for this many ranges
+            if (right.compareTo(left.maxKeyBound(partitioner)) <= 0)
+                continue;
+            ranges.add(new Range<Token>(left, right.token, partitioner));
+            left = right.token;
+        }
+        if (ranges.isEmpty())
+            return Collections.singletonList(null);
+        ranges.add(new Range<Token>(left, minimum, partitioner));
+        return ranges;
+    }
+
+    /**
+     * Runs the first compaction on the current thread and the others on the subrange executor, and waits for all
+     * of them to be done.  The first one to fail stops all the others.
+     */
+    private static void runAll(final List<RangeCompaction> compactions)
+    {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Future<?>> futures = new ArrayList<Future<?>>(compactions.size() - 1);
+        for (final RangeCompaction compaction : compactions.subList(1, compactions.size()))
+        {
+            futures.add(subrangeExecutor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    runOrStopAll(compaction, compactions, failure);
+                }
+            }));
+        }
+        runOrStopAll(compactions.get(0), compactions, failure);
+
+        // the writers of every subrange must be done before the caller cleans up after a failure
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                Uninterruptibles.getUninterruptibly(future);
+            }
+            catch (ExecutionException e)
+            {
+                failure.compareAndSet(null, e.getCause());
+            }
+        }
+        if (failure.get() != null)
+            throw Throwables.propagate(failure.get());
+    }
+
+    private static void runOrStopAll(RangeCompaction compaction, List<RangeCompaction> compactions, AtomicReference<Throwable> failure)
+    {
+        try
+        {
+            compaction.call();
+        }
+        catch (Throwable t)
+        {
+            if (failure.compareAndSet(null, t))
+            {
+                for (RangeCompaction other : compactions)
+                    other.ci.stop();
+            }
+        }
+    }
+
+    /**
+     * Merges the rows of one token range of the compacted sstables into sstables of its own.
+     */
+    private class RangeCompaction implements Callable<Void>
+    {
+        private final CompactionController controller;
+        private final Set<SSTableReader> actuallyCompact;
+        private final File sstableDirectory;
+        private final long keysPerSSTable;
+        private final AbstractCompactionIterable ci;
+        private final CloseableIterator<AbstractCompactedRow> iter;
+
+        private final List<SSTableWriter> writers = new ArrayList<SSTableWriter>();
+        private final List<SSTableReader> sstables = new ArrayList<SSTableReader>();
+        private final Map<Descriptor, Map<DecoratedKey, RowIndexEntry>> cachedKeyMap = new HashMap<Descriptor, Map<DecoratedKey, RowIndexEntry>>();
+        private boolean empty;
+        private long keysWritten;
+
+        RangeCompaction(AbstractCompactionStrategy strategy,
+                        CompactionController controller,
+                        Set<SSTableReader> actuallyCompact,
+                        Range<Token> range,
+                        File sstableDirectory,
+                        long keysPerSSTable)
+        {
+            this.controller = controller;
+            this.actuallyCompact = actuallyCompact;
+            this.sstableDirectory = sstableDirectory;
+            this.keysPerSSTable = keysPerSSTable;
+            List<ICompactionScanner> scanners = strategy.getScanners(actuallyCompact, range);
+            ci = DatabaseDescriptor.isMultithreadedCompaction()
+               ? new ParallelCompactionIterable(compactionType, scanners, controller)
+               : new CompactionIterable(compactionType, scanners, controller);
+            iter = ci.iterator();
+        }
+
+        public Void call() throws IOException
+        {
+            if (!iter.hasNext())
+            {
+                empty = true;
+                return null;
+            }
+
+            Map<DecoratedKey, RowIndexEntry> cachedKeys = new HashMap<DecoratedKey, RowIndexEntry>();
+            SSTableWriter writer = createCompactionWriter(sstableDirectory, keysPerSSTable);
+            writers.add(writer);
+            while (iter.hasNext())
+            {
+                if (ci.isStopRequested())
+                    throw new CompactionInterruptedException(ci.getCompactionInfo());
+
+                AbstractCompactedRow row = iter.next();
+                RowIndexEntry indexEntry = writer.append(row);
+                if (indexEntry == null)
+                {
+                    controller.invalidateCachedRow(row.key);
+                    row.close();
+                    continue;
+                }
+
+                keysWritten++;
+
+                if (DatabaseDescriptor.getPreheatKeyCache())
+                {
+                    for (SSTableReader sstable : actuallyCompact)
+                    {
+                        if (sstable.getCachedPosition(row.key, false) != null)
+                        {
+                            cachedKeys.put(row.key, indexEntry);
+                            break;
+                        }
+                    }
+                }
+
+                if (newSSTableSegmentThresholdReached(writer))
+                {
+                    // tmp = false because later we want to query it with descriptor from SSTableReader
+                    cachedKeyMap.put(writer.descriptor.asTemporary(false), cachedKeys);
+                    writer = createCompactionWriter(sstableDirectory, keysPerSSTable);
+                    writers.add(writer);
+                    cachedKeys = new HashMap<DecoratedKey, RowIndexEntry>();
+                }
+            }
+
+            if (writer.getFilePointer() > 0)
+            {
+                cachedKeyMap.put(writer.descriptor.asTemporary(false), cachedKeys);
+            }
+            else
+            {
+                writer.abort();
+                writers.remove(writer);
+            }
+
+            long maxAge = getMaxDataAge(toCompact);
+            for (SSTableWriter completedWriter : writers)
+                sstables.add(completedWriter.closeAndOpenReader(maxAge));
+            return null;
+        }
+    }
+
+    private long getDroppableTombstones(Collection<SSTableReader> sstables)
+    {
+        double droppable = 0;
+        for (SSTableReader sstable : sstables)
+            droppable += sstable.getDroppableTombstonesBefore(gcBefore);
+        return Math.round(droppable);
+    }
+
+    private void finishTombstoneCompaction(long droppableTombstones, Collection<SSTableReader> compacted)
+    {
+        if (compactionType != OperationType.TOMBSTONE_COMPACTION || collector == null)
+            return;
+
+        long purged = Math.max(0, droppableTombstones - getDroppableTombstones(compacted));
+        logger.debug("Tombstone compaction of {} purged about {} of {} droppable tombstones", toCompact, purged, droppableTombstones);
+        collector.finishTombstoneCompaction(droppableTombstones, purged);
+    }
+
     private SSTableWriter createCompactionWriter(File sstableDirectory, long keysPerSSTable)
     {
         return new SSTableWriter(cfs.getTempSSTablePath(sstableDirectory),
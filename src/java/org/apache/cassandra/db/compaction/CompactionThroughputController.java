@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.metrics.CompactionMetrics;
+import org.apache.cassandra.service.StorageProxy;
+
+/**
+ * Adapts the compaction throughput between compaction_throughput_mb_per_sec and
+ * compaction_throughput_max_mb_per_sec, every INTERVAL_IN_SECONDS.
+ *
+ * The throughput goes up by a tenth of that range while the pending compactions don't go down, or while reads
+ * touch more sstables than they used to, and halves towards compaction_throughput_mb_per_sec as soon as the 99th
+ * percentile of the client read latency exceeds its baseline by half.  The baseline follows the lowest latency
+ * seen, drifting up slowly so that a lasting change of workload doesn't keep compaction throttled forever.
+ * Without pending compactions, the throughput goes back down a tenth of the range at a time.
+ */
+public class CompactionThroughputController implements Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(CompactionThroughputController.class);
+
+    public static final int INTERVAL_IN_SECONDS = 10;
+
+    /** read latencies over this multiple of the baseline count as degraded */
+    private static final double READ_LATENCY_TOLERANCE = 1.5;
+    /** how much the baseline rises every interval */
+    private static final double BASELINE_DRIFT = 0.01;
+    /** the fraction of the range between the lowest and the highest throughput added or removed at once */
+    private static final double STEP = 0.1;
+
+    private final CompactionMetrics metrics;
+
+    /** in MB/s; 0 until the first update, which counts as the lowest throughput */
+    private volatile double rate;
+    private double baselineReadLatency = Double.NaN;
+    private int lastPendingTasks;
+    private double lastSSTablesPerRead;
+
+    public CompactionThroughputController(CompactionMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the compaction throughput in MB/s, 0 meaning unthrottled
+     */
+    public double getRate()
+    {
+        int lowest = DatabaseDescriptor.getCompactionThroughputMbPerSec();
+        int highest = DatabaseDescriptor.getCompactionThroughputMaxMbPerSec();
+        if (!isAdaptive(lowest, highest))
+            return lowest;
+        return Math.max(lowest, Math.min(highest, rate));
+    }
+
+    private static boolean isAdaptive(int lowest, int highest)
+    {
+        return lowest > 0 && highest > lowest;
+    }
+
+    public void run()
+    {
+        int lowest = DatabaseDescriptor.getCompactionThroughputMbPerSec();
+        int highest = DatabaseDescriptor.getCompactionThroughputMaxMbPerSec();
+        if (!isAdaptive(lowest, highest))
+            return;
+
+        double previous = getRate();
+        double current = update(lowest,
+                                highest,
+                                metrics.pendingTasks.value(),
+                                getSSTablesPerRead(),
+                                StorageProxy.readMetrics.latency.getSnapshot().get99thPercentile());
+        if (current > previous)
+            metrics.throughputIncreases.inc();
+        else if (current < previous)
+            metrics.throughputDecreases.inc();
+
+        // so that the compactions already running are throttled at the new rate too
+        CompactionManager.instance.getRateLimiter();
+    }
+
+    /**
+     * @return the highest 99th percentile of the sstables per read of the tables outside of the system keyspace
+     */
+    private static double getSSTablesPerRead()
+    {
+        double sstablesPerRead = 0;
+        for (Keyspace keyspace : Keyspace.nonSystem())
+        {
+            for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+                sstablesPerRead = Math.max(sstablesPerRead, cfs.metric.sstablesPerReadHistogram.getSnapshot().get99thPercentile());
+        }
+        return sstablesPerRead;
+    }
+
+    /**
+     * Computes the throughput for the next interval.
+     *
+     * @param lowest the lowest throughput, in MB/s
+     * @param highest the highest throughput, in MB/s
+     * @param pendingTasks the estimated number of compactions remaining
+     * @param sstablesPerRead the number of sstables touched by reads
+     * @param readLatency the 99th percentile of the client read latency, 0 without reads
+     * @return the new throughput, in MB/s
+     */
+    @VisibleForTesting
+    synchronized double update(double lowest, double highest, int pendingTasks, double sstablesPerRead, double readLatency)
+    {
+        double current = Math.max(lowest, Math.min(highest, rate));
+        double step = STEP * (highest - lowest);
+
+        boolean degraded = false;
+        if (readLatency > 0)
+        {
+            degraded = !Double.isNaN(baselineReadLatency) && readLatency > READ_LATENCY_TOLERANCE * baselineReadLatency;
+            baselineReadLatency = Double.isNaN(baselineReadLatency)
+                                ? readLatency
+                                : Math.min(readLatency, baselineReadLatency * (1 + BASELINE_DRIFT));
+        }
+        boolean behind = (pendingTasks > 0 && pendingTasks >= lastPendingTasks) || sstablesPerRead > lastSSTablesPerRead;
+        lastPendingTasks = pendingTasks;
+        lastSSTablesPerRead = sstablesPerRead;
+
+        double next;
+        if (degraded)
+            next = lowest + (current - lowest) / 2;
+        else if (behind)
+            next = Math.min(highest, current + step);
+        else if (pendingTasks == 0)
+            next = Math.max(lowest, current - step);
+        else
+            next = current;
+
+        if (next != current)
+            logger.debug("Compaction throughput {} MB/s (was {}) for {} pending tasks, {} sstables per read and {} us read latency (baseline {})",
+                         next, current, pendingTasks, sstablesPerRead, readLatency, baselineReadLatency);
+        rate = next;
+        return next;
+    }
+}
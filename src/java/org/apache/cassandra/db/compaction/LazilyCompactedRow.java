@@ -65,7 +65,7 @@ public class LazilyCompactedRow extends AbstractCompactedRow implements Iterable
         super(rows.get(0).getKey());
         this.rows = rows;
         this.controller = controller;
-        indexer = controller.cfs.indexManager.updaterFor(key);
+        indexer = controller.cfs.indexManager.gcUpdaterFor(key);
 
         maxDelTimestamp = Long.MIN_VALUE;
         for (OnDiskAtomIterator row : rows)
@@ -234,6 +234,14 @@ public class LazilyCompactedRow extends AbstractCompactedRow implements Iterable
                 }
                 else
                 {
+                    // reads skip sstables by column names, so those must cover the range tombstones too
+                    maxLocalDeletionTimeSeen = Math.max(maxLocalDeletionTimeSeen, t.data.localDeletionTime);
+                    tombstones.update(t.data.localDeletionTime);
+                    for (ByteBuffer bound : new ByteBuffer[]{ t.min, t.max })
+                    {
+                        minColumnNameSeen = ColumnNameHelper.minComponents(minColumnNameSeen, bound, controller.cfs.metadata.comparator);
+                        maxColumnNameSeen = ColumnNameHelper.maxComponents(maxColumnNameSeen, bound, controller.cfs.metadata.comparator);
+                    }
                     return t;
                 }
             }
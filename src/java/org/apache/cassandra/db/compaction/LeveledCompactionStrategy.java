@@ -29,6 +29,7 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.columniterator.OnDiskAtomIterator;
+import org.apache.cassandra.dht.Bounds;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
@@ -245,8 +246,9 @@ public class LeveledCompactionStrategy extends AbstractCompactionStrategy implem
             ArrayList<SSTableReader> filtered = new ArrayList<SSTableReader>();
             for (SSTableReader sstable : sstables)
             {
-                Range<Token> sstableRange = new Range<Token>(sstable.first.getToken(), sstable.last.getToken(), sstable.partitioner);
-                if (range == null || sstableRange.intersects(range))
+                // the first key of the sstable is included, unlike the left bound of a range
+                Bounds<Token> sstableBounds = new Bounds<Token>(sstable.first.getToken(), sstable.last.getToken(), sstable.partitioner);
+                if (range == null || range.intersects(sstableBounds))
                     filtered.add(sstable);
             }
             return filtered;
@@ -58,6 +58,11 @@ public class LeveledManifest
     private final RowPosition[] lastCompactedKeys;
     private final int maxSSTableSizeInBytes;
     private final SizeTieredCompactionStrategyOptions options;
+    /**
+     * the L0 and L1 sstables of the L0 to L1 compactions we handed out, with the token bounds their output will fall
+     * in; L0 to L1 compactions run concurrently as long as these bounds don't intersect
+     */
+    private final Map<Set<SSTableReader>, Bounds<Token>> promotions = new HashMap<Set<SSTableReader>, Bounds<Token>>();
 
     private LeveledManifest(ColumnFamilyStore cfs, int maxSSTableSizeInMB, SizeTieredCompactionStrategyOptions options)
     {
@@ -270,18 +275,9 @@ public class LeveledManifest
             if (score > 1.001)
             {
                 // before proceeding with a higher level, let's see if L0 is far enough behind to warrant STCS
-                if (generations[0].size() > MAX_COMPACTING_L0)
-                {
-                    Iterable<SSTableReader> candidates = cfs.getDataTracker().getUncompactingSSTables(generations[0]);
-                    List<Pair<SSTableReader,Long>> pairs = SizeTieredCompactionStrategy.createSSTableAndLengthPairs(AbstractCompactionStrategy.filterSuspectSSTables(candidates));
-                    List<List<SSTableReader>> buckets = SizeTieredCompactionStrategy.getBuckets(pairs,
-                                                                                                options.bucketHigh,
-                                                                                                options.bucketLow,
-                                                                                                options.minSSTableSize);
-                    List<SSTableReader> mostInteresting = SizeTieredCompactionStrategy.mostInterestingBucket(buckets, 4, 32);
-                    if (!mostInteresting.isEmpty())
-                        return Pair.create(mostInteresting, 0);
-                }
+                Collection<SSTableReader> l0Candidates = getSTCSInL0CompactionCandidates();
+                if (!l0Candidates.isEmpty())
+                    return Pair.create(l0Candidates, 0);
 
                 // L0 is fine, proceed with this level
                 Collection<SSTableReader> candidates = getCandidatesFor(i);
@@ -297,10 +293,33 @@ public class LeveledManifest
             return null;
         Collection<SSTableReader> candidates = getCandidatesFor(0);
         if (candidates.isEmpty())
-            return null;
+        {
+            // every L0 sstable is blocked by the compactions in progress; if L0 is far behind, size-tier it
+            // while waiting, so that reads don't have to go through all of it
+            Collection<SSTableReader> l0Candidates = getSTCSInL0CompactionCandidates();
+            return l0Candidates.isEmpty() ? null : Pair.create(l0Candidates, 0);
+        }
         return Pair.create(candidates, getNextLevel(candidates));
     }
 
+    /**
+     * @return the most interesting size-tiered bucket of the L0 sstables not being compacted, whose compaction
+     * leaves the result in L0, if L0 has more than MAX_COMPACTING_L0 sstables; otherwise an empty list
+     */
+    private Collection<SSTableReader> getSTCSInL0CompactionCandidates()
+    {
+        if (generations[0].size() <= MAX_COMPACTING_L0)
+            return Collections.emptyList();
+
+        Iterable<SSTableReader> candidates = cfs.getDataTracker().getUncompactingSSTables(generations[0]);
+        List<Pair<SSTableReader,Long>> pairs = SizeTieredCompactionStrategy.createSSTableAndLengthPairs(AbstractCompactionStrategy.filterSuspectSSTables(candidates));
+        List<List<SSTableReader>> buckets = SizeTieredCompactionStrategy.getBuckets(pairs,
+                                                                                    options.bucketHigh,
+                                                                                    options.bucketLow,
+                                                                                    options.minSSTableSize);
+        return SizeTieredCompactionStrategy.mostInterestingBucket(buckets, 4, 32);
+    }
+
     public synchronized int getLevelSize(int i)
     {
         if (i >= generations.length)
@@ -354,7 +373,16 @@ public class LeveledManifest
          * Thus, the correct approach is to pick sstables overlapping anything between the first key in all
          * the candidate sstables, and the last.
          */
-        Iterator<SSTableReader> iter = candidates.iterator();
+        Bounds<Token> bounds = bounds(candidates);
+        return overlapping(bounds.left, bounds.right, others);
+    }
+
+    /**
+     * @return the smallest bounds holding the tokens of all of @param sstables
+     */
+    private static Bounds<Token> bounds(Collection<SSTableReader> sstables)
+    {
+        Iterator<SSTableReader> iter = sstables.iterator();
         SSTableReader sstable = iter.next();
         Token first = sstable.first.token;
         Token last = sstable.last.token;
@@ -364,7 +392,7 @@ public class LeveledManifest
             first = first.compareTo(sstable.first.token) <= 0 ? first : sstable.first.token;
             last = last.compareTo(sstable.last.token) >= 0 ? last : sstable.last.token;
         }
-        return overlapping(first, last, others);
+        return new Bounds<Token>(first, last);
     }
 
     @VisibleForTesting
@@ -414,12 +442,22 @@ public class LeveledManifest
         {
             Set<SSTableReader> compactingL0 = ImmutableSet.copyOf(Iterables.filter(generations[0], Predicates.in(compacting)));
 
+            // forget the L0 to L1 compactions that are over, or that were never started
+            Iterator<Set<SSTableReader>> iter = promotions.keySet().iterator();
+            while (iter.hasNext())
+            {
+                if (!compacting.containsAll(iter.next()))
+                    iter.remove();
+            }
+
             // L0 is the dumping ground for new sstables which thus may overlap each other.
             //
             // We treat L0 compactions specially:
             // 1a. add sstables to the candidate set until we have at least maxSSTableSizeInMB
             // 1b. prefer choosing older sstables as candidates, to newer ones
             // 1c. any L0 sstables that overlap a candidate, will also become candidates
+            // 1d. candidates must not overlap the L1 sstables being compacted, nor the bounds of another L0 to L1
+            //     compaction, so that several L0 to L1 compactions over distinct token ranges may run at once
             // 2. At most MAX_COMPACTING_L0 sstables from L0 will be compacted at once
             // 3. If total candidate size is less than maxSSTableSizeInMB, we won't bother compacting with L1,
             //    and the result of the compaction will stay in L0 instead of being promoted (see promote())
@@ -438,6 +476,8 @@ public class LeveledManifest
                 Sets.SetView<SSTableReader> overlappedL0 = Sets.union(Collections.singleton(sstable), overlapping(sstable, remaining));
                 if (!Sets.intersection(overlappedL0, compactingL0).isEmpty())
                     continue;
+                if (!compacting.isEmpty() && isBlockedInL1(Sets.union(candidates, overlappedL0), compacting))
+                    continue;
 
                 for (SSTableReader newCandidate : overlappedL0)
                 {
@@ -457,9 +497,8 @@ public class LeveledManifest
             if (SSTable.getTotalBytes(candidates) > maxSSTableSizeInBytes)
             {
                 // add sstables from L1 that overlap candidates
-                // if the overlapping ones are already busy in a compaction, leave it out.
-                // TODO try to find a set of L0 sstables that only overlaps with non-busy L1 sstables
                 candidates = Sets.union(candidates, overlapping(candidates, generations[1]));
+                promotions.put(ImmutableSet.copyOf(candidates), bounds(candidates));
             }
             if (candidates.size() < 2)
                 return Collections.emptyList();
@@ -496,6 +535,25 @@ public class LeveledManifest
         return Collections.emptyList();
     }
 
+    /**
+     * @return true if compacting the L0 @param candidates into L1 would include L1 sstables being compacted, or
+     * would write to L1 within the bounds of another L0 to L1 compaction
+     */
+    private boolean isBlockedInL1(Set<SSTableReader> candidates, Set<SSTableReader> compacting)
+    {
+        Set<SSTableReader> overlappedL1 = overlapping(candidates, generations[1]);
+        if (!Sets.intersection(overlappedL1, compacting).isEmpty())
+            return true;
+
+        Bounds<Token> bounds = bounds(Sets.union(candidates, overlappedL1));
+        for (Bounds<Token> promotion : promotions.values())
+        {
+            if (promotion.intersects(bounds))
+                return true;
+        }
+        return false;
+    }
+
     private List<SSTableReader> ageSortedSSTables(Collection<SSTableReader> candidates)
     {
         List<SSTableReader> ageSortedCandidates = new ArrayList<SSTableReader>(candidates);
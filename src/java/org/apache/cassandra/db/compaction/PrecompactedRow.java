@@ -87,7 +87,7 @@ public class PrecompactedRow extends AbstractCompactedRow
         // See comment in preceding method
         ColumnFamily compacted = ColumnFamilyStore.removeDeleted(cf,
                                                                  shouldPurge ? controller.gcBefore : Integer.MIN_VALUE,
-                                                                 controller.cfs.indexManager.updaterFor(key));
+                                                                 controller.cfs.indexManager.gcUpdaterFor(key));
         if (shouldPurge && compacted != null && compacted.metadata().getDefaultValidator().isCommutative())
             CounterColumn.mergeAndRemoveOldShards(key, compacted, controller.gcBefore, controller.mergeShardBefore);
         return compacted;
@@ -114,7 +114,7 @@ public class PrecompactedRow extends AbstractCompactedRow
             data.add(FBUtilities.closeableIterator(cf.iterator()));
         }
 
-        merge(returnCF, data, controller.cfs.indexManager.updaterFor(rows.get(0).getKey()));
+        merge(returnCF, data, controller.cfs.indexManager.gcUpdaterFor(rows.get(0).getKey()));
 
         return returnCF;
     }
@@ -49,6 +49,11 @@ public class SSTableSplitter {
         {
             // no-op
         }
+
+        public void finishTombstoneCompaction(long droppable, long purged)
+        {
+            // no-op
+        }
     }
 
     public static class SplittingCompactionTask extends CompactionTask
@@ -134,7 +134,13 @@ public class SizeTieredCompactionStrategy extends AbstractCompactionStrategy
                 return null;
 
             if (cfs.getDataTracker().markCompacting(smallestBucket))
-                return new CompactionTask(cfs, smallestBucket, gcBefore);
+            {
+                CompactionTask task = new CompactionTask(cfs, smallestBucket, gcBefore);
+                // buckets have at least min_threshold sstables, so a single sstable is compacted for its tombstones
+                if (smallestBucket.size() == 1)
+                    task.setCompactionType(OperationType.TOMBSTONE_COMPACTION);
+                return task;
+            }
         }
     }
 
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.cql3.CFPropDefs;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Compaction strategy for time series, where data is written once, in timestamp order, and expires by TTL.
+ *
+ * SSTables are grouped in windows of compaction_window_size compaction_window_units by the maximum timestamp of
+ * their data, and are only ever compacted with the sstables of the same window: size tiered in the newest window,
+ * which still receives flushes, and down to one sstable in older windows.  Data of different windows is thus never
+ * merged again, and sstables whose data has all expired are dropped whole instead of being compacted.
+ */
+public class TimeWindowCompactionStrategy extends AbstractCompactionStrategy
+{
+    private static final Logger logger = LoggerFactory.getLogger(TimeWindowCompactionStrategy.class);
+
+    protected TimeWindowCompactionStrategyOptions options;
+    protected volatile int estimatedRemainingTasks;
+    private long lastExpiredCheck;
+
+    public TimeWindowCompactionStrategy(ColumnFamilyStore cfs, Map<String, String> options)
+    {
+        super(cfs, options);
+        this.estimatedRemainingTasks = 0;
+        this.options = new TimeWindowCompactionStrategyOptions(options);
+    }
+
+    public synchronized AbstractCompactionTask getNextBackgroundTask(int gcBefore)
+    {
+        if (!isEnabled())
+            return null;
+
+        while (true)
+        {
+            List<SSTableReader> sstables = getNextBackgroundSSTables(gcBefore);
+
+            if (sstables.isEmpty())
+                return null;
+
+            if (cfs.getDataTracker().markCompacting(sstables))
+            {
+                CompactionTask task = new CompactionTask(cfs, sstables, gcBefore);
+                // windows are compacted two sstables at least, so a single sstable is compacted or dropped for its tombstones
+                if (sstables.size() == 1)
+                    task.setCompactionType(OperationType.TOMBSTONE_COMPACTION);
+                return task;
+            }
+        }
+    }
+
+    private List<SSTableReader> getNextBackgroundSSTables(final int gcBefore)
+    {
+        if (!isEnabled())
+            return Collections.emptyList();
+
+        Set<SSTableReader> candidates = new HashSet<SSTableReader>();
+        Iterables.addAll(candidates, filterSuspectSSTables(cfs.getUncompactingSSTables()));
+        if (candidates.isEmpty())
+            return Collections.emptyList();
+
+        // the sstables whose data has all expired are dropped by CompactionTask without being read
+        if (System.currentTimeMillis() - lastExpiredCheck > options.expiredSSTableCheckFrequency)
+        {
+            lastExpiredCheck = System.currentTimeMillis();
+            Set<SSTableReader> expired = CompactionController.getFullyExpiredSSTables(cfs, candidates, cfs.getOverlappingSSTables(candidates), gcBefore);
+            if (!expired.isEmpty())
+            {
+                logger.debug("Dropping expired sstables {}", expired);
+                return new ArrayList<SSTableReader>(expired);
+            }
+        }
+
+        List<SSTableReader> mostInteresting = newestBucket(getBuckets(createSSTableAndTimestampPairs(candidates),
+                                                                      options.windowUnit,
+                                                                      options.windowSize,
+                                                                      options.timestampResolution));
+        if (!mostInteresting.isEmpty())
+            return mostInteresting;
+
+        // same as size tiered: try compacting the single sstable with the most droppable tombstones
+        List<SSTableReader> sstablesWithTombstones = new ArrayList<SSTableReader>();
+        for (SSTableReader sstable : candidates)
+        {
+            if (worthDroppingTombstones(sstable, gcBefore))
+                sstablesWithTombstones.add(sstable);
+        }
+        if (sstablesWithTombstones.isEmpty())
+            return Collections.emptyList();
+
+        Collections.sort(sstablesWithTombstones, new SSTableReader.SizeComparator());
+        return Collections.singletonList(sstablesWithTombstones.get(0));
+    }
+
+    /**
+     * @param buckets the sstables of each window, by window start
+     * @return the sstables to compact in the newest window worth compacting, or an empty list
+     */
+    private List<SSTableReader> newestBucket(NavigableMap<Long, List<SSTableReader>> buckets)
+    {
+        // make local copies so they can't be changed out from under us mid-method
+        int minThreshold = cfs.getMinimumCompactionThreshold();
+        int maxThreshold = cfs.getMaximumCompactionThreshold();
+
+        List<SSTableReader> mostInteresting = Collections.emptyList();
+        int n = 0;
+        boolean newest = true;
+        for (List<SSTableReader> bucket : buckets.descendingMap().values())
+        {
+            List<SSTableReader> toCompact;
+            if (newest)
+            {
+                // the newest window still gets flushed to, so it is compacted the size tiered way
+                List<List<SSTableReader>> stcsBuckets = SizeTieredCompactionStrategy.getBuckets(SizeTieredCompactionStrategy.createSSTableAndLengthPairs(bucket),
+                                                                                                 options.stcsOptions.bucketHigh,
+                                                                                                 options.stcsOptions.bucketLow,
+                                                                                                 options.stcsOptions.minSSTableSize);
+                for (List<SSTableReader> stcsBucket : stcsBuckets)
+                {
+                    if (stcsBucket.size() >= minThreshold)
+                        n += Math.ceil((double) stcsBucket.size() / maxThreshold);
+                }
+                toCompact = SizeTieredCompactionStrategy.mostInterestingBucket(stcsBuckets, minThreshold, maxThreshold);
+                newest = false;
+            }
+            else
+            {
+                // older windows are complete: compact them down to a single sstable, smallest sstables first
+                if (bucket.size() < 2)
+                    continue;
+                n += Math.ceil((double) (bucket.size() - 1) / (maxThreshold - 1));
+                Collections.sort(bucket, new SSTableReader.SizeComparator());
+                toCompact = bucket.subList(0, Math.min(bucket.size(), maxThreshold));
+            }
+
+            if (mostInteresting.isEmpty())
+                mostInteresting = toCompact;
+        }
+        estimatedRemainingTasks = n;
+        return mostInteresting;
+    }
+
+    public static List<Pair<SSTableReader, Long>> createSSTableAndTimestampPairs(Iterable<SSTableReader> sstables)
+    {
+        List<Pair<SSTableReader, Long>> sstableTimestampPairs = new ArrayList<Pair<SSTableReader, Long>>(Iterables.size(sstables));
+        for (SSTableReader sstable : sstables)
+            sstableTimestampPairs.add(Pair.create(sstable, sstable.getMaxTimestamp()));
+        return sstableTimestampPairs;
+    }
+
+    /**
+     * Group files in windows by their maximum timestamp.
+     *
+     * @param files the files, with their maximum timestamp
+     * @return the files of each window, by window start in seconds
+     */
+    public static <T> NavigableMap<Long, List<T>> getBuckets(Collection<Pair<T, Long>> files, TimeUnit windowUnit, int windowSize, TimeUnit timestampResolution)
+    {
+        NavigableMap<Long, List<T>> buckets = new TreeMap<Long, List<T>>();
+        for (Pair<T, Long> pair : files)
+        {
+            long windowStart = getWindowStart(windowUnit, windowSize, timestampResolution.toSeconds(pair.right));
+            List<T> bucket = buckets.get(windowStart);
+            if (bucket == null)
+            {
+                bucket = new ArrayList<T>();
+                buckets.put(windowStart, bucket);
+            }
+            bucket.add(pair.left);
+        }
+        return buckets;
+    }
+
+    /**
+     * @return the start, in seconds, of the window of windowSize windowUnits including the given time in seconds
+     */
+    @VisibleForTesting
+    static long getWindowStart(TimeUnit windowUnit, int windowSize, long timestampInSeconds)
+    {
+        long windowSeconds = windowUnit.toSeconds(windowSize);
+        long remainder = timestampInSeconds % windowSeconds;
+        return timestampInSeconds - (remainder < 0 ? remainder + windowSeconds : remainder);
+    }
+
+    public AbstractCompactionTask getMaximalTask(final int gcBefore)
+    {
+        Iterable<SSTableReader> sstables = cfs.markAllCompacting();
+        if (sstables == null)
+            return null;
+
+        return new CompactionTask(cfs, sstables, gcBefore);
+    }
+
+    public AbstractCompactionTask getUserDefinedTask(Collection<SSTableReader> sstables, final int gcBefore)
+    {
+        assert !sstables.isEmpty(); // checked for by CM.submitUserDefined
+
+        if (!cfs.getDataTracker().markCompacting(sstables))
+        {
+            logger.debug("Unable to mark {} for compaction; probably a background compaction got to it first.  You can disable background compactions temporarily if this is a problem", sstables);
+            return null;
+        }
+
+        return new CompactionTask(cfs, sstables, gcBefore).setUserDefined(true);
+    }
+
+    public int getEstimatedRemainingTasks()
+    {
+        return estimatedRemainingTasks;
+    }
+
+    public long getMaxSSTableSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options) throws ConfigurationException
+    {
+        Map<String, String> uncheckedOptions = AbstractCompactionStrategy.validateOptions(options);
+        uncheckedOptions = TimeWindowCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+
+        uncheckedOptions.remove(CFPropDefs.KW_MINCOMPACTIONTHRESHOLD);
+        uncheckedOptions.remove(CFPropDefs.KW_MAXCOMPACTIONTHRESHOLD);
+
+        return uncheckedOptions;
+    }
+
+    public String toString()
+    {
+        return String.format("TimeWindowCompactionStrategy[%s %s, %s/%s]",
+            options.windowSize,
+            options.windowUnit,
+            cfs.getMinimumCompactionThreshold(),
+            cfs.getMaximumCompactionThreshold());
+    }
+}
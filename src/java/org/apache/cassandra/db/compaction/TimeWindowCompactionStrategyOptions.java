@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.exceptions.ConfigurationException;
+
+public final class TimeWindowCompactionStrategyOptions
+{
+    protected static final TimeUnit DEFAULT_WINDOW_UNIT = TimeUnit.DAYS;
+    protected static final int DEFAULT_WINDOW_SIZE = 1;
+    protected static final TimeUnit DEFAULT_TIMESTAMP_RESOLUTION = TimeUnit.MICROSECONDS;
+    protected static final long DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS = 600;
+    protected static final String WINDOW_UNIT_KEY = "compaction_window_unit";
+    protected static final String WINDOW_SIZE_KEY = "compaction_window_size";
+    protected static final String TIMESTAMP_RESOLUTION_KEY = "timestamp_resolution";
+    protected static final String EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY = "expired_sstable_check_frequency_seconds";
+
+    protected final TimeUnit windowUnit;
+    protected final int windowSize;
+    protected final TimeUnit timestampResolution;
+    protected final long expiredSSTableCheckFrequency;
+    protected final SizeTieredCompactionStrategyOptions stcsOptions;
+
+    public TimeWindowCompactionStrategyOptions(Map<String, String> options)
+    {
+        String optionValue = options.get(WINDOW_UNIT_KEY);
+        windowUnit = optionValue == null ? DEFAULT_WINDOW_UNIT : TimeUnit.valueOf(optionValue.toUpperCase());
+        optionValue = options.get(WINDOW_SIZE_KEY);
+        windowSize = optionValue == null ? DEFAULT_WINDOW_SIZE : Integer.parseInt(optionValue);
+        optionValue = options.get(TIMESTAMP_RESOLUTION_KEY);
+        timestampResolution = optionValue == null ? DEFAULT_TIMESTAMP_RESOLUTION : TimeUnit.valueOf(optionValue.toUpperCase());
+        optionValue = options.get(EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY);
+        expiredSSTableCheckFrequency = TimeUnit.MILLISECONDS.convert(optionValue == null ? DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS : Long.parseLong(optionValue), TimeUnit.SECONDS);
+        stcsOptions = new SizeTieredCompactionStrategyOptions(options);
+    }
+
+    public TimeWindowCompactionStrategyOptions()
+    {
+        windowUnit = DEFAULT_WINDOW_UNIT;
+        windowSize = DEFAULT_WINDOW_SIZE;
+        timestampResolution = DEFAULT_TIMESTAMP_RESOLUTION;
+        expiredSSTableCheckFrequency = TimeUnit.MILLISECONDS.convert(DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS, TimeUnit.SECONDS);
+        stcsOptions = new SizeTieredCompactionStrategyOptions();
+    }
+
+    public static Map<String, String> validateOptions(Map<String, String> options, Map<String, String> uncheckedOptions) throws ConfigurationException
+    {
+        String optionValue = options.get(WINDOW_UNIT_KEY);
+        try
+        {
+            if (optionValue != null)
+            {
+                TimeUnit unit = TimeUnit.valueOf(optionValue.toUpperCase());
+                if (unit != TimeUnit.MINUTES && unit != TimeUnit.HOURS && unit != TimeUnit.DAYS)
+                    throw new ConfigurationException(String.format("%s must be MINUTES, HOURS or DAYS, not %s", WINDOW_UNIT_KEY, optionValue));
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a valid %s", optionValue, WINDOW_UNIT_KEY), e);
+        }
+
+        optionValue = options.get(TIMESTAMP_RESOLUTION_KEY);
+        try
+        {
+            if (optionValue != null)
+                TimeUnit.valueOf(optionValue.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a valid %s", optionValue, TIMESTAMP_RESOLUTION_KEY), e);
+        }
+
+        optionValue = options.get(WINDOW_SIZE_KEY);
+        try
+        {
+            int windowSize = optionValue == null ? DEFAULT_WINDOW_SIZE : Integer.parseInt(optionValue);
+            if (windowSize < 1)
+                throw new ConfigurationException(String.format("%s must be greater than 0, but was %d", WINDOW_SIZE_KEY, windowSize));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a parsable int (base10) for %s", optionValue, WINDOW_SIZE_KEY), e);
+        }
+
+        optionValue = options.get(EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY);
+        try
+        {
+            long frequency = optionValue == null ? DEFAULT_EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS : Long.parseLong(optionValue);
+            if (frequency < 0)
+                throw new ConfigurationException(String.format("%s must be non negative: %d", EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY, frequency));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigurationException(String.format("%s is not a parsable int (base10) for %s", optionValue, EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY), e);
+        }
+
+        uncheckedOptions.remove(WINDOW_UNIT_KEY);
+        uncheckedOptions.remove(WINDOW_SIZE_KEY);
+        uncheckedOptions.remove(TIMESTAMP_RESOLUTION_KEY);
+        uncheckedOptions.remove(EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY);
+
+        return SizeTieredCompactionStrategyOptions.validateOptions(options, uncheckedOptions);
+    }
+}
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -149,7 +150,18 @@ public class NamesQueryFilter implements IDiskAtomFilter
 
     public boolean shouldInclude(SSTableReader sstable)
     {
-        return true;
+        List<ByteBuffer> minColumnNames = sstable.getSSTableMetadata().minColumnNames;
+        List<ByteBuffer> maxColumnNames = sstable.getSSTableMetadata().maxColumnNames;
+        if (minColumnNames.isEmpty() || maxColumnNames.isEmpty())
+            return true;
+
+        AbstractType<?> comparator = sstable.metadata.comparator;
+        for (ByteBuffer column : columns)
+        {
+            if (comparator.intersects(minColumnNames, maxColumnNames, column, column))
+                return true;
+        }
+        return false;
     }
 
     public boolean countCQL3Rows()
@@ -48,7 +48,7 @@ public class QueryFilter
         ColumnFamily cf = memtable.getColumnFamily(key);
         if (cf == null)
             return null;
-        return getColumnFamilyIterator(cf);
+        return memtable.maybeCopyToHeap(getColumnFamilyIterator(cf));
     }
 
     public OnDiskAtomIterator getColumnFamilyIterator(ColumnFamily cf)
@@ -21,6 +21,7 @@ import java.nio.ByteBuffer;
 
 import org.apache.cassandra.db.Column;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 /**
  * Base class for Secondary indexes that implement a unique index per column
@@ -33,24 +34,27 @@ public abstract class PerColumnSecondaryIndex extends SecondaryIndex
      *
      * @param rowKey the underlying row key which is indexed
      * @param col all the column info
+     * @param opGroup the write operation this change is part of
      */
-    public abstract void delete(ByteBuffer rowKey, Column col);
+    public abstract void delete(ByteBuffer rowKey, Column col, OpOrder.Group opGroup);
 
     /**
      * insert a column to the index
      *
      * @param rowKey the underlying row key which is indexed
      * @param col all the column info
+     * @param opGroup the write operation this change is part of
      */
-    public abstract void insert(ByteBuffer rowKey, Column col);
+    public abstract void insert(ByteBuffer rowKey, Column col, OpOrder.Group opGroup);
 
     /**
      * update a column from the index
      *
      * @param rowKey the underlying row key which is indexed
      * @param col all the column info
+     * @param opGroup the write operation this change is part of
      */
-    public abstract void update(ByteBuffer rowKey, Column col);
+    public abstract void update(ByteBuffer rowKey, Column col, OpOrder.Group opGroup);
 
     public String getNameForSystemKeyspace(ByteBuffer column)
     {
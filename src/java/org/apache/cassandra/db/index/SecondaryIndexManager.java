@@ -34,6 +34,7 @@ import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.sstable.ReducingKeyIterator;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 /**
  * Manages all the indexes associated with a given CFS
@@ -399,8 +400,9 @@ public class SecondaryIndexManager
      *
      * @param key the row key
      * @param cf the current rows data
+     * @param opGroup the write operation the index updates belong to
      */
-    public void indexRow(ByteBuffer key, ColumnFamily cf)
+    public void indexRow(ByteBuffer key, ColumnFamily cf, OpOrder.Group opGroup)
     {
         // Update entire row only once per row level index
         Set<Class<? extends SecondaryIndex>> appliedRowLevelIndexes = null;
@@ -419,7 +421,7 @@ public class SecondaryIndexManager
             {
                 for (Column column : cf)
                     if (index.indexes(column.name()))
-                        ((PerColumnSecondaryIndex) index).insert(key, column);
+                        ((PerColumnSecondaryIndex) index).insert(key, column, opGroup);
             }
         }
     }
@@ -429,8 +431,9 @@ public class SecondaryIndexManager
      *
      * @param key the row key
      * @param indexedColumnsInRow all column names in row
+     * @param opGroup the write operation the index updates belong to
      */
-    public void deleteFromIndexes(DecoratedKey key, List<Column> indexedColumnsInRow)
+    public void deleteFromIndexes(DecoratedKey key, List<Column> indexedColumnsInRow, OpOrder.Group opGroup)
     {
         // Update entire row only once per row level index
         Set<Class<? extends SecondaryIndex>> cleanedRowLevelIndexes = null;
@@ -451,7 +454,7 @@ public class SecondaryIndexManager
             }
             else
             {
-                ((PerColumnSecondaryIndex) index).delete(key.key, column);
+                ((PerColumnSecondaryIndex) index).delete(key.key, column, opGroup);
             }
         }
     }
@@ -460,22 +463,25 @@ public class SecondaryIndexManager
      * This helper acts as a closure around the indexManager
      * and updated cf data to ensure that down in
      * Memtable's ColumnFamily implementation, the index
-     * can get updated. Note: only a CF backed by AtomicSortedColumns implements
+     * can get updated. Note: only a CF backed by AtomicBTreeColumns implements
      * this behaviour fully, other types simply ignore the index updater.
      */
-    public Updater updaterFor(DecoratedKey key, ColumnFamily cf)
+    public Updater updaterFor(DecoratedKey key, ColumnFamily cf, OpOrder.Group opGroup)
     {
         return (indexesByColumn.isEmpty() && rowLevelIndexMap.isEmpty())
                 ? nullUpdater
-                : new StandardUpdater(key, cf);
+                : new StandardUpdater(key, cf, opGroup);
     }
 
     /**
-     * Updated closure with only the modified row key.
+     * Updated closure with only the modified row key, for compaction to remove the stale entries it comes across.
+     * Compaction isn't part of any write, so each removal is made its own write operation.
      */
-    public Updater updaterFor(DecoratedKey key)
+    public Updater gcUpdaterFor(DecoratedKey key)
     {
-        return updaterFor(key, null);
+        return (indexesByColumn.isEmpty() && rowLevelIndexMap.isEmpty())
+                ? nullUpdater
+                : new GCUpdater(key);
     }
 
     /**
@@ -582,11 +588,13 @@ public class SecondaryIndexManager
     {
         private final DecoratedKey key;
         private final ColumnFamily cf;
+        private final OpOrder.Group opGroup;
 
-        public StandardUpdater(DecoratedKey key, ColumnFamily cf)
+        public StandardUpdater(DecoratedKey key, ColumnFamily cf, OpOrder.Group opGroup)
         {
             this.key = key;
             this.cf = cf;
+            this.opGroup = opGroup;
         }
 
         public void insert(Column column)
@@ -596,7 +604,7 @@ public class SecondaryIndexManager
 
             for (SecondaryIndex index : indexFor(column.name()))
                 if (index instanceof PerColumnSecondaryIndex)
-                    ((PerColumnSecondaryIndex) index).insert(key.key, column);
+                    ((PerColumnSecondaryIndex) index).insert(key.key, column, opGroup);
         }
 
         public void update(Column oldColumn, Column column)
@@ -611,8 +619,8 @@ public class SecondaryIndexManager
                     // insert the new value before removing the old one, so we never have a period
                     // where the row is invisible to both queries (the opposite seems preferable); see CASSANDRA-5540
                     if (!column.isMarkedForDelete(System.currentTimeMillis()))
-                        ((PerColumnSecondaryIndex) index).insert(key.key, column);
-                    ((PerColumnSecondaryIndex) index).delete(key.key, oldColumn);
+                        ((PerColumnSecondaryIndex) index).insert(key.key, column, opGroup);
+                    ((PerColumnSecondaryIndex) index).delete(key.key, oldColumn, opGroup);
                 }
             }
         }
@@ -624,7 +632,7 @@ public class SecondaryIndexManager
 
             for (SecondaryIndex index : indexFor(column.name()))
                 if (index instanceof PerColumnSecondaryIndex)
-                   ((PerColumnSecondaryIndex) index).delete(key.key, column);
+                   ((PerColumnSecondaryIndex) index).delete(key.key, column, opGroup);
         }
 
         public void updateRowLevelIndexes()
@@ -633,4 +641,51 @@ public class SecondaryIndexManager
                 ((PerRowSecondaryIndex) index).index(key.key, cf);
         }
     }
+
+    private class GCUpdater implements Updater
+    {
+        private final DecoratedKey key;
+
+        public GCUpdater(DecoratedKey key)
+        {
+            this.key = key;
+        }
+
+        public void insert(Column column)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void update(Column oldColumn, Column column)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void remove(Column column)
+        {
+            if (column.isMarkedForDelete(System.currentTimeMillis()))
+                return;
+
+            for (SecondaryIndex index : indexFor(column.name()))
+            {
+                if (index instanceof PerColumnSecondaryIndex)
+                {
+                    OpOrder.Group opGroup = Keyspace.writeOrder.start();
+                    try
+                    {
+                        ((PerColumnSecondaryIndex) index).delete(key.key, column, opGroup);
+                    }
+                    finally
+                    {
+                        opGroup.close();
+                    }
+                }
+            }
+        }
+
+        public void updateRowLevelIndexes()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -36,6 +36,7 @@ import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.utils.ByteBufferUtil;
 import org.apache.cassandra.utils.HeapAllocator;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 public class KeysSearcher extends SecondaryIndexSearcher
 {
@@ -180,7 +181,15 @@ public class KeysSearcher extends SecondaryIndexSearcher
                         {
                             // delete the index entry w/ its own timestamp
                             Column dummyColumn = new Column(primary.column, indexKey.key, column.timestamp());
-                            ((PerColumnSecondaryIndex)index).delete(dk.key, dummyColumn);
+                            OpOrder.Group opGroup = Keyspace.writeOrder.start();
+                            try
+                            {
+                                ((PerColumnSecondaryIndex)index).delete(dk.key, dummyColumn, opGroup);
+                            }
+                            finally
+                            {
+                                opGroup.close();
+                            }
                             continue;
                         }
                         return new Row(dk, data);
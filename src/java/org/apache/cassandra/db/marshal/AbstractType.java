@@ -307,16 +307,24 @@ public abstract class AbstractType<T> implements Comparator<ByteBuffer>
                && (sliceEnd.equals(ByteBufferUtil.EMPTY_BYTE_BUFFER) || compare(sliceEnd, minColName) >= 0);
     }
 
-    public boolean intersects(List<ByteBuffer> minColumnNames, List<ByteBuffer> maxColumnNames, SliceQueryFilter filter)
+    /**
+     * @return whether some names between sliceStart and sliceEnd (an empty bound meaning unbounded) may be within
+     * the min and max column names recorded for an sstable
+     */
+    public boolean intersects(List<ByteBuffer> minColumnNames, List<ByteBuffer> maxColumnNames, ByteBuffer sliceStart, ByteBuffer sliceEnd)
     {
         assert minColumnNames.size() == 1;
+        return intersects(minColumnNames.get(0), maxColumnNames.get(0), sliceStart, sliceEnd);
+    }
 
+    public boolean intersects(List<ByteBuffer> minColumnNames, List<ByteBuffer> maxColumnNames, SliceQueryFilter filter)
+    {
         for (ColumnSlice slice : filter.slices)
         {
             ByteBuffer start = filter.isReversed() ? slice.finish : slice.start;
             ByteBuffer finish = filter.isReversed() ? slice.start : slice.finish;
 
-            if (intersects(minColumnNames.get(0), maxColumnNames.get(0), start, finish))
+            if (intersects(minColumnNames, maxColumnNames, start, finish))
                 return true;
         }
         return false;
@@ -193,21 +193,21 @@ public class CompositeType extends AbstractCompositeType
     }
 
     @Override
-    public boolean intersects(List<ByteBuffer> minColumnNames, List<ByteBuffer> maxColumnNames, SliceQueryFilter filter)
+    public boolean intersects(List<ByteBuffer> minColumnNames, List<ByteBuffer> maxColumnNames, ByteBuffer sliceStart, ByteBuffer sliceEnd)
     {
         assert minColumnNames.size() == maxColumnNames.size();
-        for (ColumnSlice slice : filter.slices)
+        ByteBuffer[] start = split(sliceStart);
+        ByteBuffer[] finish = split(sliceEnd);
+        for (int i = 0; i < minColumnNames.size(); i++)
         {
-            ByteBuffer[] start = split(filter.isReversed() ? slice.finish : slice.start);
-            ByteBuffer[] finish = split(filter.isReversed() ? slice.start : slice.finish);
-            for (int i = 0; i < minColumnNames.size(); i++)
-            {
-                AbstractType<?> t = types.get(i);
-                ByteBuffer s = i < start.length ? start[i] : ByteBufferUtil.EMPTY_BYTE_BUFFER;
-                ByteBuffer f = i < finish.length ? finish[i] : ByteBufferUtil.EMPTY_BYTE_BUFFER;
-                if (!t.intersects(minColumnNames.get(i), maxColumnNames.get(i), s, f))
-                    return false;
-            }
+            AbstractType<?> t = types.get(i);
+            ByteBuffer s = i < start.length ? start[i] : ByteBufferUtil.EMPTY_BYTE_BUFFER;
+            ByteBuffer f = i < finish.length ? finish[i] : ByteBufferUtil.EMPTY_BYTE_BUFFER;
+            if (!t.intersects(minColumnNames.get(i), maxColumnNames.get(i), s, f))
+                return false;
+            // the slice only bounds the next component where this one has a single value: [a:1, b:2] contains a:5
+            if (!s.hasRemaining() || !f.hasRemaining() || t.compare(s, f) != 0)
+                return true;
         }
         return true;
     }
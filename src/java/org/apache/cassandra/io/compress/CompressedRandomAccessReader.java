@@ -23,6 +23,7 @@ import java.util.zip.Adler32;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
+import org.apache.cassandra.cache.ChunkCache;
 import org.apache.cassandra.io.FSReadError;
 import org.apache.cassandra.io.sstable.CorruptSSTableException;
 import org.apache.cassandra.io.util.CompressedPoolingSegmentedFile;
@@ -40,7 +41,7 @@ public class CompressedRandomAccessReader extends RandomAccessReader
     {
         try
         {
-            return new CompressedRandomAccessReader(path, metadata, owner);
+            return new CompressedRandomAccessReader(path, metadata, owner, true);
         }
         catch (FileNotFoundException e)
         {
@@ -48,11 +49,15 @@ public class CompressedRandomAccessReader extends RandomAccessReader
         }
     }
 
+    /**
+     * Opens a reader for (large parts of) the file in order, such as the scanners of compaction, which goes around
+     * the chunk cache: the chunks it reads once would only evict those read again and again.
+     */
     public static CompressedRandomAccessReader open(String dataFilePath, CompressionMetadata metadata)
     {
         try
         {
-            return new CompressedRandomAccessReader(dataFilePath, metadata, null);
+            return new CompressedRandomAccessReader(dataFilePath, metadata, null, false);
         }
         catch (FileNotFoundException e)
         {
@@ -71,10 +76,14 @@ public class CompressedRandomAccessReader extends RandomAccessReader
     // raw checksum bytes
     private final ByteBuffer checksumBytes = ByteBuffer.wrap(new byte[4]);
 
-    protected CompressedRandomAccessReader(String dataFilePath, CompressionMetadata metadata, PoolingSegmentedFile owner) throws FileNotFoundException
+    // false for the readers going through the file in order
+    private final boolean useChunkCache;
+
+    protected CompressedRandomAccessReader(String dataFilePath, CompressionMetadata metadata, PoolingSegmentedFile owner, boolean useChunkCache) throws FileNotFoundException
     {
         super(new File(dataFilePath), metadata.chunkLength(), owner);
         this.metadata = metadata;
+        this.useChunkCache = useChunkCache;
         checksum = metadata.hasPostCompressionAdlerChecksums ? new Adler32() : new CRC32();
         compressed = ByteBuffer.wrap(new byte[metadata.compressor().initialCompressedBufferLength(metadata.chunkLength())]);
     }
@@ -84,7 +93,20 @@ public class CompressedRandomAccessReader extends RandomAccessReader
     {
         try
         {
-            decompressChunk(metadata.chunkFor(current));
+            CompressionMetadata.Chunk chunk = metadata.chunkFor(current);
+            maybeReadAhead(chunk.offset + chunk.length);
+            ChunkCache cache = useChunkCache ? ChunkCache.instance : null;
+            int cached = cache == null ? -1 : cache.get(getPath(), chunk.offset, buffer);
+            if (cached >= 0)
+            {
+                validBufferBytes = cached;
+                bufferOffset = current & ~(buffer.length - 1);
+                return;
+            }
+
+            decompressChunk(chunk);
+            if (cache != null)
+                cache.put(getPath(), chunk.offset, buffer, validBufferBytes);
         }
         catch (CorruptBlockException e)
         {
@@ -31,7 +31,8 @@ public class CompressedThrottledReader extends CompressedRandomAccessReader
 
     public CompressedThrottledReader(String file, CompressionMetadata metadata, RateLimiter limiter) throws FileNotFoundException
     {
-        super(file, metadata, null);
+        // compaction reads, which would only pollute the chunk cache
+        super(file, metadata, null, false);
         this.limiter = limiter;
     }
 
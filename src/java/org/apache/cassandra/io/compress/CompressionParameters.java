@@ -153,6 +153,17 @@ public class CompressionParameters
         }
     }
 
+    /**
+     * Creates a compressor with its default options.
+     *
+     * @param className the class of the compressor; the package can be omitted for the compressors we ship
+     * @return the compressor, or null if no class name is given
+     */
+    public static ICompressor createCompressor(String className) throws ConfigurationException
+    {
+        return createCompressor(parseCompressorClass(className), Collections.<String, String>emptyMap());
+    }
+
     private static ICompressor createCompressor(Class<? extends ICompressor> compressorClass, Map<String, String> compressionOptions) throws ConfigurationException
     {
         if (compressorClass == null)
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.utils.BloomCalculations;
+
+/**
+ * Rebuilds the bloom filters of the sstables at false positive chances that keep their total size under
+ * bloom_filter_space_in_mb, and minimize the number of false positives given the read rate of each sstable.
+ *
+ * A filter costs about -keys * ln(fp) / ln(2)^2 bits, and causes reads * fp false positives.  Minimizing the
+ * sum of the latter under a limit on the sum of the former gives every sstable an fp chance proportional to
+ * its keys over its reads, so hot sstables get more accurate filters and cold ones smaller filters.  Only
+ * filters that would change by more than a factor of two are rebuilt, since that means reading the whole
+ * primary index of the sstable.
+ *
+ * The sstables of tables without bloom filters (bloom_filter_fp_chance = 1.0) are left alone.  Rebuilt filters
+ * are not saved, so every sstable starts again with its table's bloom_filter_fp_chance on restart.
+ */
+public class BloomFilterManager extends SSTableMemoryRedistributor
+{
+    private static final Logger logger = LoggerFactory.getLogger(BloomFilterManager.class);
+
+    /** the highest fp chance given to the filters of cold sstables, unless their table asks for more */
+    public static final double MAX_FP_CHANCE = 0.1;
+
+    private static final double BITS_PER_LN = 1 / (Math.log(2) * Math.log(2));
+
+    protected long budget()
+    {
+        return DatabaseDescriptor.getBloomFilterSpaceInMB() * 1024L * 1024L * 8;
+    }
+
+    @Override
+    protected boolean includes(ColumnFamilyStore cfs)
+    {
+        return cfs.metadata.getBloomFilterFpChance() != 1.0;
+    }
+
+    protected double[] settings(List<SSTableReader> sstables, double[] rates, long budget)
+    {
+        long[] keys = new long[sstables.size()];
+        double[] maxFpChances = new double[sstables.size()];
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            SSTableReader sstable = sstables.get(i);
+            keys[i] = sstable.estimatedKeys();
+            maxFpChances[i] = Math.max(MAX_FP_CHANCE, sstable.metadata.getBloomFilterFpChance());
+        }
+        return fpChances(keys, rates, maxFpChances, budget);
+    }
+
+    protected double currentSetting(SSTableReader sstable)
+    {
+        return sstable.getBloomFilterFpChance();
+    }
+
+    protected boolean isWorthChanging(double ratio)
+    {
+        return ratio > 2 || ratio < 0.5;
+    }
+
+    protected void apply(SSTableReader sstable, double fpChance, double rate) throws IOException
+    {
+        logger.debug("Rebuilding bloom filter of {} with fp chance {} (was {}) for {} reads/s",
+                     sstable, fpChance, sstable.getBloomFilterFpChance(), rate);
+        sstable.rebuildBloomFilter(fpChance);
+    }
+
+    /**
+     * Computes the fp chances minimizing the expected false positives under a total size.
+     *
+     * @param keys the number of keys of each sstable
+     * @param rates the read rate of each sstable
+     * @param maxFpChances the highest fp chance to give each sstable
+     * @param budget the total size of the filters, in bits
+     * @return the fp chance of each sstable
+     */
+    @VisibleForTesting
+    static double[] fpChances(final long[] keys, final double[] rates, final double[] maxFpChances, long budget)
+    {
+        // the fp chance of sstable i is lambda * keys[i] / rates[i], clamped
+        double lambda = lowestFitting(new Size()
+        {
+            public double at(double lambda)
+            {
+                return bits(keys, fpChancesFor(keys, rates, maxFpChances, lambda));
+            }
+        }, budget);
+        return fpChancesFor(keys, rates, maxFpChances, lambda);
+    }
+
+    private static double[] fpChancesFor(long[] keys, double[] rates, double[] maxFpChances, double lambda)
+    {
+        double min = BloomCalculations.minSupportedBloomFilterFpChance();
+        double[] fpChances = new double[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            double fpChance = lambda * keys[i] / Math.max(rates[i], MIN_READ_RATE);
+            fpChances[i] = Math.max(min, Math.min(maxFpChances[i], fpChance));
+        }
+        return fpChances;
+    }
+
+    @VisibleForTesting
+    static double bits(long[] keys, double[] fpChances)
+    {
+        double bits = 0;
+        for (int i = 0; i < keys.length; i++)
+            bits += -keys[i] * Math.log(fpChances[i]) * BITS_PER_LN;
+        return bits;
+    }
+}
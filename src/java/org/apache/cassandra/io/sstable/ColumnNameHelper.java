@@ -59,16 +59,13 @@ public class ColumnNameHelper
             int typeCount = getTypeCount(ct);
 
             List<ByteBuffer> components = Arrays.asList(ct.split(candidate));
-            List<ByteBuffer> biggest = maxSeen.size() > components.size() ? maxSeen : components;
-            // if typecount is less than both the components and maxseen, we only keep typecount columns.
-            int minSize = Math.min(typeCount, Math.min(components.size(), maxSeen.size()));
-            int maxSize = Math.min(typeCount, biggest.size());
-            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(maxSize);
+            // a name with fewer components covers any value of the missing ones (range tombstones bounds are
+            // prefixes), so only the components common to all names are kept
+            int size = Math.min(typeCount, Math.min(components.size(), maxSeen.size()));
+            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(size);
 
-            for (int i = 0; i < minSize; i++)
+            for (int i = 0; i < size; i++)
                 retList.add(ColumnNameHelper.max(maxSeen.get(i), components.get(i), ct.types.get(i)));
-            for (int i = minSize; i < maxSize; i++)
-                retList.add(biggest.get(i));
 
             return retList;
         }
@@ -105,16 +102,12 @@ public class ColumnNameHelper
             int typeCount = getTypeCount(ct);
 
             List<ByteBuffer> components = Arrays.asList(ct.split(candidate));
-            List<ByteBuffer> biggest = minSeen.size() > components.size() ? minSeen : components;
-            // if typecount is less than both the components and maxseen, we only collect typecount columns.
-            int minSize = Math.min(typeCount, Math.min(components.size(), minSeen.size()));
-            int maxSize = Math.min(typeCount, biggest.size());
-            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(maxSize);
+            // only the components common to all names are kept, see maxComponents
+            int size = Math.min(typeCount, Math.min(components.size(), minSeen.size()));
+            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(size);
 
-            for (int i = 0; i < minSize; i++)
+            for (int i = 0; i < size; i++)
                 retList.add(ColumnNameHelper.min(minSeen.get(i), components.get(i), ct.types.get(i)));
-            for (int i = minSize; i < maxSize; i++)
-                retList.add(biggest.get(i));
 
             return retList;
         }
@@ -184,17 +177,14 @@ public class ColumnNameHelper
         if (columnNameComparator instanceof CompositeType)
         {
             CompositeType ct = (CompositeType)columnNameComparator;
-            List<ByteBuffer> biggest = minColumnNames.size() > candidates.size() ? minColumnNames : candidates;
             int typeCount = getTypeCount(ct);
-            int minSize = Math.min(typeCount, Math.min(minColumnNames.size(), candidates.size()));
-            int maxSize = Math.min(typeCount, biggest.size());
+            // only the components common to both lists are kept, see maxComponents
+            int size = Math.min(typeCount, Math.min(minColumnNames.size(), candidates.size()));
 
-            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(maxSize);
+            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(size);
 
-            for (int i = 0; i < minSize; i++)
+            for (int i = 0; i < size; i++)
                 retList.add(minimalBufferFor(min(minColumnNames.get(i), candidates.get(i), ct.types.get(i))));
-            for (int i = minSize; i < maxSize; i++)
-                retList.add(minimalBufferFor(biggest.get(i)));
 
             return retList;
         }
@@ -235,16 +225,13 @@ public class ColumnNameHelper
         if (columnNameComparator instanceof CompositeType)
         {
             CompositeType ct = (CompositeType)columnNameComparator;
-            List<ByteBuffer> biggest = maxColumnNames.size() > candidates.size() ? maxColumnNames : candidates;
             int typeCount = getTypeCount(ct);
-            int minSize = Math.min(typeCount, Math.min(maxColumnNames.size(), candidates.size()));
-            int maxSize = Math.min(typeCount, biggest.size());
-            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(maxSize);
+            // only the components common to both lists are kept, see maxComponents
+            int size = Math.min(typeCount, Math.min(maxColumnNames.size(), candidates.size()));
+            List<ByteBuffer> retList = new ArrayList<ByteBuffer>(size);
 
-            for (int i = 0; i < minSize; i++)
+            for (int i = 0; i < size; i++)
                 retList.add(minimalBufferFor(max(maxColumnNames.get(i), candidates.get(i), ct.types.get(i))));
-            for (int i = minSize; i < maxSize; i++)
-                retList.add(minimalBufferFor(biggest.get(i)));
 
             return retList;
         }
@@ -19,15 +19,11 @@ package org.apache.cassandra.io.sstable;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 import org.apache.cassandra.db.TypeSizes;
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.io.util.FileDataInput;
-import org.apache.cassandra.io.util.FileMark;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.*;
 
@@ -69,7 +65,7 @@ public class IndexHelper
      *
      * @param in - input source
      *
-     * @return ArrayList<IndexInfo> - list of de-serialized indexes
+     * @return List<IndexInfo> - list of the indexes, deserialized on access
      * @throws IOException if an I/O error occurs.
      */
     public static List<IndexInfo> deserializeIndex(FileDataInput in) throws IOException
@@ -77,15 +73,7 @@ public class IndexHelper
         int columnIndexSize = in.readInt();
         if (columnIndexSize == 0)
             return Collections.<IndexInfo>emptyList();
-        ArrayList<IndexInfo> indexList = new ArrayList<IndexInfo>();
-        FileMark mark = in.mark();
-        while (in.bytesPastMark(mark) < columnIndexSize)
-        {
-            indexList.add(IndexInfo.deserialize(in));
-        }
-        assert in.bytesPastMark(mark) == columnIndexSize;
-
-        return indexList;
+        return new SerializedIndex(in.readBytes(columnIndexSize));
     }
 
     /**
@@ -198,4 +186,81 @@ public class IndexHelper
                    + ObjectSizes.getSize(firstName) + ObjectSizes.getSize(lastName);
         }
     }
+
+    /**
+     * A column index kept in its serialized form: a single buffer plus the offsets of its entries, instead of
+     * several objects per entry.  Entries are deserialized on access, as views of the buffer, so a binary search
+     * only materializes the few entries it compares.
+     */
+    public static class SerializedIndex extends AbstractList<IndexInfo> implements RandomAccess
+    {
+        private final ByteBuffer bytes;
+        private final int[] offsets;
+
+        /**
+         * @param bytes the serialized entries, between position and limit
+         */
+        public SerializedIndex(ByteBuffer bytes)
+        {
+            this.bytes = bytes;
+
+            // entries have variable sizes, so they can only be located by walking them once
+            int[] offsets = new int[16];
+            int count = 0;
+            int position = bytes.position();
+            while (position < bytes.limit())
+            {
+                if (count == offsets.length)
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                offsets[count++] = position;
+                position += 2 + (bytes.getShort(position) & 0xFFFF); // firstName
+                position += 2 + (bytes.getShort(position) & 0xFFFF); // lastName
+                position += 8 + 8; // offset, width
+            }
+            assert position == bytes.limit();
+            this.offsets = Arrays.copyOf(offsets, count);
+        }
+
+        public IndexInfo get(int index)
+        {
+            int position = offsets[index];
+            ByteBuffer firstName = nameAt(position);
+            position += 2 + firstName.remaining();
+            ByteBuffer lastName = nameAt(position);
+            position += 2 + lastName.remaining();
+            return new IndexInfo(firstName, lastName, bytes.getLong(position), bytes.getLong(position + 8));
+        }
+
+        private ByteBuffer nameAt(int position)
+        {
+            ByteBuffer name = bytes.duplicate();
+            name.limit(position + 2 + (bytes.getShort(position) & 0xFFFF)).position(position + 2);
+            return name.slice();
+        }
+
+        public int size()
+        {
+            return offsets.length;
+        }
+
+        public int serializedSize()
+        {
+            return bytes.remaining();
+        }
+
+        public void serialize(DataOutput out) throws IOException
+        {
+            ByteBufferUtil.write(bytes, out);
+        }
+
+        public long memorySize()
+        {
+            return ObjectSizes.getFieldSize(// bytes
+                                            ObjectSizes.getReferenceSize() +
+                                            // offsets
+                                            ObjectSizes.getReferenceSize())
+                   + ObjectSizes.getSize(bytes)
+                   + ObjectSizes.getArraySize(offsets.length, 4);
+        }
+    }
 }
@@ -23,9 +23,13 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import com.google.common.annotations.VisibleForTesting;
+
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.io.util.Memory;
 import org.apache.cassandra.io.util.MemoryInputStream;
 import org.apache.cassandra.io.util.MemoryOutputStream;
@@ -38,6 +42,9 @@ public class IndexSummary implements Closeable
     private final IPartitioner partitioner;
     private final int summary_size;
     private final Memory bytes;
+    // the Murmur3 token of each key, so binarySearch needs neither to copy the keys nor to hash them; null with
+    // other partitioners
+    private final Memory tokens;
 
     public IndexSummary(IPartitioner partitioner, Memory memory, int summary_size, int indexInterval)
     {
@@ -45,11 +52,79 @@ public class IndexSummary implements Closeable
         this.indexInterval = indexInterval;
         this.summary_size = summary_size;
         this.bytes = memory;
+        this.tokens = partitioner instanceof Murmur3Partitioner && summary_size > 0 ? computeTokens() : null;
+    }
+
+    private Memory computeTokens()
+    {
+        Memory memory = Memory.allocate(summary_size * 8L);
+        for (int i = 0; i < summary_size; i++)
+            memory.setLong(i * 8L, (Long) partitioner.getToken(ByteBuffer.wrap(getKey(i))).token);
+        return memory;
     }
 
     // binary search is notoriously more difficult to get right than it looks; this is lifted from
     // Harmony's Collections implementation
     public int binarySearch(RowPosition key)
+    {
+        if (tokens == null)
+            return binarySearchDecorating(key);
+
+        long token = (Long) key.getToken().token;
+        int low = 0, mid = summary_size, high = mid - 1, result = -1;
+        while (low <= high)
+        {
+            mid = (low + high) >> 1;
+            result = -compareTo(mid, token, key);
+            if (result > 0)
+            {
+                low = mid + 1;
+            }
+            else if (result == 0)
+            {
+                return mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+
+        return -mid - (result < 0 ? 1 : 2);
+    }
+
+    /**
+     * Compares the key at index to a position, token first, without copying the key; like
+     * DecoratedKey.compareTo(partitioner, key, position).
+     */
+    private int compareTo(int index, long token, RowPosition position)
+    {
+        long keyToken = tokens.getLong(index * 8L);
+        if (keyToken != token)
+            return keyToken < token ? -1 : 1;
+
+        // a bound sorts before or after all the keys of its token
+        if (!(position instanceof DecoratedKey))
+            return ((Token.KeyBound) position).isMinimumBound ? 1 : -1;
+
+        ByteBuffer other = ((DecoratedKey) position).key;
+        long start = getIndex(index);
+        int length = (int) (caclculateEnd(index) - start - 8L);
+        int otherLength = other.remaining();
+        for (int i = 0; i < Math.min(length, otherLength); i++)
+        {
+            int cmp = (bytes.getByte(start + i) & 0xFF) - (other.get(other.position() + i) & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - otherLength;
+    }
+
+    /**
+     * The search for partitioners other than Murmur3, which copies and decorates the key of every probe.
+     */
+    @VisibleForTesting
+    int binarySearchDecorating(RowPosition key)
     {
         int low = 0, mid = summary_size, high = mid - 1, result = -1;
         while (low <= high)
@@ -108,6 +183,39 @@ public class IndexSummary implements Closeable
         return summary_size;
     }
 
+    public long getOffHeapSize()
+    {
+        return bytes.size() + (tokens == null ? 0 : tokens.size());
+    }
+
+    /**
+     * @return a new summary of every factor-th entry of this one, so at factor times its interval
+     */
+    public IndexSummary downsample(int factor)
+    {
+        assert factor > 0 : factor;
+        int size = (summary_size + factor - 1) / factor;
+        long offheapSize = size * 4L;
+        for (int i = 0; i < summary_size; i += factor)
+            offheapSize += caclculateEnd(i) - getIndex(i);
+
+        Memory memory = Memory.allocate(offheapSize);
+        long entryPosition = size * 4L;
+        byte[] entry = new byte[0];
+        for (int i = 0, j = 0; i < summary_size; i += factor, j++)
+        {
+            long start = getIndex(i);
+            int length = (int) (caclculateEnd(i) - start);
+            if (entry.length < length)
+                entry = new byte[length];
+            bytes.getBytes(start, entry, 0, length);
+            memory.setInt(j * 4L, (int) entryPosition);
+            memory.setBytes(entryPosition, entry, 0, length);
+            entryPosition += length;
+        }
+        return new IndexSummary(partitioner, memory, size, indexInterval * factor);
+    }
+
     public static class IndexSummarySerializer
     {
         public void serialize(IndexSummary t, DataOutputStream out) throws IOException
@@ -133,5 +241,7 @@ public class IndexSummary implements Closeable
     public void close() throws IOException
     {
         bytes.free();
+        if (tokens != null)
+            tokens.free();
     }
 }
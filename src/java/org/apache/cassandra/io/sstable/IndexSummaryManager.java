@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+
+/**
+ * Resamples the index summaries of the sstables so that their total size stays under index_summary_space_in_mb,
+ * while minimizing the primary index entries scanned by reads given the read rate of each sstable.
+ *
+ * Sampling a summary m times more sparsely than its table's index_interval divides its size by m, and makes each
+ * read scan m times more of the primary index.  Minimizing the latter weighted by reads under a limit on the sum
+ * of the former gives every sstable a multiplier proportional to the square root of its summary size over its
+ * reads.  The multipliers are powers of two up to MAX_DOWNSAMPLING, so that downsampling a summary only needs the
+ * summary itself; upsampling reads the primary index of the sstable.
+ *
+ * Resampled summaries are not saved, so every sstable starts again with its table's index_interval on restart.
+ */
+public class IndexSummaryManager extends SSTableMemoryRedistributor
+{
+    private static final Logger logger = LoggerFactory.getLogger(IndexSummaryManager.class);
+
+    /** the most a summary is downsampled, as a multiple of its table's index_interval */
+    public static final int MAX_DOWNSAMPLING = 16;
+
+    protected long budget()
+    {
+        return DatabaseDescriptor.getIndexSummarySpaceInMB() * 1024L * 1024L;
+    }
+
+    protected double[] settings(List<SSTableReader> sstables, double[] rates, long budget)
+    {
+        long[] sizes = new long[sstables.size()];
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            SSTableReader sstable = sstables.get(i);
+            int baseInterval = sstable.metadata.getIndexInterval();
+            // the size at the table's interval
+            sizes[i] = sstable.getIndexSummaryOffHeapSize() * sstable.getIndexSummaryInterval() / baseInterval;
+        }
+        int[] downsampling = downsampling(sizes, rates, budget);
+
+        double[] intervals = new double[sstables.size()];
+        for (int i = 0; i < sstables.size(); i++)
+            intervals[i] = sstables.get(i).metadata.getIndexInterval() * downsampling[i];
+        return intervals;
+    }
+
+    protected double currentSetting(SSTableReader sstable)
+    {
+        return sstable.getIndexSummaryInterval();
+    }
+
+    protected boolean isWorthChanging(double ratio)
+    {
+        return ratio != 1;
+    }
+
+    protected void apply(SSTableReader sstable, double interval, double rate) throws IOException
+    {
+        logger.debug("Resampling index summary of {} at interval {} (was {}) for {} reads/s",
+                     sstable, (int) interval, sstable.getIndexSummaryInterval(), rate);
+        sstable.resampleIndexSummary((int) interval);
+    }
+
+    /**
+     * Computes the downsampling minimizing the index entries scanned by reads under a total size.
+     *
+     * @param sizes the size of the summary of each sstable at its table's index_interval, in bytes
+     * @param rates the read rate of each sstable
+     * @param budget the total size of the summaries, in bytes
+     * @return the multiple of its table's index_interval to sample each sstable at
+     */
+    @VisibleForTesting
+    static int[] downsampling(final long[] sizes, final double[] rates, long budget)
+    {
+        // the downsampling of sstable i is sqrt(lambda * sizes[i] / rates[i]), rounded
+        double lambda = lowestFitting(new Size()
+        {
+            public double at(double lambda)
+            {
+                return size(sizes, downsamplingFor(sizes, rates, lambda));
+            }
+        }, budget);
+        return downsamplingFor(sizes, rates, lambda);
+    }
+
+    private static int[] downsamplingFor(long[] sizes, double[] rates, double lambda)
+    {
+        int[] downsampling = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+        {
+            double optimal = Math.sqrt(lambda * sizes[i] / Math.max(rates[i], MIN_READ_RATE));
+            // the nearest power of two, in log space
+            long rounded = Math.round(Math.log(Math.max(optimal, 1)) / Math.log(2));
+            downsampling[i] = 1 << (int) Math.min(rounded, Integer.numberOfTrailingZeros(MAX_DOWNSAMPLING));
+        }
+        return downsampling;
+    }
+
+    @VisibleForTesting
+    static long size(long[] sizes, int[] downsampling)
+    {
+        long size = 0;
+        for (int i = 0; i < sizes.length; i++)
+            size += sizes[i] / downsampling[i];
+        return size;
+    }
+}
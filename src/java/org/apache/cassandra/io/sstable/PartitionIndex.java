@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.FSWriteError;
+import org.apache.cassandra.io.util.*;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * An optional index of the partitions of an sstable that locates a partition with a single page read, where the
+ * primary index needs a scan of up to index_interval of its entries.
+ *
+ * It is a two-level B+tree.  The leaves are blocks of sorted (key, position) entries, each starting on a page
+ * boundary and fitting in one page unless a single key doesn't.  A block starts with its length and number of
+ * entries, followed by the offsets of the entries within the block so they can be binary searched.  The root,
+ * the first key and position of each block, follows the blocks as a serialized IndexSummary, and the file ends
+ * with the position of the root.  The root is kept in memory.
+ */
+public class PartitionIndex implements Closeable
+{
+    public static final int PAGE_SIZE = 4096;
+    private static final int BLOCK_HEADER_SIZE = 4 + 4; // length, number of entries
+
+    /** returned by get() for keys that are not in the index */
+    public static final long NOT_FOUND = Long.MIN_VALUE;
+
+    private final IPartitioner partitioner;
+    private final IndexSummary root;
+    private final SegmentedFile file;
+
+    private PartitionIndex(IPartitioner partitioner, IndexSummary root, SegmentedFile file)
+    {
+        this.partitioner = partitioner;
+        this.root = root;
+        this.file = file;
+    }
+
+    public static PartitionIndex open(Descriptor descriptor, IPartitioner partitioner) throws IOException
+    {
+        String path = descriptor.filenameFor(Component.PARTITION_INDEX);
+        IndexSummary root;
+        FileInputStream fis = new FileInputStream(path);
+        try
+        {
+            fis.getChannel().position(fis.getChannel().size() - 8);
+            long rootPosition = new DataInputStream(fis).readLong();
+            fis.getChannel().position(rootPosition);
+            root = IndexSummary.serializer.deserialize(new DataInputStream(new BufferedInputStream(fis)), partitioner);
+        }
+        finally
+        {
+            FileUtils.closeQuietly(fis);
+        }
+
+        SegmentedFile.Builder builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
+        for (int i = 0; i < root.size(); i++)
+            builder.addPotentialBoundary(root.getPosition(i));
+        return new PartitionIndex(partitioner, root, builder.complete(path));
+    }
+
+    /**
+     * @return the position the key was appended with, or NOT_FOUND
+     */
+    public long get(DecoratedKey key)
+    {
+        int index = root.binarySearch(key);
+        if (index < 0)
+        {
+            // the key is in the block before its insertion point, if anywhere
+            index = -index - 2;
+            if (index < 0)
+                return NOT_FOUND;
+        }
+
+        FileDataInput in = file.getSegment(root.getPosition(index));
+        try
+        {
+            int length = in.readInt();
+            int count = in.readInt();
+            // a single copy of the block, searched in place
+            ByteBuffer block = in.readBytes(length - BLOCK_HEADER_SIZE);
+            int start = block.position();
+
+            int low = 0, high = count - 1;
+            while (low <= high)
+            {
+                int mid = (low + high) >>> 1;
+                int offset = start + block.getInt(start + mid * 4);
+                int keyLength = block.getShort(offset) & 0xFFFF;
+                ByteBuffer entryKey = block.duplicate();
+                entryKey.limit(offset + 2 + keyLength).position(offset + 2);
+                int cmp = DecoratedKey.compareTo(partitioner, entryKey, key);
+                if (cmp < 0)
+                    low = mid + 1;
+                else if (cmp > 0)
+                    high = mid - 1;
+                else
+                    return block.getLong(offset + 2 + keyLength);
+            }
+            return NOT_FOUND;
+        }
+        catch (IOException e)
+        {
+            throw new CorruptSSTableException(e, in.getPath());
+        }
+        finally
+        {
+            FileUtils.closeQuietly(in);
+        }
+    }
+
+    public String getPath()
+    {
+        return file.path;
+    }
+
+    public void close() throws IOException
+    {
+        file.cleanup();
+        root.close();
+    }
+
+    public static class Writer implements Closeable
+    {
+        private final SequentialWriter out;
+        private final IPartitioner partitioner;
+        // with an interval of 1, the summary is the exact list of the first keys of the blocks
+        private final IndexSummaryBuilder root;
+
+        private int blocks;
+        private DecoratedKey firstKey;
+        private int[] offsets = new int[64];
+        private int count;
+        private DataOutputBuffer entries = new DataOutputBuffer(PAGE_SIZE);
+
+        public Writer(Descriptor descriptor, IPartitioner partitioner, long keyCount, boolean skipIOCache)
+        {
+            this.out = SequentialWriter.open(new File(descriptor.filenameFor(Component.PARTITION_INDEX)), skipIOCache);
+            this.partitioner = partitioner;
+            // assumes entries of about 32 bytes
+            this.root = new IndexSummaryBuilder(Math.max(1, keyCount * 32 / PAGE_SIZE), 1);
+        }
+
+        /**
+         * Appends a key, in key order.
+         */
+        public void append(DecoratedKey key, long position)
+        {
+            int entrySize = 2 + key.key.remaining() + 8;
+            if (count > 0 && BLOCK_HEADER_SIZE + 4 * (count + 1) + entries.getLength() + entrySize > PAGE_SIZE)
+                writeBlock();
+
+            if (count == 0)
+                firstKey = key;
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = entries.getLength();
+            try
+            {
+                ByteBufferUtil.writeWithShortLength(key.key, entries);
+                entries.writeLong(position);
+            }
+            catch (IOException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void writeBlock()
+        {
+            long blockPosition = out.getFilePointer();
+            assert blockPosition % PAGE_SIZE == 0;
+            root.maybeAddEntry(firstKey, blockPosition);
+            blocks++;
+            try
+            {
+                out.stream.writeInt(BLOCK_HEADER_SIZE + 4 * count + entries.getLength());
+                out.stream.writeInt(count);
+                // the offsets are relative to the end of the header, so they skip themselves
+                for (int i = 0; i < count; i++)
+                    out.stream.writeInt(4 * count + offsets[i]);
+                out.stream.write(entries.getData(), 0, entries.getLength());
+
+                int padding = (int) (PAGE_SIZE - out.getFilePointer() % PAGE_SIZE) % PAGE_SIZE;
+                out.stream.write(new byte[padding]);
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, out.getPath());
+            }
+
+            count = 0;
+            entries = new DataOutputBuffer(PAGE_SIZE);
+        }
+
+        /**
+         * Writes the last block and the root.
+         */
+        public void close()
+        {
+            if (count > 0)
+                writeBlock();
+            // nothing was appended if the sstable is being aborted, and the file is about to be deleted
+            if (blocks > 0)
+                writeRoot();
+            out.close();
+        }
+
+        private void writeRoot()
+        {
+            long rootPosition = out.getFilePointer();
+            IndexSummary summary = root.build(partitioner);
+            try
+            {
+                IndexSummary.serializer.serialize(summary, out.stream);
+                out.stream.writeLong(rootPosition);
+            }
+            catch (IOException e)
+            {
+                throw new FSWriteError(e, out.getPath());
+            }
+            finally
+            {
+                FileUtils.closeQuietly(summary);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+
+/**
+ * Redistributes a per-sstable structure held in memory across the sstables, under a global limit and given the
+ * read rate of each sstable.
+ *
+ * Every run sizes the structure of each sstable as a setting that grows as the structure shrinks (a false positive
+ * chance, a sampling interval), computed by the subclass from the read rates and the limit.  The settings that
+ * changed enough are applied by decreasing change, so the structures that shrink go first and the total stays
+ * under the limit meanwhile.  The sstables of the system keyspace and those being compacted are left alone.
+ */
+public abstract class SSTableMemoryRedistributor implements Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(SSTableMemoryRedistributor.class);
+
+    /** rates below this, in reads per second, count as this so that unread sstables still get some memory */
+    protected static final double MIN_READ_RATE = 0.001;
+
+    /**
+     * @return the total size of the structures, in the unit of the subclass
+     */
+    protected abstract long budget();
+
+    /**
+     * @return whether the sstables of the table are redistributed
+     */
+    protected boolean includes(ColumnFamilyStore cfs)
+    {
+        return true;
+    }
+
+    /**
+     * Computes the setting of every sstable.
+     *
+     * @param sstables the sstables to redistribute across
+     * @param rates the read rate of each sstable
+     * @param budget the total size of the structures
+     * @return the setting of each sstable
+     */
+    protected abstract double[] settings(List<SSTableReader> sstables, double[] rates, long budget);
+
+    /**
+     * @return the current setting of the sstable
+     */
+    protected abstract double currentSetting(SSTableReader sstable);
+
+    /**
+     * @param ratio the new setting of an sstable over its current one
+     * @return whether the structure is worth rebuilding for that change
+     */
+    protected abstract boolean isWorthChanging(double ratio);
+
+    /**
+     * Rebuilds the structure of the sstable for the setting.
+     */
+    protected abstract void apply(SSTableReader sstable, double setting, double rate) throws IOException;
+
+    public void run()
+    {
+        List<SSTableReader> sstables = new ArrayList<>();
+        for (Keyspace keyspace : Keyspace.nonSystem())
+        {
+            for (ColumnFamilyStore cfs : keyspace.getColumnFamilyStores())
+            {
+                if (!includes(cfs))
+                    continue;
+                for (SSTableReader sstable : cfs.getDataTracker().getUncompactingSSTables())
+                {
+                    if (sstable.readMeter != null && sstable.acquireReference())
+                        sstables.add(sstable);
+                }
+            }
+        }
+
+        try
+        {
+            redistribute(sstables, budget());
+        }
+        finally
+        {
+            SSTableReader.releaseReferences(sstables);
+        }
+    }
+
+    private void redistribute(List<SSTableReader> sstables, long budget)
+    {
+        if (sstables.isEmpty())
+            return;
+
+        double[] rates = new double[sstables.size()];
+        for (int i = 0; i < sstables.size(); i++)
+            rates[i] = sstables.get(i).readMeter.fifteenMinuteRate();
+        double[] settings = settings(sstables, rates, budget);
+
+        final double[] ratios = new double[sstables.size()];
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < sstables.size(); i++)
+        {
+            ratios[i] = settings[i] / currentSetting(sstables.get(i));
+            if (isWorthChanging(ratios[i]))
+                changed.add(i);
+        }
+        // by decreasing change of setting, so the structures that shrink go first
+        Collections.sort(changed, new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                return Double.compare(ratios[i2], ratios[i1]);
+            }
+        });
+
+        for (int i : changed)
+        {
+            SSTableReader sstable = sstables.get(i);
+            try
+            {
+                apply(sstable, settings[i], rates[i]);
+            }
+            catch (IOException e)
+            {
+                // the sstable keeps its current structure
+                logger.warn("Unable to redistribute memory to " + sstable, e);
+            }
+        }
+    }
+
+    /**
+     * Finds the lowest lambda, over the whole range of doubles, at which the total size fits the budget.
+     *
+     * @param size the total size for a lambda, not increasing with it
+     * @param budget the total size allowed
+     * @return the lambda
+     */
+    protected static double lowestFitting(Size size, long budget)
+    {
+        // in log space, so that 100 iterations are enough for any magnitude
+        double low = Math.log(Double.MIN_NORMAL), high = Math.log(Double.MAX_VALUE);
+        for (int iteration = 0; iteration < 100; iteration++)
+        {
+            double mid = (low + high) / 2;
+            if (size.at(Math.exp(mid)) > budget)
+                low = mid;
+            else
+                high = mid;
+        }
+        return Math.exp(high);
+    }
+
+    protected interface Size
+    {
+        public double at(double lambda);
+    }
+}
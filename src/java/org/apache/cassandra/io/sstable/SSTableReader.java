@@ -33,6 +33,7 @@ import com.google.common.util.concurrent.RateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.cache.ChunkCache;
 import org.apache.cassandra.cache.InstrumentingCache;
 import org.apache.cassandra.cache.KeyCacheKey;
 import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
@@ -55,6 +56,7 @@ import org.apache.cassandra.service.CacheService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.tracing.Tracing;
 import org.apache.cassandra.utils.*;
+import org.apache.cassandra.utils.concurrent.OpOrder;
 
 import static org.apache.cassandra.db.Directories.SECONDARY_INDEX_NAME_SEPARATOR;
 
@@ -87,8 +89,14 @@ public class SSTableReader extends SSTable implements Closeable
     private SegmentedFile ifile;
     private SegmentedFile dfile;
 
-    private IndexSummary indexSummary;
-    private IFilter bf;
+    private volatile IndexSummary indexSummary;
+    // null unless the sstable was written with one
+    private PartitionIndex partitionIndex;
+    private volatile IFilter bf;
+    // the chance bf was built for
+    private volatile double bloomFilterFpChance;
+    // the lookups that bf and indexSummary may be freed under when they are replaced
+    private final OpOrder readOrder = new OpOrder();
 
     private InstrumentingCache<KeyCacheKey, RowIndexEntry> keyCache;
 
@@ -114,8 +122,8 @@ public class SSTableReader extends SSTable implements Closeable
 
         for (SSTableReader sstable : sstables)
         {
-            int indexKeyCount = sstable.getKeySampleSize();
-            count = count + (indexKeyCount + 1) * sstable.indexSummary.getIndexInterval();
+            IndexSummary summary = sstable.indexSummary;
+            count = count + (summary.size() + 1) * summary.getIndexInterval();
             if (logger.isDebugEnabled())
                 logger.debug("index size for bloom filter calc for file  : " + sstable.getFilename() + "   : " + count);
         }
@@ -297,6 +305,7 @@ public class SSTableReader extends SSTable implements Closeable
                                       SegmentedFile ifile,
                                       SegmentedFile dfile,
                                       IndexSummary isummary,
+                                      PartitionIndex partitionIndex,
                                       IFilter bf,
                                       long maxDataAge,
                                       SSTableMetadata sstableMetadata)
@@ -308,6 +317,7 @@ public class SSTableReader extends SSTable implements Closeable
                                  partitioner,
                                  ifile, dfile,
                                  isummary,
+                                 partitionIndex,
                                  bf,
                                  maxDataAge,
                                  sstableMetadata);
@@ -324,6 +334,7 @@ public class SSTableReader extends SSTable implements Closeable
         super(desc, components, metadata, partitioner);
         this.sstableMetadata = sstableMetadata;
         this.maxDataAge = maxDataAge;
+        this.bloomFilterFpChance = metadata.getBloomFilterFpChance();
 
         deletingTask = new SSTableDeletingTask(this);
 
@@ -353,6 +364,7 @@ public class SSTableReader extends SSTable implements Closeable
                           SegmentedFile ifile,
                           SegmentedFile dfile,
                           IndexSummary indexSummary,
+                          PartitionIndex partitionIndex,
                           IFilter bloomFilter,
                           long maxDataAge,
                           SSTableMetadata sstableMetadata)
@@ -362,6 +374,7 @@ public class SSTableReader extends SSTable implements Closeable
         this.ifile = ifile;
         this.dfile = dfile;
         this.indexSummary = indexSummary;
+        this.partitionIndex = partitionIndex;
         this.bf = bloomFilter;
     }
 
@@ -378,6 +391,8 @@ public class SSTableReader extends SSTable implements Closeable
         // close the BF so it can be opened later.
         bf.close();
         indexSummary.close();
+        if (partitionIndex != null)
+            partitionIndex.close();
     }
 
     public void setTrackedBy(DataTracker tracker)
@@ -447,6 +462,8 @@ public class SSTableReader extends SSTable implements Closeable
 
         ifile = ibuilder.complete(descriptor.filenameFor(Component.PRIMARY_INDEX));
         dfile = dbuilder.complete(descriptor.filenameFor(Component.DATA));
+        if (components.contains(Component.PARTITION_INDEX))
+            partitionIndex = PartitionIndex.open(descriptor, partitioner);
         if (saveSummaryIfCreated && (recreateBloomFilter || !summaryLoaded)) // save summary information to disk
             saveSummary(this, ibuilder, dbuilder);
     }
@@ -465,7 +482,7 @@ public class SSTableReader extends SSTable implements Closeable
                                : estimateRowsFromIndex(primaryIndex); // statistics is supposed to be optional
 
             if (recreateBloomFilter)
-                bf = FilterFactory.getFilter(estimatedKeys, metadata.getBloomFilterFpChance(), true);
+                bf = FilterFactory.getFilter(estimatedKeys, metadata.getBloomFilterFpChance(), metadata.getBloomFilterType(), true);
 
             IndexSummaryBuilder summaryBuilder = null;
             if (!summaryLoaded)
@@ -588,7 +605,20 @@ public class SSTableReader extends SSTable implements Closeable
     /** get the position in the index file to start scanning to find the given key (at most indexInterval keys away) */
     public long getIndexScanPosition(RowPosition key)
     {
-        int index = indexSummary.binarySearch(key);
+        OpOrder.Group op = readOrder.start();
+        try
+        {
+            return getIndexScanPosition(indexSummary, key);
+        }
+        finally
+        {
+            op.close();
+        }
+    }
+
+    private static long getIndexScanPosition(IndexSummary summary, RowPosition key)
+    {
+        int index = summary.binarySearch(key);
         if (index < 0)
         {
             // binary search gives us the first index _greater_ than the key searched for,
@@ -596,11 +626,11 @@ public class SSTableReader extends SSTable implements Closeable
             int greaterThan = (index + 1) * -1;
             if (greaterThan == 0)
                 return -1;
-            return indexSummary.getPosition(greaterThan - 1);
+            return summary.getPosition(greaterThan - 1);
         }
         else
         {
-            return indexSummary.getPosition(index);
+            return summary.getPosition(index);
         }
     }
 
@@ -629,6 +659,124 @@ public class SSTableReader extends SSTable implements Closeable
         return bf;
     }
 
+    /**
+     * @return false if the bloom filter rules the key out of this sstable
+     */
+    public boolean mayContainKey(ByteBuffer key)
+    {
+        OpOrder.Group op = readOrder.start();
+        try
+        {
+            return bf.isPresent(key);
+        }
+        finally
+        {
+            op.close();
+        }
+    }
+
+    public double getBloomFilterFpChance()
+    {
+        return bloomFilterFpChance;
+    }
+
+    /**
+     * Rebuilds the bloom filter for a new false positive chance, from the keys of the primary index.  The previous
+     * filter is freed once the lookups using it are done.  The caller must hold a reference to this sstable.
+     */
+    public synchronized void rebuildBloomFilter(double fpChance) throws IOException
+    {
+        IFilter filter = FilterFactory.getFilter(estimatedKeys(), fpChance, metadata.getBloomFilterType(), true);
+        RandomAccessReader primaryIndex = openIndexReader();
+        try
+        {
+            while (!primaryIndex.isEOF())
+            {
+                filter.add(ByteBufferUtil.readWithShortLength(primaryIndex));
+                RowIndexEntry.serializer.skip(primaryIndex);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            filter.close();
+            throw e;
+        }
+        finally
+        {
+            FileUtils.closeQuietly(primaryIndex);
+        }
+
+        IFilter previous = bf;
+        bf = filter;
+        bloomFilterFpChance = fpChance;
+
+        awaitReads();
+        previous.close();
+    }
+
+    public int getIndexSummaryInterval()
+    {
+        return indexSummary.getIndexInterval();
+    }
+
+    public long getIndexSummaryOffHeapSize()
+    {
+        return indexSummary.getOffHeapSize();
+    }
+
+    /**
+     * Replaces the index summary by one at a new interval, without touching the data or index files.  A multiple
+     * of the current interval is sampled from the current summary, any other interval from the primary index.
+     * The previous summary is freed once the lookups using it are done.  The caller must hold a reference to
+     * this sstable.
+     */
+    public synchronized void resampleIndexSummary(int indexInterval) throws IOException
+    {
+        IndexSummary previous = indexSummary;
+        if (indexInterval == previous.getIndexInterval())
+            return;
+
+        IndexSummary summary;
+        if (indexInterval % previous.getIndexInterval() == 0)
+        {
+            summary = previous.downsample(indexInterval / previous.getIndexInterval());
+        }
+        else
+        {
+            IndexSummaryBuilder summaryBuilder = new IndexSummaryBuilder(estimatedKeys(), indexInterval);
+            RandomAccessReader primaryIndex = openIndexReader();
+            try
+            {
+                while (!primaryIndex.isEOF())
+                {
+                    long indexPosition = primaryIndex.getFilePointer();
+                    ByteBuffer key = ByteBufferUtil.readWithShortLength(primaryIndex);
+                    summaryBuilder.maybeAddEntry(partitioner.decorateKey(key), indexPosition);
+                    RowIndexEntry.serializer.skip(primaryIndex);
+                }
+            }
+            finally
+            {
+                FileUtils.closeQuietly(primaryIndex);
+            }
+            summary = summaryBuilder.build(partitioner);
+        }
+
+        indexSummary = summary;
+        awaitReads();
+        previous.close();
+    }
+
+    /**
+     * Waits for the lookups that may be using the bloom filter or index summary that were just replaced.
+     */
+    private void awaitReads()
+    {
+        OpOrder.Barrier barrier = readOrder.newBarrier();
+        barrier.issue();
+        barrier.await();
+    }
+
     public long getBloomFilterSerializedSize()
     {
         return bf.serializedSize();
@@ -639,7 +787,8 @@ public class SSTableReader extends SSTable implements Closeable
      */
     public long estimatedKeys()
     {
-        return ((long) indexSummary.size()) * indexSummary.getIndexInterval();
+        IndexSummary summary = indexSummary;
+        return ((long) summary.size()) * summary.getIndexInterval();
     }
 
     /**
@@ -648,11 +797,20 @@ public class SSTableReader extends SSTable implements Closeable
      */
     public long estimatedKeysForRanges(Collection<Range<Token>> ranges)
     {
-        long sampleKeyCount = 0;
-        List<Pair<Integer, Integer>> sampleIndexes = getSampleIndexesForRanges(indexSummary, ranges);
-        for (Pair<Integer, Integer> sampleIndexRange : sampleIndexes)
-            sampleKeyCount += (sampleIndexRange.right - sampleIndexRange.left + 1);
-        return Math.max(1, sampleKeyCount * indexSummary.getIndexInterval());
+        OpOrder.Group op = readOrder.start();
+        try
+        {
+            IndexSummary summary = indexSummary;
+            long sampleKeyCount = 0;
+            List<Pair<Integer, Integer>> sampleIndexes = getSampleIndexesForRanges(summary, ranges);
+            for (Pair<Integer, Integer> sampleIndexRange : sampleIndexes)
+                sampleKeyCount += (sampleIndexRange.right - sampleIndexRange.left + 1);
+            return Math.max(1, sampleKeyCount * summary.getIndexInterval());
+        }
+        finally
+        {
+            op.close();
+        }
     }
 
     /**
@@ -665,7 +823,15 @@ public class SSTableReader extends SSTable implements Closeable
 
     public byte[] getKeySample(int position)
     {
-        return indexSummary.getKey(position);
+        OpOrder.Group op = readOrder.start();
+        try
+        {
+            return indexSummary.getKey(position);
+        }
+        finally
+        {
+            op.close();
+        }
     }
 
     private static List<Pair<Integer,Integer>> getSampleIndexesForRanges(IndexSummary summary, Collection<Range<Token>> ranges)
@@ -710,52 +876,45 @@ public class SSTableReader extends SSTable implements Closeable
         return positions;
     }
 
-    public Iterable<DecoratedKey> getKeySamples(final Range<Token> range)
+    public Iterable<DecoratedKey> getKeySamples(Range<Token> range)
     {
-        final List<Pair<Integer, Integer>> indexRanges = getSampleIndexesForRanges(indexSummary, Collections.singletonList(range));
-
-        if (indexRanges.isEmpty())
-            return Collections.emptyList();
-
-        return new Iterable<DecoratedKey>()
+        // copied out, since the summary may be resampled and freed once we are done
+        OpOrder.Group op = readOrder.start();
+        try
         {
-            public Iterator<DecoratedKey> iterator()
+            IndexSummary summary = indexSummary;
+            List<DecoratedKey> keys = new ArrayList<>();
+            for (Pair<Integer, Integer> indexRange : getSampleIndexesForRanges(summary, Collections.singletonList(range)))
             {
-                return new Iterator<DecoratedKey>()
-                {
-                    private Iterator<Pair<Integer, Integer>> rangeIter = indexRanges.iterator();
-                    private Pair<Integer, Integer> current;
-                    private int idx;
-
-                    public boolean hasNext()
-                    {
-                        if (current == null || idx > current.right)
-                        {
-                            if (rangeIter.hasNext())
-                            {
-                                current = rangeIter.next();
-                                idx = current.left;
-                                return true;
-                            }
-                            return false;
-                        }
-
-                        return true;
-                    }
-
-                    public DecoratedKey next()
-                    {
-                        byte[] bytes = indexSummary.getKey(idx++);
-                        return partitioner.decorateKey(ByteBuffer.wrap(bytes));
-                    }
-
-                    public void remove()
-                    {
-                        throw new UnsupportedOperationException();
-                    }
-                };
+                for (int idx = indexRange.left; idx <= indexRange.right; idx++)
+                    keys.add(partitioner.decorateKey(ByteBuffer.wrap(summary.getKey(idx))));
             }
-        };
+            return keys;
+        }
+        finally
+        {
+            op.close();
+        }
+    }
+
+    /**
+     * @return the keys of every stride-th entry of the index summary
+     */
+    public List<DecoratedKey> getKeySamples(int stride)
+    {
+        OpOrder.Group op = readOrder.start();
+        try
+        {
+            IndexSummary summary = indexSummary;
+            List<DecoratedKey> keys = new ArrayList<>(summary.size() / stride + 1);
+            for (int idx = 0; idx < summary.size(); idx += stride)
+                keys.add(partitioner.decorateKey(ByteBuffer.wrap(summary.getKey(idx))));
+            return keys;
+        }
+        finally
+        {
+            op.close();
+        }
     }
 
     /**
@@ -827,6 +986,35 @@ public class SSTableReader extends SSTable implements Closeable
         }
     }
 
+    /**
+     * Asks the OS to start fetching what a read of the partition will need first: its data if its position is in
+     * the key cache, or else the part of the primary index that will be scanned for it.  Hinting several sstables
+     * before reading them lets the disk serve their reads in parallel.
+     *
+     * @param size the number of bytes to fetch
+     */
+    public void prefetch(DecoratedKey key, int size)
+    {
+        if (!mayContainKey(key.key))
+            return;
+
+        RowIndexEntry cachedPosition = getCachedPosition(key, false);
+        if (cachedPosition != null)
+        {
+            long position = compression
+                          ? getCompressionMetadata().chunkFor(cachedPosition.position).offset
+                          : cachedPosition.position;
+            dfile.willNeed(position, size);
+        }
+        else if (partitionIndex == null)
+        {
+            // (with a partition index, the page to read is not known without doing the lookup)
+            long position = getIndexScanPosition(key);
+            if (position >= 0)
+                ifile.willNeed(position, size);
+        }
+    }
+
     public RowIndexEntry getCachedPosition(DecoratedKey key, boolean updateStats)
     {
         return getCachedPosition(new KeyCacheKey(descriptor, key.key), updateStats);
@@ -851,6 +1039,51 @@ public class SSTableReader extends SSTable implements Closeable
         return null;
     }
 
+    private RowIndexEntry getPositionFromPartitionIndex(DecoratedKey key, boolean updateCacheAndStats)
+    {
+        long position = partitionIndex.get(key);
+        if (position == PartitionIndex.NOT_FOUND)
+        {
+            if (updateCacheAndStats)
+                bloomFilterTracker.addFalsePositive();
+            Tracing.trace("Partition index lookup complete (bloom filter false positive) for sstable {}", descriptor.generation);
+            return null;
+        }
+
+        RowIndexEntry indexEntry;
+        if (position >= 0)
+        {
+            indexEntry = new RowIndexEntry(position);
+        }
+        else
+        {
+            // the row has a column index, which is only in the primary index
+            FileDataInput in = ifile.getSegment(~position);
+            try
+            {
+                ByteBufferUtil.skipShortLength(in);
+                indexEntry = RowIndexEntry.serializer.deserialize(in, descriptor.version);
+            }
+            catch (IOException e)
+            {
+                markSuspect();
+                throw new CorruptSSTableException(e, in.getPath());
+            }
+            finally
+            {
+                FileUtils.closeQuietly(in);
+            }
+        }
+
+        if (updateCacheAndStats)
+        {
+            cacheKey(key, indexEntry);
+            bloomFilterTracker.addTruePositive();
+        }
+        Tracing.trace("Partition index with {} entries found for sstable {}", indexEntry.columnsIndex().size(), descriptor.generation);
+        return indexEntry;
+    }
+
     /**
      * Get position updating key cache and stats.
      * @see #getPosition(org.apache.cassandra.db.RowPosition, org.apache.cassandra.io.sstable.SSTableReader.Operator, boolean)
@@ -873,7 +1106,7 @@ public class SSTableReader extends SSTable implements Closeable
         if (op == Operator.EQ)
         {
             assert key instanceof DecoratedKey; // EQ only make sense if the key is a valid row key
-            if (!bf.isPresent(((DecoratedKey)key).key))
+            if (!mayContainKey(((DecoratedKey)key).key))
             {
                 Tracing.trace("Bloom filter allows skipping sstable {}", descriptor.generation);
                 return null;
@@ -893,8 +1126,24 @@ public class SSTableReader extends SSTable implements Closeable
             }
         }
 
+        // next, the partition index, which only needs to read one of its pages
+        if (op == Operator.EQ && partitionIndex != null)
+            return getPositionFromPartitionIndex((DecoratedKey) key, updateCacheAndStats);
+
         // next, see if the sampled index says it's impossible for the key to be present
-        long sampledPosition = getIndexScanPosition(key);
+        long sampledPosition;
+        int indexInterval; // of the summary the position comes from
+        OpOrder.Group readOp = readOrder.start();
+        try
+        {
+            IndexSummary summary = indexSummary;
+            sampledPosition = getIndexScanPosition(summary, key);
+            indexInterval = summary.getIndexInterval();
+        }
+        finally
+        {
+            readOp.close();
+        }
         if (sampledPosition == -1)
         {
             if (op == Operator.EQ && updateCacheAndStats)
@@ -920,12 +1169,12 @@ public class SSTableReader extends SSTable implements Closeable
         // of the next interval).
         int i = 0;
         Iterator<FileDataInput> segments = ifile.iterator(sampledPosition);
-        while (segments.hasNext() && i <= indexSummary.getIndexInterval())
+        while (segments.hasNext() && i <= indexInterval)
         {
             FileDataInput in = segments.next();
             try
             {
-                while (!in.isEOF() && i <= indexSummary.getIndexInterval())
+                while (!in.isEOF() && i <= indexInterval)
                 {
                     i++;
 
@@ -1089,6 +1338,8 @@ public class SSTableReader extends SSTable implements Closeable
              * the mapping, so instead we always open a file and run fadvice(fd, 0, 0) on it
              */
             dropPageCache();
+            if (compression && ChunkCache.instance != null)
+                ChunkCache.instance.invalidateFile(new File(getFilename()).getAbsolutePath());
 
             FileUtils.closeQuietly(this);
             deletingTask.schedule();
@@ -1423,6 +1674,8 @@ public class SSTableReader extends SSTable implements Closeable
     {
         dropPageCache(dfile.path);
         dropPageCache(ifile.path);
+        if (partitionIndex != null)
+            dropPageCache(partitionIndex.getPath());
     }
 
     private void dropPageCache(String filePath)
@@ -26,6 +26,7 @@ import java.util.List;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.util.concurrent.RateLimiter;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DataRange;
 import org.apache.cassandra.db.DecoratedKey;
 import org.apache.cassandra.db.RowIndexEntry;
@@ -66,6 +67,7 @@ public class SSTableScanner implements ICompactionScanner
 
         this.dfile = limiter == null ? sstable.openDataReader() : sstable.openDataReader(limiter);
         this.ifile = sstable.openIndexReader();
+        setSequential();
         this.sstable = sstable;
         this.dataRange = dataRange;
 
@@ -95,6 +97,7 @@ public class SSTableScanner implements ICompactionScanner
 
         this.dfile = limiter == null ? sstable.openDataReader() : sstable.openDataReader(limiter);
         this.ifile = sstable.openIndexReader();
+        setSequential();
         this.sstable = sstable;
         this.dataRange = null;
 
@@ -108,6 +111,16 @@ public class SSTableScanner implements ICompactionScanner
         this.rangeIterator = boundsList.iterator();
     }
 
+    private void setSequential()
+    {
+        int readAheadSize = DatabaseDescriptor.getScanReadAheadSize();
+        if (readAheadSize > 0)
+        {
+            dfile.setSequential(readAheadSize);
+            ifile.setSequential(readAheadSize);
+        }
+    }
+
     private void seekToCurrentRangeStart()
     {
         if (currentRange.left.isMinimum(sstable.partitioner))
@@ -31,6 +31,7 @@ import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.compaction.AbstractCompactedRow;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.io.FSReadError;
 import org.apache.cassandra.io.FSWriteError;
 import org.apache.cassandra.io.compress.CompressedSequentialWriter;
 import org.apache.cassandra.io.util.*;
@@ -74,6 +75,9 @@ public class SSTableWriter extends SSTable
         if (metadata.getBloomFilterFpChance() < 1.0)
             components.add(Component.FILTER);
 
+        if (DatabaseDescriptor.isSSTablePartitionIndexEnabled())
+            components.add(Component.PARTITION_INDEX);
+
         if (metadata.compressionParameters().sstableCompressor != null)
         {
             components.add(Component.COMPRESSION_INFO);
@@ -253,6 +257,13 @@ public class SSTableWriter extends SSTable
                 maxTimestamp = Math.max(maxTimestamp, atom.maxTimestamp());
                 minColumnNames = ColumnNameHelper.minComponents(minColumnNames, atom.name(), metadata.comparator);
                 maxColumnNames = ColumnNameHelper.maxComponents(maxColumnNames, atom.name(), metadata.comparator);
+                if (atom instanceof RangeTombstone)
+                {
+                    // the names must cover the whole range, see ColumnFamily.getColumnStats
+                    ByteBuffer max = ((RangeTombstone) atom).max;
+                    minColumnNames = ColumnNameHelper.minComponents(minColumnNames, max, metadata.comparator);
+                    maxColumnNames = ColumnNameHelper.maxComponents(maxColumnNames, max, metadata.comparator);
+                }
                 maxLocalDeletionTime = Math.max(maxLocalDeletionTime, atom.getLocalDeletionTime());
 
                 columnIndexer.add(atom); // This write the atom on disk too
@@ -332,6 +343,7 @@ public class SSTableWriter extends SSTable
                                                            ifile,
                                                            dfile,
                                                            iwriter.summary.build(partitioner),
+                                                           openPartitionIndex(newdesc),
                                                            iwriter.bf,
                                                            maxDataAge,
                                                            sstableMetadata);
@@ -344,6 +356,21 @@ public class SSTableWriter extends SSTable
         return sstable;
     }
 
+    private PartitionIndex openPartitionIndex(Descriptor desc)
+    {
+        if (!components.contains(Component.PARTITION_INDEX))
+            return null;
+
+        try
+        {
+            return PartitionIndex.open(desc, partitioner);
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, desc.filenameFor(Component.PARTITION_INDEX));
+        }
+    }
+
     private static void writeMetadata(Descriptor desc, SSTableMetadata sstableMetadata,  Set<Integer> ancestors)
     {
         SequentialWriter out = SequentialWriter.open(new File(desc.filenameFor(SSTable.COMPONENT_STATS)), true);
@@ -398,6 +425,7 @@ public class SSTableWriter extends SSTable
         public final SegmentedFile.Builder builder;
         public final IndexSummaryBuilder summary;
         public final IFilter bf;
+        private final PartitionIndex.Writer partitionIndex;
         private FileMark mark;
 
         IndexWriter(long keyCount)
@@ -406,7 +434,10 @@ public class SSTableWriter extends SSTable
                                               !metadata.populateIoCacheOnFlush());
             builder = SegmentedFile.getBuilder(DatabaseDescriptor.getIndexAccessMode());
             summary = new IndexSummaryBuilder(keyCount, metadata.getIndexInterval());
-            bf = FilterFactory.getFilter(keyCount, metadata.getBloomFilterFpChance(), true);
+            bf = FilterFactory.getFilter(keyCount, metadata.getBloomFilterFpChance(), metadata.getBloomFilterType(), true);
+            partitionIndex = components.contains(Component.PARTITION_INDEX)
+                           ? new PartitionIndex.Writer(descriptor, partitioner, keyCount, !metadata.populateIoCacheOnFlush())
+                           : null;
         }
 
         public void append(DecoratedKey key, RowIndexEntry indexEntry)
@@ -428,6 +459,11 @@ public class SSTableWriter extends SSTable
 
             summary.maybeAddEntry(key, indexPosition);
             builder.addPotentialBoundary(indexPosition);
+
+            // most rows have no column index, and reading them only requires their data position; the others are
+            // recorded by the (complemented, so negative) position of their entry in the primary index
+            if (partitionIndex != null)
+                partitionIndex.append(key, indexEntry.isIndexed() ? ~indexPosition : indexEntry.position);
         }
 
         /**
@@ -454,6 +490,9 @@ public class SSTableWriter extends SSTable
                 }
             }
 
+            if (partitionIndex != null)
+                partitionIndex.close();
+
             // index
             long position = indexFile.getFilePointer();
             indexFile.close(); // calls force
@@ -468,6 +507,8 @@ public class SSTableWriter extends SSTable
         public void resetAndTruncate()
         {
             // we can't un-set the bloom filter addition, but extra keys in there are harmless.
+            // the partition index doesn't need to be reset either, as keys are only appended to it once their row
+            // has been written entirely.
             // we can't reset dbuilder either, but that is the last thing called in afterappend so
             // we assume that if that worked then we won't be trying to reset.
             indexFile.resetAndTruncate(mark);
@@ -34,7 +34,7 @@ public abstract class DiskAwareRunnable extends WrappedRunnable
         while (true)
         {
             writeSize = getExpectedWriteSize();
-            directory = getDirectories().getWriteableLocation();
+            directory = getWriteableLocation();
             if (directory != null || !reduceScopeForLimitedSpace())
                 break;
         }
@@ -54,6 +54,14 @@ public abstract class DiskAwareRunnable extends WrappedRunnable
         }
     }
 
+    /**
+     * @return the data directory to run this task on; the least loaded one by default.
+     */
+    protected Directories.DataDirectory getWriteableLocation()
+    {
+        return getDirectories().getWriteableLocation();
+    }
+
     /**
      * Get sstable directories for the CF.
      * @return Directories instance for the CF.
@@ -17,6 +17,9 @@
  */
 package org.apache.cassandra.io.util;
 
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+
 import sun.misc.Unsafe;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -141,6 +144,48 @@ public class Memory
         unsafe.copyMemory(null, peer + memoryOffset, buffer, BYTE_ARRAY_BASE_OFFSET + bufferOffset, count);
     }
 
+    /**
+     * @return a direct ByteBuffer over {@code length} bytes of this region starting at {@code offset}.
+     * The buffer does not own the memory, so it must not be used once this region has been freed.
+     */
+    public ByteBuffer asByteBuffer(long offset, int length)
+    {
+        if (length == 0)
+            return ByteBuffer.allocate(0);
+
+        checkPosition(offset);
+        checkPosition(offset + length - 1);
+        try
+        {
+            return (ByteBuffer) DirectBufferConstructor.instance.newInstance(peer + offset, length);
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Holder for the constructor of the JDK's DirectByteBuffer that wraps an existing address, resolved lazily
+     * so that a JVM lacking it only fails the callers of asByteBuffer.
+     */
+    private static class DirectBufferConstructor
+    {
+        private static final Constructor<?> instance;
+        static
+        {
+            try
+            {
+                instance = Class.forName("java.nio.DirectByteBuffer").getDeclaredConstructor(long.class, int.class);
+                instance.setAccessible(true);
+            }
+            catch (Exception e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
     private void checkPosition(long offset)
     {
         assert peer != 0 : "Memory was freed";
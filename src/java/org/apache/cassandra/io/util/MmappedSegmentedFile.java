@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.utils.CLibrary;
 
 public class MmappedSegmentedFile extends SegmentedFile
 {
@@ -43,6 +44,9 @@ public class MmappedSegmentedFile extends SegmentedFile
      */
     private final Segment[] segments;
 
+    // opened by the first willNeed, as the segments have no descriptor to pass the hints through
+    private volatile int fd = -1;
+
     public MmappedSegmentedFile(String path, long length, Segment[] segments)
     {
         super(path, length);
@@ -83,8 +87,24 @@ public class MmappedSegmentedFile extends SegmentedFile
         return file;
     }
 
+    @Override
+    public void willNeed(long position, int size)
+    {
+        if (fd == -1)
+        {
+            synchronized (this)
+            {
+                if (fd == -1)
+                    fd = CLibrary.tryOpen(path);
+            }
+        }
+        CLibrary.tryWillNeed(fd, position, size);
+    }
+
     public void cleanup()
     {
+        CLibrary.tryCloseFD(fd);
+
         if (!FileUtils.isCleanerAvailable())
             return;
 
@@ -44,6 +44,18 @@ public abstract class PoolingSegmentedFile extends SegmentedFile
 
     protected abstract RandomAccessReader createReader(String path);
 
+    @Override
+    public void willNeed(long position, int size)
+    {
+        RandomAccessReader reader = FileCacheService.instance.get(path);
+
+        if (reader == null)
+            reader = createReader(path);
+
+        reader.willNeed(position, size);
+        recycle(reader);
+    }
+
     public void recycle(RandomAccessReader reader)
     {
         FileCacheService.instance.put(reader);
@@ -24,6 +24,7 @@ import java.nio.channels.FileChannel;
 import com.google.common.annotations.VisibleForTesting;
 
 import org.apache.cassandra.io.FSReadError;
+import org.apache.cassandra.utils.CLibrary;
 
 public class RandomAccessReader extends RandomAccessFile implements FileDataInput
 {
@@ -53,6 +54,12 @@ public class RandomAccessReader extends RandomAccessFile implements FileDataInpu
 
     protected final PoolingSegmentedFile owner;
 
+    // when reading sequentially, the number of bytes the OS is asked to read ahead of the buffer,
+    // and the position in the file it has been asked to read up to
+    private int readAheadSize;
+    private long readAheadLimit;
+    private int fd = -1;
+
     protected RandomAccessReader(File file, int bufferSize, PoolingSegmentedFile owner) throws FileNotFoundException
     {
         super(file, "r");
@@ -134,11 +141,61 @@ public class RandomAccessReader extends RandomAccessFile implements FileDataInpu
             }
 
             validBufferBytes = read;
+            maybeReadAhead(bufferOffset + read);
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, filePath);
+        }
+    }
+
+    /**
+     * Prepares this reader for reading (large parts of) the file in order: the OS is told to read ahead more
+     * aggressively, and asked to read the next readAheadSize bytes in the background whenever the buffer is
+     * refilled, so that the disk keeps working while the buffer is consumed.  Requires JNA.
+     */
+    public void setSequential(int readAheadSize)
+    {
+        assert owner == null : "pooled readers are shared with random reads";
+        try
+        {
+            fd = CLibrary.getfd(getFD());
         }
         catch (IOException e)
         {
             throw new FSReadError(e, filePath);
         }
+        this.readAheadSize = readAheadSize;
+        CLibrary.trySequential(fd);
+    }
+
+    /**
+     * Asks the OS to read part of the file into the page cache in the background, without moving this reader.
+     */
+    public void willNeed(long position, int size)
+    {
+        try
+        {
+            CLibrary.tryWillNeed(CLibrary.getfd(getFD()), position, size);
+        }
+        catch (IOException e)
+        {
+            throw new FSReadError(e, filePath);
+        }
+    }
+
+    /**
+     * Asks the OS for the readAheadSize bytes following position in the file, once less than half of them
+     * remain from the previous request.
+     */
+    protected void maybeReadAhead(long position)
+    {
+        if (readAheadSize == 0 || position + readAheadSize / 2 < readAheadLimit)
+            return;
+
+        long start = Math.max(position, readAheadLimit);
+        readAheadLimit = position + readAheadSize;
+        CLibrary.tryWillNeed(fd, start, (int) (readAheadLimit - start));
     }
 
     @Override
@@ -93,6 +93,17 @@ public abstract class SegmentedFile
      */
     public abstract void cleanup();
 
+    /**
+     * Asks the OS to read part of the file into the page cache in the background, through a descriptor of the file
+     * that is already open.  Does nothing by default.
+     *
+     * @param position the offset of the part to read
+     * @param size the number of bytes to read
+     */
+    public void willNeed(long position, int size)
+    {
+    }
+
     /**
      * Collects potential segmentation points in an underlying file, and builds a SegmentedFile to represent it.
      */
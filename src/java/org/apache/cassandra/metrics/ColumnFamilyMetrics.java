@@ -17,6 +17,9 @@
  */
 package org.apache.cassandra.metrics;
 
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import com.yammer.metrics.Metrics;
@@ -24,10 +27,10 @@ import com.yammer.metrics.core.*;
 import com.yammer.metrics.util.RatioGauge;
 
 import org.apache.cassandra.db.ColumnFamilyStore;
-import org.apache.cassandra.db.Keyspace;
 import org.apache.cassandra.io.sstable.SSTableMetadata;
 import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.utils.EstimatedHistogram;
+import org.apache.cassandra.utils.TopKSampler;
 
 /**
  * Metrics for {@link ColumnFamilyStore}.
@@ -90,6 +93,11 @@ public class ColumnFamilyMetrics
 
     public final Counter speculativeRetries;
 
+    /** Number of times memtable updates had to be redone because of concurrent updates to the same partition */
+    public final Counter memtableUpdateRetries;
+    /** Samplers of the partitions written to, to find the hottest ones on demand */
+    public final Map<Sampler, TopKSampler<ByteBuffer>> samplers;
+
     // for backward compatibility
     @Deprecated public final EstimatedHistogram sstablesPerRead = new EstimatedHistogram(35);
     @Deprecated public final EstimatedHistogram recentSSTablesPerRead = new EstimatedHistogram(35);
@@ -171,7 +179,7 @@ public class ColumnFamilyMetrics
             public Integer value()
             {
                 // TODO this actually isn't a good measure of pending tasks
-                return Keyspace.switchLock.getQueueLength();
+                return cfs.getDataTracker().getMemtablesPendingFlush().size();
             }
         });
         liveSSTableCount = Metrics.newGauge(factory.createMetricName("LiveSSTableCount"), new Gauge<Integer>()
@@ -308,6 +316,11 @@ public class ColumnFamilyMetrics
         liveScannedHistogram = Metrics.newHistogram(factory.createMetricName("LiveScannedHistogram"), true);
         coordinatorReadLatency = Metrics.newTimer(factory.createMetricName("CoordinatorReadLatency"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
         coordinatorScanLatency = Metrics.newTimer(factory.createMetricName("CoordinatorScanLatency"), TimeUnit.MICROSECONDS, TimeUnit.SECONDS);
+        memtableUpdateRetries = Metrics.newCounter(factory.createMetricName("MemtableUpdateRetries"));
+
+        samplers = new EnumMap<Sampler, TopKSampler<ByteBuffer>>(Sampler.class);
+        for (Sampler sampler : Sampler.values())
+            samplers.put(sampler, new TopKSampler<ByteBuffer>());
     }
 
     public void updateSSTableIterated(int count)
@@ -349,6 +362,15 @@ public class ColumnFamilyMetrics
         Metrics.defaultRegistry().removeMetric(factory.createMetricName("LiveScannedHistogram"));
         Metrics.defaultRegistry().removeMetric(factory.createMetricName("CoordinatorReadLatency"));
         Metrics.defaultRegistry().removeMetric(factory.createMetricName("CoordinatorScanLatency"));
+        Metrics.defaultRegistry().removeMetric(factory.createMetricName("MemtableUpdateRetries"));
+    }
+
+    public enum Sampler
+    {
+        /** partitions by number of writes */
+        WRITES,
+        /** partitions by number of retried memtable updates */
+        CONTENTION
     }
 
     class ColumnFamilyMetricNameFactory implements MetricNameFactory
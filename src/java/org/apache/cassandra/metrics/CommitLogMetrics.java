@@ -17,8 +17,12 @@
  */
 package org.apache.cassandra.metrics;
 
+import java.util.concurrent.TimeUnit;
+
 import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
 
 import org.apache.cassandra.db.commitlog.CommitLogAllocator;
 import org.apache.cassandra.db.commitlog.ICommitLogExecutorService;
@@ -36,6 +40,12 @@ public class CommitLogMetrics
     public final Gauge<Long> pendingTasks;
     /** Current size used by all the commit log segments */
     public final Gauge<Long> totalCommitLogSize;
+    /** Mutations applied by commit log replay */
+    public final Meter replayedMutations;
+    /** Bytes of segments replayed */
+    public final Meter replayedBytes;
+    /** Bytes of segments to replay, including the ones already replayed */
+    public final Counter bytesToReplay;
 
     public CommitLogMetrics(final ICommitLogExecutorService executor, final CommitLogAllocator allocator)
     {
@@ -60,5 +70,8 @@ public class CommitLogMetrics
                 return allocator.bytesUsed();
             }
         });
+        replayedMutations = Metrics.newMeter(factory.createMetricName("ReplayedMutations"), "mutations", TimeUnit.SECONDS);
+        replayedBytes = Metrics.newMeter(factory.createMetricName("ReplayedBytes"), "bytes", TimeUnit.SECONDS);
+        bytesToReplay = Metrics.newCounter(factory.createMetricName("BytesToReplay"));
     }
 }
@@ -24,6 +24,7 @@ import java.util.concurrent.TimeUnit;
 import com.yammer.metrics.Metrics;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 
 import org.apache.cassandra.config.Schema;
@@ -50,6 +51,20 @@ public class CompactionMetrics implements CompactionManager.CompactionExecutorSt
     public final Meter totalCompactionsCompleted;
     /** Total number of bytes compacted since server [re]start */
     public final Counter bytesCompacted;
+    /** Number of compactions of a single sstable for its droppable tombstones since server [re]start */
+    public final Counter tombstoneCompactions;
+    /** Estimated number of droppable tombstones in the sstables of those compactions */
+    public final Counter droppableTombstones;
+    /** Estimated number of those tombstones actually purged */
+    public final Counter purgedTombstones;
+    /** Percentage of its droppable tombstones purged by each tombstone compaction */
+    public final Histogram tombstonePurgePercentage;
+    /** Compaction throughput limit in MB/s, 0 if unthrottled */
+    public final Gauge<Double> throughputLimit;
+    /** Number of times the throughput controller raised the limit */
+    public final Counter throughputIncreases;
+    /** Number of times the throughput controller lowered the limit */
+    public final Counter throughputDecreases;
 
     public CompactionMetrics(final ThreadPoolExecutor... collectors)
     {
@@ -80,6 +95,19 @@ public class CompactionMetrics implements CompactionManager.CompactionExecutorSt
         });
         totalCompactionsCompleted = Metrics.newMeter(factory.createMetricName("TotalCompactionsCompleted"), "compaction completed", TimeUnit.SECONDS);
         bytesCompacted = Metrics.newCounter(factory.createMetricName("BytesCompacted"));
+        tombstoneCompactions = Metrics.newCounter(factory.createMetricName("TombstoneCompactions"));
+        droppableTombstones = Metrics.newCounter(factory.createMetricName("DroppableTombstones"));
+        purgedTombstones = Metrics.newCounter(factory.createMetricName("PurgedTombstones"));
+        tombstonePurgePercentage = Metrics.newHistogram(factory.createMetricName("TombstonePurgePercentage"), true);
+        throughputLimit = Metrics.newGauge(factory.createMetricName("ThroughputLimit"), new Gauge<Double>()
+        {
+            public Double value()
+            {
+                return CompactionManager.instance.getThroughputController().getRate();
+            }
+        });
+        throughputIncreases = Metrics.newCounter(factory.createMetricName("ThroughputIncreases"));
+        throughputDecreases = Metrics.newCounter(factory.createMetricName("ThroughputDecreases"));
     }
 
     public void beginCompaction(CompactionInfo.Holder ci)
@@ -98,6 +126,15 @@ public class CompactionMetrics implements CompactionManager.CompactionExecutorSt
         totalCompactionsCompleted.mark();
     }
 
+    public void finishTombstoneCompaction(long droppable, long purged)
+    {
+        tombstoneCompactions.inc();
+        droppableTombstones.inc(droppable);
+        purgedTombstones.inc(purged);
+        if (droppable > 0)
+            tombstonePurgePercentage.update(100 * purged / droppable);
+    }
+
     public static List<CompactionInfo.Holder> getCompactions()
     {
         return new ArrayList<CompactionInfo.Holder>(compactions);
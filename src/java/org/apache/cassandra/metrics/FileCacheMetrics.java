@@ -24,6 +24,7 @@ import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.MetricName;
 import com.yammer.metrics.util.RatioGauge;
+import org.apache.cassandra.cache.ChunkCache;
 import org.apache.cassandra.service.FileCacheService;
 
 public class FileCacheMetrics
@@ -36,6 +37,14 @@ public class FileCacheMetrics
     public final Gauge<Double> hitRate;
     /** Total size of file cache, in bytes */
     public final Gauge<Long> size;
+    /** Total number of chunk cache hits */
+    public final Meter chunkHits;
+    /** Total number of chunk cache requests */
+    public final Meter chunkRequests;
+    /** chunk cache hit rate */
+    public final Gauge<Double> chunkHitRate;
+    /** Total size of the decompressed chunks cached, in bytes */
+    public final Gauge<Long> chunkSize;
 
     public FileCacheMetrics()
     {
@@ -60,5 +69,26 @@ public class FileCacheMetrics
                 return FileCacheService.instance.sizeInBytes();
             }
         });
+        chunkHits = Metrics.newMeter(new MetricName(FileCacheService.class, "ChunkHits"), "hits", TimeUnit.SECONDS);
+        chunkRequests = Metrics.newMeter(new MetricName(FileCacheService.class, "ChunkRequests"), "requests", TimeUnit.SECONDS);
+        chunkHitRate = Metrics.newGauge(new MetricName(FileCacheService.class, "ChunkHitRate"), new RatioGauge()
+        {
+            protected double getNumerator()
+            {
+                return chunkHits.count();
+            }
+
+            protected double getDenominator()
+            {
+                return chunkRequests.count();
+            }
+        });
+        chunkSize = Metrics.newGauge(new MetricName(FileCacheService.class, "ChunkSize"), new Gauge<Long>()
+        {
+            public Long value()
+            {
+                return ChunkCache.instance == null ? 0 : ChunkCache.instance.weightedSize();
+            }
+        });
     }
 }
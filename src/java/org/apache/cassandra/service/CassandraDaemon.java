@@ -43,8 +43,11 @@ import org.apache.cassandra.db.MeteredFlusher;
 import org.apache.cassandra.db.SystemKeyspace;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.compaction.CompactionManager;
+import org.apache.cassandra.db.compaction.CompactionThroughputController;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.io.FSError;
+import org.apache.cassandra.io.sstable.BloomFilterManager;
+import org.apache.cassandra.io.sstable.IndexSummaryManager;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.metrics.StorageMetrics;
 import org.apache.cassandra.thrift.ThriftServer;
@@ -229,7 +232,10 @@ public class CassandraDaemon
 
         // MeteredFlusher can block if flush queue fills up, so don't put on scheduledTasks
         // Start it before commit log, so memtables can flush during commit log replay
-        StorageService.optionalTasks.scheduleWithFixedDelay(new MeteredFlusher(), 1000, 1000, TimeUnit.MILLISECONDS);
+        StorageService.optionalTasks.scheduleWithFixedDelay(new MeteredFlusher(),
+                                                            MeteredFlusher.INTERVAL_IN_MS,
+                                                            MeteredFlusher.INTERVAL_IN_MS,
+                                                            TimeUnit.MILLISECONDS);
 
         // replay the log if necessary
         try
@@ -269,6 +275,22 @@ public class CassandraDaemon
         };
         StorageService.optionalTasks.schedule(runnable, 5 * 60, TimeUnit.SECONDS);
 
+        if (DatabaseDescriptor.getBloomFilterSpaceInMB() > 0)
+        {
+            int interval = DatabaseDescriptor.getBloomFilterResizeIntervalInMinutes();
+            StorageService.optionalTasks.scheduleWithFixedDelay(new BloomFilterManager(), interval, interval, TimeUnit.MINUTES);
+        }
+        if (DatabaseDescriptor.getIndexSummarySpaceInMB() > 0)
+        {
+            int interval = DatabaseDescriptor.getIndexSummaryResizeIntervalInMinutes();
+            StorageService.optionalTasks.scheduleWithFixedDelay(new IndexSummaryManager(), interval, interval, TimeUnit.MINUTES);
+        }
+        if (DatabaseDescriptor.getCompactionThroughputMaxMbPerSec() > 0)
+        {
+            int interval = CompactionThroughputController.INTERVAL_IN_SECONDS;
+            StorageService.optionalTasks.scheduleWithFixedDelay(CompactionManager.instance.getThroughputController(), interval, interval, TimeUnit.SECONDS);
+        }
+
         SystemKeyspace.finishStartup();
 
         // start server internals
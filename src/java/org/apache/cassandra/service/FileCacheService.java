@@ -53,7 +53,7 @@ public class FileCacheService
     private static final AtomicInteger memoryUsage = new AtomicInteger();
 
     private final Cache<String, Queue<RandomAccessReader>> cache;
-    private final FileCacheMetrics metrics = new FileCacheMetrics();
+    public final FileCacheMetrics metrics = new FileCacheMetrics();
 
     protected FileCacheService()
     {
@@ -30,6 +30,7 @@ import org.apache.cassandra.concurrent.DebuggableThreadPoolExecutor;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.Memtable;
 import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.dht.AbstractBounds;
 import org.apache.cassandra.dht.Range;
@@ -251,6 +252,8 @@ public class StreamSession implements IEndpointStateChangeSubscriber, IFailureDe
             for (Range<Token> range : normalizedRanges)
                 rowBoundsList.add(range.toRowBounds());
             ColumnFamilyStore.ViewFragment view = cfStore.markReferenced(rowBoundsList);
+            // only the sstables are streamed, and they stay referenced until the transfer completes
+            Memtable.releaseReferences(view.memtables);
             sstables.addAll(view.sstables);
         }
         addTransferFiles(normalizedRanges, sstables);
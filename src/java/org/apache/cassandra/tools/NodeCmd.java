@@ -27,6 +27,7 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
+import javax.management.openmbean.CompositeData;
 import javax.management.openmbean.TabularData;
 
 import com.google.common.base.Joiner;
@@ -45,6 +46,7 @@ import org.apache.cassandra.db.compaction.CompactionManagerMBean;
 import org.apache.cassandra.db.compaction.OperationType;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.locator.EndpointSnitchInfoMBean;
+import org.apache.cassandra.metrics.ColumnFamilyMetrics;
 import org.apache.cassandra.net.MessagingServiceMBean;
 import org.apache.cassandra.service.CacheServiceMBean;
 import org.apache.cassandra.service.StorageProxyMBean;
@@ -169,7 +171,8 @@ public class NodeCmd
         RESETLOCALSCHEMA,
         ENABLEBACKUP,
         DISABLEBACKUP,
-        SETCACHEKEYSTOSAVE
+        SETCACHEKEYSTOSAVE,
+        TOPPARTITIONS
     }
 
 
@@ -986,6 +989,44 @@ public class NodeCmd
         }
     }
 
+    private void printTopPartitions(String keyspace, String cf, int duration, int count, int capacity, PrintStream output)
+    {
+        List<String> samplers = new ArrayList<String>();
+        for (ColumnFamilyMetrics.Sampler sampler : ColumnFamilyMetrics.Sampler.values())
+            samplers.add(sampler.toString());
+
+        Map<String, CompositeData> results = probe.getPartitionSample(keyspace, cf, capacity, duration, count, samplers);
+        for (Map.Entry<String, CompositeData> entry : results.entrySet())
+        {
+            CompositeData result = entry.getValue();
+            List<CompositeData> partitions = new ArrayList<CompositeData>();
+            for (Object partition : ((TabularData) result.get("partitions")).values())
+                partitions.add((CompositeData) partition);
+            Collections.sort(partitions, new Comparator<CompositeData>()
+            {
+                public int compare(CompositeData p1, CompositeData p2)
+                {
+                    return Long.compare((Long) p2.get("count"), (Long) p1.get("count"));
+                }
+            });
+
+            output.println(String.format("%s Sampler:", entry.getKey()));
+            output.println(String.format("  Total: %d", (Long) result.get("total")));
+            output.println(String.format("  Top %d partitions:", count));
+            if (partitions.isEmpty())
+            {
+                output.println("\tNothing recorded during sampling period...");
+            }
+            else
+            {
+                output.println(String.format("\t%-40s%12s%12s", "Partition", "Count", "+/-"));
+                for (CompositeData partition : partitions)
+                    output.println(String.format("\t%-40s%12d%12d", partition.get("partition"), (Long) partition.get("count"), (Long) partition.get("error")));
+            }
+            output.println();
+        }
+    }
+
     private void printIsNativeTransportRunning(PrintStream outs)
     {
         outs.println(probe.isNativeTransportRunning() ? "running" : "not running");
@@ -1264,6 +1305,13 @@ public class NodeCmd
                     nodeCmd.printProxyHistograms(System.out);
                     break;
 
+                case TOPPARTITIONS:
+                    if (arguments.length < 3 || arguments.length > 5) { badUse("toppartitions requires ks, cf and duration args, and optionally the count and capacity"); }
+                    int partitionCount = arguments.length > 3 ? Integer.parseInt(arguments[3]) : 10;
+                    int samplerCapacity = arguments.length > 4 ? Integer.parseInt(arguments[4]) : 256;
+                    nodeCmd.printTopPartitions(arguments[0], arguments[1], Integer.parseInt(arguments[2]), partitionCount, samplerCapacity, System.out);
+                    break;
+
                 case GETSSTABLES:
                     if (arguments.length != 3) { badUse("getsstables requires ks, cf and key args"); }
                     nodeCmd.printSSTables(arguments[0], arguments[1], arguments[2], System.out);
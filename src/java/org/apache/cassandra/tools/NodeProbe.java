@@ -29,10 +29,12 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
 import javax.management.*;
 import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
 import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
@@ -42,6 +44,7 @@ import javax.management.openmbean.TabularData;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutorMBean;
 import org.apache.cassandra.db.ColumnFamilyStoreMBean;
@@ -571,6 +574,30 @@ public class NodeProbe
         return cfsProxy.getSSTablesForKey(key);
     }
 
+    /**
+     * Samples the partitions of a table for duration milliseconds.
+     *
+     * @return the result of each of the given samplers, by sampler name
+     */
+    public Map<String, CompositeData> getPartitionSample(String keyspace, String cf, int capacity, int duration, int count, List<String> samplers)
+    {
+        ColumnFamilyStoreMBean cfsProxy = getCfsProxy(keyspace, cf);
+        for (String sampler : samplers)
+            cfsProxy.beginLocalSampling(sampler, capacity);
+        Uninterruptibles.sleepUninterruptibly(duration, TimeUnit.MILLISECONDS);
+        Map<String, CompositeData> result = new LinkedHashMap<String, CompositeData>();
+        try
+        {
+            for (String sampler : samplers)
+                result.put(sampler, cfsProxy.finishLocalSampling(sampler, count));
+        }
+        catch (OpenDataException e)
+        {
+            throw new RuntimeException("Error while finishing sampling", e);
+        }
+        return result;
+    }
+
     public Set<StreamState> getStreamStatus()
     {
         return Sets.newHashSet(Iterables.transform(streamProxy.getCurrentStreams(), new Function<CompositeData, StreamState>()
@@ -18,9 +18,13 @@
 package org.apache.cassandra.utils;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class Allocator
 {
+    // heap reported through addOverhead, see getOwnedSize
+    private final AtomicLong overhead = new AtomicLong();
+
     /**
      * Allocate a slice of the given length.
      */
@@ -37,5 +41,61 @@ public abstract class Allocator
 
     public abstract ByteBuffer allocate(int size);
 
-    public abstract long getMinimumSize();
+    /**
+     * @return the exact number of bytes of memory claimed by this allocator so far.  Regions are accounted for as a
+     * whole as soon as they are claimed, since they are retained until everything allocated from them is released.
+     */
+    public abstract long getAllocatedSize();
+
+    /**
+     * Records that the owner of this allocator retains {@code size} more bytes of heap (or fewer, if negative) for
+     * the data it allocated, that weren't claimed through {@link #allocate(int)}: the objects holding the allocated
+     * buffers, for instance.
+     */
+    public void addOverhead(long size)
+    {
+        overhead.addAndGet(size);
+    }
+
+    /**
+     * @return the number of bytes of memory retained on behalf of the owner of this allocator: the bytes claimed by
+     * the allocator itself, plus the overhead reported to it.
+     */
+    public long getOwnedSize()
+    {
+        return getAllocatedSize() + overhead.get();
+    }
+
+    /**
+     * @return the part of {@link #getOwnedSize()} retained on the java heap
+     */
+    public long getOnHeapSize()
+    {
+        return (isOffHeap() ? 0 : getAllocatedSize()) + overhead.get();
+    }
+
+    /**
+     * @return the part of {@link #getOwnedSize()} retained in native memory
+     */
+    public long getOffHeapSize()
+    {
+        return isOffHeap() ? getAllocatedSize() : 0;
+    }
+
+    /**
+     * @return true if the buffers handed out by this allocator live outside of the java heap, in which case they
+     * are only valid until {@link #free()} is called.
+     */
+    public boolean isOffHeap()
+    {
+        return false;
+    }
+
+    /**
+     * Release the memory backing every buffer allocated so far.  This is a no-op for on-heap allocators, whose
+     * buffers are reclaimed by the garbage collector.
+     */
+    public void free()
+    {
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.utils.obs.IBitSet;
+
+/**
+ * A bloom filter that sets all the bits of a key in a single block of 512 bits (a cache line), chosen by the
+ * first half of the key's hash, so that a lookup costs one cache miss instead of one per hash.  The bits
+ * within the block are derived from the second half of the hash.
+ *
+ * Keys are not spread as evenly as in a standard filter, since some blocks get more keys than others, so
+ * a blocked filter needs a few more bits per key for the same false positive chance; see spec().
+ */
+public class BlockedBloomFilter extends BloomFilter
+{
+    public static final BlockedBloomFilterSerializer serializer = new BlockedBloomFilterSerializer();
+
+    public static final int BLOCK_BITS = 512;
+    private static final int BLOCK_MASK = BLOCK_BITS - 1;
+
+    /** the most bits per key added to those of a standard filter to meet a false positive chance */
+    private static final int MAX_EXTRA_BUCKETS = 8;
+    private static final int MAX_HASHES = 20;
+
+    private final long numBlocks;
+
+    public BlockedBloomFilter(int hashes, IBitSet bs)
+    {
+        super(hashes, bs);
+        assert bs.capacity() % BLOCK_BITS == 0 && bs.capacity() > 0 : bs.capacity();
+        this.numBlocks = bs.capacity() / BLOCK_BITS;
+    }
+
+    public long serializedSize()
+    {
+        return serializer.serializedSize(this, TypeSizes.NATIVE);
+    }
+
+    protected long[] hash(ByteBuffer b, int position, int remaining, long seed)
+    {
+        return MurmurHash.hash3_x64_128(b, position, remaining, seed);
+    }
+
+    @Override
+    public void add(ByteBuffer key)
+    {
+        long[] hash = hash(key, key.position(), key.remaining(), 0L);
+        long block = blockOffset(hash);
+        int bit = (int) hash[1];
+        int step = (int) (hash[1] >>> 32) | 1; // odd, so the bits of a key are distinct
+        for (int i = 0; i < hashCount; i++, bit += step)
+            bitset.set(block + (bit & BLOCK_MASK));
+    }
+
+    @Override
+    public boolean isPresent(ByteBuffer key)
+    {
+        long[] hash = hash(key, key.position(), key.remaining(), 0L);
+        long block = blockOffset(hash);
+        int bit = (int) hash[1];
+        int step = (int) (hash[1] >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++, bit += step)
+        {
+            if (!bitset.get(block + (bit & BLOCK_MASK)))
+                return false;
+        }
+        return true;
+    }
+
+    private long blockOffset(long[] hash)
+    {
+        return ((hash[0] >>> 1) % numBlocks) * BLOCK_BITS;
+    }
+
+    /**
+     * @return the number of bits of a filter of numElements keys at bucketsPerElement bits per key, in whole blocks
+     */
+    static long numBits(long numElements, int bucketsPerElement)
+    {
+        long blocks = (numElements * bucketsPerElement + BLOCK_BITS - 1) / BLOCK_BITS;
+        return Math.max(1, blocks) * BLOCK_BITS;
+    }
+
+    /**
+     * @return the smallest specification giving a blocked filter at most the false positive chance of a standard
+     * filter built with spec, adding up to MAX_EXTRA_BUCKETS bits per key
+     */
+    static BloomCalculations.BloomSpecification spec(BloomCalculations.BloomSpecification spec)
+    {
+        double target = BloomCalculations.probs[spec.bucketsPerElement][spec.K];
+        BloomCalculations.BloomSpecification best = null;
+        for (int buckets = spec.bucketsPerElement; buckets <= spec.bucketsPerElement + MAX_EXTRA_BUCKETS; buckets++)
+        {
+            double bestFp = 1.0;
+            for (int k = 1; k <= MAX_HASHES; k++)
+            {
+                double fp = falsePositiveChance(buckets, k);
+                if (fp < bestFp)
+                {
+                    bestFp = fp;
+                    best = new BloomCalculations.BloomSpecification(k, buckets);
+                }
+            }
+            if (bestFp <= target)
+                break;
+        }
+        return best;
+    }
+
+    /**
+     * The expected false positive chance of a blocked filter: the number of keys in the block of a key follows a
+     * Poisson distribution of mean BLOCK_BITS / bucketsPerElement, and the chance for a block of n keys is that of
+     * a standard filter of n keys over BLOCK_BITS bits.
+     */
+    static double falsePositiveChance(int bucketsPerElement, int hashCount)
+    {
+        double mean = (double) BLOCK_BITS / bucketsPerElement;
+        int maxKeys = (int) (mean + 20 * Math.sqrt(mean) + 20);
+        double probability = Math.exp(-mean); // of n keys in the block
+        double fp = 0;
+        for (int n = 0; n <= maxKeys; n++)
+        {
+            double unset = Math.pow(1 - 1.0 / BLOCK_BITS, (double) hashCount * n);
+            fp += probability * Math.pow(1 - unset, hashCount);
+            probability *= mean / (n + 1);
+        }
+        return fp;
+    }
+
+    /**
+     * Writes a negative marker before the hash count of a standard filter, so that FilterFactory can tell both
+     * kinds of filter apart.
+     */
+    public static class BlockedBloomFilterSerializer extends BloomFilterSerializer
+    {
+        static final int MARKER = -1;
+
+        @Override
+        public void serialize(BloomFilter bf, DataOutput out) throws IOException
+        {
+            out.writeInt(MARKER);
+            super.serialize(bf, out);
+        }
+
+        @Override
+        public BloomFilter deserialize(DataInput in, boolean offheap) throws IOException
+        {
+            int marker = in.readInt();
+            if (marker != MARKER)
+                throw new IOException("Not a blocked bloom filter: " + marker);
+            return deserialize(in, in.readInt(), offheap);
+        }
+
+        protected BloomFilter createFilter(int hashes, IBitSet bs)
+        {
+            return new BlockedBloomFilter(hashes, bs);
+        }
+
+        @Override
+        public long serializedSize(BloomFilter bf, TypeSizes typeSizes)
+        {
+            return typeSizes.sizeof(MARKER) + super.serializedSize(bf, typeSizes);
+        }
+    }
+}
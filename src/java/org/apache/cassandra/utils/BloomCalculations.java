@@ -26,7 +26,7 @@ package org.apache.cassandra.utils;
  * Filter class by helping to choose correct values of 'bits per element' and
  * 'number of hash functions, k'.
  */
-class BloomCalculations {
+public class BloomCalculations {
 
     private static final int minBuckets = 2;
     private static final int minK = 1;
@@ -122,6 +122,16 @@ class BloomCalculations {
         }
     }
 
+    /**
+     * @return the lowest false positive chance a bloom filter can be built for.
+     */
+    public static double minSupportedBloomFilterFpChance()
+    {
+        int maxBuckets = probs.length - 1;
+        int maxK = probs[maxBuckets].length - 1;
+        return probs[maxBuckets][maxK];
+    }
+
     /**
      * Given a maximum tolerable false positive probability, compute a Bloom
      * specification which will give less than the specified false positive rate,
@@ -42,7 +42,14 @@ abstract class BloomFilterSerializer implements ISerializer<BloomFilter>
 
     public BloomFilter deserialize(DataInput in, boolean offheap) throws IOException
     {
-        int hashes = in.readInt();
+        return deserialize(in, in.readInt(), offheap);
+    }
+
+    /**
+     * Deserializes the rest of a filter whose hash count was already read.
+     */
+    BloomFilter deserialize(DataInput in, int hashes, boolean offheap) throws IOException
+    {
         IBitSet bs = offheap ? OffHeapBitSet.deserialize(in) : OpenBitSet.deserialize(in);
         return createFilter(hashes, bs);
     }
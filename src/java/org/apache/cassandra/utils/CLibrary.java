@@ -184,11 +184,17 @@ public final class CLibrary
 
     public static int tryOpenDirectory(String path)
     {
-        int fd = -1;
+        return tryOpen(path, O_RDONLY);
+    }
+
+    public static void trySync(int fd)
+    {
+        if (fd == -1)
+            return;
 
         try
         {
-            return open(path, O_RDONLY);
+            fsync(fd);
         }
         catch (UnsatisfiedLinkError e)
         {
@@ -199,20 +205,18 @@ public final class CLibrary
             if (!(e instanceof LastErrorException))
                 throw e;
 
-            logger.warn(String.format("open(%s, O_RDONLY) failed, errno (%d).", path, CLibrary.errno(e)));
+            logger.warn(String.format("fsync(%d) failed, errno (%d).", fd, CLibrary.errno(e)));
         }
-
-        return fd;
     }
 
-    public static void trySync(int fd)
+    public static void tryCloseFD(int fd)
     {
         if (fd == -1)
             return;
 
         try
         {
-            fsync(fd);
+            close(fd);
         }
         catch (UnsatisfiedLinkError e)
         {
@@ -223,32 +227,81 @@ public final class CLibrary
             if (!(e instanceof LastErrorException))
                 throw e;
 
-            logger.warn(String.format("fsync(%d) failed, errno (%d).", fd, CLibrary.errno(e)));
+            logger.warn(String.format("close(%d) failed, errno (%d).", fd, CLibrary.errno(e)));
         }
     }
 
-    public static void tryCloseFD(int fd)
+    /**
+     * Tells the OS that a file will be read sequentially, so it reads ahead more aggressively.
+     */
+    public static void trySequential(int fd)
     {
-        if (fd == -1)
+        tryFadvise(fd, 0, 0, POSIX_FADV_SEQUENTIAL);
+    }
+
+    /**
+     * Asks the OS to read part of an open file into the page cache in the background.
+     */
+    public static void tryWillNeed(int fd, long offset, int len)
+    {
+        tryFadvise(fd, offset, len, POSIX_FADV_WILLNEED);
+    }
+
+    private static void tryFadvise(int fd, long offset, int len, int advice)
+    {
+        if (fd < 0 || !jnaAvailable)
             return;
 
         try
         {
-            close(fd);
+            posix_fadvise(fd, offset, len, advice);
         }
         catch (UnsatisfiedLinkError e)
         {
-            // JNA is unavailable just skipping Direct I/O
+            // JNA is unavailable, this is only a hint anyway
         }
         catch (RuntimeException e)
         {
             if (!(e instanceof LastErrorException))
                 throw e;
 
-            logger.warn(String.format("close(%d) failed, errno (%d).", fd, CLibrary.errno(e)));
+            logger.debug(String.format("posix_fadvise(%d, %d, %d, %d) failed, errno (%d).", fd, offset, len, advice, CLibrary.errno(e)));
         }
     }
 
+    /**
+     * Opens a file for reading, to hand its descriptor to the other try* methods.
+     *
+     * @return the file descriptor, or -1 if JNA is unavailable or the file couldn't be opened
+     */
+    public static int tryOpen(String path)
+    {
+        return tryOpen(path, O_RDONLY);
+    }
+
+    private static int tryOpen(String path, int flags)
+    {
+        if (!jnaAvailable)
+            return -1;
+
+        try
+        {
+            return open(path, flags);
+        }
+        catch (UnsatisfiedLinkError e)
+        {
+            // JNA is unavailable
+        }
+        catch (RuntimeException e)
+        {
+            if (!(e instanceof LastErrorException))
+                throw e;
+
+            logger.warn(String.format("open(%s, %d) failed, errno (%d).", path, flags, CLibrary.errno(e)));
+        }
+        return -1;
+    }
+
     /**
      * Get system file descriptor from FileDescriptor object.
      * @param descriptor - FileDescriptor objec to get fd from
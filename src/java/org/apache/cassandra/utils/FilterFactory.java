@@ -20,8 +20,10 @@ package org.apache.cassandra.utils;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.apache.cassandra.db.TypeSizes;
+import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.utils.obs.IBitSet;
 import org.apache.cassandra.utils.obs.OffHeapBitSet;
 import org.apache.cassandra.utils.obs.OpenBitSet;
@@ -36,14 +38,42 @@ public class FilterFactory
     private static final Logger logger = LoggerFactory.getLogger(FilterFactory.class);
     private static final long BITSET_EXCESS = 20;
 
+    /**
+     * The kinds of bloom filter a table can use, see BlockedBloomFilter.
+     */
+    public enum Type
+    {
+        STANDARD, BLOCKED;
+
+        public static Type fromString(String name) throws ConfigurationException
+        {
+            try
+            {
+                return valueOf(name.toUpperCase());
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new ConfigurationException(String.format("Invalid bloom filter type '%s', should be one of %s",
+                                                               name, Arrays.toString(values())));
+            }
+        }
+    }
+
     public static void serialize(IFilter bf, DataOutput output) throws IOException
     {
-        Murmur3BloomFilter.serializer.serialize((Murmur3BloomFilter) bf, output);
+        if (bf instanceof BlockedBloomFilter)
+            BlockedBloomFilter.serializer.serialize((BlockedBloomFilter) bf, output);
+        else
+            Murmur3BloomFilter.serializer.serialize((Murmur3BloomFilter) bf, output);
     }
 
     public static IFilter deserialize(DataInput input, boolean offheap) throws IOException
     {
-        return Murmur3BloomFilter.serializer.deserialize(input, offheap);
+        // the hash count of a standard filter, or the marker of a blocked one
+        int hashes = input.readInt();
+        if (hashes == BlockedBloomFilter.BlockedBloomFilterSerializer.MARKER)
+            return BlockedBloomFilter.serializer.deserialize(input, input.readInt(), offheap);
+        return Murmur3BloomFilter.serializer.deserialize(input, hashes, offheap);
     }
 
     /**
@@ -70,12 +100,23 @@ public class FilterFactory
      *         filter.
      */
     public static IFilter getFilter(long numElements, double maxFalsePosProbability, boolean offheap)
+    {
+        return getFilter(numElements, maxFalsePosProbability, Type.STANDARD, offheap);
+    }
+
+    /**
+     * @return The smallest filter of the given type that can provide the given false positive probability
+     *         rate for the given number of elements, or as close as a blocked filter gets to it.
+     */
+    public static IFilter getFilter(long numElements, double maxFalsePosProbability, Type type, boolean offheap)
     {
         assert maxFalsePosProbability <= 1.0 : "Invalid probability";
         if (maxFalsePosProbability == 1.0)
             return new AlwaysPresentFilter();
         int bucketsPerElement = BloomCalculations.maxBucketsPerElement(numElements);
         BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(bucketsPerElement, maxFalsePosProbability);
+        if (type == Type.BLOCKED)
+            return createBlockedFilter(BlockedBloomFilter.spec(spec), numElements, offheap);
         return createFilter(spec.K, numElements, spec.bucketsPerElement, offheap);
     }
 
@@ -85,4 +126,11 @@ public class FilterFactory
         IBitSet bitset = offheap ? new OffHeapBitSet(numBits) : new OpenBitSet(numBits);
         return new Murmur3BloomFilter(hash, bitset);
     }
+
+    private static IFilter createBlockedFilter(BloomCalculations.BloomSpecification spec, long numElements, boolean offheap)
+    {
+        long numBits = BlockedBloomFilter.numBits(numElements, spec.bucketsPerElement);
+        IBitSet bitset = offheap ? new OffHeapBitSet(numBits) : new OpenBitSet(numBits);
+        return new BlockedBloomFilter(spec.K, bitset);
+    }
 }
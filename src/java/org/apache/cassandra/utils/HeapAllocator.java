@@ -18,24 +18,39 @@
 package org.apache.cassandra.utils;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class HeapAllocator extends Allocator
 {
-    public static final HeapAllocator instance = new HeapAllocator();
+    public static final HeapAllocator instance = new HeapAllocator(false);
+
+    // null for the shared instance, whose allocations aren't owned by anything worth accounting for
+    private final AtomicLong allocated;
 
     /**
      * Normally you should use HeapAllocator.instance, since there is no per-Allocator state.
-     * This is exposed so that the reflection done by Memtable works when SlabAllocator is disabled.
+     * This is exposed so that the reflection done by Memtable works when SlabAllocator is disabled,
+     * in which case the memtable's allocations are accounted for.
      */
-    public HeapAllocator() {}
+    public HeapAllocator()
+    {
+        this(true);
+    }
+
+    private HeapAllocator(boolean accounted)
+    {
+        allocated = accounted ? new AtomicLong() : null;
+    }
 
     public ByteBuffer allocate(int size)
     {
+        if (allocated != null)
+            allocated.addAndGet(ObjectSizes.getArraySize(size, 1));
         return ByteBuffer.allocate(size);
     }
 
-    public long getMinimumSize()
+    public long getAllocatedSize()
     {
-        return 0;
+        return allocated == null ? 0 : allocated.get();
     }
 }
@@ -119,6 +119,16 @@ public class ObjectSizes
         return size;
     }
 
+    /**
+     * Memory a byte buffer consumes, not counting the bytes it wraps (which may be shared with other buffers)
+     * @return In-memory size of the byte buffer object alone
+     */
+    public static long getEmptyBufferSize()
+    {
+        return ObjectSizes.getFieldSize(1L + 4 + ObjectSizes.getReferenceSize())
+             + ObjectSizes.getSuperClassFieldSize(4L + 4 + 4 + 4 + 8);
+    }
+
     public static long roundTo(long x, int multiple)
     {
         return ((x + multiple - 1) / multiple) * multiple;
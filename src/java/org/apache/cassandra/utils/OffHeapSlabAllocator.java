@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.io.util.Memory;
+
+/**
+ * A bump-the-pointer allocator like {@link SlabAllocator}, except that the regions are allocated
+ * in native memory (through the configured memory_allocator) instead of on the java heap.
+ * <p/>
+ * Memtable data allocated this way is invisible to the garbage collector, so memtables can be made
+ * much larger without promoting anything to the old generation.  The price is that the memory has to be
+ * released explicitly: every region is kept until {@link #free()} is called, which the owning Memtable does
+ * once it has been flushed and no reader references it anymore.  Buffers obtained from this allocator must
+ * not be used after that point.
+ */
+public class OffHeapSlabAllocator extends Allocator
+{
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapSlabAllocator.class);
+
+    private final static int REGION_SIZE = 1024 * 1024;
+    private final static int MAX_CLONED_SIZE = 128 * 1024; // bigger than this get their own region
+
+    private final AtomicReference<Region> currentRegion = new AtomicReference<Region>();
+    private final Queue<Memory> regions = new ConcurrentLinkedQueue<Memory>();
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private volatile boolean freed;
+
+    public ByteBuffer allocate(int size)
+    {
+        assert size >= 0;
+        assert !freed : "Allocating from a freed allocator";
+        if (size == 0)
+            return ByteBufferUtil.EMPTY_BYTE_BUFFER;
+
+        // large allocations would fill up our regions quickly, so give them a dedicated one
+        if (size > MAX_CLONED_SIZE)
+            return allocateRegion(size).asByteBuffer(0, size);
+
+        while (true)
+        {
+            Region region = getRegion();
+
+            // Try to allocate from this region
+            ByteBuffer cloned = region.allocate(size);
+            if (cloned != null)
+                return cloned;
+
+            // not enough space!
+            currentRegion.compareAndSet(region, null);
+        }
+    }
+
+    /**
+     * Get the current region, or, if there is no current region, allocate a new one
+     */
+    private Region getRegion()
+    {
+        while (true)
+        {
+            Region region = currentRegion.get();
+            if (region != null)
+                return region;
+
+            // malloc'ing a region is cheap enough that we don't bother with SlabAllocator's
+            // two-step initialization: the loser of the race just gives its memory back
+            region = new Region(Memory.allocate(REGION_SIZE));
+            if (currentRegion.compareAndSet(null, region))
+            {
+                track(region.data);
+                logger.trace("{} bytes now allocated in {}", allocatedBytes, this);
+                return region;
+            }
+            region.data.free();
+        }
+    }
+
+    private Memory allocateRegion(int size)
+    {
+        Memory memory = Memory.allocate(size);
+        track(memory);
+        return memory;
+    }
+
+    private void track(Memory memory)
+    {
+        regions.add(memory);
+        allocatedBytes.addAndGet(memory.size());
+    }
+
+    /**
+     * @return the number of bytes of native memory currently held by this allocator
+     */
+    public long getAllocatedSize()
+    {
+        return allocatedBytes.get();
+    }
+
+    public boolean isOffHeap()
+    {
+        return true;
+    }
+
+    public void free()
+    {
+        freed = true;
+        currentRegion.set(null);
+        Memory memory;
+        while ((memory = regions.poll()) != null)
+        {
+            allocatedBytes.addAndGet(-memory.size());
+            memory.free();
+        }
+    }
+
+    /**
+     * A region of native memory out of which allocations are sliced.
+     */
+    private static class Region
+    {
+        private final Memory data;
+
+        /**
+         * Offset for the next allocation
+         */
+        private final AtomicInteger nextFreeOffset = new AtomicInteger(0);
+
+        private Region(Memory data)
+        {
+            this.data = data;
+        }
+
+        /**
+         * Try to allocate <code>size</code> bytes from the region.
+         *
+         * @return the successful allocation, or null to indicate not-enough-space
+         */
+        public ByteBuffer allocate(int size)
+        {
+            while (true)
+            {
+                int oldOffset = nextFreeOffset.get();
+                if (oldOffset + size > data.size())
+                    return null;
+
+                // Try to atomically claim this region
+                if (nextFreeOffset.compareAndSet(oldOffset, oldOffset + size))
+                    return data.asByteBuffer(oldOffset, size);
+                // we raced and lost alloc, try again
+            }
+        }
+    }
+}
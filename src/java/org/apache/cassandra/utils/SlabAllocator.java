@@ -61,7 +61,7 @@ public class SlabAllocator extends Allocator
         // as badly, and fill up our regions quickly
         if (size > MAX_CLONED_SIZE)
         {
-            unslabbed.addAndGet(size);
+            unslabbed.addAndGet(ObjectSizes.getArraySize(size, 1));
             return ByteBuffer.allocate(size);
         }
 
@@ -109,11 +109,11 @@ public class SlabAllocator extends Allocator
     }
 
     /**
-     * @return a lower bound on how much space has been allocated
+     * @return the bytes of the regions claimed so far, plus the ones of the allocations too large for a region
      */
-    public long getMinimumSize()
+    public long getAllocatedSize()
     {
-        return unslabbed.get() + (regionCount.get() - 1) * (long)REGION_SIZE;
+        return unslabbed.get() + regionCount.get() * (long)REGION_SIZE;
     }
 
     /**
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.*;
+
+/**
+ * Estimates the most frequent items of a stream in a bounded amount of memory.
+ *
+ * The algorithm (Space-Saving) is taken from following paper:
+ * Ahmed Metwally, Divyakant Agrawal and Amr El Abbadi, "Efficient Computation of Frequent and Top-k Elements
+ * in Data Streams" (2005)
+ *
+ * At most capacity items are counted at a time: an item that isn't counted yet replaces the one with the lowest
+ * count, and inherits that count as its possible overestimation.  Any item whose frequency is greater than
+ * 1/capacity of the stream is thus guaranteed to be counted.  Not thread safe.
+ */
+public class StreamSummary<T>
+{
+    private final int capacity;
+
+    private final Map<T, Counter<T>> counters;
+    // counters by ascending count, the first one being the next to be replaced
+    private final TreeSet<Counter<T>> byCount = new TreeSet<Counter<T>>();
+
+    private long offered;
+    // disambiguates counters with the same count, so that the oldest ones are replaced first
+    private long sequence;
+
+    /**
+     * @param capacity maximum number of items counted
+     */
+    public StreamSummary(int capacity)
+    {
+        assert capacity > 0;
+        this.capacity = capacity;
+        this.counters = new HashMap<T, Counter<T>>(capacity);
+    }
+
+    public void offer(T item)
+    {
+        offer(item, 1);
+    }
+
+    /**
+     * Adds increment occurrences of item to the stream.
+     */
+    public void offer(T item, long increment)
+    {
+        offered += increment;
+
+        Counter<T> counter = counters.get(item);
+        if (counter != null)
+        {
+            byCount.remove(counter);
+            counter.count += increment;
+            counter.sequence = sequence++;
+            byCount.add(counter);
+            return;
+        }
+
+        if (counters.size() < capacity)
+        {
+            counter = new Counter<T>(item, increment, 0, sequence++);
+        }
+        else
+        {
+            Counter<T> min = byCount.pollFirst();
+            counters.remove(min.item);
+            counter = new Counter<T>(item, min.count + increment, min.count, sequence++);
+        }
+        counters.put(item, counter);
+        byCount.add(counter);
+    }
+
+    /**
+     * @return the (up to) k items with the highest counts, the highest first
+     */
+    public List<Counter<T>> topK(int k)
+    {
+        List<Counter<T>> top = new ArrayList<Counter<T>>(Math.min(k, counters.size()));
+        for (Counter<T> counter : byCount.descendingSet())
+        {
+            if (top.size() == k)
+                break;
+            top.add(new Counter<T>(counter.item, counter.count, counter.error, counter.sequence));
+        }
+        return top;
+    }
+
+    /**
+     * @return the total of the increments offered so far
+     */
+    public long offered()
+    {
+        return offered;
+    }
+
+    public int size()
+    {
+        return counters.size();
+    }
+
+    public static class Counter<T> implements Comparable<Counter<T>>
+    {
+        public final T item;
+        private long count;
+        private final long error;
+        private long sequence;
+
+        private Counter(T item, long count, long error, long sequence)
+        {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return the estimated number of occurrences of the item, which is never less than the actual one
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return the maximum overestimation of the count
+         */
+        public long getError()
+        {
+            return error;
+        }
+
+        public int compareTo(Counter<T> that)
+        {
+            if (count != that.count)
+                return count < that.count ? -1 : 1;
+            return sequence < that.sequence ? -1 : (sequence == that.sequence ? 0 : 1);
+        }
+
+        @Override
+        public String toString()
+        {
+            return item + "=" + count + "(+/-" + error + ")";
+        }
+    }
+}
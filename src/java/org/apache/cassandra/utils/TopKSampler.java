@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.cassandra.concurrent.JMXEnabledThreadPoolExecutor;
+
+/**
+ * Finds the most frequent items of a stream (the hottest partitions of a table for instance) during a sampling
+ * session, using a StreamSummary of the session's capacity.  Samples are dropped for free while no session is
+ * running; during a session, they are counted by a single background thread shared by all the samplers, so that
+ * the threads reporting them never contend on the summary.
+ */
+public class TopKSampler<T>
+{
+    private static final JMXEnabledThreadPoolExecutor samplerExecutor = new JMXEnabledThreadPoolExecutor("Sampler");
+
+    private volatile StreamSummary<T> summary;
+
+    /**
+     * Starts a new sampling session, discarding the current one if any.
+     *
+     * @param capacity the number of items counted; the larger, the more accurate the counts
+     */
+    public synchronized void beginSampling(int capacity)
+    {
+        summary = new StreamSummary<T>(capacity);
+    }
+
+    /**
+     * Ends the current sampling session.
+     *
+     * @param count the number of items to return
+     * @return the most frequent items seen during the session, or an empty result if none was running
+     */
+    public synchronized SamplerResult<T> finishSampling(int count)
+    {
+        StreamSummary<T> finished = summary;
+        summary = null;
+        if (finished == null)
+            return new SamplerResult<T>(Collections.<StreamSummary.Counter<T>>emptyList(), 0);
+
+        synchronized (finished)
+        {
+            return new SamplerResult<T>(finished.topK(count), finished.offered());
+        }
+    }
+
+    public void addSample(T item)
+    {
+        addSample(item, 1);
+    }
+
+    /**
+     * Counts value occurrences of item, if a sampling session is running.
+     */
+    public void addSample(final T item, final long value)
+    {
+        final StreamSummary<T> current = summary;
+        if (current == null)
+            return;
+
+        samplerExecutor.execute(new Runnable()
+        {
+            public void run()
+            {
+                // a sample queued before its session was finished is simply lost
+                synchronized (current)
+                {
+                    current.offer(item, value);
+                }
+            }
+        });
+    }
+
+    public static class SamplerResult<T>
+    {
+        /** the most frequent items, the most frequent first */
+        public final List<StreamSummary.Counter<T>> topK;
+        /** the total of the values sampled during the session */
+        public final long total;
+
+        public SamplerResult(List<StreamSummary.Counter<T>> topK, long total)
+        {
+            this.topK = topK;
+            this.total = total;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils.btree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.apache.cassandra.utils.ObjectSizes;
+
+/**
+ * A persistent (copy-on-write) B-tree of distinct values, represented with nothing but Object[] nodes.
+ * <p/>
+ * A tree is never modified once built: {@link #update} returns a new tree that shares every node the
+ * update did not touch with the original, so holding a reference to a root is enough to get a consistent
+ * snapshot.  Updates are applied as a sorted batch in a single descent, each modified node being copied
+ * once no matter how many of the updated values it receives.
+ * <p/>
+ * Node layout:
+ * <ul>
+ *   <li>a leaf is an array of keys, padded with a trailing null when the key count is even (so leaves always
+ *   have an odd length);</li>
+ *   <li>a branch holding n keys is an array of length 2n + 2: the n keys, the n + 1 children, and a trailing
+ *   null (so branches always have an even length).</li>
+ * </ul>
+ * Every node holds at most {@link #FAN_FACTOR} keys, and all leaves are at the same depth.
+ */
+public class BTree
+{
+    public static final int FAN_SHIFT = 5;
+    // the maximum number of keys held by a node
+    public static final int FAN_FACTOR = 1 << FAN_SHIFT;
+    // more than enough for any tree of at most Integer.MAX_VALUE values
+    static final int MAX_DEPTH = 16;
+
+    /**
+     * The heap retained by a tree for each of its values, amortized: the slot of the value, plus its share of the
+     * header of its node and of the slot referencing that node from its parent, nodes being at least half full
+     * once split.
+     */
+    public static final long HEAP_SIZE_PER_VALUE = ObjectSizes.getReferenceSize()
+                                                 + (ObjectSizes.getArraySize(0, ObjectSizes.getReferenceSize()) + ObjectSizes.getReferenceSize()) / (FAN_FACTOR / 2);
+
+    static final Object[] EMPTY_LEAF = new Object[1];
+
+    public static Object[] empty()
+    {
+        return EMPTY_LEAF;
+    }
+
+    /**
+     * @param source the values to build the tree from, in comparator order and without duplicates
+     */
+    public static Object[] build(Collection<?> source)
+    {
+        if (source.isEmpty())
+            return EMPTY_LEAF;
+        Object[] keys = source.toArray();
+        return fitRoot(leaf(keys, 0, keys.length));
+    }
+
+    /**
+     * Returns a new tree containing the values of {@code btree} merged with {@code updateWith}.  The original
+     * tree is left untouched.
+     *
+     * @param updateWith the values to add, in comparator order and without duplicates
+     * @param updateF decides the value to store for new and existing keys; may abort the update
+     * @return the new tree, or null if {@code updateF} asked to abort
+     */
+    public static <V> Object[] update(Object[] btree, Comparator<? super V> comparator, Collection<V> updateWith, UpdateFunction<V> updateF)
+    {
+        if (updateWith.isEmpty())
+            return btree;
+
+        Object[] updates = updateWith.toArray();
+        Object[] result = update(btree, comparator, updates, 0, updates.length, updateF);
+        return result == null ? null : fitRoot(result);
+    }
+
+    /**
+     * @return the value of the tree equal to {@code key} according to {@code comparator}, or null
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> V find(Object[] btree, Comparator<? super V> comparator, V key)
+    {
+        Object[] node = btree;
+        while (true)
+        {
+            int keyEnd = getKeyEnd(node);
+            int i = find(comparator, key, node, 0, keyEnd);
+            if (i >= 0)
+                return (V) node[i];
+            if (isLeaf(node))
+                return null;
+            node = (Object[]) node[keyEnd - i - 1];
+        }
+    }
+
+    /**
+     * @return the number of values in the tree.  This walks every node, so isn't free for large trees.
+     */
+    public static int size(Object[] btree)
+    {
+        int keyEnd = getKeyEnd(btree);
+        if (isLeaf(btree))
+            return keyEnd;
+
+        int size = keyEnd;
+        for (int i = keyEnd; i < btree.length - 1; i++)
+            size += size((Object[]) btree[i]);
+        return size;
+    }
+
+    public static boolean isEmpty(Object[] btree)
+    {
+        return btree.length == 1 && btree[0] == null;
+    }
+
+    /**
+     * @return an iterator over all the values of the tree, in comparator order or in reverse
+     */
+    public static <V> Cursor<V> slice(Object[] btree, boolean forwards)
+    {
+        return new Cursor<V>(btree, null, null, null, forwards);
+    }
+
+    /**
+     * @param start the lowest value to return (inclusive), or null to start from the beginning of the tree
+     * @param end the highest value to return (inclusive), or null to go until the end of the tree
+     * @return an iterator over the values between start and end, in comparator order or in reverse
+     */
+    public static <V> Cursor<V> slice(Object[] btree, Comparator<? super V> comparator, V start, V end, boolean forwards)
+    {
+        return new Cursor<V>(btree, comparator, start, end, forwards);
+    }
+
+    // UPDATE
+
+    /**
+     * Merges updates[from, to) into the subtree rooted at node.  The result may hold more than FAN_FACTOR keys,
+     * in which case it is up to the caller to split it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Object[] update(Object[] node, Comparator<? super V> comparator, Object[] updates, int from, int to, UpdateFunction<V> updateF)
+    {
+        int keyEnd = getKeyEnd(node);
+        if (isLeaf(node))
+        {
+            Object[] merged = new Object[keyEnd + to - from];
+            int count = 0, i = 0, j = from;
+            while (i < keyEnd && j < to)
+            {
+                int c = comparator.compare((V) node[i], (V) updates[j]);
+                if (c < 0)
+                    merged[count++] = node[i++];
+                else if (c > 0)
+                    merged[count++] = updateF.apply((V) updates[j++]);
+                else
+                    merged[count++] = updateF.apply((V) node[i++], (V) updates[j++]);
+            }
+            while (i < keyEnd)
+                merged[count++] = node[i++];
+            while (j < to)
+                merged[count++] = updateF.apply((V) updates[j++]);
+
+            if (updateF.abortEarly())
+                return null;
+            return leaf(merged, 0, count);
+        }
+
+        // every update adds at most one key and one child to this node, splits included
+        int extra = to - from;
+        Object[] keys = new Object[keyEnd + extra];
+        Object[] children = new Object[keyEnd + 1 + extra];
+        int keyCount = 0, childCount = 0;
+
+        int j = from;
+        for (int i = 0; i <= keyEnd; i++)
+        {
+            // updates sorting before key i go to child i; the last child gets whatever remains
+            int childTo = i < keyEnd ? j + boundary(comparator, node[i], updates, j, to) : to;
+            Object[] child = (Object[]) node[keyEnd + i];
+            if (childTo > j)
+            {
+                child = update(child, comparator, updates, j, childTo, updateF);
+                if (child == null)
+                    return null;
+                j = childTo;
+                if (getKeyEnd(child) > FAN_FACTOR)
+                {
+                    Object[][] split = split(child);
+                    Object[] separators = split[0];
+                    for (int s = 0; s < separators.length; s++)
+                    {
+                        children[childCount++] = split[s + 1];
+                        keys[keyCount++] = separators[s];
+                    }
+                    child = split[split.length - 1];
+                }
+            }
+            children[childCount++] = child;
+
+            if (i < keyEnd)
+            {
+                if (j < to && comparator.compare((V) updates[j], (V) node[i]) == 0)
+                    keys[keyCount++] = updateF.apply((V) node[i], (V) updates[j++]);
+                else
+                    keys[keyCount++] = node[i];
+            }
+        }
+        return branch(keys, keyCount, children);
+    }
+
+    /**
+     * @return the number of updates in [from, to) that sort strictly before key
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> int boundary(Comparator<? super V> comparator, Object key, Object[] updates, int from, int to)
+    {
+        int i = find(comparator, (V) key, updates, from, to);
+        return (i >= 0 ? i : -i - 1) - from;
+    }
+
+    /**
+     * Adds levels on top of the given (possibly oversized) root until every node respects FAN_FACTOR
+     */
+    private static Object[] fitRoot(Object[] root)
+    {
+        while (getKeyEnd(root) > FAN_FACTOR)
+        {
+            Object[][] split = split(root);
+            Object[] separators = split[0];
+            Object[] children = Arrays.copyOfRange(split, 1, split.length, Object[].class);
+            root = branch(separators, separators.length, children);
+        }
+        return root;
+    }
+
+    /**
+     * Splits an oversized node into the fewest nodes of at most FAN_FACTOR keys each, of similar sizes.
+     *
+     * @return the separator keys to promote to the parent as the first element, followed by the new nodes
+     */
+    private static Object[][] split(Object[] node)
+    {
+        boolean leaf = isLeaf(node);
+        int keyEnd = getKeyEnd(node);
+        // each node but the last is followed by a separator
+        int nodeCount = (keyEnd + FAN_FACTOR + 1) / (FAN_FACTOR + 1);
+        int keysInNodes = keyEnd - (nodeCount - 1);
+
+        Object[][] result = new Object[nodeCount + 1][];
+        Object[] separators = new Object[nodeCount - 1];
+        result[0] = separators;
+
+        int key = 0;
+        for (int n = 0; n < nodeCount; n++)
+        {
+            int size = keysInNodes / nodeCount + (n < keysInNodes % nodeCount ? 1 : 0);
+            if (leaf)
+            {
+                result[n + 1] = leaf(node, key, key + size);
+            }
+            else
+            {
+                Object[] keys = Arrays.copyOfRange(node, key, key + size);
+                Object[] children = Arrays.copyOfRange(node, keyEnd + key, keyEnd + key + size + 1);
+                result[n + 1] = branch(keys, size, children);
+            }
+            key += size;
+            if (n < nodeCount - 1)
+                separators[n] = node[key++];
+        }
+        return result;
+    }
+
+    // NODES
+
+    static boolean isLeaf(Object[] node)
+    {
+        return (node.length & 1) == 1;
+    }
+
+    /**
+     * @return the number of keys in the node, which is also the index of its first child for a branch
+     */
+    static int getKeyEnd(Object[] node)
+    {
+        if (isLeaf(node))
+            return node[node.length - 1] == null ? node.length - 1 : node.length;
+        return node.length / 2 - 1;
+    }
+
+    private static Object[] leaf(Object[] keys, int from, int to)
+    {
+        int count = to - from;
+        if (count == 0)
+            return EMPTY_LEAF;
+        Object[] leaf = new Object[count | 1];
+        System.arraycopy(keys, from, leaf, 0, count);
+        return leaf;
+    }
+
+    private static Object[] branch(Object[] keys, int keyCount, Object[] children)
+    {
+        Object[] branch = new Object[2 * keyCount + 2];
+        System.arraycopy(keys, 0, branch, 0, keyCount);
+        System.arraycopy(children, 0, branch, keyCount, keyCount + 1);
+        return branch;
+    }
+
+    /**
+     * Binary search of key among a[from, to), with the same return convention as Arrays.binarySearch
+     */
+    @SuppressWarnings("unchecked")
+    static <V> int find(Comparator<? super V> comparator, V key, Object[] a, int from, int to)
+    {
+        int low = from, high = to - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int c = comparator.compare((V) a[mid], key);
+            if (c < 0)
+                low = mid + 1;
+            else if (c > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return true if every node respects FAN_FACTOR, all leaves are at the same depth and the values are
+     * sorted according to comparator.  For testing purposes.
+     */
+    public static <V> boolean isWellFormed(Object[] btree, Comparator<? super V> comparator)
+    {
+        return depth(btree, comparator, null, null) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> int depth(Object[] node, Comparator<? super V> comparator, V min, V max)
+    {
+        int keyEnd = getKeyEnd(node);
+        if (keyEnd > FAN_FACTOR)
+            return -1;
+        for (int i = 0; i < keyEnd; i++)
+        {
+            V key = (V) node[i];
+            if (key == null
+                || (i == 0 && min != null && comparator.compare(min, key) >= 0)
+                || (i > 0 && comparator.compare((V) node[i - 1], key) >= 0)
+                || (i == keyEnd - 1 && max != null && comparator.compare(key, max) >= 0))
+                return -1;
+        }
+        if (isLeaf(node))
+            return 0;
+
+        int depth = -1;
+        for (int i = 0; i <= keyEnd; i++)
+        {
+            V childMin = i == 0 ? min : (V) node[i - 1];
+            V childMax = i == keyEnd ? max : (V) node[i];
+            int childDepth = depth((Object[]) node[keyEnd + i], comparator, childMin, childMax);
+            if (childDepth < 0 || (depth >= 0 && childDepth != depth))
+                return -1;
+            depth = childDepth;
+        }
+        return depth + 1;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils.btree;
+
+import java.util.Comparator;
+
+import com.google.common.collect.AbstractIterator;
+
+import static org.apache.cassandra.utils.btree.BTree.getKeyEnd;
+import static org.apache.cassandra.utils.btree.BTree.isLeaf;
+
+/**
+ * An iterator over a slice of a {@link BTree}, in either direction.
+ * <p/>
+ * The path from the root to the current position is kept in a stack of (node, position) frames.  For a leaf,
+ * position is the index of the next key to return.  For a branch, we are currently inside the child at
+ * position, and once that child is exhausted the next key to return is the one at position (going forwards)
+ * or at position - 1 (going backwards).
+ * <p/>
+ * Since trees are immutable, a Cursor is unaffected by updates made after its creation.
+ */
+public class Cursor<V> extends AbstractIterator<V>
+{
+    private final Object[][] nodes = new Object[BTree.MAX_DEPTH][];
+    private final int[] positions = new int[BTree.MAX_DEPTH];
+    private int depth = -1;
+
+    private final Comparator<? super V> comparator;
+    private final V start;
+    private final V end;
+    private final boolean forwards;
+
+    Cursor(Object[] btree, Comparator<? super V> comparator, V start, V end, boolean forwards)
+    {
+        this.comparator = comparator;
+        this.start = start;
+        this.end = end;
+        this.forwards = forwards;
+
+        if (forwards)
+            seekForwards(btree, start);
+        else
+            seekBackwards(btree, end);
+    }
+
+    protected V computeNext()
+    {
+        V next = forwards ? nextForwards() : nextBackwards();
+        if (next == null)
+            return endOfData();
+
+        // the seek took care of the near bound, we only have to check the far one
+        if (forwards ? end != null && comparator.compare(next, end) > 0
+                     : start != null && comparator.compare(next, start) < 0)
+        {
+            depth = -1;
+            return endOfData();
+        }
+        return next;
+    }
+
+    private void push(Object[] node, int position)
+    {
+        depth++;
+        nodes[depth] = node;
+        positions[depth] = position;
+    }
+
+    // FORWARDS
+
+    /**
+     * Positions the cursor on the first key greater than or equal to start, or the first key of the tree if start is null
+     */
+    private void seekForwards(Object[] node, V start)
+    {
+        while (true)
+        {
+            int keyEnd = getKeyEnd(node);
+            int i = start == null ? -1 : BTree.find(comparator, start, node, 0, keyEnd);
+            if (i >= 0)
+            {
+                // for a branch, this means child i is considered exhausted and key i is next
+                push(node, i);
+                return;
+            }
+
+            int insertion = -i - 1;
+            push(node, insertion);
+            if (isLeaf(node))
+                return;
+            node = (Object[]) node[keyEnd + insertion];
+        }
+    }
+
+    private void descendLeftmost(Object[] node)
+    {
+        while (!isLeaf(node))
+        {
+            push(node, 0);
+            node = (Object[]) node[getKeyEnd(node)];
+        }
+        push(node, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V nextForwards()
+    {
+        while (depth >= 0)
+        {
+            Object[] node = nodes[depth];
+            int position = positions[depth];
+            int keyEnd = getKeyEnd(node);
+            if (position >= keyEnd)
+            {
+                depth--;
+                continue;
+            }
+
+            positions[depth] = position + 1;
+            if (!isLeaf(node))
+                descendLeftmost((Object[]) node[keyEnd + position + 1]);
+            return (V) node[position];
+        }
+        return null;
+    }
+
+    // BACKWARDS
+
+    /**
+     * Positions the cursor on the last key lower than or equal to end, or the last key of the tree if end is null
+     */
+    private void seekBackwards(Object[] node, V end)
+    {
+        while (true)
+        {
+            int keyEnd = getKeyEnd(node);
+            int i = end == null ? -keyEnd - 1 : BTree.find(comparator, end, node, 0, keyEnd);
+            if (i >= 0)
+            {
+                // for a branch, this means child i + 1 is considered exhausted and key i is next
+                push(node, isLeaf(node) ? i : i + 1);
+                return;
+            }
+
+            int insertion = -i - 1;
+            if (isLeaf(node))
+            {
+                push(node, insertion - 1);
+                return;
+            }
+            push(node, insertion);
+            node = (Object[]) node[keyEnd + insertion];
+        }
+    }
+
+    private void descendRightmost(Object[] node)
+    {
+        while (!isLeaf(node))
+        {
+            int keyEnd = getKeyEnd(node);
+            push(node, keyEnd);
+            node = (Object[]) node[2 * keyEnd];
+        }
+        push(node, getKeyEnd(node) - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V nextBackwards()
+    {
+        while (depth >= 0)
+        {
+            Object[] node = nodes[depth];
+            int position = positions[depth];
+            if (isLeaf(node))
+            {
+                if (position < 0)
+                {
+                    depth--;
+                    continue;
+                }
+                positions[depth] = position - 1;
+                return (V) node[position];
+            }
+
+            if (position <= 0)
+            {
+                depth--;
+                continue;
+            }
+            positions[depth] = position - 1;
+            descendRightmost((Object[]) node[getKeyEnd(node) + position - 1]);
+            return (V) node[position - 1];
+        }
+        return null;
+    }
+}
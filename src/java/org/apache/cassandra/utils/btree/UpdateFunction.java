@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils.btree;
+
+/**
+ * Callbacks invoked by {@link BTree#update} to decide what ends up in the new tree.
+ */
+public interface UpdateFunction<V>
+{
+    /**
+     * @return the value to store for a key that was not present in the tree
+     */
+    V apply(V insert);
+
+    /**
+     * @return the value to store for a key present both in the tree (as {@code existing}) and in the update
+     */
+    V apply(V existing, V update);
+
+    /**
+     * Checked regularly during an update; returning true makes {@link BTree#update} give up and return null.
+     * Used to stop work early when a competing update has already won a race.
+     */
+    boolean abortEarly();
+}
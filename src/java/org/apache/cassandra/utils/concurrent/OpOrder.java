@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.utils.SimpleCondition;
+
+/**
+ * Partially orders operations with respect to barriers, without ever making the operations wait.
+ * <p/>
+ * Operations {@link #start()} and {@link Group#close()} around their work: this only counts them in the
+ * current {@link Group}.  A {@link Barrier} splits the operations in two when {@link Barrier#issue()} is called:
+ * those started before, which {@link Barrier#await()} waits for, and those started after, which it ignores.
+ * Operations can ask a barrier which side of it they are on with {@link Barrier#isAfter(Group)}.
+ * <p/>
+ * This is meant to replace a read/write lock whose write side only needs to know when the reads that started
+ * before it are done: unlike the write lock, issuing a barrier never prevents new operations from starting.
+ */
+public class OpOrder
+{
+    private volatile Group current = new Group(null);
+
+    /**
+     * Starts an operation, which must be ended by calling close() on the returned Group exactly once.
+     */
+    public Group start()
+    {
+        while (true)
+        {
+            Group group = current;
+            if (group.register())
+                return group;
+        }
+    }
+
+    public Barrier newBarrier()
+    {
+        return new Barrier();
+    }
+
+    /**
+     * The set of operations started between two consecutive barriers.
+     */
+    public final class Group
+    {
+        private final long id;
+        // the previous group, until it (and all the groups before it) are done
+        private volatile Group prev;
+        private volatile Group next;
+
+        // the number of running operations, or -1 - that number once a barrier has been issued after this group
+        private final AtomicInteger running = new AtomicInteger();
+        private boolean finished;
+        private final SimpleCondition done = new SimpleCondition();
+
+        private Group(Group prev)
+        {
+            this.prev = prev;
+            this.id = prev == null ? 0 : prev.id + 1;
+        }
+
+        private boolean register()
+        {
+            while (true)
+            {
+                int current = running.get();
+                if (current < 0)
+                    return false;
+                if (running.compareAndSet(current, current + 1))
+                    return true;
+            }
+        }
+
+        /**
+         * Ends one of the operations of this group.
+         */
+        public void close()
+        {
+            while (true)
+            {
+                int current = running.get();
+                if (current >= 0)
+                {
+                    assert current > 0 : "more operations closed than started";
+                    if (running.compareAndSet(current, current - 1))
+                        return;
+                }
+                else if (running.compareAndSet(current, current + 1))
+                {
+                    if (current + 1 == -1)
+                        markFinished();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Prevents any new operation from starting in this group; called once the group has been replaced as current
+         */
+        private void expire()
+        {
+            while (true)
+            {
+                int current = running.get();
+                assert current >= 0;
+                if (running.compareAndSet(current, -1 - current))
+                {
+                    if (current == 0)
+                        markFinished();
+                    return;
+                }
+            }
+        }
+
+        private void markFinished()
+        {
+            synchronized (OpOrder.this)
+            {
+                finished = true;
+                // a group is only done once all the groups before it are, so signal all the groups we were holding up
+                Group group = this;
+                while (group != null && group.finished && group.prev == null)
+                {
+                    group.done.signalAll();
+                    group = group.next;
+                    if (group != null)
+                        group.prev = null;
+                }
+            }
+        }
+
+        /**
+         * @return true if every operation of this group and of the groups started before it has completed
+         */
+        public boolean isDone()
+        {
+            return done.isSignaled();
+        }
+
+        private void await()
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException e)
+            {
+                throw new AssertionError(e);
+            }
+        }
+
+        public String toString()
+        {
+            return "OpOrder.Group(" + id + ")";
+        }
+    }
+
+    /**
+     * Separates the operations started before the call to {@link #issue()} from those started after.
+     */
+    public final class Barrier
+    {
+        // the last group whose operations were started before the barrier; null until issued
+        private volatile Group lastBefore;
+
+        /**
+         * Makes every operation started from now on fall after the barrier.  Can only be called once.
+         */
+        public void issue()
+        {
+            if (lastBefore != null)
+                throw new IllegalStateException("Barrier has already been issued");
+
+            Group group;
+            synchronized (OpOrder.this)
+            {
+                group = current;
+                Group next = new Group(group);
+                group.next = next;
+                lastBefore = group;
+                current = next;
+            }
+            group.expire();
+        }
+
+        /**
+         * Waits for all the operations started before the barrier was issued to complete.
+         */
+        public void await()
+        {
+            Group group = lastBefore;
+            if (group == null)
+                throw new IllegalStateException("Barrier has not been issued");
+            group.await();
+        }
+
+        /**
+         * @return true if the given group was started before this barrier, or if this barrier has not been issued
+         * yet, in which case every running operation is before it.
+         */
+        public boolean isAfter(Group group)
+        {
+            Group lastBefore = this.lastBefore;
+            return lastBefore == null || group.id <= lastBefore.id;
+        }
+
+        public boolean isIssued()
+        {
+            return lastBefore != null;
+        }
+    }
+}
@@ -33,6 +33,8 @@ import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.service.MigrationManager;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
+import static org.junit.Assert.assertEquals;
+
 public class MeteredFlusherTest extends SchemaLoader
 {
     @Test
@@ -68,5 +70,38 @@ public class MeteredFlusherTest extends SchemaLoader
         }
         assert flushes > 0;
     }
+
+    @Test
+    public void testFlushesHighTrafficMemtable() throws Exception
+    {
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+            cfs.forceBlockingFlush();
+
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore busy = keyspace.getColumnFamilyStore("Standard1");
+        ColumnFamilyStore quiet = keyspace.getColumnFamilyStore("Standard2");
+        ByteBuffer name = ByteBufferUtil.bytes("c");
+        for (int j = 0; j < 160; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("key" + j));
+            rm.add("Standard1", name, ByteBuffer.allocate(100000), 0);
+            rm.applyUnsafe();
+        }
+        RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes("key"));
+        rm.add("Standard2", name, ByteBuffer.allocate(100), 0);
+        rm.applyUnsafe();
+        int busyFlushes = busy.getMemtableSwitchCount();
+        int quietFlushes = quiet.getMemtableSwitchCount();
+
+        // nothing is allocated off heap with the default allocator, so that limit can't be reached
+        new MeteredFlusher().run(1024 * 1048576L, 1);
+        assertEquals(busyFlushes, busy.getMemtableSwitchCount());
+        assertEquals(quietFlushes, quiet.getMemtableSwitchCount());
+
+        // the 16MB memtable uses more than its share of the heap allowed, the other one not nearly
+        new MeteredFlusher().run(64 * 1048576L, 1);
+        assertEquals(busyFlushes + 1, busy.getMemtableSwitchCount());
+        assertEquals(quietFlushes, quiet.getMemtableSwitchCount());
+    }
 }
 
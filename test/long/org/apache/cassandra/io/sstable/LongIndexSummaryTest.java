@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+public class LongIndexSummaryTest
+{
+    private static final Logger logger = LoggerFactory.getLogger(LongIndexSummaryTest.class);
+
+    private static final int ENTRIES = 1000 * 1000;
+    private static final int PROBES = 1000 * 1000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Compares the throughput of the Murmur3 summary search, which compares tokens and keys in place, with the
+     * search copying and decorating the key of every probe.
+     */
+    @Test
+    public void testBinarySearchThroughput() throws IOException
+    {
+        IPartitioner partitioner = new Murmur3Partitioner();
+        Random random = new Random(0);
+        List<DecoratedKey> keys = new ArrayList<>(ENTRIES);
+        for (int i = 0; i < ENTRIES; i++)
+            keys.add(partitioner.decorateKey(ByteBufferUtil.bytes(random.nextLong())));
+        Collections.sort(keys);
+        IndexSummaryBuilder builder = new IndexSummaryBuilder(ENTRIES, 1);
+        for (int i = 0; i < ENTRIES; i++)
+            builder.maybeAddEntry(keys.get(i), i);
+        IndexSummary summary = builder.build(partitioner);
+
+        // half of them in the summary
+        DecoratedKey[] probes = new DecoratedKey[PROBES];
+        for (int i = 0; i < PROBES; i++)
+            probes[i] = i % 2 == 0
+                      ? keys.get(random.nextInt(ENTRIES))
+                      : partitioner.decorateKey(ByteBufferUtil.bytes(random.nextLong()));
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (DecoratedKey probe : probes)
+                sum += summary.binarySearch(probe);
+            long inPlace = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (DecoratedKey probe : probes)
+                sum -= summary.binarySearchDecorating(probe);
+            long decorating = System.nanoTime() - start;
+
+            assert sum == 0;
+            logger.info("Summary of {} entries: {} searches/s in place, {} searches/s decorating",
+                        ENTRIES, PROBES * 1000000000L / inPlace, PROBES * 1000000000L / decorating);
+        }
+        summary.close();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.stanford.ppl.concurrent.SnapTreeMap;
+
+import org.apache.cassandra.utils.btree.BTree;
+import org.apache.cassandra.utils.btree.UpdateFunction;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the cost of atomically merging sorted batches into a shared row, the way memtables do,
+ * using a persistent BTree and using a cloned SnapTreeMap (what AtomicSortedColumns does).
+ */
+public class LongBTreeTest
+{
+    private static final Logger logger = LoggerFactory.getLogger(LongBTreeTest.class);
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final Comparator<Integer> CMP = new Comparator<Integer>()
+    {
+        public int compare(Integer o1, Integer o2)
+        {
+            return Integer.compare(o1, o2);
+        }
+    };
+
+    @Test
+    public void testSmallBatches() throws InterruptedException
+    {
+        compare(1000, 1000000, 1);
+        compare(1000, 1000000, 10);
+    }
+
+    @Test
+    public void testLargeBatches() throws InterruptedException
+    {
+        compare(100, 1000000, 100);
+        compare(10, 1000000, 1000);
+    }
+
+    private void compare(int rowCount, int updateCount, int batchSize) throws InterruptedException
+    {
+        // run each twice to let the JIT do its thing
+        for (int i = 0; i < 2; i++)
+        {
+            long btree = run(new BTreeRows(rowCount), updateCount, batchSize);
+            long snapTree = run(new SnapTreeRows(rowCount), updateCount, batchSize);
+            logger.info("{} rows, {} updates of {} columns: BTree {}ms, SnapTreeMap {}ms",
+                        new Object[]{ rowCount, updateCount, batchSize, btree, snapTree });
+        }
+    }
+
+    private long run(final Rows rows, final int updateCount, final int batchSize) throws InterruptedException
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++)
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    Random random = ThreadLocalRandom.current();
+                    for (int i = 0; i < updateCount / THREADS; i++)
+                    {
+                        TreeSet<Integer> batch = new TreeSet<Integer>();
+                        while (batch.size() < batchSize)
+                            batch.add(random.nextInt(100000));
+                        rows.update(random.nextInt(rows.count()), batch);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdown();
+
+        assertTrue(rows.isValid());
+        return elapsed;
+    }
+
+    private static interface Rows
+    {
+        int count();
+        void update(int row, TreeSet<Integer> batch);
+        boolean isValid();
+    }
+
+    private static class BTreeRows implements Rows
+    {
+        private static final UpdateFunction<Integer> REPLACE = new UpdateFunction<Integer>()
+        {
+            public Integer apply(Integer insert)
+            {
+                return insert;
+            }
+
+            public Integer apply(Integer existing, Integer update)
+            {
+                return update;
+            }
+
+            public boolean abortEarly()
+            {
+                return false;
+            }
+        };
+
+        private final AtomicReference<Object[]>[] rows;
+
+        BTreeRows(int count)
+        {
+            rows = new AtomicReference[count];
+            for (int i = 0; i < count; i++)
+                rows[i] = new AtomicReference<Object[]>(BTree.empty());
+        }
+
+        public int count()
+        {
+            return rows.length;
+        }
+
+        public void update(int row, TreeSet<Integer> batch)
+        {
+            while (true)
+            {
+                Object[] current = rows[row].get();
+                if (rows[row].compareAndSet(current, BTree.update(current, CMP, batch, REPLACE)))
+                    return;
+            }
+        }
+
+        public boolean isValid()
+        {
+            for (AtomicReference<Object[]> row : rows)
+            {
+                if (!BTree.isWellFormed(row.get(), CMP))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class SnapTreeRows implements Rows
+    {
+        private final AtomicReference<SnapTreeMap<Integer, Integer>>[] rows;
+
+        SnapTreeRows(int count)
+        {
+            rows = new AtomicReference[count];
+            for (int i = 0; i < count; i++)
+                rows[i] = new AtomicReference<SnapTreeMap<Integer, Integer>>(new SnapTreeMap<Integer, Integer>(CMP));
+        }
+
+        public int count()
+        {
+            return rows.length;
+        }
+
+        public void update(int row, TreeSet<Integer> batch)
+        {
+            while (true)
+            {
+                SnapTreeMap<Integer, Integer> current = rows[row].get();
+                SnapTreeMap<Integer, Integer> modified = current.clone();
+                for (Integer value : batch)
+                    modified.put(value, value);
+                if (rows[row].compareAndSet(current, modified))
+                    return;
+            }
+        }
+
+        public boolean isValid()
+        {
+            return true;
+        }
+    }
+}
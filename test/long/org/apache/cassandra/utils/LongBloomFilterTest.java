@@ -24,6 +24,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.apache.cassandra.io.util.FileUtils;
+
 public class LongBloomFilterTest
 {
     private static final Logger logger = LoggerFactory.getLogger(LongBloomFilterTest.class);
@@ -69,4 +71,34 @@ public class LongBloomFilterTest
         }
         logger.info("Bloom filter mean false positive: {}", sumfp / 10);
     }
+
+    /**
+     * Compares the false positive rate, size and lookup throughput of the standard and blocked filters.
+     */
+    @Test
+    public void testBlockedVersusStandard()
+    {
+        int size = 10 * 1000 * 1000;
+        for (FilterFactory.Type type : FilterFactory.Type.values())
+        {
+            IFilter bf = FilterFactory.getFilter(size, 0.01, type, true);
+            KeyGenerator.IntGenerator keys = new KeyGenerator.IntGenerator(size);
+            while (keys.hasNext())
+                bf.add(keys.next());
+
+            KeyGenerator.IntGenerator otherKeys = new KeyGenerator.IntGenerator(size, size * 2);
+            int falsePositives = 0;
+            long start = System.nanoTime();
+            while (otherKeys.hasNext())
+            {
+                if (bf.isPresent(otherKeys.next()))
+                    falsePositives++;
+            }
+            long elapsed = System.nanoTime() - start;
+
+            logger.info("{} bloom filter: {} bytes, false positive rate {}, {} lookups/s",
+                        type, bf.serializedSize(), (double) falsePositives / size, size * 1000000000L / elapsed);
+            FileUtils.closeQuietly(bf);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.cache;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ChunkCacheTest
+{
+    @Test
+    public void testGetPut()
+    {
+        ChunkCache cache = new ChunkCache(1024);
+        byte[] chunk = new byte[100];
+        Arrays.fill(chunk, (byte) 7);
+        cache.put("a", 0, chunk, 50);
+
+        byte[] buffer = new byte[100];
+        assertEquals(50, cache.get("a", 0, buffer));
+        assertArrayEquals(Arrays.copyOf(chunk, 50), Arrays.copyOf(buffer, 50));
+        assertEquals(-1, cache.get("a", 50, buffer));
+        assertEquals(-1, cache.get("b", 0, buffer));
+        assertEquals(50, cache.weightedSize());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        ChunkCache cache = new ChunkCache(1024);
+        byte[] chunk = new byte[256];
+        for (int i = 0; i < 8; i++)
+            cache.put("a", i * 256, chunk, chunk.length);
+
+        // the least recently used chunks went first
+        assertEquals(1024, cache.weightedSize());
+        assertEquals(4, cache.size());
+        for (int i = 0; i < 4; i++)
+            assertEquals(-1, cache.get("a", i * 256, chunk));
+        for (int i = 4; i < 8; i++)
+            assertEquals(256, cache.get("a", i * 256, chunk));
+
+        cache.invalidateFile("a");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void testInvalidateFile()
+    {
+        ChunkCache cache = new ChunkCache(1024);
+        byte[] chunk = new byte[100];
+        cache.put("a", 0, chunk, chunk.length);
+        cache.put("a", 100, chunk, chunk.length);
+        cache.put("b", 0, chunk, chunk.length);
+
+        cache.invalidateFile("a");
+        assertEquals(1, cache.size());
+        assertEquals(-1, cache.get("a", 0, chunk));
+        assertEquals(-1, cache.get("a", 100, chunk));
+        assertEquals(100, cache.get("b", 0, chunk));
+    }
+}
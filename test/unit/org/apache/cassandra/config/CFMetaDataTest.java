@@ -35,10 +35,12 @@ import org.apache.cassandra.thrift.CfDef;
 import org.apache.cassandra.thrift.ColumnDef;
 import org.apache.cassandra.thrift.IndexType;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FilterFactory;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class CFMetaDataTest extends SchemaLoader
 {
@@ -113,6 +115,28 @@ public class CFMetaDataTest extends SchemaLoader
         }
     }
 
+    @Test
+    public void testDefaultBloomFilterTypeNotInSchema() throws Exception
+    {
+        // so that the schema digest of the tables not using another bloom filter doesn't change
+        CFMetaData cfm = Schema.instance.getCFMetaData(KEYSPACE, COLUMN_FAMILY);
+        assertFalse(toSchemaRow(cfm).has("bloom_filter_type"));
+
+        CFMetaData blocked = CFMetaData.rename(cfm, cfm.cfName);
+        blocked.bloomFilterType(FilterFactory.Type.BLOCKED);
+        UntypedResultSet.Row row = toSchemaRow(blocked);
+        assertEquals("BLOCKED", row.getString("bloom_filter_type"));
+        assertEquals(FilterFactory.Type.BLOCKED, CFMetaData.fromSchemaNoColumnsNoTriggers(row).getBloomFilterType());
+    }
+
+    private static UntypedResultSet.Row toSchemaRow(CFMetaData cfm) throws Exception
+    {
+        DecoratedKey k = StorageService.getPartitioner().decorateKey(ByteBufferUtil.bytes(cfm.ksName));
+        RowMutation rm = cfm.toSchema(System.currentTimeMillis());
+        ColumnFamily serializedCf = rm.getColumnFamily(Schema.instance.getId(Keyspace.SYSTEM_KS, SystemKeyspace.SCHEMA_COLUMNFAMILIES_CF));
+        return QueryProcessor.resultify("SELECT * FROM system.schema_columnfamilies", new Row(k, serializedCf)).one();
+    }
+
     private static CFMetaData withoutThriftIncompatible(CFMetaData cfm)
     {
         CFMetaData result = cfm.clone();
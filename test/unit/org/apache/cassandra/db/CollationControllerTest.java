@@ -121,4 +121,71 @@ public class CollationControllerTest extends SchemaLoader
         controller = new CollationController(cfs, filter, gcBefore);
         assert ColumnFamilyStore.removeDeleted(controller.getTopLevelColumns(), gcBefore) == null;
     }
+
+    @Test
+    public void getTopLevelColumnsReadsNonIntersectingSSTables()
+    throws IOException, ExecutionException, InterruptedException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard2");
+        cfs.disableAutoCompaction();
+        RowMutation rm;
+        DecoratedKey dk = Util.dk("key1");
+
+        // three sstables with disjoint column names
+        String[][] names = { { "a", "b" }, { "m", "n" }, { "x", "y" } };
+        for (int i = 0; i < names.length; i++)
+        {
+            rm = new RowMutation(keyspace.getName(), dk.key);
+            for (String name : names[i])
+                rm.add(cfs.name, ByteBufferUtil.bytes(name), ByteBufferUtil.bytes("value"), i);
+            rm.apply();
+            cfs.forceBlockingFlush();
+        }
+
+        // the most recent sstable cannot contain "m", but it could still delete it
+        QueryFilter filter = QueryFilter.getNamesFilter(dk, cfs.name, ByteBufferUtil.bytes("m"), System.currentTimeMillis());
+        CollationController controller = new CollationController(cfs, filter, Integer.MIN_VALUE);
+        assertEquals(1, controller.getTopLevelColumns().getColumnCount());
+        assertEquals(2, controller.getSstablesIterated());
+
+        // a range tombstone extends the names of its sstable: "c" is deleted by the most recent one
+        rm = new RowMutation(keyspace.getName(), dk.key);
+        rm.add(cfs.name, ByteBufferUtil.bytes("z"), ByteBufferUtil.bytes("value"), 3);
+        rm.deleteRange(cfs.name, ByteBufferUtil.bytes("b"), ByteBufferUtil.bytes("c"), 3);
+        rm.apply();
+        cfs.forceBlockingFlush();
+
+        filter = QueryFilter.getNamesFilter(dk, cfs.name, ByteBufferUtil.bytes("b"), System.currentTimeMillis());
+        controller = new CollationController(cfs, filter, Integer.MIN_VALUE);
+        assertEquals(0, controller.getTopLevelColumns().getColumnCount());
+    }
+
+    @Test
+    public void getTopLevelColumnsAppliesRowTombstoneOfNonIntersectingSSTable()
+    throws IOException, ExecutionException, InterruptedException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore("Standard1");
+        cfs.disableAutoCompaction();
+        RowMutation rm;
+        DecoratedKey dk = Util.dk("key3");
+
+        rm = new RowMutation(keyspace.getName(), dk.key);
+        rm.add(cfs.name, ByteBufferUtil.bytes("a"), ByteBufferUtil.bytes("value"), 0);
+        rm.apply();
+        cfs.forceBlockingFlush();
+
+        // the newer sstable deletes the row, but only holds a live column that sorts after "a"
+        rm = new RowMutation(keyspace.getName(), dk.key);
+        rm.delete(cfs.name, 1);
+        rm.add(cfs.name, ByteBufferUtil.bytes("m"), ByteBufferUtil.bytes("value"), 2);
+        rm.apply();
+        cfs.forceBlockingFlush();
+
+        QueryFilter filter = QueryFilter.getNamesFilter(dk, cfs.name, ByteBufferUtil.bytes("a"), System.currentTimeMillis());
+        CollationController controller = new CollationController(cfs, filter, Integer.MIN_VALUE);
+        ColumnFamily cf = ColumnFamilyStore.removeDeleted(controller.getTopLevelColumns(), Integer.MIN_VALUE);
+        assertEquals(0, cf.getColumnCount());
+    }
 }
@@ -21,7 +21,12 @@ package org.apache.cassandra.db;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -33,6 +38,7 @@ import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.commitlog.CommitLogDescriptor;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
 
 import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
 
@@ -116,7 +122,7 @@ public class CommitLogTest extends SchemaLoader
         assert CommitLog.instance.activeSegments() == 2 : "Expecting 2 segments, got " + CommitLog.instance.activeSegments();
 
         UUID cfid2 = rm2.getColumnFamilyIds().iterator().next();
-        CommitLog.instance.discardCompletedSegments(cfid2, CommitLog.instance.getContext().get());
+        CommitLog.instance.discardCompletedSegments(cfid2, CommitLog.instance.getContext());
 
         // Assert we still have both our segment
         assert CommitLog.instance.activeSegments() == 2 : "Expecting 2 segments, got " + CommitLog.instance.activeSegments();
@@ -138,7 +144,7 @@ public class CommitLogTest extends SchemaLoader
 
         // "Flush": this won't delete anything
         UUID cfid1 = rm.getColumnFamilyIds().iterator().next();
-        CommitLog.instance.discardCompletedSegments(cfid1, CommitLog.instance.getContext().get());
+        CommitLog.instance.discardCompletedSegments(cfid1, CommitLog.instance.getContext());
 
         assert CommitLog.instance.activeSegments() == 1 : "Expecting 1 segment, got " + CommitLog.instance.activeSegments();
 
@@ -156,7 +162,7 @@ public class CommitLogTest extends SchemaLoader
         // didn't write anything on cf1 since last flush (and we flush cf2)
 
         UUID cfid2 = rm2.getColumnFamilyIds().iterator().next();
-        CommitLog.instance.discardCompletedSegments(cfid2, CommitLog.instance.getContext().get());
+        CommitLog.instance.discardCompletedSegments(cfid2, CommitLog.instance.getContext());
 
         // Assert we still have both our segment
         assert CommitLog.instance.activeSegments() == 1 : "Expecting 1 segment, got " + CommitLog.instance.activeSegments();
@@ -173,6 +179,45 @@ public class CommitLogTest extends SchemaLoader
         CommitLog.instance.add(rm);
     }
 
+    @Test
+    public void testConcurrentAppends() throws Exception
+    {
+        CommitLog.instance.resetUnsafe();
+
+        final RowMutation rm = new RowMutation("Keyspace1", bytes("k"));
+        // big enough that the writers fill a few segments
+        rm.add("Standard1", bytes("c1"), ByteBuffer.allocate(DatabaseDescriptor.getCommitLogSegmentSize() / 1000), 0);
+        final int threads = 4;
+        final int mutationsPerThread = 1000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; t++)
+        {
+            futures.add(executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < mutationsPerThread; i++)
+                        CommitLog.instance.add(rm);
+                }
+            }));
+        }
+        FBUtilities.waitOnFutures(futures);
+        executor.shutdown();
+
+        List<File> segments = new ArrayList<File>();
+        for (String name : CommitLog.instance.getActiveSegmentNames())
+            segments.add(new File(DatabaseDescriptor.getCommitLogLocation(), name));
+        Assert.assertTrue(segments.size() > 1);
+        CommitLog.instance.resetUnsafe();
+
+        // whatever order the writers completed their appends in, replay must read all of them
+        // (along with whatever the system keyspace wrote meanwhile)
+        int replayed = CommitLog.instance.recover(segments.toArray(new File[segments.size()]));
+        Assert.assertTrue("Replayed " + replayed + " mutations", replayed >= threads * mutationsPerThread);
+    }
+
     protected void testRecoveryWithBadSizeArgument(int size, int dataSize) throws Exception
     {
         Checksum checksum = new CRC32();
@@ -202,8 +247,12 @@ public class CommitLogTest extends SchemaLoader
     protected void testRecovery(byte[] logData) throws Exception
     {
         File logFile = tmpFile();
+        CommitLogDescriptor desc = CommitLogDescriptor.fromFileName(logFile.getName());
+        ByteBuffer header = ByteBuffer.allocate(desc.headerSize());
+        desc.writeHeader(header);
         try (OutputStream lout = new FileOutputStream(logFile))
         {
+            lout.write(header.array());
             lout.write(logData);
             //statics make it annoying to test things correctly
             CommitLog.instance.recover(new File[]{ logFile }); //CASSANDRA-1119 / CASSANDRA-1179 throw on failure*/
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.commitlog.ReplayPosition;
+import org.apache.cassandra.db.index.SecondaryIndexManager;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.io.sstable.SSTableScanner;
+import org.apache.cassandra.utils.concurrent.OpOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MemtableTest extends SchemaLoader
+{
+    /**
+     * A memtable switched out must hold nothing logged after the position its flush marks clean in the commitlog,
+     * even for the writes started before the switch.
+     */
+    @Test
+    public void testAcceptsUpToLastReplayPosition()
+    {
+        Memtable memtable = new Memtable(Keyspace.open("Keyspace1").getColumnFamilyStore("Standard1"));
+        OpOrder order = new OpOrder();
+        OpOrder.Group before = order.start();
+        OpOrder.Barrier barrier = order.newBarrier();
+        AtomicReference<ReplayPosition> lastReplayPosition = new AtomicReference<ReplayPosition>();
+        memtable.setDiscarding(barrier, lastReplayPosition);
+
+        // accepted before the position is closed, so the position can't be lower
+        assertTrue(memtable.accepts(before, new ReplayPosition(1, 100)));
+        ReplayPosition last = Memtable.setLastReplayPosition(lastReplayPosition, new ReplayPosition(1, 50));
+        assertEquals(new ReplayPosition(1, 100), last);
+        barrier.issue();
+
+        assertTrue(memtable.accepts(before, new ReplayPosition(1, 80)));
+        assertFalse(memtable.accepts(before, new ReplayPosition(1, 120)));
+        assertFalse(memtable.accepts(before, new ReplayPosition(2, 10)));
+        assertTrue(memtable.accepts(before, null));
+
+        OpOrder.Group after = order.start();
+        assertFalse(memtable.accepts(after, new ReplayPosition(1, 10)));
+        after.close();
+        before.close();
+        memtable.releaseReference();
+    }
+
+    @Test
+    public void testFlushSplitAcrossDirectories() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open("Keyspace1").getColumnFamilyStore("Standard1");
+        Memtable memtable = new Memtable(cfs);
+        for (int i = 0; i < 100; i++)
+        {
+            ColumnFamily cf = ArrayBackedSortedColumns.factory.create(cfs.metadata);
+            cf.addColumn(Util.column("c", "value" + i, 0));
+            memtable.put(Util.dk(String.format("key%03d", i)), cf, SecondaryIndexManager.nullUpdater);
+        }
+
+        // three data directories, sharing the same path here
+        File path = cfs.directories.getWriteableLocation().location;
+        List<Directories.DataDirectory> locations = Arrays.asList(new Directories.DataDirectory(path),
+                                                                  new Directories.DataDirectory(path),
+                                                                  new Directories.DataDirectory(path));
+        List<Memtable.RangeFlushRunnable> ranges = memtable.new FlushRunnable(new CountDownLatch(1), ReplayPosition.NONE).splitRanges(locations, 1);
+        assertEquals(3, ranges.size());
+
+        DecoratedKey previous = null;
+        int keys = 0;
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            Memtable.RangeFlushRunnable range = ranges.get(i);
+            assertSame(locations.get(i), range.getWriteableLocation());
+            range.run();
+
+            // each range is written to its own sstable, all of them following each other
+            SSTableReader sstable = range.sstable;
+            if (previous != null)
+                assertTrue(previous.compareTo(sstable.first) < 0);
+            previous = sstable.last;
+            SSTableScanner scanner = sstable.getScanner();
+            while (scanner.hasNext())
+            {
+                scanner.next();
+                keys++;
+            }
+            scanner.close();
+            sstable.markObsolete();
+            sstable.releaseReference();
+        }
+        assertEquals(100, keys);
+        memtable.releaseReference();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactionThroughputControllerTest
+{
+    private static final double LOWEST = 16;
+    private static final double HIGHEST = 116;
+
+    @Test
+    public void testRaisedWhileBehind()
+    {
+        CompactionThroughputController controller = new CompactionThroughputController(null);
+        assertEquals(26, controller.update(LOWEST, HIGHEST, 10, 1, 1000), 0.001);
+        // more sstables per read
+        assertEquals(36, controller.update(LOWEST, HIGHEST, 5, 2, 1000), 0.001);
+        // fewer pending tasks, as many sstables per read
+        assertEquals(36, controller.update(LOWEST, HIGHEST, 3, 2, 1000), 0.001);
+
+        for (int i = 0; i < 20; i++)
+            controller.update(LOWEST, HIGHEST, 10, 2, 1000);
+        assertEquals(HIGHEST, controller.update(LOWEST, HIGHEST, 10, 2, 1000), 0.001);
+    }
+
+    @Test
+    public void testLoweredWhenReadsDegrade()
+    {
+        CompactionThroughputController controller = new CompactionThroughputController(null);
+        for (int i = 0; i < 10; i++)
+            controller.update(LOWEST, HIGHEST, 10, 1, 1000);
+        assertEquals(HIGHEST, controller.update(LOWEST, HIGHEST, 10, 1, 1000), 0.001);
+
+        // still behind, but reads are twice as slow
+        assertEquals(66, controller.update(LOWEST, HIGHEST, 20, 4, 2000), 0.001);
+        assertEquals(41, controller.update(LOWEST, HIGHEST, 30, 8, 2000), 0.001);
+        // reads are back to normal
+        assertEquals(51, controller.update(LOWEST, HIGHEST, 40, 8, 1000), 0.001);
+    }
+
+    @Test
+    public void testLoweredWhenIdle()
+    {
+        CompactionThroughputController controller = new CompactionThroughputController(null);
+        controller.update(LOWEST, HIGHEST, 10, 1, 0);
+        controller.update(LOWEST, HIGHEST, 10, 1, 0);
+        assertEquals(26, controller.update(LOWEST, HIGHEST, 0, 1, 0), 0.001);
+        assertEquals(LOWEST, controller.update(LOWEST, HIGHEST, 0, 1, 0), 0.001);
+        assertEquals(LOWEST, controller.update(LOWEST, HIGHEST, 0, 1, 0), 0.001);
+    }
+}
@@ -19,9 +19,11 @@
 package org.apache.cassandra.db.compaction;
 
 import java.io.IOException;
-import java.util.Collection;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
 
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import org.junit.Assert;
 
 import org.junit.Test;
@@ -38,8 +40,11 @@ import org.apache.cassandra.io.sstable.SSTableReader;
 import org.apache.cassandra.Util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.apache.cassandra.db.KeyspaceTest.assertColumns;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
 
 
 public class CompactionsPurgeTest extends SchemaLoader
@@ -314,4 +319,67 @@ public class CompactionsPurgeTest extends SchemaLoader
         for (Column c : cf)
             assert !c.isMarkedForDelete(System.currentTimeMillis());
     }
+
+    @Test
+    public void testTombstoneCompactionWithNewerOverlap()
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        String cfName = "StandardGCGS0";
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(cfName);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+        int gcBefore = (int) (System.currentTimeMillis() / 1000) + 1000;
+        AbstractCompactionStrategy strategy = new SizeTieredCompactionStrategy(cfs, Collections.singletonMap(AbstractCompactionStrategy.TOMBSTONE_COMPACTION_INTERVAL_OPTION, "0"));
+
+        // tombstones overlapping newer data only: all purgeable
+        SSTableReader tombstones = writeColumns(cfs, 1, true);
+        writeColumns(cfs, 10, false);
+        assertTrue(strategy.worthDroppingTombstones(tombstones, gcBefore));
+        assertEquals(Pair.create(10L, 10L), compactTombstones(cfs, tombstones, gcBefore));
+
+        // tombstones overlapping older data: none purgeable
+        writeColumns(cfs, 0, false);
+        tombstones = writeColumns(cfs, 1, true);
+        assertFalse(strategy.worthDroppingTombstones(tombstones, gcBefore));
+        assertEquals(Pair.create(10L, 0L), compactTombstones(cfs, tombstones, gcBefore));
+    }
+
+    private SSTableReader writeColumns(ColumnFamilyStore cfs, long timestamp, boolean delete)
+    {
+        Set<SSTableReader> before = new HashSet<SSTableReader>(cfs.getSSTables());
+        for (int i = 0; i < 10; i++)
+        {
+            RowMutation rm = new RowMutation(cfs.keyspace.getName(), Util.dk("key" + i).key);
+            if (delete)
+                rm.delete(cfs.name, ByteBufferUtil.bytes("c"), timestamp);
+            else
+                rm.add(cfs.name, ByteBufferUtil.bytes("c"), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+        return Iterables.getOnlyElement(Sets.difference(new HashSet<SSTableReader>(cfs.getSSTables()), before));
+    }
+
+    /**
+     * @return the droppable and purged tombstones reported by the tombstone compaction of the sstable
+     */
+    private Pair<Long, Long> compactTombstones(ColumnFamilyStore cfs, SSTableReader sstable, int gcBefore)
+    {
+        final List<Pair<Long, Long>> reported = new ArrayList<Pair<Long, Long>>();
+        assertTrue(cfs.getDataTracker().markCompacting(Collections.singleton(sstable)));
+        new CompactionTask(cfs, Collections.singleton(sstable), gcBefore)
+            .setCompactionType(OperationType.TOMBSTONE_COMPACTION)
+            .execute(new CompactionManager.CompactionExecutorStatsCollector()
+            {
+                public void beginCompaction(CompactionInfo.Holder ci) {}
+
+                public void finishCompaction(CompactionInfo.Holder ci) {}
+
+                public void finishTombstoneCompaction(long droppable, long purged)
+                {
+                    reported.add(Pair.create(droppable, purged));
+                }
+            });
+        return Iterables.getOnlyElement(reported);
+    }
 }
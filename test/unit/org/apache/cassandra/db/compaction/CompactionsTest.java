@@ -455,4 +455,61 @@ public class CompactionsTest extends SchemaLoader
                                                                        200, 209,
                                                                        300, 301)));
     }
+
+    @Test
+    public void testSubrangeCompaction() throws Exception
+    {
+        Keyspace keyspace = Keyspace.open(KEYSPACE1);
+        String cfname = "Standard4";
+        ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(cfname);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        // four overlapping sstables, with every key in two of them
+        int keys = 1000;
+        for (int j = 0; j < 4; j++)
+        {
+            for (int i = j % 2; i < keys; i += 2)
+            {
+                RowMutation rm = new RowMutation(KEYSPACE1, ByteBufferUtil.bytes(String.format("%04d", i)));
+                rm.add(cfname, ByteBufferUtil.bytes(String.valueOf(j)), ByteBufferUtil.EMPTY_BYTE_BUFFER, j);
+                rm.apply();
+            }
+            cfs.forceBlockingFlush();
+        }
+        Collection<SSTableReader> toCompact = cfs.getSSTables();
+        assertEquals(4, toCompact.size());
+
+        final List<Range<Token>> ranges = CompactionTask.getSubranges(toCompact, 4);
+        assertEquals(4, ranges.size());
+        assertTrue(cfs.getDataTracker().markCompacting(toCompact));
+        new CompactionTask(cfs, toCompact, Integer.MIN_VALUE)
+        {
+            protected List<Range<Token>> getSubranges(Set<SSTableReader> sstables)
+            {
+                return ranges;
+            }
+        }.execute(null);
+
+        // one sstable per subrange
+        Set<Range<Token>> compacted = new HashSet<Range<Token>>();
+        for (SSTableReader sstable : cfs.getSSTables())
+        {
+            for (Range<Token> range : ranges)
+            {
+                if (range.contains(sstable.first.token))
+                {
+                    assertTrue(range.contains(sstable.last.token));
+                    assertTrue(compacted.add(range));
+                }
+            }
+        }
+        assertEquals(4, compacted.size());
+        assertEquals(4, cfs.getSSTables().size());
+
+        List<Row> rows = Util.getRangeSlice(cfs);
+        assertEquals(keys, rows.size());
+        for (Row row : rows)
+            assertEquals(2, row.cf.getColumnCount());
+    }
 }
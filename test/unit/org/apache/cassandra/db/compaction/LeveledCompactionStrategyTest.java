@@ -18,8 +18,10 @@
 package org.apache.cassandra.db.compaction;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +50,8 @@ import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.Pair;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(OrderedJUnit4ClassRunner.class)
@@ -198,4 +202,91 @@ public class LeveledCompactionStrategyTest extends SchemaLoader
         // verify that the manifest has correct amount of sstables
         assertEquals(cfs.getSSTables().size(), levels[6]);
     }
+
+    @Test
+    public void testSTCSInL0WhileBlocked() throws Exception
+    {
+        ColumnFamilyStore cfs = prepareLeveledCFS();
+        // overlapping sstables, so that compacting any of them blocks L0 to L1
+        for (int i = 0; i < 40; i++)
+            flushRows(cfs, i, 1, "0", "9");
+        LeveledManifest manifest = LeveledManifest.create(cfs, 1, new ArrayList<SSTableReader>(cfs.getSSTables()));
+        assertEquals(40, manifest.getLevelSize(0));
+
+        SSTableReader busy = cfs.getSSTables().iterator().next();
+        assertTrue(cfs.getDataTracker().markCompacting(Collections.singleton(busy)));
+        try
+        {
+            Pair<? extends Collection<SSTableReader>, Integer> pair = manifest.getCompactionCandidates();
+            assertNotNull(pair);
+            assertEquals(0, pair.right.intValue());
+            assertEquals(32, pair.left.size());
+            assertFalse(pair.left.contains(busy));
+        }
+        finally
+        {
+            cfs.getDataTracker().unmarkCompacting(Collections.singleton(busy));
+        }
+    }
+
+    @Test
+    public void testConcurrentL0ToL1Compactions() throws Exception
+    {
+        ColumnFamilyStore cfs = prepareLeveledCFS();
+        flushRows(cfs, 0, 6, "a1");
+        flushRows(cfs, 1, 6, "b1");
+        LeveledManifest manifest = LeveledManifest.create(cfs, 1, new ArrayList<SSTableReader>(cfs.getSSTables()));
+        Pair<? extends Collection<SSTableReader>, Integer> first = manifest.getCompactionCandidates();
+        assertEquals(2, first.left.size());
+        assertEquals(1, first.right.intValue());
+        assertTrue(cfs.getDataTracker().markCompacting(first.left));
+        try
+        {
+            // within the bounds of the compaction in progress, and outside of them
+            for (SSTableReader sstable : flushRows(cfs, 2, 6, "a5"))
+                manifest.add(sstable);
+            Set<SSTableReader> outside = new HashSet<SSTableReader>();
+            outside.addAll(flushRows(cfs, 3, 6, "c1"));
+            outside.addAll(flushRows(cfs, 4, 6, "c2"));
+            for (SSTableReader sstable : outside)
+                manifest.add(sstable);
+
+            Pair<? extends Collection<SSTableReader>, Integer> second = manifest.getCompactionCandidates();
+            assertEquals(outside, new HashSet<SSTableReader>(second.left));
+            assertEquals(1, second.right.intValue());
+        }
+        finally
+        {
+            cfs.getDataTracker().unmarkCompacting(first.left);
+        }
+    }
+
+    private ColumnFamilyStore prepareLeveledCFS()
+    {
+        ColumnFamilyStore cfs = Keyspace.open("Keyspace1").getColumnFamilyStore("StandardLeveled");
+        cfs.disableAutoCompaction();
+        cfs.truncateBlocking();
+        return cfs;
+    }
+
+    /**
+     * writes the given keys with columns of 100 KB, and flushes them to a new sstable
+     * @return the new sstables
+     */
+    private Collection<SSTableReader> flushRows(ColumnFamilyStore cfs, long timestamp, int columns, String... keys)
+    {
+        Set<SSTableReader> before = new HashSet<SSTableReader>(cfs.getSSTables());
+        ByteBuffer value = ByteBuffer.wrap(new byte[100 * 1024]);
+        for (String key : keys)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes(key));
+            for (int c = 0; c < columns; c++)
+                rm.add("StandardLeveled", ByteBufferUtil.bytes("column" + c), value, timestamp);
+            rm.apply();
+        }
+        cfs.forceBlockingFlush();
+        Set<SSTableReader> after = new HashSet<SSTableReader>(cfs.getSSTables());
+        after.removeAll(before);
+        return after;
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.db.compaction;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.exceptions.ConfigurationException;
+import org.apache.cassandra.io.sstable.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.Pair;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TimeWindowCompactionStrategyTest extends SchemaLoader
+{
+    private static final String KEYSPACE = "Keyspace1";
+    private static final String CF = "StandardGCGS0";
+
+    @Test
+    public void testGetWindowStart()
+    {
+        assertEquals(0, TimeWindowCompactionStrategy.getWindowStart(TimeUnit.HOURS, 1, 3599));
+        assertEquals(3600, TimeWindowCompactionStrategy.getWindowStart(TimeUnit.HOURS, 1, 3600));
+        assertEquals(7200, TimeWindowCompactionStrategy.getWindowStart(TimeUnit.MINUTES, 30, 8999));
+        assertEquals(172800, TimeWindowCompactionStrategy.getWindowStart(TimeUnit.DAYS, 2, 259200));
+        assertEquals(-3600, TimeWindowCompactionStrategy.getWindowStart(TimeUnit.HOURS, 1, -1));
+    }
+
+    @Test
+    public void testGetBuckets()
+    {
+        List<Pair<String, Long>> pairs = new ArrayList<Pair<String, Long>>();
+        // in microseconds, in three hourly windows
+        long hour = TimeUnit.HOURS.toMicros(1);
+        String[] strings = { "a", "bb", "bb", "ccc", "ccc", "ccc" };
+        for (String st : strings)
+            pairs.add(Pair.create(st, st.length() * hour + hour / 2 + pairs.size()));
+
+        NavigableMap<Long, List<String>> buckets = TimeWindowCompactionStrategy.getBuckets(pairs, TimeUnit.HOURS, 1, TimeUnit.MICROSECONDS);
+        assertEquals(3, buckets.size());
+        long start = 3600;
+        for (Map.Entry<Long, List<String>> entry : buckets.entrySet())
+        {
+            assertEquals(start, (long) entry.getKey());
+            List<String> bucket = entry.getValue();
+            assertEquals(bucket.get(0).length(), bucket.size());
+            for (String st : bucket)
+                assertEquals(bucket.get(0), st);
+            start += 3600;
+        }
+
+        // all in one window of a day
+        buckets = TimeWindowCompactionStrategy.getBuckets(pairs, TimeUnit.DAYS, 1, TimeUnit.MICROSECONDS);
+        assertEquals(1, buckets.size());
+        assertEquals(strings.length, buckets.firstEntry().getValue().size());
+    }
+
+    @Test
+    public void testValidateOptions() throws ConfigurationException
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_UNIT_KEY, "hours");
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_SIZE_KEY, "6");
+        options.put(SizeTieredCompactionStrategyOptions.MIN_SSTABLE_SIZE_KEY, "1024");
+        options.put("unknown", "1");
+        assertEquals(Collections.singletonMap("unknown", "1"), TimeWindowCompactionStrategy.validateOptions(options));
+
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_UNIT_KEY, "SECONDS");
+        try
+        {
+            TimeWindowCompactionStrategy.validateOptions(options);
+            fail("windows of seconds should be refused");
+        }
+        catch (ConfigurationException e)
+        {
+        }
+
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_UNIT_KEY, "DAYS");
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_SIZE_KEY, "0");
+        try
+        {
+            TimeWindowCompactionStrategy.validateOptions(options);
+            fail("windows of size 0 should be refused");
+        }
+        catch (ConfigurationException e)
+        {
+        }
+    }
+
+    @Test
+    public void testCompactsWithinWindows() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        long hour = TimeUnit.HOURS.toMicros(1);
+        // two sstables in a past window, and one in the current one
+        insert(cfs, "a", now - 3 * hour, 0);
+        insert(cfs, "b", now - 3 * hour, 0);
+        insert(cfs, "c", now, 0);
+        Set<SSTableReader> past = new HashSet<SSTableReader>();
+        for (SSTableReader sstable : cfs.getSSTables())
+        {
+            if (sstable.getMaxTimestamp() < now)
+                past.add(sstable);
+        }
+        assertEquals(2, past.size());
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_UNIT_KEY, "HOURS");
+        options.put(TimeWindowCompactionStrategyOptions.WINDOW_SIZE_KEY, "1");
+        TimeWindowCompactionStrategy strategy = new TimeWindowCompactionStrategy(cfs, options);
+
+        AbstractCompactionTask task = strategy.getNextBackgroundTask((int) (System.currentTimeMillis() / 1000));
+        assertEquals(past, Sets.newHashSet(task.sstables));
+        task.execute(null);
+        assertEquals(2, cfs.getSSTables().size());
+
+        // one sstable per window: nothing left to do
+        assertNull(strategy.getNextBackgroundTask((int) (System.currentTimeMillis() / 1000)));
+        assertEquals(0, strategy.getEstimatedRemainingTasks());
+    }
+
+    @Test
+    public void testDropsExpiredSSTables() throws Exception
+    {
+        ColumnFamilyStore cfs = Keyspace.open(KEYSPACE).getColumnFamilyStore(CF);
+        cfs.truncateBlocking();
+        cfs.disableAutoCompaction();
+
+        long now = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        insert(cfs, "expired", now - 1, 1);
+        insert(cfs, "live", now, 0);
+        Thread.sleep(2000); // wait for ttl to expire
+
+        Map<String, String> options = new HashMap<String, String>();
+        options.put(TimeWindowCompactionStrategyOptions.EXPIRED_SSTABLE_CHECK_FREQUENCY_SECONDS_KEY, "0");
+        TimeWindowCompactionStrategy strategy = new TimeWindowCompactionStrategy(cfs, options);
+
+        AbstractCompactionTask task = strategy.getNextBackgroundTask(cfs.gcBefore(System.currentTimeMillis()));
+        SSTableReader expired = Iterables.getOnlyElement(task.sstables);
+        assertEquals(now - 1, expired.getMaxTimestamp());
+        task.execute(null);
+        assertEquals(now, Iterables.getOnlyElement(cfs.getSSTables()).getMaxTimestamp());
+    }
+
+    private static void insert(ColumnFamilyStore cfs, String key, long timestamp, int ttl)
+    {
+        RowMutation rm = new RowMutation(KEYSPACE, Util.dk(key).key);
+        if (ttl > 0)
+            rm.add(CF, ByteBufferUtil.bytes("col"), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp, ttl);
+        else
+            rm.add(CF, ByteBufferUtil.bytes("col"), ByteBufferUtil.EMPTY_BYTE_BUFFER, timestamp);
+        rm.apply();
+        cfs.forceBlockingFlush();
+    }
+}
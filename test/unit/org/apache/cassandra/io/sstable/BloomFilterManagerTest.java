@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.BloomCalculations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterManagerTest
+{
+    private static final double[] MAX_FP_CHANCES = new double[]{ 0.1, 0.1, 0.1 };
+
+    @Test
+    public void testHotSSTablesGetLowerFpChances()
+    {
+        long[] keys = new long[]{ 1000000, 1000000, 1000000 };
+        double[] rates = new double[]{ 100, 10, 1 };
+        // the size of the three filters at 0.01
+        long budget = (long) BloomFilterManager.bits(keys, new double[]{ 0.01, 0.01, 0.01 });
+
+        double[] fpChances = BloomFilterManager.fpChances(keys, rates, MAX_FP_CHANCES, budget);
+        assertTrue(BloomFilterManager.bits(keys, fpChances) <= budget);
+        // proportional to keys over reads
+        assertEquals(10, fpChances[1] / fpChances[0], 0.001);
+        assertEquals(10, fpChances[2] / fpChances[1], 0.001);
+        // and fewer false positives than with 0.01 everywhere
+        double falsePositives = 0;
+        for (int i = 0; i < keys.length; i++)
+            falsePositives += rates[i] * fpChances[i];
+        assertTrue(falsePositives < 111 * 0.01);
+    }
+
+    @Test
+    public void testBounds()
+    {
+        long[] keys = new long[]{ 1000, 1000000, 1000000 };
+        double[] rates = new double[]{ 1000, 1, 0 };
+
+        // too small for anything but the highest chance
+        double[] fpChances = BloomFilterManager.fpChances(keys, rates, MAX_FP_CHANCES, 1);
+        for (double fpChance : fpChances)
+            assertEquals(0.1, fpChance, 0);
+
+        // enough for the lowest chance everywhere
+        fpChances = BloomFilterManager.fpChances(keys, rates, MAX_FP_CHANCES, Long.MAX_VALUE);
+        for (double fpChance : fpChances)
+            assertEquals(BloomCalculations.minSupportedBloomFilterFpChance(), fpChance, 0);
+    }
+}
@@ -18,6 +18,8 @@
 */
 package org.apache.cassandra.io.sstable;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,6 +29,7 @@ import org.junit.Test;
 
 import org.apache.cassandra.db.marshal.AbstractType;
 import org.apache.cassandra.db.marshal.IntegerType;
+import org.apache.cassandra.io.util.DataOutputBuffer;
 import static org.apache.cassandra.io.sstable.IndexHelper.IndexInfo;
 import static org.apache.cassandra.utils.ByteBufferUtil.bytes;
 
@@ -39,7 +42,30 @@ public class IndexHelperTest
         indexes.add(new IndexInfo(bytes(0L), bytes(5L), 0, 0));
         indexes.add(new IndexInfo(bytes(10L), bytes(15L), 0, 0));
         indexes.add(new IndexInfo(bytes(20L), bytes(25L), 0, 0));
+        testIndexFor(indexes);
+    }
+
+    @Test
+    public void testSerializedIndex() throws IOException
+    {
+        DataOutputBuffer out = new DataOutputBuffer();
+        new IndexInfo(bytes(0L), bytes(5L), 0, 10).serialize(out);
+        new IndexInfo(bytes(10L), bytes(15L), 10, 10).serialize(out);
+        new IndexInfo(bytes(20L), bytes(25L), 20, 5).serialize(out);
+        IndexHelper.SerializedIndex indexes = new IndexHelper.SerializedIndex(ByteBuffer.wrap(out.getData(), 0, out.getLength()));
 
+        assertEquals(3, indexes.size());
+        assertEquals(out.getLength(), indexes.serializedSize());
+        IndexInfo info = indexes.get(1);
+        assertEquals(bytes(10L), info.firstName);
+        assertEquals(bytes(15L), info.lastName);
+        assertEquals(10, info.offset);
+        assertEquals(10, info.width);
+        testIndexFor(indexes);
+    }
+
+    private static void testIndexFor(List<IndexInfo> indexes)
+    {
         AbstractType comp = IntegerType.instance;
 
         assertEquals(0, IndexHelper.indexFor(bytes(-1L), indexes, comp, false, -1));
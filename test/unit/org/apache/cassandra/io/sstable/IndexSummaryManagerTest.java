@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexSummaryManagerTest
+{
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testColdSSTablesAreDownsampled()
+    {
+        long[] sizes = new long[]{ 10 * MB, 10 * MB, 10 * MB };
+        double[] rates = new double[]{ 1000, 10, 0 };
+
+        int[] downsampling = IndexSummaryManager.downsampling(sizes, rates, 15 * MB);
+        assertTrue(IndexSummaryManager.size(sizes, downsampling) <= 15 * MB);
+        assertEquals(1, downsampling[0]);
+        assertTrue(downsampling[1] > 1);
+        assertTrue(downsampling[2] >= downsampling[1]);
+        for (int d : downsampling)
+            assertEquals(0, IndexSummaryManager.MAX_DOWNSAMPLING % d);
+    }
+
+    @Test
+    public void testBounds()
+    {
+        long[] sizes = new long[]{ 10 * MB, 10 * MB };
+        double[] rates = new double[]{ 1000, 0 };
+
+        // too small for anything but the sparsest summaries
+        int[] downsampling = IndexSummaryManager.downsampling(sizes, rates, 1);
+        for (int d : downsampling)
+            assertEquals(IndexSummaryManager.MAX_DOWNSAMPLING, d);
+
+        // enough for every summary at its table's interval
+        downsampling = IndexSummaryManager.downsampling(sizes, rates, 20 * MB);
+        for (int d : downsampling)
+            assertEquals(1, d);
+    }
+}
@@ -32,7 +32,9 @@ import org.junit.Test;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
 import org.apache.cassandra.dht.RandomPartitioner;
 import org.apache.cassandra.io.util.FileUtils;
 import org.apache.cassandra.utils.ByteBufferUtil;
@@ -59,6 +61,28 @@ public class IndexSummaryTest
             assertEquals(i, random.right.binarySearch(random.left.get(i)));
     }
 
+    @Test
+    public void testBinarySearchMurmur3() throws IOException
+    {
+        IPartitioner p = new Murmur3Partitioner();
+        List<DecoratedKey> keys = Lists.newArrayList();
+        for (int i = 0; i < 100; i++)
+            keys.add(p.decorateKey(ByteBufferUtil.bytes(UUID.randomUUID())));
+        Collections.sort(keys);
+        IndexSummaryBuilder builder = new IndexSummaryBuilder(keys.size(), 2);
+        for (int i = 0; i < keys.size(); i++)
+            builder.maybeAddEntry(keys.get(i), i);
+        IndexSummary summary = builder.build(p);
+
+        // keys in and out of the summary, and the bounds of their tokens, as with the copying search
+        for (DecoratedKey key : keys)
+        {
+            for (RowPosition position : new RowPosition[]{ key, key.token.minKeyBound(), key.token.maxKeyBound(p) })
+                assertEquals(summary.binarySearchDecorating(position), summary.binarySearch(position));
+        }
+        summary.close();
+    }
+
     @Test
     public void testGetPosition()
     {
@@ -88,6 +112,22 @@ public class IndexSummaryTest
         FileUtils.closeQuietly(dis);
     }
 
+    @Test
+    public void testDownsample() throws IOException
+    {
+        Pair<List<DecoratedKey>, IndexSummary> random = generateRandomIndex(100, 1);
+        IndexSummary downsampled = random.right.downsample(3);
+        assertEquals(34, downsampled.size());
+        assertEquals(3, downsampled.getIndexInterval());
+        for (int i = 0; i < 34; i++)
+        {
+            assertEquals(random.left.get(i * 3).key, ByteBuffer.wrap(downsampled.getKey(i)));
+            assertEquals(i * 3, downsampled.getPosition(i));
+            assertEquals(i, downsampled.binarySearch(random.left.get(i * 3)));
+        }
+        downsampled.close();
+    }
+
     @Test
     public void testAddEmptyKey() throws Exception
     {
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.io.sstable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionIndexTest
+{
+    private static final IPartitioner partitioner = new Murmur3Partitioner();
+
+    @Test
+    public void testGet() throws IOException
+    {
+        List<DecoratedKey> keys = new ArrayList<DecoratedKey>();
+        for (int i = 0; i < 10000; i++)
+            keys.add(partitioner.decorateKey(ByteBufferUtil.bytes("key" + i)));
+        testGet(keys);
+    }
+
+    @Test
+    public void testKeysLargerThanAPage() throws IOException
+    {
+        Random random = new Random(42);
+        List<DecoratedKey> keys = new ArrayList<DecoratedKey>();
+        for (int i = 0; i < 200; i++)
+        {
+            byte[] key = new byte[i % 10 == 0 ? 3 * PartitionIndex.PAGE_SIZE : 1 + random.nextInt(200)];
+            random.nextBytes(key);
+            keys.add(partitioner.decorateKey(ByteBuffer.wrap(key)));
+        }
+        testGet(keys);
+    }
+
+    private void testGet(List<DecoratedKey> keys) throws IOException
+    {
+        Collections.sort(keys);
+        Descriptor descriptor = new Descriptor(tempDirectory(), "Keyspace1", "Standard1", 1, false);
+        File file = new File(descriptor.filenameFor(Component.PARTITION_INDEX));
+        file.deleteOnExit();
+
+        PartitionIndex.Writer writer = new PartitionIndex.Writer(descriptor, partitioner, keys.size(), true);
+        // leave every other key out, and record some positions as negative
+        for (int i = 0; i < keys.size(); i += 2)
+            writer.append(keys.get(i), i % 4 == 0 ? i : ~i);
+        writer.close();
+        assertTrue(file.length() > PartitionIndex.PAGE_SIZE);
+
+        PartitionIndex index = PartitionIndex.open(descriptor, partitioner);
+        try
+        {
+            for (int i = 0; i < keys.size(); i++)
+                assertEquals(i % 2 != 0 ? PartitionIndex.NOT_FOUND : i % 4 == 0 ? i : ~i, index.get(keys.get(i)));
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
+    private static File tempDirectory() throws IOException
+    {
+        File directory = File.createTempFile("PartitionIndexTest", "");
+        if (!directory.delete() || !directory.mkdir())
+            throw new IOException("Temporary directory creation failed.");
+        directory.deleteOnExit();
+        return directory;
+    }
+}
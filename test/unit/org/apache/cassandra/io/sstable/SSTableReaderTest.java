@@ -21,6 +21,7 @@ package org.apache.cassandra.io.sstable;
  */
 
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -35,6 +36,7 @@ import org.junit.runner.RunWith;
 import org.apache.cassandra.OrderedJUnit4ClassRunner;
 import org.apache.cassandra.SchemaLoader;
 import org.apache.cassandra.Util;
+import org.apache.cassandra.config.Config;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.db.columniterator.IdentityQueryFilter;
@@ -101,6 +103,71 @@ public class SSTableReaderTest extends SchemaLoader
         }
     }
 
+    @Test
+    public void testRebuildBloomFilter() throws IOException, ExecutionException, InterruptedException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore store = keyspace.getColumnFamilyStore("Standard2");
+
+        CompactionManager.instance.disableAutoCompaction();
+        for (int j = 0; j < 1000; j++)
+        {
+            ByteBuffer key = ByteBufferUtil.bytes(String.valueOf(j));
+            RowMutation rm = new RowMutation("Keyspace1", key);
+            rm.add("Standard2", ByteBufferUtil.bytes("0"), ByteBufferUtil.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        CompactionManager.instance.performMaximal(store);
+
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        long size = sstable.getBloomFilterSerializedSize();
+        for (double fpChance : new double[]{ 0.1, 0.001 })
+        {
+            sstable.rebuildBloomFilter(fpChance);
+            Assert.assertEquals(fpChance, sstable.getBloomFilterFpChance(), 0);
+            for (int j = 0; j < 1000; j++)
+                assert sstable.mayContainKey(ByteBufferUtil.bytes(String.valueOf(j)));
+            // smaller than with the default chance of 0.01, then bigger
+            assert fpChance > 0.01 ? sstable.getBloomFilterSerializedSize() < size : sstable.getBloomFilterSerializedSize() > size;
+        }
+    }
+
+    @Test
+    public void testResampleIndexSummary() throws IOException, ExecutionException, InterruptedException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore store = keyspace.getColumnFamilyStore("Standard2");
+
+        CompactionManager.instance.disableAutoCompaction();
+        for (int j = 0; j < 1000; j++)
+        {
+            ByteBuffer key = ByteBufferUtil.bytes(String.valueOf(j));
+            RowMutation rm = new RowMutation("Keyspace1", key);
+            rm.add("Standard2", ByteBufferUtil.bytes("0"), ByteBufferUtil.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        CompactionManager.instance.performMaximal(store);
+
+        SSTableReader sstable = store.getSSTables().iterator().next();
+        int baseInterval = store.metadata.getIndexInterval();
+        long size = sstable.getIndexSummaryOffHeapSize();
+        // downsampled from the summary, upsampled from the index, then at an interval that isn't a multiple
+        for (int interval : new int[]{ baseInterval * 4, baseInterval, baseInterval * 3 / 2 })
+        {
+            sstable.resampleIndexSummary(interval);
+            Assert.assertEquals(interval, sstable.getIndexSummaryInterval());
+            if (interval > baseInterval)
+                Assert.assertTrue(sstable.getIndexSummaryOffHeapSize() < size);
+            for (int j = 0; j < 1000; j++)
+            {
+                DecoratedKey dk = Util.dk(String.valueOf(j));
+                Assert.assertNotNull(sstable.getPosition(dk, SSTableReader.Operator.EQ, false));
+            }
+        }
+    }
+
     @Test
     public void testSpannedIndexPositions() throws IOException, ExecutionException, InterruptedException
     {
@@ -303,6 +370,67 @@ public class SSTableReaderTest extends SchemaLoader
         assertTrue(foundScanner);
     }
 
+    @Test
+    public void testPrefetch() throws IOException
+    {
+        Keyspace keyspace = Keyspace.open("Keyspace1");
+        ColumnFamilyStore store = keyspace.getColumnFamilyStore("Standard1");
+        store.clearUnsafe();
+        store.disableAutoCompaction();
+        for (int j = 0; j < 10; j++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", ByteBufferUtil.bytes(String.valueOf(j)));
+            rm.add("Standard1", ByteBufferUtil.bytes("0"), ByteBufferUtil.EMPTY_BYTE_BUFFER, j);
+            rm.apply();
+        }
+        store.forceBlockingFlush();
+        SSTableReader sstable = store.getSSTables().iterator().next();
+
+        // from the index, from the key cache, and for a key the sstable doesn't hold
+        DecoratedKey key = Util.dk("5");
+        sstable.prefetch(key, 4096);
+        sstable.getPosition(key, SSTableReader.Operator.EQ);
+        assert sstable.getCachedPosition(key, false) != null;
+        sstable.prefetch(key, 4096);
+        sstable.prefetch(Util.dk("missing"), 4096);
+
+        // the mmap'd file opens its descriptor on the first hint only, and closes it on cleanup
+        String path = new File(sstable.getFilename()).getCanonicalPath();
+        int before = openDescriptors(path);
+        SegmentedFile mmapped = SegmentedFile.getBuilder(Config.DiskAccessMode.mmap).complete(path);
+        mmapped.willNeed(0, 4096);
+        mmapped.willNeed(0, 4096);
+        if (before >= 0)
+            Assert.assertEquals(before + 1, openDescriptors(path));
+        mmapped.cleanup();
+        if (before >= 0)
+            Assert.assertEquals(before, openDescriptors(path));
+
+        // the standard file hints through a pooled reader, given back to the pool
+        SegmentedFile standard = SegmentedFile.getBuilder(Config.DiskAccessMode.standard).complete(path);
+        standard.willNeed(0, 4096);
+        standard.cleanup();
+        if (before >= 0)
+            Assert.assertEquals(before, openDescriptors(path));
+    }
+
+    /**
+     * @return the number of descriptors of this process open on the file, or -1 where that isn't known
+     */
+    private static int openDescriptors(String path) throws IOException
+    {
+        File[] descriptors = new File("/proc/self/fd").listFiles();
+        if (descriptors == null)
+            return -1;
+        int count = 0;
+        for (File descriptor : descriptors)
+        {
+            if (path.equals(descriptor.getCanonicalPath()))
+                count++;
+        }
+        return count;
+    }
+
     private void assertIndexQueryWorks(ColumnFamilyStore indexedCFS) throws IOException
     {
         assert "Indexed1".equals(indexedCFS.name);
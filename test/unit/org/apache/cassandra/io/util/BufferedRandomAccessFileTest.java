@@ -222,6 +222,26 @@ public class BufferedRandomAccessFileTest
         r.close();
     }
 
+    @Test
+    public void testSequential() throws IOException
+    {
+        SequentialWriter w = createTempFile("brafSequential");
+        byte[] data = generateByteArray(RandomAccessReader.DEFAULT_BUFFER_SIZE * 4 + 20);
+        w.write(data);
+        w.close();
+
+        RandomAccessReader r = RandomAccessReader.open(w);
+        r.setSequential(RandomAccessReader.DEFAULT_BUFFER_SIZE * 2);
+
+        // reading ahead doesn't change what is read, in order or after seeking back
+        assertEquals(0, ByteBufferUtil.compare(r.readBytes(data.length), data));
+        assert r.isEOF();
+        r.seek(20);
+        assertEquals(0, ByteBufferUtil.compare(r.readBytes(data.length - 20), Arrays.copyOfRange(data, 20, data.length)));
+
+        r.close();
+    }
+
     @Test
     public void testSeek() throws Exception
     {
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.btree.BTree;
+import org.apache.cassandra.utils.btree.UpdateFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BTreeTest
+{
+    private static final Comparator<Integer> CMP = new Comparator<Integer>()
+    {
+        public int compare(Integer o1, Integer o2)
+        {
+            return Integer.compare(o1, o2);
+        }
+    };
+
+    private static final UpdateFunction<Integer> NO_OP = new UpdateFunction<Integer>()
+    {
+        public Integer apply(Integer insert)
+        {
+            return insert;
+        }
+
+        public Integer apply(Integer existing, Integer update)
+        {
+            return update;
+        }
+
+        public boolean abortEarly()
+        {
+            return false;
+        }
+    };
+
+    @Test
+    public void testBuild()
+    {
+        for (int size : new int[]{ 0, 1, 31, 32, 33, 1000, 100000 })
+        {
+            List<Integer> values = new ArrayList<Integer>(size);
+            for (int i = 0; i < size; i++)
+                values.add(i);
+            Object[] btree = BTree.build(values);
+            assertTrue(BTree.isWellFormed(btree, CMP));
+            assertEquals(size, BTree.size(btree));
+            assertEquals(size == 0, BTree.isEmpty(btree));
+            assertContents(values, BTree.<Integer>slice(btree, true));
+        }
+    }
+
+    @Test
+    public void testRandomUpdates()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++)
+        {
+            Object[] btree = BTree.empty();
+            NavigableSet<Integer> expected = new TreeSet<Integer>();
+            int batches = random.nextInt(100);
+            for (int b = 0; b < batches; b++)
+            {
+                TreeSet<Integer> batch = new TreeSet<Integer>();
+                int batchSize = 1 + random.nextInt(random.nextBoolean() ? 5 : 500);
+                for (int i = 0; i < batchSize; i++)
+                    batch.add(random.nextInt(10000));
+
+                Object[] previous = btree;
+                List<Integer> previousContents = new ArrayList<Integer>(expected);
+
+                btree = BTree.update(btree, CMP, batch, NO_OP);
+                expected.addAll(batch);
+
+                assertTrue(BTree.isWellFormed(btree, CMP));
+                assertEquals(expected.size(), BTree.size(btree));
+                assertContents(expected, BTree.<Integer>slice(btree, true));
+                // older versions are never modified
+                assertContents(previousContents, BTree.<Integer>slice(previous, true));
+            }
+
+            for (int i = 0; i < 100; i++)
+            {
+                Integer key = random.nextInt(10000);
+                Integer found = BTree.find(btree, CMP, key);
+                if (expected.contains(key))
+                    assertEquals(key, found);
+                else
+                    assertNull(found);
+            }
+        }
+    }
+
+    @Test
+    public void testSlices()
+    {
+        Random random = new Random(7);
+        NavigableSet<Integer> expected = new TreeSet<Integer>();
+        for (int i = 0; i < 5000; i++)
+            expected.add(random.nextInt(20000));
+        Object[] btree = BTree.build(expected);
+
+        assertContents(expected.descendingSet(), BTree.<Integer>slice(btree, false));
+        for (int i = 0; i < 500; i++)
+        {
+            int a = random.nextInt(21000) - 500;
+            int b = a + random.nextInt(2000);
+            Integer start = random.nextInt(10) == 0 ? null : a;
+            Integer end = random.nextInt(10) == 0 ? null : b;
+
+            NavigableSet<Integer> slice = expected;
+            if (start != null)
+                slice = slice.tailSet(start, true);
+            if (end != null)
+                slice = slice.headSet(end, true);
+
+            assertContents(slice, BTree.slice(btree, CMP, start, end, true));
+            assertContents(slice.descendingSet(), BTree.slice(btree, CMP, start, end, false));
+        }
+
+        // empty slices
+        assertFalse(BTree.slice(btree, CMP, 100000, null, true).hasNext());
+        assertFalse(BTree.slice(btree, CMP, null, -1, false).hasNext());
+        assertFalse(BTree.slice(BTree.empty(), CMP, 0, 10, true).hasNext());
+    }
+
+    @Test
+    public void testUpdateFunction()
+    {
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i += 2)
+            values.add(i);
+        Object[] btree = BTree.build(values);
+
+        final Integer replacement = new Integer(10);
+        UpdateFunction<Integer> replacing = new UpdateFunction<Integer>()
+        {
+            public Integer apply(Integer insert)
+            {
+                return insert;
+            }
+
+            public Integer apply(Integer existing, Integer update)
+            {
+                return replacement;
+            }
+
+            public boolean abortEarly()
+            {
+                return false;
+            }
+        };
+        btree = BTree.update(btree, CMP, Collections.singletonList(10), replacing);
+        assertSame(replacement, BTree.find(btree, CMP, 10));
+
+        UpdateFunction<Integer> aborting = new UpdateFunction<Integer>()
+        {
+            public Integer apply(Integer insert)
+            {
+                return insert;
+            }
+
+            public Integer apply(Integer existing, Integer update)
+            {
+                return update;
+            }
+
+            public boolean abortEarly()
+            {
+                return true;
+            }
+        };
+        assertNull(BTree.update(btree, CMP, Collections.singletonList(11), aborting));
+    }
+
+    private static void assertContents(Iterable<Integer> expected, Iterator<Integer> actual)
+    {
+        for (Integer value : expected)
+        {
+            assertTrue(actual.hasNext());
+            assertEquals(value, actual.next());
+        }
+        assertFalse(actual.hasNext());
+    }
+}
@@ -146,6 +146,38 @@ public class BloomFilterTest
         testManyHashes(FilterTestHelper.randomKeys());
     }
 
+    @Test
+    public void testBlockedFalsePositives()
+    {
+        IFilter blocked = FilterFactory.getFilter(10000L, FilterTestHelper.MAX_FAILURE_RATE, FilterFactory.Type.BLOCKED, true);
+        FilterTestHelper.testFalsePositives(blocked, FilterTestHelper.intKeys(), FilterTestHelper.randomKeys2());
+        blocked.clear();
+        FilterTestHelper.testFalsePositives(blocked, FilterTestHelper.randomKeys(), FilterTestHelper.randomKeys2());
+    }
+
+    @Test
+    public void testBlockedSerialize() throws IOException
+    {
+        IFilter blocked = FilterFactory.getFilter(10000L, FilterTestHelper.MAX_FAILURE_RATE, FilterFactory.Type.BLOCKED, true);
+        DataOutputBuffer out = new DataOutputBuffer();
+        FilterFactory.serialize(blocked, out);
+        Assert.assertEquals(blocked.serializedSize(), out.getLength());
+
+        Assert.assertTrue(BloomFilterTest.testSerialize(blocked) instanceof BlockedBloomFilter);
+    }
+
+    @Test
+    public void testBlockedSpec()
+    {
+        for (double fpChance : new double[]{ 0.1, 0.01, 0.001 })
+        {
+            BloomCalculations.BloomSpecification spec = BloomCalculations.computeBloomSpec(BloomCalculations.probs.length - 1, fpChance);
+            BloomCalculations.BloomSpecification blocked = BlockedBloomFilter.spec(spec);
+            Assert.assertTrue(blocked.bucketsPerElement > spec.bucketsPerElement);
+            Assert.assertTrue(BlockedBloomFilter.falsePositiveChance(blocked.bucketsPerElement, blocked.K) <= fpChance);
+        }
+    }
+
     @Test(expected = UnsupportedOperationException.class)
     public void testOffHeapException()
     {
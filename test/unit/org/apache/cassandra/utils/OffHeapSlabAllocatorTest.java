@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapSlabAllocatorTest
+{
+    @Test
+    public void testClone()
+    {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator();
+        Random random = new Random(42);
+        List<ByteBuffer> originals = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> clones = new ArrayList<ByteBuffer>();
+
+        // mix of small values sharing regions and large ones getting their own
+        for (int size : new int[]{ 0, 1, 10, 1000, 100 * 1024, 200 * 1024, 1024 * 1024 })
+        {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            ByteBuffer original = ByteBuffer.wrap(bytes);
+            ByteBuffer clone = allocator.clone(original);
+            assertEquals(size, clone.remaining());
+            if (size > 0)
+                assertTrue(clone.isDirect());
+            originals.add(original);
+            clones.add(clone);
+        }
+
+        // clones must not overlap each other
+        for (int i = 0; i < originals.size(); i++)
+            assertEquals(originals.get(i), clones.get(i));
+
+        assertTrue(allocator.isOffHeap());
+        assertTrue(allocator.getAllocatedSize() >= 1024 * 1024 + 200 * 1024);
+
+        allocator.free();
+        assertEquals(0, allocator.getAllocatedSize());
+    }
+
+    @Test
+    public void testRegionsAreFilled()
+    {
+        OffHeapSlabAllocator allocator = new OffHeapSlabAllocator();
+        for (int i = 0; i < 1024; i++)
+            allocator.allocate(1024);
+        // 1MB worth of small allocations fits in a single region
+        assertEquals(1024 * 1024, allocator.getAllocatedSize());
+
+        allocator.allocate(1);
+        assertEquals(2 * 1024 * 1024, allocator.getAllocatedSize());
+        allocator.free();
+    }
+
+    @Test
+    public void testAccounting()
+    {
+        SlabAllocator slab = new SlabAllocator();
+        slab.allocate(10);
+        // the whole region is claimed
+        assertEquals(1024 * 1024, slab.getAllocatedSize());
+        slab.addOverhead(100);
+        assertEquals(1024 * 1024 + 100, slab.getOwnedSize());
+        assertEquals(1024 * 1024 + 100, slab.getOnHeapSize());
+        assertEquals(0, slab.getOffHeapSize());
+
+        OffHeapSlabAllocator offHeap = new OffHeapSlabAllocator();
+        offHeap.allocate(10);
+        offHeap.addOverhead(100);
+        // the overhead is on the heap whatever the allocator
+        assertEquals(100, offHeap.getOnHeapSize());
+        assertEquals(1024 * 1024, offHeap.getOffHeapSize());
+        offHeap.free();
+
+        HeapAllocator heap = new HeapAllocator();
+        heap.allocate(10);
+        assertEquals(ObjectSizes.getArraySize(10, 1), heap.getAllocatedSize());
+
+        // nobody owns the allocations of the shared instance
+        HeapAllocator.instance.allocate(10);
+        assertEquals(0, HeapAllocator.instance.getAllocatedSize());
+    }
+
+    @Test
+    public void testHeapAllocatorIsNotOffHeap()
+    {
+        assertFalse(HeapAllocator.instance.isOffHeap());
+        assertFalse(new SlabAllocator().isOffHeap());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.concurrent.OpOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OpOrderTest
+{
+    @Test
+    public void testBarrierOrdering() throws InterruptedException
+    {
+        OpOrder order = new OpOrder();
+        OpOrder.Group before = order.start();
+
+        OpOrder.Barrier barrier = order.newBarrier();
+        // until it is issued, every operation is before the barrier
+        assertTrue(barrier.isAfter(before));
+        barrier.issue();
+
+        OpOrder.Group after = order.start();
+        assertTrue(barrier.isAfter(before));
+        assertFalse(barrier.isAfter(after));
+
+        // the barrier doesn't wait for operations started after it
+        assertFalse(before.isDone());
+        before.close();
+        barrier.await();
+        assertTrue(before.isDone());
+        assertFalse(after.isDone());
+        after.close();
+    }
+
+    @Test
+    public void testAwaitWaitsForEarlierGroups() throws InterruptedException
+    {
+        OpOrder order = new OpOrder();
+        OpOrder.Group first = order.start();
+        order.newBarrier().issue();
+
+        OpOrder.Group second = order.start();
+        OpOrder.Barrier barrier = order.newBarrier();
+        barrier.issue();
+
+        // the second group is finished, but is only done once the first one is as well
+        second.close();
+        assertFalse(second.isDone());
+        first.close();
+        barrier.await();
+        assertTrue(second.isDone());
+    }
+
+    @Test
+    public void testConcurrentOperations() throws InterruptedException
+    {
+        final OpOrder order = new OpOrder();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final int threads = 4;
+        final CountDownLatch finished = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    while (!stop.get())
+                    {
+                        OpOrder.Group opGroup = order.start();
+                        running.incrementAndGet();
+                        running.decrementAndGet();
+                        opGroup.close();
+                    }
+                    finished.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < 1000; i++)
+        {
+            OpOrder.Barrier barrier = order.newBarrier();
+            barrier.issue();
+            barrier.await();
+        }
+        stop.set(true);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(0, running.get());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.cassandra.utils;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamSummaryTest
+{
+    @Test
+    public void testExactWithinCapacity()
+    {
+        StreamSummary<String> summary = new StreamSummary<String>(3);
+        summary.offer("a");
+        summary.offer("b", 3);
+        summary.offer("a");
+        summary.offer("c");
+
+        List<StreamSummary.Counter<String>> top = summary.topK(2);
+        assertEquals(2, top.size());
+        assertEquals("b", top.get(0).item);
+        assertEquals(3, top.get(0).getCount());
+        assertEquals("a", top.get(1).item);
+        assertEquals(2, top.get(1).getCount());
+        assertEquals(0, top.get(1).getError());
+        assertEquals(6, summary.offered());
+    }
+
+    @Test
+    public void testReplacesLeastFrequent()
+    {
+        StreamSummary<String> summary = new StreamSummary<String>(2);
+        summary.offer("a", 5);
+        summary.offer("b", 2);
+        summary.offer("c");
+
+        // c replaced b, and inherited its count as possible error
+        assertEquals(2, summary.size());
+        List<StreamSummary.Counter<String>> top = summary.topK(10);
+        assertEquals("a", top.get(0).item);
+        assertEquals("c", top.get(1).item);
+        assertEquals(3, top.get(1).getCount());
+        assertEquals(2, top.get(1).getError());
+    }
+
+    @Test
+    public void testFindsFrequentItems()
+    {
+        // 3 items make up half of the stream, and the other half is spread over 10000 items
+        StreamSummary<Integer> summary = new StreamSummary<Integer>(100);
+        Random random = new Random(42);
+        long[] actual = new long[3];
+        for (int i = 0; i < 100000; i++)
+        {
+            int item = random.nextBoolean() ? random.nextInt(3) : 3 + random.nextInt(10000);
+            if (item < 3)
+                actual[item]++;
+            summary.offer(item);
+        }
+
+        List<StreamSummary.Counter<Integer>> top = summary.topK(3);
+        assertEquals(3, top.size());
+        for (StreamSummary.Counter<Integer> counter : top)
+        {
+            assertTrue(counter.item < 3);
+            // counts are overestimated by at most the error
+            assertTrue(counter.getCount() >= actual[counter.item]);
+            assertTrue(counter.getCount() - counter.getError() <= actual[counter.item]);
+        }
+    }
+}